@@ -0,0 +1,254 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.Arrays;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Binary volume with one bit per voxel. Compared with an 8-bit binary image it needs 8 times
+ * less memory (32 times less than a 32-bit image) and the logical operations work on 64 voxels
+ * at a time.
+ *
+ * Each plane is packed into its own long words, voxel index y * width + x of plane z is bit
+ * index % 64 of word index / 64. Bits behind the last voxel of a plane are always 0, which
+ * allows counting set voxels with {@link Long#bitCount(long)} on whole words.
+ * Instances are not thread safe, different planes can be written from different threads.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class BitMask {
+
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int planeSize;
+	private final long[][] planes;
+
+
+	public BitMask(int width, int height, int depth) {
+		if (width <= 0 || height <= 0 || depth <= 0) {
+			throw new IllegalArgumentException("Invalid mask size " + width + " x " + height + " x " + depth);
+		}
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.planeSize = width * height;
+		this.planes = new long[depth][(planeSize + 63) >>> 6];
+	}
+
+
+	/**
+	 * @return mask with all non-zero pixels of the stack set
+	 */
+	public static BitMask fromStack(ImageStack stack) {
+		BitMask mask = new BitMask(stack.getWidth(), stack.getHeight(), stack.getSize());
+		for (int z = 0; z < mask.depth; z++) {
+			ImageProcessor processor = stack.getProcessor(z + 1);
+			if (processor.getPixels() instanceof byte[]) {
+				mask.setPlane(z, (byte[]) processor.getPixels());
+			} else {
+				long[] words = mask.planes[z];
+				for (int i = 0; i < mask.planeSize; i++) {
+					if (processor.getf(i) != 0) {
+						words[i >>> 6] |= 1L << i;
+					}
+				}
+			}
+		}
+		return mask;
+	}
+
+
+	/**
+	 * Sets the voxels of plane z where the pixels are not 0 and clears all others
+	 */
+	public void setPlane(int z, byte[] pixels) {
+		long[] words = planes[z];
+		for (int w = 0; w < words.length; w++) {
+			int start = w << 6;
+			int end = Math.min(start + 64, planeSize);
+			long word = 0;
+			for (int i = start; i < end; i++) {
+				if (pixels[i] != 0) {
+					word |= 1L << i;
+				}
+			}
+			words[w] = word;
+		}
+	}
+
+
+	/**
+	 * Writes plane z as foreground or 0 into pixels
+	 */
+	public void getPlane(int z, byte[] pixels, byte foreground) {
+		long[] words = planes[z];
+		for (int w = 0; w < words.length; w++) {
+			long word = words[w];
+			int start = w << 6;
+			int end = Math.min(start + 64, planeSize);
+			if (word == 0) {
+				Arrays.fill(pixels, start, end, (byte) 0);
+				continue;
+			}
+			for (int i = start; i < end; i++) {
+				pixels[i] = (word & (1L << i)) != 0 ? foreground : 0;
+			}
+		}
+	}
+
+
+	/**
+	 * @return 8-bit binary stack with the set voxels as 255
+	 */
+	public ImageStack toStack() {
+		return toStack(255);
+	}
+
+	/**
+	 * @return 8-bit stack with the set voxels as foreground
+	 */
+	public ImageStack toStack(int foreground) {
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			byte[] pixels = new byte[planeSize];
+			getPlane(z, pixels, (byte) foreground);
+			stack.addSlice(new ByteProcessor(width, height, pixels));
+		}
+		return stack;
+	}
+
+
+	public boolean get(int x, int y, int z) {
+		return get(z, y * width + x);
+	}
+
+	public boolean get(int z, int index) {
+		return (planes[z][index >>> 6] & (1L << index)) != 0;
+	}
+
+	public void set(int x, int y, int z, boolean value) {
+		set(z, y * width + x, value);
+	}
+
+	public void set(int z, int index, boolean value) {
+		if (value) {
+			planes[z][index >>> 6] |= 1L << index;
+		} else {
+			planes[z][index >>> 6] &= ~(1L << index);
+		}
+	}
+
+
+	public BitMask and(BitMask other) {
+		checkSize(other);
+		for (int z = 0; z < depth; z++) {
+			long[] words = planes[z];
+			long[] otherWords = other.planes[z];
+			for (int w = 0; w < words.length; w++) {
+				words[w] &= otherWords[w];
+			}
+		}
+		return this;
+	}
+
+	public BitMask or(BitMask other) {
+		checkSize(other);
+		for (int z = 0; z < depth; z++) {
+			long[] words = planes[z];
+			long[] otherWords = other.planes[z];
+			for (int w = 0; w < words.length; w++) {
+				words[w] |= otherWords[w];
+			}
+		}
+		return this;
+	}
+
+	public BitMask xor(BitMask other) {
+		checkSize(other);
+		for (int z = 0; z < depth; z++) {
+			long[] words = planes[z];
+			long[] otherWords = other.planes[z];
+			for (int w = 0; w < words.length; w++) {
+				words[w] ^= otherWords[w];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Clears all voxels set in the other mask
+	 */
+	public BitMask andNot(BitMask other) {
+		checkSize(other);
+		for (int z = 0; z < depth; z++) {
+			long[] words = planes[z];
+			long[] otherWords = other.planes[z];
+			for (int w = 0; w < words.length; w++) {
+				words[w] &= ~otherWords[w];
+			}
+		}
+		return this;
+	}
+
+	public BitMask not() {
+		long lastWordMask = planeSize % 64 == 0 ? -1L : (1L << planeSize) - 1;
+		for (int z = 0; z < depth; z++) {
+			long[] words = planes[z];
+			for (int w = 0; w < words.length; w++) {
+				words[w] = ~words[w];
+			}
+			words[words.length - 1] &= lastWordMask;
+		}
+		return this;
+	}
+
+	public BitMask copy() {
+		BitMask copy = new BitMask(width, height, depth);
+		for (int z = 0; z < depth; z++) {
+			System.arraycopy(planes[z], 0, copy.planes[z], 0, planes[z].length);
+		}
+		return copy;
+	}
+
+
+	/**
+	 * @return number of set voxels
+	 */
+	public long cardinality() {
+		long count = 0;
+		for (long[] words : planes) {
+			for (long word : words) {
+				count += Long.bitCount(word);
+			}
+		}
+		return count;
+	}
+
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public long[] getDimensions() {
+		return depth > 1 ? new long[] {width, height, depth} : new long[] {width, height};
+	}
+
+
+	private void checkSize(BitMask other) {
+		if (other.width != width || other.height != height || other.depth != depth) {
+			throw new IllegalArgumentException("Mask sizes do not match");
+		}
+	}
+}
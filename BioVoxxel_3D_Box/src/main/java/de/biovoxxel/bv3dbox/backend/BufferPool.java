@@ -0,0 +1,166 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the storage of closed buffers to hand it out again for the next buffer of
+ * the same dimensions and type. On-the-fly previews create and close the same set
+ * of intermediate buffers for every parameter change, which makes most allocations
+ * after the first preview hits in this pool.
+ *
+ * Idle storage is limited by a byte capacity. If it is exceeded the least recently
+ * released storage is handed to the releaser (e.g. closing the ClearCLBuffer).
+ * A capacity of 0 disables pooling.
+ *
+ * Every {@link #drain()} starts a new generation. Storage acquired in an older
+ * generation has been released together with its backend (clear()) and is not taken
+ * back by {@link #recycle(long[], BufferType, Object, long, long)}.
+ *
+ * @param <T>	backend specific storage, e.g. ClearCLBuffer or the plane arrays of a CPU buffer
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BufferPool<T> {
+
+	/**
+	 * Default capacity if nothing else is set in the BioVoxxel 3D Box settings
+	 */
+	public static final long DEFAULT_CAPACITY_MB = 512;
+
+	private final Consumer<T> releaser;
+	private final LinkedList<Entry<T>> idle = new LinkedList<Entry<T>>();
+
+	private long capacity;
+	private long idleBytes;
+	private long generation;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param capacity	maximum size of all idle storage in bytes
+	 * @param releaser	frees storage which is evicted or drained
+	 */
+	public BufferPool(long capacity, Consumer<T> releaser) {
+		this.capacity = Math.max(0, capacity);
+		this.releaser = releaser;
+	}
+
+
+	/**
+	 * @return the most recently released storage of exactly these dimensions and type or null if there is none
+	 */
+	public synchronized T acquire(long[] dimensions, BufferType type) {
+		Iterator<Entry<T>> iterator = idle.descendingIterator();
+		while (iterator.hasNext()) {
+			Entry<T> entry = iterator.next();
+			if (entry.type == type && Arrays.equals(entry.dimensions, dimensions)) {
+				iterator.remove();
+				idleBytes -= entry.sizeInBytes;
+				hits++;
+				return entry.storage;
+			}
+		}
+		misses++;
+		return null;
+	}
+
+
+	/**
+	 * Takes back the storage of a closed buffer and evicts the least recently
+	 * released storage until the idle size fits into the capacity again.
+	 *
+	 * @param generation	the {@link #getGeneration()} when the storage was acquired or allocated
+	 * @return false if the storage is not pooled (too large or from a drained generation), the caller still owns it then
+	 */
+	public synchronized boolean recycle(long[] dimensions, BufferType type, T storage, long sizeInBytes, long generation) {
+		if (generation != this.generation || sizeInBytes > capacity) {
+			return false;
+		}
+		idle.addLast(new Entry<T>(dimensions.clone(), type, storage, sizeInBytes));
+		idleBytes += sizeInBytes;
+		evict(capacity);
+		return true;
+	}
+
+
+	/**
+	 * Releases all idle storage and starts a new generation
+	 */
+	public synchronized void drain() {
+		evict(0);
+		generation++;
+	}
+
+
+	private void evict(long limit) {
+		while (idleBytes > limit && !idle.isEmpty()) {
+			Entry<T> entry = idle.removeFirst();
+			idleBytes -= entry.sizeInBytes;
+			releaser.accept(entry.storage);
+		}
+	}
+
+
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity	maximum size of all idle storage in bytes, 0 disables pooling
+	 */
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = Math.max(0, capacity);
+		evict(this.capacity);
+	}
+
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the size of the storage waiting to be reused in bytes
+	 */
+	public synchronized long getIdleBytes() {
+		return idleBytes;
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * @return the number of {@link #acquire(long[], BufferType)} calls which could reuse storage
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "BufferPool[" + idle.size() + " idle, " + idleBytes + " / " + capacity + " bytes, " + hits + " hits, " + misses + " misses]";
+	}
+
+
+	private static class Entry<T> {
+
+		final long[] dimensions;
+		final BufferType type;
+		final T storage;
+		final long sizeInBytes;
+
+		Entry(long[] dimensions, BufferType type, T storage, long sizeInBytes) {
+			this.dimensions = dimensions;
+			this.type = type;
+			this.storage = storage;
+			this.sizeInBytes = sizeInBytes;
+		}
+	}
+}
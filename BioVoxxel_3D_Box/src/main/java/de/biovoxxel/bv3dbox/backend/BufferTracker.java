@@ -0,0 +1,462 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.log.LogLevel;
+import org.scijava.prefs.DefaultPrefService;
+
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable.ColumnType;
+
+/**
+ * Bookkeeping of all buffers a backend hands out which are not closed yet.
+ * Every allocation is recorded with its size and the plugin run it belongs to. Capturing
+ * the stack it was created from, so that buffers which are never closed can be traced
+ * back to the code creating them, is costly and only done with the debug log level or
+ * the system property "bv3dbox.trackstacks" set to true, see {@link #setRecordingStacks(boolean)}.
+ *
+ * A plugin wraps its processing into a {@link Run}
+ * <pre>
+ * BufferTracker.Run run = backend.getBufferTracker().startRun("Label Splitter");
+ * try {
+ *     ...
+ * } finally {
+ *     run.close();
+ * }
+ * </pre>
+ * which collects the allocated, peak and unreleased bytes of everything created while
+ * it is open. Runs can be nested, allocations belong to the innermost one but count for all open runs.
+ * The last {@value #RUN_HISTORY} finished runs are kept for {@link #getRunTable()}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BufferTracker {
+
+	public static final int RUN_HISTORY = 100;
+
+	public static final String CREATION_STACK_SYSTEM_PROPERTY = "bv3dbox.trackstacks";
+
+	private static final double MB = 1024d * 1024d;
+
+	private final Map<ComputeBuffer, Allocation> live = new IdentityHashMap<ComputeBuffer, Allocation>();
+	private final List<Run> openRuns = new ArrayList<Run>();
+	private final LinkedList<Run> finishedRuns = new LinkedList<Run>();
+
+	private long liveBytes;
+	private long peakBytes;
+	private long sequence;
+	private volatile boolean recordingStacks = isRecordingStacksByDefault();
+
+
+	/**
+	 * @return true if the system property is set to true or the log level in the settings is debug or higher
+	 */
+	private static boolean isRecordingStacksByDefault() {
+		String property = System.getProperty(CREATION_STACK_SYSTEM_PROPERTY);
+		if (property != null) {
+			return Boolean.parseBoolean(property.trim());
+		}
+		return new DefaultPrefService().getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO) >= LogLevel.DEBUG;
+	}
+
+	/**
+	 * @param recordingStacks	capture the stack of each following allocation for {@link Allocation#getCaller()}
+	 */
+	public void setRecordingStacks(boolean recordingStacks) {
+		this.recordingStacks = recordingStacks;
+	}
+
+	public boolean isRecordingStacks() {
+		return recordingStacks;
+	}
+
+
+	/**
+	 * Starts collecting the allocations of a plugin run until {@link Run#close()}
+	 *
+	 * @param owner	name of the plugin or processing step
+	 */
+	public synchronized Run startRun(String owner) {
+		Run run = new Run(owner);
+		openRuns.add(run);
+		return run;
+	}
+
+
+	/**
+	 * Called by the backend for every buffer it hands out
+	 */
+	public synchronized void allocated(ComputeBuffer buffer) {
+		String owner = openRuns.isEmpty() ? "" : openRuns.get(openRuns.size() - 1).owner;
+		Allocation allocation = new Allocation(++sequence, owner, buffer, recordingStacks ? new Throwable().getStackTrace() : null);
+		live.put(buffer, allocation);
+		liveBytes += allocation.sizeInBytes;
+		peakBytes = Math.max(peakBytes, liveBytes);
+		for (Run run : openRuns) {
+			run.allocated(buffer, allocation);
+		}
+	}
+
+
+	/**
+	 * Called by the backend when a buffer is closed
+	 */
+	public synchronized void released(ComputeBuffer buffer) {
+		Allocation allocation = live.remove(buffer);
+		if (allocation == null) {
+			return;
+		}
+		liveBytes -= allocation.sizeInBytes;
+		for (Run run : openRuns) {
+			run.released(buffer, allocation);
+		}
+	}
+
+
+	/**
+	 * Called by the backend if it released all its buffers at once (clear()) without them being closed
+	 */
+	public synchronized void cleared() {
+		for (Map.Entry<ComputeBuffer, Allocation> entry : live.entrySet()) {
+			for (Run run : openRuns) {
+				run.released(entry.getKey(), entry.getValue());
+			}
+		}
+		live.clear();
+		liveBytes = 0;
+	}
+
+
+	private synchronized void finished(Run run) {
+		if (openRuns.remove(run)) {
+			addFinishedRun(run);
+		}
+	}
+
+	private void addFinishedRun(Run run) {
+		finishedRuns.addLast(run);
+		if (finishedRuns.size() > RUN_HISTORY) {
+			finishedRuns.removeFirst();
+		}
+	}
+
+
+	/**
+	 * Appends the finished runs of another tracker to the history of this one, used to keep the runs of a closed session
+	 */
+	public void addFinishedRuns(BufferTracker other) {
+		List<Run> runs = other.getFinishedRuns();
+		synchronized (this) {
+			for (Run run : runs) {
+				addFinishedRun(run);
+			}
+		}
+	}
+
+
+	/**
+	 * @return the bytes of all buffers which are not closed yet
+	 */
+	public synchronized long getLiveBytes() {
+		return liveBytes;
+	}
+
+	public synchronized int getLiveCount() {
+		return live.size();
+	}
+
+	/**
+	 * @return the highest number of live bytes since the backend was created or {@link #resetPeak()}
+	 */
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	public synchronized void resetPeak() {
+		peakBytes = liveBytes;
+	}
+
+	/**
+	 * @return all buffers which are not closed yet ordered by creation
+	 */
+	public synchronized List<Allocation> getLiveAllocations() {
+		return sorted(live.values());
+	}
+
+	public synchronized List<Run> getFinishedRuns() {
+		return new ArrayList<Run>(finishedRuns);
+	}
+
+
+	/**
+	 * @return one row per finished run with its allocated, peak and unreleased memory
+	 */
+	public ColumnarResultsTable getRunTable() {
+		return toRunTable(getFinishedRuns());
+	}
+
+	/**
+	 * @return one row per run with its allocated, peak and unreleased memory
+	 */
+	public static ColumnarResultsTable toRunTable(List<Run> runs) {
+		ColumnarResultsTable table = new ColumnarResultsTable(runs.size());
+		table.addColumn("Run", ColumnType.STRING);
+		table.addColumn("Buffers", ColumnType.INT);
+		table.addColumn("Allocated (MB)", ColumnType.DOUBLE);
+		table.addColumn("Peak (MB)", ColumnType.DOUBLE);
+		table.addColumn("Unreleased", ColumnType.INT);
+		table.addColumn("Unreleased (MB)", ColumnType.DOUBLE);
+		for (Run run : runs) {
+			int row = table.addRow();
+			table.setValue("Run", row, run.owner);
+			table.setValue("Buffers", row, run.getAllocatedCount());
+			table.setValue("Allocated (MB)", row, run.getAllocatedBytes() / MB);
+			table.setValue("Peak (MB)", row, run.getPeakBytes() / MB);
+			table.setValue("Unreleased", row, run.getUnreleasedCount());
+			table.setValue("Unreleased (MB)", row, run.getLiveBytes() / MB);
+		}
+		return table;
+	}
+
+
+	/**
+	 * @return one row per buffer with its owner, size and the code location it was created at if the stack was recorded
+	 */
+	public static ColumnarResultsTable toTable(List<Allocation> allocations) {
+		ColumnarResultsTable table = new ColumnarResultsTable(allocations.size());
+		table.addColumn("Owner", ColumnType.STRING);
+		table.addColumn("Buffer", ColumnType.STRING);
+		table.addColumn("Dimensions", ColumnType.STRING);
+		table.addColumn("Type", ColumnType.STRING);
+		table.addColumn("Size (MB)", ColumnType.DOUBLE);
+		table.addColumn("Created at", ColumnType.STRING);
+		for (Allocation allocation : allocations) {
+			int row = table.addRow();
+			table.setValue("Owner", row, allocation.owner);
+			table.setValue("Buffer", row, allocation.getName());
+			table.setValue("Dimensions", row, Arrays.toString(allocation.dimensions));
+			table.setValue("Type", row, allocation.type.toString());
+			table.setValue("Size (MB)", row, allocation.sizeInBytes / MB);
+			StackTraceElement caller = allocation.getCaller();
+			table.setValue("Created at", row, caller == null ? "" : caller.toString());
+		}
+		return table;
+	}
+
+
+	private static List<Allocation> sorted(Iterable<Allocation> allocations) {
+		List<Allocation> list = new ArrayList<Allocation>();
+		for (Allocation allocation : allocations) {
+			list.add(allocation);
+		}
+		list.sort((a, b) -> Long.compare(a.sequence, b.sequence));
+		return list;
+	}
+
+
+
+	/**
+	 * A buffer handed out by the backend
+	 */
+	public static class Allocation {
+
+		private final long sequence;
+		private final String owner;
+		private final ComputeBuffer buffer;
+		private final long[] dimensions;
+		private final BufferType type;
+		private final long sizeInBytes;
+		private final StackTraceElement[] creationStack;
+
+		/**
+		 * @param creationStack	null if stacks are not recorded
+		 */
+		Allocation(long sequence, String owner, ComputeBuffer buffer, StackTraceElement[] creationStack) {
+			this.sequence = sequence;
+			this.owner = owner;
+			this.buffer = buffer;
+			this.dimensions = buffer.getDimensions();
+			this.type = buffer.getType();
+			this.sizeInBytes = buffer.getSizeInBytes();
+			this.creationStack = creationStack;
+		}
+
+		/**
+		 * @return the run which was open when the buffer was created or an empty String
+		 */
+		public String getOwner() {
+			return owner;
+		}
+
+		/**
+		 * @return the current buffer name, which is often only set after creation
+		 */
+		public String getName() {
+			String name = buffer.getName();
+			return name == null ? "" : name;
+		}
+
+		public long[] getDimensions() {
+			return dimensions.clone();
+		}
+
+		public BufferType getType() {
+			return type;
+		}
+
+		public long getSizeInBytes() {
+			return sizeInBytes;
+		}
+
+		/**
+		 * @return the stack at creation without the frames of the tracker and the backend implementations,
+		 * empty if stacks were not recorded
+		 */
+		public StackTraceElement[] getCreationStack() {
+			if (creationStack == null) {
+				return new StackTraceElement[0];
+			}
+			int first = 0;
+			while (first < creationStack.length - 1 && isBackendFrame(creationStack[first])) {
+				first++;
+			}
+			return Arrays.copyOfRange(creationStack, first, creationStack.length);
+		}
+
+		private static boolean isBackendFrame(StackTraceElement frame) {
+			String className = frame.getClassName();
+			String backendPackage = BufferTracker.class.getPackage().getName() + ".";
+			return className.equals(BufferTracker.class.getName()) || className.startsWith(BufferTracker.class.getName() + "$") || (className.startsWith(backendPackage) && className.indexOf('.', backendPackage.length()) > 0);
+		}
+
+		/**
+		 * @return the first frame outside the tracker and the backend implementations, i.e. the code which created the buffer,
+		 * or null if stacks were not recorded
+		 */
+		public StackTraceElement getCaller() {
+			StackTraceElement[] stack = getCreationStack();
+			return stack.length == 0 ? null : stack[0];
+		}
+
+		@Override
+		public String toString() {
+			StackTraceElement caller = getCaller();
+			return owner + ": " + getName() + " " + Arrays.toString(dimensions) + " " + type + ", " + sizeInBytes + " bytes" + (caller == null ? "" : ", created at " + caller);
+		}
+	}
+
+
+
+	/**
+	 * Memory usage of everything allocated while the run is open
+	 */
+	public class Run implements AutoCloseable {
+
+		private final String owner;
+		private final Map<ComputeBuffer, Allocation> unreleased = new IdentityHashMap<ComputeBuffer, Allocation>();
+		private int allocatedCount;
+		private long allocatedBytes;
+		private long runLiveBytes;
+		private long runPeakBytes;
+		private boolean open = true;
+
+		private Run(String owner) {
+			this.owner = owner;
+		}
+
+		private void allocated(ComputeBuffer buffer, Allocation allocation) {
+			unreleased.put(buffer, allocation);
+			allocatedCount++;
+			allocatedBytes += allocation.sizeInBytes;
+			runLiveBytes += allocation.sizeInBytes;
+			runPeakBytes = Math.max(runPeakBytes, runLiveBytes);
+		}
+
+		private void released(ComputeBuffer buffer, Allocation allocation) {
+			if (unreleased.remove(buffer) != null) {
+				runLiveBytes -= allocation.sizeInBytes;
+			}
+		}
+
+		public String getOwner() {
+			return owner;
+		}
+
+		public boolean isOpen() {
+			synchronized (BufferTracker.this) {
+				return open;
+			}
+		}
+
+		public int getAllocatedCount() {
+			synchronized (BufferTracker.this) {
+				return allocatedCount;
+			}
+		}
+
+		public long getAllocatedBytes() {
+			synchronized (BufferTracker.this) {
+				return allocatedBytes;
+			}
+		}
+
+		/**
+		 * @return the bytes allocated during the run which are not closed yet
+		 */
+		public long getLiveBytes() {
+			synchronized (BufferTracker.this) {
+				return runLiveBytes;
+			}
+		}
+
+		/**
+		 * @return the highest number of bytes allocated during the run and open at the same time
+		 */
+		public long getPeakBytes() {
+			synchronized (BufferTracker.this) {
+				return runPeakBytes;
+			}
+		}
+
+		public int getUnreleasedCount() {
+			synchronized (BufferTracker.this) {
+				return unreleased.size();
+			}
+		}
+
+		/**
+		 * @return the buffers allocated during the run which are not closed, including
+		 * the results handed over to the caller, ordered by creation
+		 */
+		public List<Allocation> getUnreleased() {
+			synchronized (BufferTracker.this) {
+				return sorted(unreleased.values());
+			}
+		}
+
+		/**
+		 * Stops collecting, the buffers still open at this moment remain the unreleased ones of the run
+		 */
+		@Override
+		public void close() {
+			synchronized (BufferTracker.this) {
+				if (open) {
+					open = false;
+					finished(this);
+				}
+			}
+		}
+
+		@Override
+		public String toString() {
+			return owner + ": " + getAllocatedCount() + " buffers, peak " + getPeakBytes() + " bytes, " + getUnreleasedCount() + " unreleased (" + getLiveBytes() + " bytes)";
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package de.biovoxxel.bv3dbox.backend;
+
+/**
+ * Pixel types supported by all {@link ComputeBackend} implementations.
+ * Writing a value into an integer buffer saturates at the type limits.
+ *
+ * @author BioVoxxel
+ *
+ */
+public enum BufferType {
+
+	UNSIGNED_BYTE(1, 0d, 255d),
+	UNSIGNED_SHORT(2, 0d, 65535d),
+	UNSIGNED_INT(4, 0d, 4294967295d),
+	FLOAT(4, -Float.MAX_VALUE, Float.MAX_VALUE);
+
+	public final int bytesPerPixel;
+	public final double minValue;
+	public final double maxValue;
+
+	BufferType(int bytesPerPixel, double minValue, double maxValue) {
+		this.bytesPerPixel = bytesPerPixel;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+	}
+
+
+	/**
+	 * Type of a buffer pushed from an image with the given ImageJ bit depth.
+	 * RGB images are pushed as FLOAT gray values.
+	 */
+	public static BufferType fromBitDepth(int bitDepth) {
+		switch (bitDepth) {
+		case 8:
+			return UNSIGNED_BYTE;
+		case 16:
+			return UNSIGNED_SHORT;
+		default:
+			return FLOAT;
+		}
+	}
+}
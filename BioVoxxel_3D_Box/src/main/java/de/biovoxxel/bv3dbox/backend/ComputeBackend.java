@@ -0,0 +1,273 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+
+/**
+ * The image operations used by the BioVoxxel 3D Box plugins. Method names and
+ * parameter order follow CLIJ2 so that the processing code reads the same
+ * independent of the backend executing it.
+ *
+ * Implementations are the GPU based {@link de.biovoxxel.bv3dbox.backend.clij2.CLIJ2Backend}
+ * and the multi-threaded pure Java {@link de.biovoxxel.bv3dbox.backend.cpu.CPUBackend}.
+ * Use {@link ComputeBackendFactory#openSession()} to get the one selected in the settings.
+ * Each session owns the buffers it creates, so several sessions can work at the same time.
+ *
+ * @author BioVoxxel
+ *
+ */
+public interface ComputeBackend extends AutoCloseable {
+
+	/**
+	 * @return human readable name of the backend and the device it runs on
+	 */
+	public String getName();
+
+	/**
+	 * Releases all buffers created by this backend
+	 */
+	public void clear();
+
+	/**
+	 * Releases all buffers and the backend resources
+	 */
+	@Override
+	public void close();
+
+	/**
+	 * @return the pool reusing the storage of closed buffers for new buffers of identical dimensions and type
+	 */
+	public BufferPool<?> getBufferPool();
+
+	/**
+	 * @return the record of all buffers of this backend which are not closed yet
+	 */
+	public BufferTracker getBufferTracker();
+
+
+	//buffer handling
+	public ComputeBuffer create(ComputeBuffer template);
+
+	public ComputeBuffer create(long[] dimensions, BufferType type);
+
+	public ComputeBuffer create(long width, long height, long depth);
+
+	public ComputeBuffer push(ImagePlus image);
+
+	/**
+	 * Pushes the bounding rectangle of the current selection of all slices or the complete image if there is no selection
+	 */
+	public ComputeBuffer pushCurrentSelection(ImagePlus image);
+
+	public ImagePlus pull(ComputeBuffer buffer);
+
+	/**
+	 * @return 8-bit image with all non-zero pixels set to 255
+	 */
+	public ImagePlus pullBinary(ComputeBuffer buffer);
+
+	/**
+	 * Pushes labels without converting them to a float image, which is only exact up to 2^24
+	 *
+	 * @param planes	labels of each slice in raster order
+	 * @param maximumLabel	highest label, which determines the type, see {@link LabelBuffers}
+	 */
+	public ComputeBuffer pushLabels(int[][] planes, int width, int height, int maximumLabel);
+
+
+	//pixel-wise operations
+	public void copy(ComputeBuffer source, ComputeBuffer destination);
+
+	public void set(ComputeBuffer buffer, double value);
+
+	/**
+	 * Pixels greater or equal than the threshold are set to 1, all others to 0
+	 */
+	public void threshold(ComputeBuffer source, ComputeBuffer destination, double threshold);
+
+	public void automaticThreshold(ComputeBuffer source, ComputeBuffer destination, String method);
+
+	/**
+	 * Keeps the source pixels where the mask is not 0
+	 */
+	public void mask(ComputeBuffer source, ComputeBuffer mask, ComputeBuffer destination);
+
+	public void binaryAnd(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination);
+
+	public void subtractImages(ComputeBuffer subtrahend, ComputeBuffer minuend, ComputeBuffer destination);
+
+	public void divideImages(ComputeBuffer divident, ComputeBuffer divisor, ComputeBuffer destination);
+
+	public void multiplyImageAndScalar(ComputeBuffer source, ComputeBuffer destination, double scalar);
+
+	public void absoluteDifference(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination);
+
+	/**
+	 * Sets pixels to 1 where the absolute difference of both images is above the tolerance, otherwise to 0
+	 */
+	public void different(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination, double tolerance);
+
+	/**
+	 * Multiplies all pixels with -1
+	 */
+	public void invert(ComputeBuffer source, ComputeBuffer destination);
+
+	public void replaceIntensity(ComputeBuffer source, ComputeBuffer destination, double oldValue, double newValue);
+
+	/**
+	 * Copies a 2D image into each plane of the destination stack
+	 */
+	public void imageToStack(ComputeBuffer source, ComputeBuffer destination, long numberOfSlices);
+
+	/**
+	 * Copies the planes startZ to endZ (both included) into the destination
+	 */
+	public void subStack(ComputeBuffer source, ComputeBuffer destination, int startZ, int endZ);
+
+	public void makeIsotropic(ComputeBuffer source, ComputeBuffer destination, double originalVoxelSizeX, double originalVoxelSizeY, double originalVoxelSizeZ, double newVoxelSize);
+
+
+	//reductions
+	public double maximumOfAllPixels(ComputeBuffer source);
+
+	public double minimumOfAllPixels(ComputeBuffer source);
+
+	public double meanOfAllPixels(ComputeBuffer source);
+
+	public double getAutomaticThreshold(ComputeBuffer source, String method);
+
+	public double getAutomaticThreshold(ComputeBuffer source, String method, double minimumGreyValue, double maximumGreyValue, int numberOfBins);
+
+
+	//filters
+	public void gaussianBlur2D(ComputeBuffer source, ComputeBuffer destination, double sigmaX, double sigmaY);
+
+	public void gaussianBlur3D(ComputeBuffer source, ComputeBuffer destination, double sigmaX, double sigmaY, double sigmaZ);
+
+	public void differenceOfGaussian2D(ComputeBuffer source, ComputeBuffer destination, double sigma1X, double sigma1Y, double sigma2X, double sigma2Y);
+
+	public void differenceOfGaussian3D(ComputeBuffer source, ComputeBuffer destination, double sigma1X, double sigma1Y, double sigma1Z, double sigma2X, double sigma2Y, double sigma2Z);
+
+	public void minimum2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void minimum2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void minimum3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void minimum3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void minimum3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void maximum2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void maximum2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void maximum3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void maximum3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void maximum3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void mean2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void mean3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void median2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void median2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void median3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void median3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void median3DSliceBySliceBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY);
+
+	public void varianceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void varianceBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void greyscaleOpeningSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void greyscaleClosingSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void topHatBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void bottomHatBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void detectMaxima3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ);
+
+	public void tubeness(ComputeBuffer source, ComputeBuffer destination, double sigma);
+
+
+	//binary and label operations
+	public void connectedComponentsLabelingBox(ComputeBuffer binarySource, ComputeBuffer labelDestination);
+
+	public void connectedComponentsLabelingDiamond(ComputeBuffer binarySource, ComputeBuffer labelDestination);
+
+	public void closeIndexGapsInLabelMap(ComputeBuffer labelSource, ComputeBuffer labelDestination);
+
+	/**
+	 * Removes all labels with a value != 0 at their index in the flag vector and closes the resulting index gaps
+	 */
+	public void excludeLabels(ComputeBuffer flagVector, ComputeBuffer labelSource, ComputeBuffer labelDestination);
+
+	public void excludeLabelsOnEdges(ComputeBuffer labelSource, ComputeBuffer labelDestination);
+
+	public void excludeLabelsOutsideSizeRange(ComputeBuffer labelSource, ComputeBuffer labelDestination, double minimumSize, double maximumSize);
+
+	/**
+	 * Labels the seeds and dilates them within the mask until all mask pixels are labelled
+	 */
+	public void maskedVoronoiLabeling(ComputeBuffer seeds, ComputeBuffer mask, ComputeBuffer labelDestination);
+
+	public void extendLabelingViaVoronoi(ComputeBuffer labelSource, ComputeBuffer labelDestination);
+
+	public void dilateLabels(ComputeBuffer labelSource, ComputeBuffer labelDestination, int radius);
+
+	public void erodeLabels(ComputeBuffer labelSource, ComputeBuffer labelDestination, int radius, boolean relabelIslands);
+
+	public void reduceLabelsToLabelEdges(ComputeBuffer labelSource, ComputeBuffer labelDestination);
+
+	public void binaryFillHoles(ComputeBuffer binarySource, ComputeBuffer binaryDestination);
+
+	public void binaryFillHolesSliceBySlice(ComputeBuffer binarySource, ComputeBuffer binaryDestination);
+
+	/**
+	 * Euclidean distance of each foreground pixel to the closest background pixel
+	 */
+	public void distanceMap(ComputeBuffer source, ComputeBuffer destination);
+
+	/**
+	 * Euclidean distance of each foreground pixel to the closest background pixel for anisotropic voxels.
+	 * Spacings are relative to each other, e.g. 1, pixelHeight / pixelWidth, pixelDepth / pixelWidth
+	 * gives distances in units of the pixel width.
+	 */
+	public void distanceMap(ComputeBuffer source, ComputeBuffer destination, double spacingX, double spacingY, double spacingZ);
+
+	public void euclideanDistanceFromLabelCentroidMap(ComputeBuffer labelSource, ComputeBuffer destination);
+
+	/**
+	 * Replaces each label in labels_1 by the number of different labels of labels_2 it overlaps with
+	 */
+	public boolean labelOverlapCountMap(ComputeBuffer labels_1, ComputeBuffer labels_2, ComputeBuffer destination);
+
+	public void touchingNeighborCountMap(ComputeBuffer labelSource, ComputeBuffer destination);
+
+	public void proximalNeighborCountMap(ComputeBuffer labelSource, ComputeBuffer destination, double minimumDistance, double maximumDistance);
+
+	/**
+	 * Replaces each label by the value at its index in the parameter vector
+	 */
+	public void generateParametricImage(ComputeBuffer labelSource, ComputeBuffer parameterVector, ComputeBuffer destination);
+
+	public void visualizeOutlinesOnOriginal(ComputeBuffer intensitySource, ComputeBuffer labelSource, ComputeBuffer destination);
+
+	public void drawSphere(ComputeBuffer destination, double x, double y, double z, double radiusX, double radiusY, double radiusZ, double value);
+
+	/**
+	 * Appends one row per label 1..max to the table. The columns are ordered as
+	 * {@link net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY}
+	 */
+	public void statisticsOfLabelledPixels(ComputeBuffer intensitySource, ComputeBuffer labelSource, ResultsTable resultsTable);
+
+}
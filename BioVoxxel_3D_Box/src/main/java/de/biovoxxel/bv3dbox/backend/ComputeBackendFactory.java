@@ -0,0 +1,258 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.scijava.log.LogLevel;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+import org.scijava.prefs.DefaultPrefService;
+import org.scijava.prefs.PrefService;
+
+import de.biovoxxel.bv3dbox.backend.clij2.CLIJ2Backend;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
+import net.haesleinhuepf.clij2.CLIJ2;
+
+/**
+ * Provides the {@link ComputeBackend} selected in the BioVoxxel 3D Box settings.
+ * The system property "bv3dbox.backend" (auto, clij2 or cpu) overrides the setting,
+ * e.g. to run headless on cluster nodes without OpenCL device. The size of the
+ * {@link BufferPool} in MB can be overridden with "bv3dbox.bufferpool" and the memory
+ * limit of the {@link TiledFilterExecutor} in MB with "bv3dbox.tilememory".
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class ComputeBackendFactory {
+
+	public static final String AUTO = "Auto";
+	public static final String CLIJ2_GPU = "CLIJ2 (GPU)";
+	public static final String CPU = "CPU";
+
+	public static final String BACKEND_PREFERENCE_KEY = "bv_3d_box_settings_compute_backend";
+	public static final String BACKEND_SYSTEM_PROPERTY = "bv3dbox.backend";
+
+	public static final String BUFFER_POOL_PREFERENCE_KEY = "bv_3d_box_settings_buffer_pool_mb";
+	public static final String BUFFER_POOL_SYSTEM_PROPERTY = "bv3dbox.bufferpool";
+
+	public static final String TILE_MEMORY_PREFERENCE_KEY = "bv_3d_box_settings_tile_memory_mb";
+	public static final String TILE_MEMORY_SYSTEM_PROPERTY = "bv3dbox.tilememory";
+	public static final long DEFAULT_TILE_MEMORY_MB = 4096;
+
+	public static final String PREVIEW_CACHE_PREFERENCE_KEY = "bv_3d_box_settings_preview_cache_mb";
+	public static final String PREVIEW_CACHE_SYSTEM_PROPERTY = "bv3dbox.previewcache";
+
+	private static ComputeBackend backend;
+	private static String backendChoice;
+
+	/**
+	 * Number of open sessions per shared backend, a replaced shared backend is closed with its last session
+	 */
+	private static final Map<ComputeBackend, Integer> openSessions = new IdentityHashMap<ComputeBackend, Integer>();
+
+	/**
+	 * All open sessions, for {@link #getBufferTrackers()}
+	 */
+	private static final Set<ComputeBackend> sessions = Collections.newSetFromMap(new IdentityHashMap<ComputeBackend, Boolean>());
+
+	private ComputeBackendFactory() {}
+
+
+	/**
+	 * Sessions should be preferred, buffers of the shared backend can be released by any other user of it.
+	 * If the selected backend type changed, the previous shared backend is replaced. It stays open until
+	 * the last session on its device is closed.
+	 * 
+	 * @return the shared backend instance for the currently selected backend type
+	 */
+	public static synchronized ComputeBackend getBackend() {
+		String choice = getBackendChoice();
+		if (backend == null || !choice.equals(backendChoice)) {
+			replaceBackend(createBackend(choice), choice);
+		}
+		backend.getBufferPool().setCapacity(getBufferPoolCapacity());
+		return backend;
+	}
+
+
+	/**
+	 * Makes newBackend the shared backend and closes the previous one unless sessions on it are still open
+	 */
+	static synchronized void replaceBackend(ComputeBackend newBackend, String choice) {
+		ComputeBackend previousBackend = backend;
+		backend = newBackend;
+		backendChoice = choice;
+		if (previousBackend != null && !openSessions.containsKey(previousBackend)) {
+			closeReplacedBackend(previousBackend);
+		}
+	}
+
+
+	private static synchronized void sessionClosed(ComputeBackend shared, ComputeBackend session) {
+		if (sessions.remove(session)) {
+			backend.getBufferTracker().addFinishedRuns(session.getBufferTracker());
+		}
+		Integer count = openSessions.get(shared);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			openSessions.put(shared, count - 1);
+		} else {
+			openSessions.remove(shared);
+			if (shared != backend) {
+				closeReplacedBackend(shared);
+			}
+		}
+	}
+
+
+	private static void closeReplacedBackend(ComputeBackend replaced) {
+		if (replaced instanceof CLIJ2Backend && backend instanceof CLIJ2Backend && ((CLIJ2Backend) replaced).getCLIJ2() == ((CLIJ2Backend) backend).getCLIJ2()) {
+			//CLIJ2.getInstance() is a singleton, which the current backend still uses
+			replaced.clear();
+		} else {
+			replaced.close();
+		}
+	}
+
+
+	/**
+	 * Opens a session on the device of the shared backend. A session owns the buffers it creates and its
+	 * {@link ComputeBackend#clear()} and {@link ComputeBackend#close()} release only those, so several images
+	 * can be processed in parallel, each in its own session. Sessions on the CLIJ2 backend execute their
+	 * operations one after the other on the device, sessions on the CPU backend share its threads.
+	 * Closing a session leaves the device and the threads running. Sessions must be closed by their owner.
+	 * 
+	 * @return a new session, which can be used from any thread
+	 */
+	public static synchronized ComputeBackend openSession() {
+		ComputeBackend shared = getBackend();
+		ComputeBackend session;
+		if (shared instanceof CLIJ2Backend) {
+			CLIJ2Backend clij2Session = new CLIJ2Backend(((CLIJ2Backend) shared).getCLIJ2(), false);
+			clij2Session.setCloseListener(() -> sessionClosed(shared, clij2Session));
+			session = clij2Session;
+		} else {
+			CPUBackend cpuSession = new CPUBackend(((CPUBackend) shared).getExecutor());
+			cpuSession.setCloseListener(() -> sessionClosed(shared, cpuSession));
+			session = cpuSession;
+		}
+		openSessions.merge(shared, 1, Integer::sum);
+		sessions.add(session);
+		session.getBufferPool().setCapacity(getBufferPoolCapacity());
+		return session;
+	}
+
+
+	/**
+	 * Each session tracks its own buffers. The finished runs of a closed session are moved to the tracker of the shared backend.
+	 * 
+	 * @return the tracker of the shared backend followed by the trackers of all open sessions
+	 */
+	public static synchronized List<BufferTracker> getBufferTrackers() {
+		List<BufferTracker> trackers = new ArrayList<BufferTracker>();
+		trackers.add(getBackend().getBufferTracker());
+		for (ComputeBackend session : sessions) {
+			trackers.add(session.getBufferTracker());
+		}
+		return trackers;
+	}
+
+
+	/**
+	 * @return the backend choice from the system property or the settings, default = Auto
+	 */
+	public static String getBackendChoice() {
+		String property = System.getProperty(BACKEND_SYSTEM_PROPERTY);
+		if (property != null) {
+			switch (property.trim().toLowerCase()) {
+			case "cpu":
+				return CPU;
+			case "clij2":
+			case "gpu":
+				return CLIJ2_GPU;
+			default:
+				return AUTO;
+			}
+		}
+		PrefService prefs = new DefaultPrefService();
+		return prefs.get(BV3DBoxSettings.class, BACKEND_PREFERENCE_KEY, AUTO);
+	}
+
+
+	/**
+	 * @return the buffer pool capacity in bytes from the system property or the settings, default = {@link BufferPool#DEFAULT_CAPACITY_MB}
+	 */
+	public static long getBufferPoolCapacity() {
+		return getMegabytes(BUFFER_POOL_SYSTEM_PROPERTY, BUFFER_POOL_PREFERENCE_KEY, BufferPool.DEFAULT_CAPACITY_MB) << 20;
+	}
+
+
+	/**
+	 * @return the memory limit for filtering in blocks in bytes from the system property or the settings, 0 = no tiling
+	 */
+	public static long getTileMemoryLimit() {
+		return getMegabytes(TILE_MEMORY_SYSTEM_PROPERTY, TILE_MEMORY_PREFERENCE_KEY, DEFAULT_TILE_MEMORY_MB) << 20;
+	}
+
+
+	/**
+	 * @return the capacity of the preview stage caches in bytes from the system property or the settings, default = {@link StageCache#DEFAULT_CAPACITY_MB}
+	 */
+	public static long getPreviewCacheCapacity() {
+		return getMegabytes(PREVIEW_CACHE_SYSTEM_PROPERTY, PREVIEW_CACHE_PREFERENCE_KEY, StageCache.DEFAULT_CAPACITY_MB) << 20;
+	}
+
+
+	private static long getMegabytes(String systemProperty, String preferenceKey, long defaultMegabytes) {
+		long megabytes = new DefaultPrefService().getLong(BV3DBoxSettings.class, preferenceKey, defaultMegabytes);
+		String property = System.getProperty(systemProperty);
+		if (property != null) {
+			try {
+				megabytes = Long.parseLong(property.trim());
+			} catch (NumberFormatException e) {
+				new StderrLogService().warn("Invalid value " + property + " for " + systemProperty + ", using " + megabytes + " MB");
+			}
+		}
+		return Math.max(0, megabytes);
+	}
+
+
+	/**
+	 * Creates a new, not shared backend instance
+	 *
+	 * @param choice	one of AUTO, CLIJ2_GPU or CPU
+	 * @return the backend
+	 */
+	public static ComputeBackend createBackend(String choice) {
+		LogService log = new StderrLogService();
+		log.setLevel(new DefaultPrefService().getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+
+		ComputeBackend newBackend;
+		switch (choice) {
+		case CPU:
+			newBackend = new CPUBackend();
+			break;
+		case CLIJ2_GPU:
+			newBackend = new CLIJ2Backend(CLIJ2.getInstance());
+			break;
+		default:
+			try {
+				newBackend = new CLIJ2Backend(CLIJ2.getInstance());
+			} catch (Exception | LinkageError e) {
+				log.info("No OpenCL device available (" + e.getMessage() + "), falling back to CPU backend");
+				newBackend = new CPUBackend();
+			}
+			break;
+		}
+		newBackend.getBufferPool().setCapacity(getBufferPoolCapacity());
+		log.debug("Compute backend = " + newBackend.getName());
+		return newBackend;
+	}
+}
@@ -0,0 +1,50 @@
+package de.biovoxxel.bv3dbox.backend;
+
+/**
+ * Handle to an image living in the memory of a {@link ComputeBackend}.
+ * Mirrors the parts of the ClearCLBuffer API used throughout the 3D Box so
+ * that the processing code does not depend on where the pixels are stored.
+ *
+ * Buffers are only valid for the backend which created them.
+ *
+ * @author BioVoxxel
+ *
+ */
+public interface ComputeBuffer extends AutoCloseable {
+
+	public long getWidth();
+
+	public long getHeight();
+
+	/**
+	 * @return 1 for 2D buffers
+	 */
+	public long getDepth();
+
+	/**
+	 * @return 2 for single plane images pushed from 2D ImagePlus, otherwise 3
+	 */
+	public int getDimension();
+
+	/**
+	 * @return {width, height} for 2D and {width, height, depth} for 3D buffers
+	 */
+	public long[] getDimensions();
+
+	public long getVolume();
+
+	public BufferType getType();
+
+	public long getSizeInBytes();
+
+	public String getName();
+
+	public void setName(String name);
+
+	/**
+	 * Releases the memory of this buffer. Closing a buffer twice has no effect.
+	 */
+	@Override
+	public void close();
+
+}
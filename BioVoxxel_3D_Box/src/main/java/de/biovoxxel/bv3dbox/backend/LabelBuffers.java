@@ -0,0 +1,77 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import ij.ImagePlus;
+
+/**
+ * Chooses the pixel type of label images. Labels are stored as UNSIGNED_SHORT as long as
+ * the highest label fits and as UNSIGNED_INT otherwise. Compared with FLOAT this halves
+ * the memory of typical label images and keeps label values above 2^24 exact.
+ *
+ * If the number of labels is not known before labeling, the label image is created for
+ * the worst case of one label per pixel and {@link #fit(ComputeBackend, ComputeBuffer)}
+ * reduces it to the type needed by the actual labels afterwards.
+ *
+ * ImageJ has no 32-bit integer images, so UNSIGNED_INT label images are pulled as 32-bit
+ * float images.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class LabelBuffers {
+
+	private LabelBuffers() {}
+
+
+	/**
+	 * @return UNSIGNED_SHORT if the label fits, otherwise UNSIGNED_INT
+	 */
+	public static BufferType typeFor(double maximumLabel) {
+		return maximumLabel <= BufferType.UNSIGNED_SHORT.maxValue ? BufferType.UNSIGNED_SHORT : BufferType.UNSIGNED_INT;
+	}
+
+
+	/**
+	 * Label image for labeling an image of the given size, large enough for one label per pixel
+	 */
+	public static ComputeBuffer create(ComputeBackend backend, long[] dimensions) {
+		long pixelCount = 1;
+		for (long dimension : dimensions) {
+			pixelCount *= dimension;
+		}
+		return create(backend, dimensions, pixelCount);
+	}
+
+
+	/**
+	 * Label image for labels up to maximumLabel
+	 */
+	public static ComputeBuffer create(ComputeBackend backend, long[] dimensions, double maximumLabel) {
+		return backend.create(dimensions, typeFor(maximumLabel));
+	}
+
+
+	/**
+	 * Converts the labels into the smallest label type holding their highest label
+	 *
+	 * @return the labels if they already have this type, otherwise a converted copy with the same name, the labels are closed then
+	 */
+	public static ComputeBuffer fit(ComputeBackend backend, ComputeBuffer labels) {
+		BufferType type = typeFor(backend.maximumOfAllPixels(labels));
+		if (labels.getType() == type) {
+			return labels;
+		}
+		ComputeBuffer fitted = backend.create(labels.getDimensions(), type);
+		backend.copy(labels, fitted);
+		fitted.setName(labels.getName());
+		labels.close();
+		return fitted;
+	}
+
+
+	/**
+	 * Pushes a label image, e.g. a 32-bit float label image, in the smallest label type
+	 */
+	public static ComputeBuffer push(ComputeBackend backend, ImagePlus labelImagePlus) {
+		return fit(backend, backend.push(labelImagePlus));
+	}
+}
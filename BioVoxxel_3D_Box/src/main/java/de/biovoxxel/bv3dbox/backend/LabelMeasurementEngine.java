@@ -0,0 +1,707 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import de.biovoxxel.bv3dbox.backend.clij2.CLIJ2Buffer;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBuffer;
+import de.biovoxxel.bv3dbox.backend.cpu.ParallelExecutor;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY;
+
+/**
+ * Measures a primary and an optional secondary label image or mask together with their intensity
+ * images, a distance map and label edges in one traversal instead of one
+ * statisticsOfLabelledPixels call per combination. Overlaps are counted per pair of
+ * primary and secondary label in a sparse {@link LabelOverlapMap} during the same traversal.
+ *
+ * All per-label sums, minima, maxima and bounding boxes are collected in primitive arrays
+ * per thread and reduced afterwards. Measurements depending on the centroids (distances to
+ * centroid or mass center, distances of secondary objects to the primary centroid and the
+ * label edge extension) need a second traversal which is skipped if none of them is requested.
+ *
+ * Results are written with one row per label 1..n. Columns of {@link STATISTICS_ENTRY} keep
+ * their names and order, the additional columns are defined as constants.
+ * Coordinates and distances are given in pixels.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class LabelMeasurementEngine {
+
+	public enum Group {
+		/** intensity statistics and mass centers, needs an intensity image */
+		INTENSITY,
+		/** centroids, bounding boxes and distances to the centroid */
+		SHAPE,
+		/** secondary objects per primary object and the primary label of each secondary object */
+		OVERLAP,
+		/** distances of secondary objects to the border and centroid of their primary object */
+		DISTANCES,
+		/** distances of the label edges to the centroid of each primary object */
+		EXTENSION
+	}
+
+	public static final String OVERLAP_COUNT = "OVERLAP_COUNT";
+	public static final String OVERLAP_PIXEL_COUNT = "OVERLAP_PIXEL_COUNT";
+	public static final String PRIMARY_LABEL = "PRIMARY_LABEL";
+	public static final String MIN_BORDER_DISTANCE = "MIN_BORDER_DISTANCE";
+	public static final String MEAN_BORDER_DISTANCE = "MEAN_BORDER_DISTANCE";
+	public static final String MAX_BORDER_DISTANCE = "MAX_BORDER_DISTANCE";
+	public static final String MIN_CENTER_DISTANCE = "MIN_CENTER_DISTANCE";
+	public static final String MEAN_CENTER_DISTANCE = "MEAN_CENTER_DISTANCE";
+	public static final String MAX_CENTER_DISTANCE = "MAX_CENTER_DISTANCE";
+	public static final String MIN_EXTENSION = "MIN_EXTENSION";
+	public static final String MAX_EXTENSION = "MAX_EXTENSION";
+	public static final String MEAN_EXTENSION = "MEAN_EXTENSION";
+	public static final String STD_DEV_EXTENSION = "STD_DEV_EXTENSION";
+
+	private final ComputeBackend backend;
+	private final EnumSet<Group> groups;
+
+	private ComputeBuffer primaryLabels;
+	private ComputeBuffer primaryIntensity;
+	private ComputeBuffer secondaryLabels;
+	private ComputeBuffer secondaryIntensity;
+	private BitMask secondaryMask;
+	private ComputeBuffer borderDistanceMap;
+	private ComputeBuffer labelEdges;
+
+	private LabelOverlapMap overlaps;
+
+
+	public LabelMeasurementEngine(ComputeBackend backend, EnumSet<Group> groups) {
+		this.backend = backend;
+		this.groups = EnumSet.copyOf(groups);
+	}
+
+	/**
+	 * @param intensity	can be null to skip the intensity measurements
+	 */
+	public void setPrimary(ComputeBuffer labels, ComputeBuffer intensity) {
+		this.primaryLabels = labels;
+		this.primaryIntensity = intensity;
+	}
+
+	/**
+	 * Secondary objects are expected to lie within the primary objects
+	 *
+	 * @param intensity	can be null to skip the intensity measurements
+	 */
+	public void setSecondary(ComputeBuffer labels, ComputeBuffer intensity) {
+		this.secondaryLabels = labels;
+		this.secondaryIntensity = intensity;
+		this.secondaryMask = null;
+	}
+
+	/**
+	 * Secondary objects given as one binary mask, which are measured as secondary label 1 without intensities
+	 */
+	public void setSecondary(BitMask mask) {
+		this.secondaryLabels = null;
+		this.secondaryIntensity = null;
+		this.secondaryMask = mask;
+	}
+
+	/**
+	 * Distance map of the primary objects, measured per secondary object for {@link Group#DISTANCES}
+	 */
+	public void setBorderDistanceMap(ComputeBuffer borderDistanceMap) {
+		this.borderDistanceMap = borderDistanceMap;
+	}
+
+	/**
+	 * Label edges of the primary objects as created by reduceLabelsToLabelEdges for {@link Group#EXTENSION}
+	 */
+	public void setLabelEdges(ComputeBuffer labelEdges) {
+		this.labelEdges = labelEdges;
+	}
+
+	public boolean isMeasured(Group group) {
+		return groups.contains(group);
+	}
+
+	/**
+	 * @return the overlapping pixels per pair of primary and secondary label of the last
+	 * measurement or null if {@link Group#OVERLAP} was not measured
+	 */
+	public LabelOverlapMap getOverlaps() {
+		return overlaps;
+	}
+
+
+	/**
+	 * @param secondaryTable	can be null if no secondary labels are set
+	 */
+	public void measure(ColumnarResultsTable primaryTable, ColumnarResultsTable secondaryTable) {
+		boolean hasSecondary = secondaryLabels != null || secondaryMask != null;
+		boolean intensity = groups.contains(Group.INTENSITY);
+		boolean shape = groups.contains(Group.SHAPE);
+		boolean overlap = groups.contains(Group.OVERLAP) && hasSecondary;
+		boolean distances = groups.contains(Group.DISTANCES) && hasSecondary;
+		boolean extension = groups.contains(Group.EXTENSION) && labelEdges != null;
+
+		final int width = (int) primaryLabels.getWidth();
+		final int height = (int) primaryLabels.getHeight();
+		final int depth = (int) primaryLabels.getDepth();
+
+		int primaryCount = (int) backend.maximumOfAllPixels(primaryLabels);
+		int secondaryCount = secondaryMask != null ? (secondaryMask.cardinality() > 0 ? 1 : 0) : hasSecondary ? (int) backend.maximumOfAllPixels(secondaryLabels) : 0;
+
+		final Voxels primary = voxels(primaryLabels);
+		final Voxels secondary = secondaryMask != null ? voxels(secondaryMask) : hasSecondary ? voxels(secondaryLabels) : null;
+		final Voxels primaryValues = intensity && primaryIntensity != null ? voxels(primaryIntensity) : null;
+		final Voxels secondaryValues = intensity && secondaryIntensity != null && hasSecondary ? voxels(secondaryIntensity) : null;
+		final Voxels borderDistances = distances && borderDistanceMap != null ? voxels(borderDistanceMap) : null;
+		final Voxels edges = extension ? voxels(labelEdges) : null;
+
+		Layout primaryLayout = new Layout();
+		primaryLayout.intensity = primaryValues != null;
+		primaryLayout.shape = shape;
+		primaryLayout.overlap = overlap;
+		primaryLayout.extension = extension;
+
+		Layout secondaryLayout = new Layout();
+		secondaryLayout.intensity = secondaryValues != null;
+		secondaryLayout.shape = shape;
+		secondaryLayout.border = borderDistances != null;
+		secondaryLayout.center = distances;
+
+		boolean ownExecutor = !(backend instanceof CPUBackend);
+		ParallelExecutor executor = ownExecutor ? new ParallelExecutor(Runtime.getRuntime().availableProcessors()) : ((CPUBackend) backend).getExecutor();
+		try {
+			Map<Integer, Accumulator[]> partial = new TreeMap<Integer, Accumulator[]>();
+			executor.forEachChunk(0, depth * height, (start, end) -> {
+				Accumulator p = new Accumulator(primaryCount, primaryLayout);
+				Accumulator s = hasSecondary ? new Accumulator(secondaryCount, secondaryLayout) : null;
+				for (int row = start; row < end; row++) {
+					int z = row / height;
+					int y = row % height;
+					for (int x = 0; x < width; x++) {
+						int index = y * width + x;
+						int primaryLabel = (int) primary.get(z, index);
+						int secondaryLabel = hasSecondary ? (int) secondary.get(z, index) : 0;
+						if (primaryLabel > 0) {
+							p.addPixel(primaryLabel, x, y, z, primaryValues == null ? 0 : primaryValues.get(z, index));
+							if (overlap && secondaryLabel > 0) {
+								p.overlaps.increment(primaryLabel, secondaryLabel);
+							}
+						}
+						if (secondaryLabel > 0) {
+							s.addPixel(secondaryLabel, x, y, z, secondaryValues == null ? 0 : secondaryValues.get(z, index));
+							if (borderDistances != null) {
+								s.border.add(secondaryLabel, borderDistances.get(z, index));
+							}
+						}
+					}
+				}
+				synchronized (partial) {
+					partial.put(start, new Accumulator[] { p, s });
+				}
+			});
+
+			Accumulator primaryTotal = null;
+			Accumulator secondaryTotal = null;
+			for (Accumulator[] accumulators : partial.values()) {
+				if (primaryTotal == null) {
+					primaryTotal = accumulators[0];
+					secondaryTotal = accumulators[1];
+				} else {
+					primaryTotal.add(accumulators[0]);
+					if (hasSecondary) {
+						secondaryTotal.add(accumulators[1]);
+					}
+				}
+			}
+
+			overlaps = overlap ? primaryTotal.overlaps : null;
+			if (overlap) {
+				summarizeOverlaps(overlaps, primaryTotal, secondaryTotal);
+			}
+
+			double[][] primaryStats = primaryTotal.toStatistics();
+			double[][] secondaryStats = hasSecondary ? secondaryTotal.toStatistics() : null;
+
+			boolean secondPass = shape || primaryValues != null || secondaryValues != null || distances || extension;
+			if (secondPass) {
+				partial.clear();
+				executor.forEachChunk(0, depth * height, (start, end) -> {
+					Accumulator p = new Accumulator(primaryCount, primaryLayout);
+					Accumulator s = hasSecondary ? new Accumulator(secondaryCount, secondaryLayout) : null;
+					for (int row = start; row < end; row++) {
+						int z = row / height;
+						int y = row % height;
+						for (int x = 0; x < width; x++) {
+							int index = y * width + x;
+							int primaryLabel = (int) primary.get(z, index);
+							if (primaryLabel > 0) {
+								p.addDistances(primaryLabel, x, y, z, primaryStats[primaryLabel]);
+								if (edges != null && edges.get(z, index) != 0) {
+									p.extension.add(primaryLabel, centroidDistance(x, y, z, primaryStats[primaryLabel]));
+								}
+							}
+							int secondaryLabel = hasSecondary ? (int) secondary.get(z, index) : 0;
+							if (secondaryLabel > 0) {
+								s.addDistances(secondaryLabel, x, y, z, secondaryStats[secondaryLabel]);
+								if (distances) {
+									s.center.add(secondaryLabel, primaryLabel > 0 ? centroidDistance(x, y, z, primaryStats[primaryLabel]) : 0);
+								}
+							}
+						}
+					}
+					synchronized (partial) {
+						partial.put(start, new Accumulator[] { p, s });
+					}
+				});
+				for (Accumulator[] accumulators : partial.values()) {
+					primaryTotal.addDistances(accumulators[0]);
+					if (hasSecondary) {
+						secondaryTotal.addDistances(accumulators[1]);
+					}
+				}
+			}
+
+			primaryTotal.writeColumns(primaryStats, primaryTable);
+			if (hasSecondary && secondaryTable != null) {
+				secondaryTotal.writeColumns(secondaryStats, secondaryTable);
+			}
+
+		} finally {
+			if (ownExecutor) {
+				executor.shutdown();
+			}
+		}
+	}
+
+
+	/**
+	 * Number of overlapping secondary objects and pixels per primary object and the primary
+	 * object with the largest overlap per secondary object (the lower label if equal)
+	 */
+	private static void summarizeOverlaps(LabelOverlapMap overlaps, Accumulator primary, Accumulator secondary) {
+		primary.overlapCount = new double[primary.labelCount + 1];
+		primary.overlapPixels = new double[primary.labelCount + 1];
+		secondary.primaryLabel = new double[secondary.labelCount + 1];
+		double[] largestOverlap = new double[secondary.labelCount + 1];
+		overlaps.forEach((primaryLabel, secondaryLabel, pixelCount) -> {
+			primary.overlapCount[primaryLabel]++;
+			primary.overlapPixels[primaryLabel] += pixelCount;
+			if (pixelCount > largestOverlap[secondaryLabel]) {
+				largestOverlap[secondaryLabel] = pixelCount;
+				secondary.primaryLabel[secondaryLabel] = primaryLabel;
+			}
+		});
+	}
+
+	private static double centroidDistance(int x, int y, int z, double[] stats) {
+		return distance(x, y, z, stats[STATISTICS_ENTRY.CENTROID_X.value], stats[STATISTICS_ENTRY.CENTROID_Y.value], stats[STATISTICS_ENTRY.CENTROID_Z.value]);
+	}
+
+	private static double distance(double x, double y, double z, double cx, double cy, double cz) {
+		return Math.sqrt((x - cx) * (x - cx) + (y - cy) * (y - cy) + (z - cz) * (z - cz));
+	}
+
+
+	/**
+	 * Read access to a buffer, CPU buffers are read in place, all others are pulled once.
+	 * UNSIGNED_INT labels on the GPU are read as integers, as a pulled image would be float.
+	 */
+	private interface Voxels {
+		double get(int z, int index);
+	}
+
+	private Voxels voxels(ComputeBuffer buffer) {
+		if (buffer instanceof CPUBuffer) {
+			CPUBuffer cpuBuffer = (CPUBuffer) buffer;
+			return (z, index) -> cpuBuffer.get(z, index);
+		}
+		if (buffer instanceof CLIJ2Buffer && buffer.getType() == BufferType.UNSIGNED_INT) {
+			int[] values = ((CLIJ2Buffer) buffer).readUnsignedInts();
+			int planeSize = (int) (buffer.getWidth() * buffer.getHeight());
+			return (z, index) -> values[z * planeSize + index] & 0xffffffffL;
+		}
+		ImageStack stack = backend.pull(buffer).getStack();
+		ImageProcessor[] processors = new ImageProcessor[stack.getSize()];
+		for (int z = 0; z < processors.length; z++) {
+			processors[z] = stack.getProcessor(z + 1);
+		}
+		return (z, index) -> processors[z].getf(index);
+	}
+
+	private static Voxels voxels(BitMask mask) {
+		return (z, index) -> mask.get(z, index) ? 1 : 0;
+	}
+
+
+	/**
+	 * Minimum, maximum, sum and sum of squares of a value per label
+	 */
+	private static final class Range {
+
+		final double[] min;
+		final double[] max;
+		final double[] sum;
+		final double[] sumSquares;
+		final double[] count;
+
+		Range(int n) {
+			min = new double[n];
+			max = new double[n];
+			sum = new double[n];
+			sumSquares = new double[n];
+			count = new double[n];
+			Arrays.fill(min, Double.MAX_VALUE);
+			Arrays.fill(max, -Double.MAX_VALUE);
+		}
+
+		void add(int label, double value) {
+			if (value < min[label]) { min[label] = value; }
+			if (value > max[label]) { max[label] = value; }
+			sum[label] += value;
+			sumSquares[label] += value * value;
+			count[label]++;
+		}
+
+		void add(Range other) {
+			for (int l = 0; l < sum.length; l++) {
+				min[l] = Math.min(min[l], other.min[l]);
+				max[l] = Math.max(max[l], other.max[l]);
+				sum[l] += other.sum[l];
+				sumSquares[l] += other.sumSquares[l];
+				count[l] += other.count[l];
+			}
+		}
+
+		double min(int label) {
+			return count[label] == 0 ? 0 : min[label];
+		}
+
+		double max(int label) {
+			return count[label] == 0 ? 0 : max[label];
+		}
+
+		double mean(int label) {
+			return count[label] == 0 ? 0 : sum[label] / count[label];
+		}
+
+		double standardDeviation(int label) {
+			double mean = mean(label);
+			return count[label] == 0 ? 0 : Math.sqrt(Math.max(0, sumSquares[label] / count[label] - mean * mean));
+		}
+
+		/** column of labels 1..n */
+		double[] minimums() {
+			double[] column = new double[sum.length - 1];
+			for (int l = 1; l < sum.length; l++) { column[l - 1] = min(l); }
+			return column;
+		}
+
+		double[] maximums() {
+			double[] column = new double[sum.length - 1];
+			for (int l = 1; l < sum.length; l++) { column[l - 1] = max(l); }
+			return column;
+		}
+
+		double[] means() {
+			double[] column = new double[sum.length - 1];
+			for (int l = 1; l < sum.length; l++) { column[l - 1] = mean(l); }
+			return column;
+		}
+
+		double[] standardDeviations() {
+			double[] column = new double[sum.length - 1];
+			for (int l = 1; l < sum.length; l++) { column[l - 1] = standardDeviation(l); }
+			return column;
+		}
+	}
+
+
+	/**
+	 * Measurements collected for one label image
+	 */
+	private static final class Layout {
+
+		boolean intensity, shape, overlap, border, center, extension;
+	}
+
+
+	/**
+	 * Per thread accumulators of one label image, arrays of unused measurements stay null
+	 */
+	private static final class Accumulator {
+
+		final int labelCount;
+		final double[] count, sumX, sumY, sumZ;
+		final int[] boxMinX, boxMinY, boxMinZ, boxMaxX, boxMaxY, boxMaxZ;
+		final Range intensity;
+		final double[] sumIx, sumIy, sumIz;
+		final LabelOverlapMap overlaps;
+		double[] overlapCount, overlapPixels, primaryLabel;
+		final Range border;
+		final double[] centroidDistanceSum, centroidDistanceMax, massCenterDistanceSum, massCenterDistanceMax;
+		final Range center;
+		final Range extension;
+
+		Accumulator(int labelCount, Layout layout) {
+			this.labelCount = labelCount;
+			int n = labelCount + 1;
+			boolean shape = layout.shape;
+			boolean intensity = layout.intensity;
+			count = new double[n];
+			sumX = new double[n];
+			sumY = new double[n];
+			sumZ = new double[n];
+			boxMinX = shape ? filled(n, Integer.MAX_VALUE) : null;
+			boxMinY = shape ? filled(n, Integer.MAX_VALUE) : null;
+			boxMinZ = shape ? filled(n, Integer.MAX_VALUE) : null;
+			boxMaxX = shape ? filled(n, -1) : null;
+			boxMaxY = shape ? filled(n, -1) : null;
+			boxMaxZ = shape ? filled(n, -1) : null;
+			this.intensity = intensity ? new Range(n) : null;
+			sumIx = intensity ? new double[n] : null;
+			sumIy = intensity ? new double[n] : null;
+			sumIz = intensity ? new double[n] : null;
+			overlaps = layout.overlap ? new LabelOverlapMap() : null;
+			border = layout.border ? new Range(n) : null;
+			center = layout.center ? new Range(n) : null;
+			centroidDistanceSum = shape ? new double[n] : null;
+			centroidDistanceMax = shape ? new double[n] : null;
+			massCenterDistanceSum = intensity ? new double[n] : null;
+			massCenterDistanceMax = intensity ? new double[n] : null;
+			extension = layout.extension ? new Range(n) : null;
+		}
+
+		private static int[] filled(int n, int value) {
+			int[] array = new int[n];
+			Arrays.fill(array, value);
+			return array;
+		}
+
+		void addPixel(int label, int x, int y, int z, double value) {
+			count[label]++;
+			sumX[label] += x;
+			sumY[label] += y;
+			sumZ[label] += z;
+			if (boxMinX != null) {
+				if (x < boxMinX[label]) { boxMinX[label] = x; }
+				if (y < boxMinY[label]) { boxMinY[label] = y; }
+				if (z < boxMinZ[label]) { boxMinZ[label] = z; }
+				if (x > boxMaxX[label]) { boxMaxX[label] = x; }
+				if (y > boxMaxY[label]) { boxMaxY[label] = y; }
+				if (z > boxMaxZ[label]) { boxMaxZ[label] = z; }
+			}
+			if (intensity != null) {
+				intensity.add(label, value);
+				sumIx[label] += value * x;
+				sumIy[label] += value * y;
+				sumIz[label] += value * z;
+			}
+		}
+
+		void addDistances(int label, int x, int y, int z, double[] stats) {
+			if (centroidDistanceSum != null) {
+				double toCentroid = centroidDistance(x, y, z, stats);
+				centroidDistanceSum[label] += toCentroid;
+				if (toCentroid > centroidDistanceMax[label]) { centroidDistanceMax[label] = toCentroid; }
+			}
+			if (massCenterDistanceSum != null) {
+				double toMassCenter = distance(x, y, z, stats[STATISTICS_ENTRY.MASS_CENTER_X.value], stats[STATISTICS_ENTRY.MASS_CENTER_Y.value], stats[STATISTICS_ENTRY.MASS_CENTER_Z.value]);
+				massCenterDistanceSum[label] += toMassCenter;
+				if (toMassCenter > massCenterDistanceMax[label]) { massCenterDistanceMax[label] = toMassCenter; }
+			}
+		}
+
+		void add(Accumulator other) {
+			for (int l = 0; l <= labelCount; l++) {
+				count[l] += other.count[l];
+				sumX[l] += other.sumX[l];
+				sumY[l] += other.sumY[l];
+				sumZ[l] += other.sumZ[l];
+				if (boxMinX != null) {
+					boxMinX[l] = Math.min(boxMinX[l], other.boxMinX[l]);
+					boxMinY[l] = Math.min(boxMinY[l], other.boxMinY[l]);
+					boxMinZ[l] = Math.min(boxMinZ[l], other.boxMinZ[l]);
+					boxMaxX[l] = Math.max(boxMaxX[l], other.boxMaxX[l]);
+					boxMaxY[l] = Math.max(boxMaxY[l], other.boxMaxY[l]);
+					boxMaxZ[l] = Math.max(boxMaxZ[l], other.boxMaxZ[l]);
+				}
+				if (sumIx != null) {
+					sumIx[l] += other.sumIx[l];
+					sumIy[l] += other.sumIy[l];
+					sumIz[l] += other.sumIz[l];
+				}
+			}
+			if (intensity != null) {
+				intensity.add(other.intensity);
+			}
+			if (overlaps != null) {
+				overlaps.add(other.overlaps);
+			}
+			if (border != null) {
+				border.add(other.border);
+			}
+		}
+
+		/**
+		 * Adds the second pass results of another accumulator
+		 */
+		void addDistances(Accumulator other) {
+			for (int l = 0; l <= labelCount; l++) {
+				if (centroidDistanceSum != null) {
+					centroidDistanceSum[l] += other.centroidDistanceSum[l];
+					centroidDistanceMax[l] = Math.max(centroidDistanceMax[l], other.centroidDistanceMax[l]);
+				}
+				if (massCenterDistanceSum != null) {
+					massCenterDistanceSum[l] += other.massCenterDistanceSum[l];
+					massCenterDistanceMax[l] = Math.max(massCenterDistanceMax[l], other.massCenterDistanceMax[l]);
+				}
+			}
+			if (center != null) {
+				center.add(other.center);
+			}
+			if (extension != null) {
+				extension.add(other.extension);
+			}
+		}
+
+
+		/**
+		 * @return the first pass values as [label][STATISTICS_ENTRY.value], needed for the second pass
+		 */
+		double[][] toStatistics() {
+			double[][] stats = new double[labelCount + 1][STATISTICS_ENTRY.values().length];
+			for (int l = 1; l <= labelCount; l++) {
+				double[] row = stats[l];
+				double n = count[l];
+				row[STATISTICS_ENTRY.IDENTIFIER.value] = l;
+				row[STATISTICS_ENTRY.PIXEL_COUNT.value] = n;
+				if (n == 0) {
+					continue;
+				}
+				row[STATISTICS_ENTRY.SUM_X.value] = sumX[l];
+				row[STATISTICS_ENTRY.SUM_Y.value] = sumY[l];
+				row[STATISTICS_ENTRY.SUM_Z.value] = sumZ[l];
+				row[STATISTICS_ENTRY.CENTROID_X.value] = sumX[l] / n;
+				row[STATISTICS_ENTRY.CENTROID_Y.value] = sumY[l] / n;
+				row[STATISTICS_ENTRY.CENTROID_Z.value] = sumZ[l] / n;
+				if (boxMinX != null) {
+					row[STATISTICS_ENTRY.BOUNDING_BOX_X.value] = boxMinX[l];
+					row[STATISTICS_ENTRY.BOUNDING_BOX_Y.value] = boxMinY[l];
+					row[STATISTICS_ENTRY.BOUNDING_BOX_Z.value] = boxMinZ[l];
+					row[STATISTICS_ENTRY.BOUNDING_BOX_END_X.value] = boxMaxX[l];
+					row[STATISTICS_ENTRY.BOUNDING_BOX_END_Y.value] = boxMaxY[l];
+					row[STATISTICS_ENTRY.BOUNDING_BOX_END_Z.value] = boxMaxZ[l];
+					row[STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.value] = boxMaxX[l] - boxMinX[l] + 1;
+					row[STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.value] = boxMaxY[l] - boxMinY[l] + 1;
+					row[STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.value] = boxMaxZ[l] - boxMinZ[l] + 1;
+				}
+				if (intensity != null) {
+					row[STATISTICS_ENTRY.MINIMUM_INTENSITY.value] = intensity.min(l);
+					row[STATISTICS_ENTRY.MAXIMUM_INTENSITY.value] = intensity.max(l);
+					row[STATISTICS_ENTRY.MEAN_INTENSITY.value] = intensity.mean(l);
+					row[STATISTICS_ENTRY.SUM_INTENSITY.value] = intensity.sum[l];
+					row[STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.value] = intensity.standardDeviation(l);
+					row[STATISTICS_ENTRY.SUM_INTENSITY_TIMES_X.value] = sumIx[l];
+					row[STATISTICS_ENTRY.SUM_INTENSITY_TIMES_Y.value] = sumIy[l];
+					row[STATISTICS_ENTRY.SUM_INTENSITY_TIMES_Z.value] = sumIz[l];
+					row[STATISTICS_ENTRY.MASS_CENTER_X.value] = sumIx[l] / intensity.sum[l];
+					row[STATISTICS_ENTRY.MASS_CENTER_Y.value] = sumIy[l] / intensity.sum[l];
+					row[STATISTICS_ENTRY.MASS_CENTER_Z.value] = sumIz[l] / intensity.sum[l];
+				}
+			}
+			return stats;
+		}
+
+
+		/**
+		 * Writes one row per label with the measured {@link STATISTICS_ENTRY} columns in their
+		 * order followed by the additional columns
+		 */
+		void writeColumns(double[][] stats, ColumnarResultsTable resultsTable) {
+			for (int l = 1; l <= labelCount; l++) {
+				double[] row = stats[l];
+				double n = count[l];
+				if (centroidDistanceSum != null && n > 0) {
+					row[STATISTICS_ENTRY.SUM_DISTANCE_TO_CENTROID.value] = centroidDistanceSum[l];
+					row[STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.value] = centroidDistanceMax[l];
+					row[STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.value] = centroidDistanceSum[l] / n;
+					row[STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.value] = centroidDistanceMax[l] / (centroidDistanceSum[l] / n);
+				}
+				if (massCenterDistanceSum != null && n > 0) {
+					row[STATISTICS_ENTRY.SUM_DISTANCE_TO_MASS_CENTER.value] = massCenterDistanceSum[l];
+					row[STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.value] = massCenterDistanceMax[l];
+					row[STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.value] = massCenterDistanceSum[l] / n;
+					row[STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.value] = massCenterDistanceMax[l] / (massCenterDistanceSum[l] / n);
+				}
+			}
+
+			for (STATISTICS_ENTRY entry : STATISTICS_ENTRY.values()) {
+				if (hasColumn(entry)) {
+					double[] column = new double[labelCount];
+					for (int l = 1; l <= labelCount; l++) {
+						column[l - 1] = stats[l][entry.value];
+					}
+					resultsTable.setColumn(entry.toString(), column);
+				}
+			}
+			if (overlapCount != null) {
+				resultsTable.setColumn(OVERLAP_COUNT, Arrays.copyOfRange(overlapCount, 1, labelCount + 1));
+				resultsTable.setColumn(OVERLAP_PIXEL_COUNT, Arrays.copyOfRange(overlapPixels, 1, labelCount + 1));
+			}
+			if (primaryLabel != null) {
+				resultsTable.setColumn(PRIMARY_LABEL, Arrays.copyOfRange(primaryLabel, 1, labelCount + 1));
+			}
+			if (border != null) {
+				resultsTable.setColumn(MIN_BORDER_DISTANCE, border.minimums());
+				resultsTable.setColumn(MEAN_BORDER_DISTANCE, border.means());
+				resultsTable.setColumn(MAX_BORDER_DISTANCE, border.maximums());
+			}
+			if (center != null) {
+				resultsTable.setColumn(MIN_CENTER_DISTANCE, center.minimums());
+				resultsTable.setColumn(MEAN_CENTER_DISTANCE, center.means());
+				resultsTable.setColumn(MAX_CENTER_DISTANCE, center.maximums());
+			}
+			if (extension != null) {
+				resultsTable.setColumn(MIN_EXTENSION, extension.minimums());
+				resultsTable.setColumn(MAX_EXTENSION, extension.maximums());
+				resultsTable.setColumn(MEAN_EXTENSION, extension.means());
+				resultsTable.setColumn(STD_DEV_EXTENSION, extension.standardDeviations());
+			}
+		}
+
+		private boolean hasColumn(STATISTICS_ENTRY entry) {
+			switch (entry) {
+			case IDENTIFIER:
+			case PIXEL_COUNT:
+				return true;
+			case BOUNDING_BOX_X:
+			case BOUNDING_BOX_Y:
+			case BOUNDING_BOX_Z:
+			case BOUNDING_BOX_END_X:
+			case BOUNDING_BOX_END_Y:
+			case BOUNDING_BOX_END_Z:
+			case BOUNDING_BOX_WIDTH:
+			case BOUNDING_BOX_HEIGHT:
+			case BOUNDING_BOX_DEPTH:
+			case SUM_X:
+			case SUM_Y:
+			case SUM_Z:
+			case CENTROID_X:
+			case CENTROID_Y:
+			case CENTROID_Z:
+			case SUM_DISTANCE_TO_CENTROID:
+			case MEAN_DISTANCE_TO_CENTROID:
+			case MAX_DISTANCE_TO_CENTROID:
+			case MAX_MEAN_DISTANCE_TO_CENTROID_RATIO:
+				return boxMinX != null;
+			default:
+				return intensity != null;
+			}
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.Arrays;
+
+/**
+ * Sparse contingency table of two label images counting the overlapping pixels of each
+ * (primary label, secondary label) pair. Only pairs which actually overlap are stored.
+ *
+ * Pairs are packed into one long key and kept in a primitive open-addressing hash table
+ * with linear probing to avoid boxing. Neighboring pixels mostly belong to the same pair,
+ * therefore the slot of the last pair is remembered.
+ * Instances are not thread safe, use one per thread and {@link #add(LabelOverlapMap)} them.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class LabelOverlapMap {
+
+	private static final long EMPTY = 0L;
+
+	private long[] keys;
+	private long[] counts;
+	private int size;
+	private int mask;
+	private long lastKey = EMPTY;
+	private int lastSlot = -1;
+
+	public interface PairConsumer {
+		void accept(int primaryLabel, int secondaryLabel, long pixelCount);
+	}
+
+
+	public LabelOverlapMap() {
+		this(1024);
+	}
+
+	public LabelOverlapMap(int expectedPairs) {
+		int capacity = Integer.highestOneBit(Math.max(16, expectedPairs * 2 - 1)) << 1;
+		keys = new long[capacity];
+		counts = new long[capacity];
+		mask = capacity - 1;
+	}
+
+
+	/**
+	 * Counts one overlapping pixel, both labels need to be > 0
+	 */
+	public void increment(int primaryLabel, int secondaryLabel) {
+		add(key(primaryLabel, secondaryLabel), 1);
+	}
+
+	public void add(LabelOverlapMap other) {
+		for (int slot = 0; slot < other.keys.length; slot++) {
+			if (other.keys[slot] != EMPTY) {
+				add(other.keys[slot], other.counts[slot]);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of overlapping pixels of the pair or 0
+	 */
+	public long get(int primaryLabel, int secondaryLabel) {
+		long key = key(primaryLabel, secondaryLabel);
+		for (int slot = slot(key); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return counts[slot];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the number of overlapping pairs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Passes all pairs sorted by primary and then secondary label
+	 */
+	public void forEach(PairConsumer consumer) {
+		long[] sortedKeys = new long[size];
+		int count = 0;
+		for (long key : keys) {
+			if (key != EMPTY) {
+				sortedKeys[count++] = key;
+			}
+		}
+		Arrays.sort(sortedKeys);
+		for (long key : sortedKeys) {
+			consumer.accept((int) (key >>> 32), (int) key, get((int) (key >>> 32), (int) key));
+		}
+	}
+
+
+	private void add(long key, long count) {
+		if (key == lastKey) {
+			counts[lastSlot] += count;
+			return;
+		}
+		int slot = slot(key);
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		if (keys[slot] == EMPTY) {
+			if ((size + 1) * 2 > keys.length) {
+				grow();
+				add(key, count);
+				return;
+			}
+			keys[slot] = key;
+			size++;
+		}
+		counts[slot] += count;
+		lastKey = key;
+		lastSlot = slot;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		long[] oldCounts = counts;
+		keys = new long[oldKeys.length * 2];
+		counts = new long[oldKeys.length * 2];
+		mask = keys.length - 1;
+		size = 0;
+		lastKey = EMPTY;
+		for (int slot = 0; slot < oldKeys.length; slot++) {
+			if (oldKeys[slot] != EMPTY) {
+				add(oldKeys[slot], oldCounts[slot]);
+			}
+		}
+		lastKey = EMPTY;
+	}
+
+	private static long key(int primaryLabel, int secondaryLabel) {
+		return ((long) primaryLabel << 32) | (secondaryLabel & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Murmur3 finalizer to spread the consecutive label numbers over the table
+	 */
+	private int slot(long key) {
+		long hash = key;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash & mask;
+	}
+}
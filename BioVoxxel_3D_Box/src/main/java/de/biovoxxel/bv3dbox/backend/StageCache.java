@@ -0,0 +1,140 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the intermediate results of a processing pipeline between previews. Each stage
+ * result is stored under a key made of the stage name, its parameters and the keys of
+ * its input stages, so the keys form the stage graph. If a parameter changes, only the
+ * keys of this stage and the stages downstream of it change and all other stages are
+ * taken from the cache.
+ *
+ * Cached buffers belong to the cache and must not be closed by the caller. They stay
+ * valid until the next {@link #trim()} or {@link #clear()}, so stages can use the results
+ * of other stages while they are computed. {@link #trim()} closes the least recently used
+ * results until the capacity is met and should be called once the pipeline is done.
+ * The cache needs to be cleared before the backend is cleared or the input changes.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class StageCache {
+
+	/**
+	 * Default capacity if nothing else is set in the BioVoxxel 3D Box settings
+	 */
+	public static final long DEFAULT_CAPACITY_MB = 1024;
+
+	private final LinkedHashMap<String, ComputeBuffer> results = new LinkedHashMap<String, ComputeBuffer>(16, 0.75f, true);
+
+	private long capacity;
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param capacity	maximum size of all cached results in bytes after {@link #trim()}, 0 = nothing is kept
+	 */
+	public StageCache(long capacity) {
+		this.capacity = Math.max(0, capacity);
+	}
+
+
+	/**
+	 * @param stage	name of the stage
+	 * @param parts	parameters of the stage and the keys of its input stages
+	 * @return the key of the stage result
+	 */
+	public static String key(String stage, Object... parts) {
+		StringBuilder key = new StringBuilder(stage).append('(');
+		for (int i = 0; i < parts.length; i++) {
+			if (i > 0) {
+				key.append(", ");
+			}
+			key.append(parts[i]);
+		}
+		return key.append(')').toString();
+	}
+
+
+	/**
+	 * @param stage	computes the result if it is not cached, the returned buffer is handed over to the cache
+	 * @return the cached or newly computed result
+	 */
+	public synchronized ComputeBuffer get(String key, Supplier<ComputeBuffer> stage) {
+		ComputeBuffer result = results.get(key);
+		if (result != null) {
+			hits++;
+			return result;
+		}
+		misses++;
+		result = stage.get();
+		results.put(key, result);
+		bytes += result.getSizeInBytes();
+		return result;
+	}
+
+	public synchronized boolean contains(String key) {
+		return results.containsKey(key);
+	}
+
+
+	/**
+	 * Closes the least recently used results until the capacity is met
+	 */
+	public synchronized void trim() {
+		Iterator<Map.Entry<String, ComputeBuffer>> iterator = results.entrySet().iterator();
+		while (bytes > capacity && iterator.hasNext()) {
+			ComputeBuffer result = iterator.next().getValue();
+			iterator.remove();
+			bytes -= result.getSizeInBytes();
+			result.close();
+		}
+	}
+
+	/**
+	 * Closes all results
+	 */
+	public synchronized void clear() {
+		for (ComputeBuffer result : results.values()) {
+			result.close();
+		}
+		results.clear();
+		bytes = 0;
+	}
+
+
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	public synchronized void setCapacity(long capacity) {
+		this.capacity = Math.max(0, capacity);
+		trim();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getSize() {
+		return results.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+
+	@Override
+	public synchronized String toString() {
+		return "StageCache [results=" + results.size() + ", bytes=" + bytes + ", capacity=" + capacity + ", hits=" + hits + ", misses=" + misses + "]";
+	}
+}
@@ -0,0 +1,407 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.util.Arrays;
+import java.util.List;
+
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor.Block;
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor.SliceWriter;
+import de.biovoxxel.bv3dbox.backend.cpu.ConnectedComponentsLabeling;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Connected components labeling of binary images which are too large for the device or
+ * heap memory. All pixels != 0 are foreground.
+ *
+ * The blocks of a {@link TiledFilterExecutor} without halo are labelled independently by
+ * the backend and only the provisional labels on the six faces of each block are kept. The
+ * labels touching across block faces, edges and corners are merged in a global union-find
+ * which is resolved to consecutive labels. A second pass labels the blocks again and writes
+ * them with their final labels. The backend labeling is deterministic, so both passes see
+ * the same provisional labels.
+ *
+ * The objects are the same as in the untiled labeling. The final labels 1..n follow the
+ * block order and the raster order of the first pixel of an object inside its first block,
+ * so they only equal the untiled labels if the image consists of a single block.
+ * {@link #labelToBuffer(ImagePlus)} stitches the labels into int planes, which are pushed in the
+ * label type fitting the label count, see {@link LabelBuffers}. ImageJ has no integer image type
+ * for more than 16 bits, so the label images handed over as slices are 32-bit float and limited
+ * to 2^24 labels, above which float is not exact anymore.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class TiledConnectedComponentsLabeling {
+
+	/**
+	 * Binary block, float labels and the pulled labels
+	 */
+	private static final int BUFFERS_PER_TILE = 3;
+
+	/**
+	 * Highest label a 32-bit float label image holds exactly
+	 */
+	public static final int MAXIMUM_FLOAT_LABEL = 1 << 24;
+
+	private final ComputeBackend backend;
+	private final boolean box;
+	private final TiledFilterExecutor executor;
+
+
+	/**
+	 * @param box	true for 8/26-connectivity, false for 4/6-connectivity (diamond)
+	 */
+	public TiledConnectedComponentsLabeling(ComputeBackend backend, boolean box) {
+		this.backend = backend;
+		this.box = box;
+		this.executor = new TiledFilterExecutor(backend, new int[3]).setBuffersPerTile(BUFFERS_PER_TILE);
+	}
+
+
+	public TiledConnectedComponentsLabeling setMemoryLimit(long memoryLimit) {
+		executor.setMemoryLimit(memoryLimit);
+		return this;
+	}
+
+	public TiledConnectedComponentsLabeling setParallelTiles(int parallelTiles) {
+		executor.setParallelTiles(parallelTiles);
+		return this;
+	}
+
+	/**
+	 * @see TiledFilterExecutor#setParallelTilesFromMemoryLimit(ImagePlus)
+	 */
+	public TiledConnectedComponentsLabeling setParallelTilesFromMemoryLimit(ImagePlus binary) {
+		executor.setParallelTilesFromMemoryLimit(binary);
+		return this;
+	}
+
+	public TiledConnectedComponentsLabeling setTileSize(int width, int height, int depth) {
+		executor.setTileSize(width, height, depth);
+		return this;
+	}
+
+
+	/**
+	 * @return the label image assembled in memory
+	 */
+	public ImagePlus label(ImagePlus binary) {
+		ImageStack output = new ImageStack(binary.getWidth(), binary.getHeight());
+		label(binary, (slice, processor) -> output.addSlice(processor));
+		ImagePlus result = new ImagePlus(binary.getTitle(), output);
+		result.setCalibration(binary.getCalibration());
+		return result;
+	}
+
+
+	/**
+	 * Hands over the label slices in ascending order
+	 *
+	 * @return the number of labels
+	 * @throws IllegalStateException if there are more labels than a float image holds exactly, use {@link #labelToBuffer(ImagePlus)} then
+	 */
+	public int label(ImagePlus binary, SliceWriter writer) {
+		MergedLabels merged = merge(binary);
+		if (merged.labelCount > MAXIMUM_FLOAT_LABEL) {
+			throw new IllegalStateException(merged.labelCount + " labels exceed the exact range of a 32-bit float label image");
+		}
+
+		executor.processBlocks(binary, (tile, block) -> {
+			ImagePlus labels = labelBlock(tile);
+			ImageStack stack = labels.getStack();
+			int offset = merged.labelOffset[block.index];
+			for (int z = 1; z <= stack.getSize(); z++) {
+				float[] pixels = (float[]) stack.getPixels(z);
+				for (int i = 0; i < pixels.length; i++) {
+					if (pixels[i] != 0) {
+						pixels[i] = merged.finalLabel[offset + (int) pixels[i]];
+					}
+				}
+			}
+			return labels;
+		}, writer);
+
+		return merged.labelCount;
+	}
+
+
+	/**
+	 * Stitches the final labels into int planes on the host, which are pushed once
+	 *
+	 * @return the label image of the type fitting the label count
+	 */
+	public ComputeBuffer labelToBuffer(ImagePlus binary) {
+		MergedLabels merged = merge(binary);
+		int width = binary.getWidth();
+		int[][] planes = new int[binary.getStackSize()][width * binary.getHeight()];
+
+		executor.visit(binary, (tile, block) -> {
+			ImageStack stack = labelBlock(tile).getStack();
+			int offset = merged.labelOffset[block.index];
+			for (int z = 0; z < block.depth; z++) {
+				ImageProcessor processor = stack.getProcessor(z + 1);
+				int[] plane = planes[block.z + z];
+				for (int y = 0; y < block.height; y++) {
+					for (int x = 0; x < block.width; x++) {
+						int label = (int) processor.getf(x, y);
+						if (label != 0) {
+							plane[(block.y + y) * width + block.x + x] = merged.finalLabel[offset + label];
+						}
+					}
+				}
+			}
+		});
+
+		return backend.pushLabels(planes, width, binary.getHeight(), merged.labelCount);
+	}
+
+
+	/**
+	 * First pass, labels the blocks and merges the labels touching across the block faces
+	 */
+	private MergedLabels merge(ImagePlus binary) {
+		List<Block> blocks = executor.getBlocks(binary);
+		BlockGrid grid = new BlockGrid(blocks);
+		Faces[] faces = new Faces[blocks.size()];
+
+		executor.visit(binary, (tile, block) -> {
+			ImagePlus labels = labelBlock(tile);
+			faces[block.index] = new Faces(block, labels.getStack());
+		});
+
+		int[] labelOffset = new int[blocks.size()];
+		int totalLabels = 0;
+		for (int b = 0; b < blocks.size(); b++) {
+			labelOffset[b] = totalLabels;
+			totalLabels += faces[b].labelCount;
+		}
+
+		int[] parent = new int[totalLabels + 1];
+		for (int label = 0; label <= totalLabels; label++) {
+			parent[label] = label;
+		}
+		int[][] backwardOffsets = ConnectedComponentsLabeling.backwardOffsets(box, binary.getStackSize() > 1);
+		for (Block block : blocks) {
+			mergeFaces(block, faces, grid, labelOffset, backwardOffsets, parent, binary.getWidth(), binary.getHeight(), binary.getStackSize());
+		}
+		Arrays.fill(faces, null);
+
+		int[] finalLabel = new int[totalLabels + 1];
+		int labelCount = 0;
+		for (int label = 1; label <= totalLabels; label++) {
+			int root = find(parent, label);
+			finalLabel[label] = root == label ? ++labelCount : finalLabel[root];
+		}
+
+		return new MergedLabels(labelOffset, finalLabel, labelCount);
+	}
+
+
+	private ImagePlus labelBlock(ComputeBuffer tile) {
+		ComputeBuffer label_tile = backend.create(tile.getDimensions(), BufferType.FLOAT);
+		try {
+			if (box) {
+				backend.connectedComponentsLabelingBox(tile, label_tile);
+			} else {
+				backend.connectedComponentsLabelingDiamond(tile, label_tile);
+			}
+			return backend.pull(label_tile);
+		} finally {
+			label_tile.close();
+		}
+	}
+
+
+	/**
+	 * Joins the labels of all pixels on the faces of the block with their neighbors in blocks
+	 * before them in raster order, which covers every touching pair of pixels once
+	 */
+	private static void mergeFaces(Block block, Faces[] faces, BlockGrid grid, int[] labelOffset, int[][] backwardOffsets, int[] parent, int width, int height, int depth) {
+		Faces own = faces[block.index];
+		int xLast = block.x + block.width - 1;
+		int yLast = block.y + block.height - 1;
+		int zLast = block.z + block.depth - 1;
+		for (int z = block.z; z <= zLast; z++) {
+			for (int y = block.y; y <= yLast; y++) {
+				boolean faceRow = z == block.z || z == zLast || y == block.y || y == yLast;
+				int step = faceRow ? 1 : Math.max(1, block.width - 1);
+				for (int x = block.x; x <= xLast; x += step) {
+					int label = own.get(x, y, z);
+					if (label == 0) {
+						continue;
+					}
+					for (int[] offset : backwardOffsets) {
+						int nx = x + offset[0];
+						int ny = y + offset[1];
+						int nz = z + offset[2];
+						if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth || (nx >= block.x && ny >= block.y && nz >= block.z && nx <= xLast && ny <= yLast)) {
+							continue;
+						}
+						Block neighborBlock = grid.find(nx, ny, nz);
+						int neighbor = faces[neighborBlock.index].get(nx, ny, nz);
+						if (neighbor != 0) {
+							union(parent, labelOffset[block.index] + label, labelOffset[neighborBlock.index] + neighbor);
+						}
+					}
+				}
+			}
+		}
+	}
+
+
+	private static int find(int[] parent, int label) {
+		int root = label;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[label] != root) {
+			int next = parent[label];
+			parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Roots always point to the smallest label of a component
+	 */
+	private static void union(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA < rootB) {
+			parent[rootB] = rootA;
+		} else if (rootB < rootA) {
+			parent[rootA] = rootB;
+		}
+	}
+
+
+
+	/**
+	 * Offset of the provisional labels of each block and their final label
+	 */
+	private static class MergedLabels {
+
+		final int[] labelOffset;
+		final int[] finalLabel;
+		final int labelCount;
+
+		MergedLabels(int[] labelOffset, int[] finalLabel, int labelCount) {
+			this.labelOffset = labelOffset;
+			this.finalLabel = finalLabel;
+			this.labelCount = labelCount;
+		}
+	}
+
+
+	/**
+	 * Provisional labels on the six faces of a block and its number of labels
+	 */
+	private static class Faces {
+
+		final Block block;
+		final int labelCount;
+		final int[] zLow;
+		final int[] zHigh;
+		final int[] yLow;
+		final int[] yHigh;
+		final int[] xLow;
+		final int[] xHigh;
+
+		Faces(Block block, ImageStack labels) {
+			this.block = block;
+			int w = block.width;
+			int h = block.height;
+			int d = block.depth;
+			zLow = new int[w * h];
+			zHigh = new int[w * h];
+			yLow = new int[w * d];
+			yHigh = new int[w * d];
+			xLow = new int[h * d];
+			xHigh = new int[h * d];
+
+			int max = 0;
+			for (int z = 0; z < d; z++) {
+				ImageProcessor processor = labels.getProcessor(z + 1);
+				for (int y = 0; y < h; y++) {
+					for (int x = 0; x < w; x++) {
+						int label = (int) processor.getf(x, y);
+						max = Math.max(max, label);
+						if (z == 0) {
+							zLow[y * w + x] = label;
+						}
+						if (z == d - 1) {
+							zHigh[y * w + x] = label;
+						}
+						if (y == 0) {
+							yLow[z * w + x] = label;
+						}
+						if (y == h - 1) {
+							yHigh[z * w + x] = label;
+						}
+						if (x == 0) {
+							xLow[z * h + y] = label;
+						}
+						if (x == w - 1) {
+							xHigh[z * h + y] = label;
+						}
+					}
+				}
+			}
+			labelCount = max;
+		}
+
+		/**
+		 * Label at image coordinates on one of the faces
+		 */
+		int get(int x, int y, int z) {
+			x -= block.x;
+			y -= block.y;
+			z -= block.z;
+			if (z == 0) {
+				return zLow[y * block.width + x];
+			} else if (z == block.depth - 1) {
+				return zHigh[y * block.width + x];
+			} else if (y == 0) {
+				return yLow[z * block.width + x];
+			} else if (y == block.height - 1) {
+				return yHigh[z * block.width + x];
+			} else if (x == 0) {
+				return xLow[z * block.height + y];
+			} else if (x == block.width - 1) {
+				return xHigh[z * block.height + y];
+			}
+			throw new IllegalArgumentException("Not on a face of " + block + ": " + x + ", " + y + ", " + z);
+		}
+	}
+
+
+	/**
+	 * Finds the block containing a pixel from the block start coordinates
+	 */
+	private static class BlockGrid {
+
+		final int[] xStarts;
+		final int[] yStarts;
+		final int[] zStarts;
+		final List<Block> blocks;
+
+		BlockGrid(List<Block> blocks) {
+			this.blocks = blocks;
+			xStarts = blocks.stream().mapToInt(block -> block.x).distinct().sorted().toArray();
+			yStarts = blocks.stream().mapToInt(block -> block.y).distinct().sorted().toArray();
+			zStarts = blocks.stream().mapToInt(block -> block.z).distinct().sorted().toArray();
+		}
+
+		Block find(int x, int y, int z) {
+			int index = (cell(zStarts, z) * yStarts.length + cell(yStarts, y)) * xStarts.length + cell(xStarts, x);
+			return blocks.get(index);
+		}
+
+		private static int cell(int[] starts, int value) {
+			int index = Arrays.binarySearch(starts, value);
+			return index >= 0 ? index : -index - 2;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.biovoxxel.bv3dbox.backend.cpu.ParallelExecutor;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Runs a neighborhood filter on blocks of an image which are small enough for the
+ * device or heap memory and stitches the results. Each block is pushed with a halo
+ * of at least the filter reach on every side which is not an image border, so that
+ * the filter sees the same neighborhood as in the untiled run and the stitched result
+ * is identical to it. Filters which combine several steps need the sum of the reach
+ * of all steps, e.g. an opening twice the radius.
+ *
+ * The input can be a virtual stack. Finished slices are handed to a {@link SliceWriter}
+ * in ascending order as soon as all blocks of their slab are done, so the output does not
+ * need to be kept in memory either.
+ *
+ * Operations which are not a plain filter, e.g. a labeling which needs a second pass, can
+ * {@link #visit} the blocks and {@link #processBlocks} them with access to the {@link Block}
+ * position. The block layout only depends on the image size and the settings.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class TiledFilterExecutor {
+
+	/**
+	 * Estimated number of float buffers a filter uses at the same time per block
+	 */
+	public static final int DEFAULT_BUFFERS_PER_TILE = 4;
+
+	private final ComputeBackend backend;
+	private final int[] halo;
+	private long memoryLimit;
+	private int buffersPerTile = DEFAULT_BUFFERS_PER_TILE;
+	private int parallelTiles = 1;
+	private long blockMemoryLimit;
+	private int[] tileSize;
+
+
+	/**
+	 * @param halo	filter reach in pixels in x, y and z
+	 */
+	public TiledFilterExecutor(ComputeBackend backend, int[] halo) {
+		this.backend = backend;
+		this.halo = halo.clone();
+		this.memoryLimit = ComputeBackendFactory.getTileMemoryLimit();
+		this.blockMemoryLimit = memoryLimit;
+	}
+
+
+	/**
+	 * @param memoryLimit	maximum bytes of all buffers of all blocks processed at the same time, 0 = no tiling
+	 */
+	public TiledFilterExecutor setMemoryLimit(long memoryLimit) {
+		this.memoryLimit = Math.max(0, memoryLimit);
+		this.blockMemoryLimit = this.memoryLimit;
+		return this;
+	}
+
+	public TiledFilterExecutor setBuffersPerTile(int buffersPerTile) {
+		this.buffersPerTile = Math.max(1, buffersPerTile);
+		return this;
+	}
+
+	/**
+	 * @param parallelTiles	maximum number of blocks processed at the same time, less if the memory limit does not allow it
+	 */
+	public TiledFilterExecutor setParallelTiles(int parallelTiles) {
+		this.parallelTiles = Math.max(1, parallelTiles);
+		return this;
+	}
+
+	/**
+	 * Processes as many blocks at the same time as the memory limit divided by the footprint of a block
+	 * allows, at most one per processor core. The blocks are fitted into an equal share of the memory
+	 * limit, but they are not made smaller than twice their halo, since most of the work would go into
+	 * the halo otherwise.
+	 */
+	public TiledFilterExecutor setParallelTilesFromMemoryLimit(ImagePlus input) {
+		int width = input.getWidth();
+		int height = input.getHeight();
+		int depth = input.getStackSize();
+		int cores = Runtime.getRuntime().availableProcessors();
+		parallelTiles = 1;
+		blockMemoryLimit = memoryLimit;
+		if (memoryLimit <= 0) {
+			return this;
+		}
+		if (tileSize != null) {
+			int[] size = getTileSize(width, height, depth);
+			parallelTiles = (int) Math.max(1, Math.min(cores, memoryLimit / blockBytes(size, width, height, depth)));
+			return this;
+		}
+		for (int tiles = cores; tiles > 1; tiles--) {
+			long share = memoryLimit / tiles;
+			int[] size = fittingTileSize(width, height, depth, share);
+			boolean worthIt = blockBytes(size, width, height, depth) <= share;
+			int[] extent = {width, height, depth};
+			for (int d = 0; d < 3; d++) {
+				worthIt &= size[d] >= Math.min(extent[d], 2 * halo[d]);
+			}
+			if (worthIt) {
+				parallelTiles = (int) Math.min(tiles, memoryLimit / blockBytes(size, width, height, depth));
+				blockMemoryLimit = share;
+				break;
+			}
+		}
+		return this;
+	}
+
+	public int getParallelTiles() {
+		return parallelTiles;
+	}
+
+	/**
+	 * Fixed block size without halo instead of the largest one fitting into the memory limit
+	 */
+	public TiledFilterExecutor setTileSize(int width, int height, int depth) {
+		this.tileSize = new int[] {Math.max(1, width), Math.max(1, height), Math.max(1, depth)};
+		return this;
+	}
+
+
+	/**
+	 * @return true if the complete image including all filter buffers exceeds the memory limit
+	 */
+	public static boolean needsTiling(ImagePlus image, long memoryLimit) {
+		return memoryLimit > 0 && bytes(image.getWidth(), image.getHeight(), image.getNSlices(), DEFAULT_BUFFERS_PER_TILE) > memoryLimit;
+	}
+
+	/**
+	 * @return the reach of a Gaussian blur with a kernel size of 8 sigma as in CLIJ2
+	 */
+	public static int[] gaussianHalo(double sigmaX, double sigmaY, double sigmaZ) {
+		return new int[] {gaussianReach(sigmaX), gaussianReach(sigmaY), gaussianReach(sigmaZ)};
+	}
+
+	/**
+	 * @return the reach of sphere and box shaped filters (minimum, maximum, mean, median, variance)
+	 */
+	public static int[] sphereHalo(double radiusX, double radiusY, double radiusZ) {
+		return new int[] {sphereReach(radiusX), sphereReach(radiusY), sphereReach(radiusZ)};
+	}
+
+	/**
+	 * @return the reach of filters applied one after another
+	 */
+	public static int[] sum(int[]... halos) {
+		int[] sum = new int[3];
+		for (int[] halo : halos) {
+			for (int d = 0; d < 3; d++) {
+				sum[d] += halo[d];
+			}
+		}
+		return sum;
+	}
+
+	private static int gaussianReach(double sigma) {
+		return sigma > 0 ? (int) Math.ceil(4 * sigma) + 1 : 0;
+	}
+
+	private static int sphereReach(double radius) {
+		return radius > 0 ? (int) Math.ceil(radius) : 0;
+	}
+
+	private static long bytes(long width, long height, long depth, int buffers) {
+		return width * height * depth * BufferType.FLOAT.bytesPerPixel * buffers;
+	}
+
+	/**
+	 * @return the bytes of all buffers of a block of the given size including its halo
+	 */
+	private long blockBytes(int[] size, int width, int height, int depth) {
+		return bytes(Math.min(width, size[0] + 2L * halo[0]), Math.min(height, size[1] + 2L * halo[1]), Math.min(depth, size[2] + 2L * halo[2]), buffersPerTile);
+	}
+
+
+	/**
+	 * @return the blocks in processing order, {@link Block#index} is the position in the list
+	 */
+	public List<Block> getBlocks(ImagePlus input) {
+		List<Block> blocks = new ArrayList<Block>();
+		for (Tile tile : createTiles(input.getWidth(), input.getHeight(), input.getStackSize())) {
+			blocks.add(tile.block);
+		}
+		return blocks;
+	}
+
+
+	/**
+	 * @return the filtered image assembled in memory
+	 */
+	public ImagePlus process(ImagePlus input, TileFilter filter) {
+		ImageStack output = new ImageStack(input.getWidth(), input.getHeight());
+		process(input, filter, (slice, processor) -> output.addSlice(processor));
+		ImagePlus result = new ImagePlus(input.getTitle(), output);
+		result.setCalibration(input.getCalibration());
+		return result;
+	}
+
+
+	/**
+	 * Filters all blocks and hands over the finished slices in ascending order
+	 */
+	public void process(ImagePlus input, TileFilter filter, SliceWriter writer) {
+		processBlocks(input, (tile, block) -> {
+			ComputeBuffer filtered_tile = filter.apply(tile);
+			ImagePlus result = backend.pull(filtered_tile);
+			filtered_tile.close();
+			return result;
+		}, writer);
+	}
+
+
+	/**
+	 * Processes all blocks and hands over the finished slices in ascending order
+	 */
+	public void processBlocks(ImagePlus input, BlockProcessor processor, SliceWriter writer) {
+		ImageStack stack = input.getStack();
+		Stitcher stitcher = new Stitcher(stack.getWidth(), stack.getHeight(), writer);
+		run(stack, (tile, tile_image) -> stitcher.add(tile, processor.process(tile_image, tile.block)));
+	}
+
+
+	/**
+	 * Pushes all blocks to the visitor without assembling an output
+	 */
+	public void visit(ImagePlus input, BlockVisitor visitor) {
+		run(input.getStack(), (tile, tile_image) -> visitor.visit(tile_image, tile.block));
+	}
+
+
+	private List<Tile> createTiles(int width, int height, int depth) {
+		int[] size = getTileSize(width, height, depth);
+		List<Tile> tiles = new ArrayList<Tile>();
+		for (int z = 0; z < depth;) {
+			int slabDepth = Math.min(size[2], depth - z);
+			if (depth - z - slabDepth == 1) {
+				slabDepth++;	//no single slice at the end
+			}
+			Slab slab = new Slab(z, slabDepth);
+			z += slabDepth;
+			for (int y = 0; y < height; y += size[1]) {
+				for (int x = 0; x < width; x += size[0]) {
+					Block block = new Block(tiles.size(), x, y, slab.firstSlice, Math.min(size[0], width - x), Math.min(size[1], height - y), slab.depth);
+					tiles.add(new Tile(slab, block));
+					slab.remaining++;
+				}
+			}
+		}
+		return tiles;
+	}
+
+	private int[] getTileSize(int width, int height, int depth) {
+		int[] size = tileSize != null ? tileSize.clone() : fittingTileSize(width, height, depth);
+		if (depth > 1) {
+			size[2] = Math.max(size[2], 2);	//3D images are filtered in 3D blocks
+		}
+		return size;
+	}
+
+
+	private void run(ImageStack stack, TileTask task) {
+		int width = stack.getWidth();
+		int height = stack.getHeight();
+		int depth = stack.getSize();
+		int[] size = getTileSize(width, height, depth);
+		List<Tile> tiles = createTiles(width, height, depth);
+
+		long tileBytes = blockBytes(size, width, height, depth);
+		int workers = (int) Math.min(Math.min(parallelTiles, tiles.size()), memoryLimit > 0 ? Math.max(1, memoryLimit / tileBytes) : parallelTiles);
+		AtomicInteger next = new AtomicInteger();
+		ParallelExecutor executor = new ParallelExecutor(workers);
+		try {
+			executor.forEach(0, workers, worker -> {
+				int index;
+				while ((index = next.getAndIncrement()) < tiles.size()) {
+					Tile tile = tiles.get(index);
+					ComputeBuffer tile_image = backend.push(readTile(stack, tile));
+					try {
+						task.run(tile, tile_image);
+					} finally {
+						tile_image.close();
+					}
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * Halves the block along z first and then along the longer side in xy until it fits into the memory limit of a block
+	 */
+	int[] fittingTileSize(int width, int height, int depth) {
+		return fittingTileSize(width, height, depth, blockMemoryLimit);
+	}
+
+	private int[] fittingTileSize(int width, int height, int depth, long limit) {
+		int[] size = {width, height, depth};
+		if (limit <= 0) {
+			return size;
+		}
+		while (blockBytes(size, width, height, depth) > limit) {
+			if (size[2] > 2) {
+				size[2] = (size[2] + 1) / 2;
+			} else if (size[0] > 1 && size[0] >= size[1]) {
+				size[0] = (size[0] + 1) / 2;
+			} else if (size[1] > 1) {
+				size[1] = (size[1] + 1) / 2;
+			} else {
+				break;
+			}
+		}
+		return size;
+	}
+
+
+	private ImagePlus readTile(ImageStack stack, Tile tile) {
+		Rectangle bounds = new Rectangle(0, 0, stack.getWidth(), stack.getHeight());
+		Rectangle outer = new Rectangle(tile.core.x - halo[0], tile.core.y - halo[1], tile.core.width + 2 * halo[0], tile.core.height + 2 * halo[1]).intersection(bounds);
+		int firstSlice = Math.max(0, tile.slab.firstSlice - halo[2]);
+		int lastSlice = Math.min(stack.getSize(), tile.slab.firstSlice + tile.slab.depth + halo[2]);
+
+		ImageStack tileStack = new ImageStack(outer.width, outer.height);
+		synchronized (stack) {
+			for (int z = firstSlice; z < lastSlice; z++) {
+				ImageProcessor processor = stack.getProcessor(z + 1);
+				processor.setRoi(outer);
+				tileStack.addSlice(processor.crop());
+			}
+		}
+
+		tile.offset = new int[] {tile.core.x - outer.x, tile.core.y - outer.y, tile.slab.firstSlice - firstSlice};
+		return new ImagePlus("tile", tileStack);
+	}
+
+
+
+	/**
+	 * Filter applied to each block, the returned buffer is closed by the executor
+	 */
+	@FunctionalInterface
+	public interface TileFilter {
+		public ComputeBuffer apply(ComputeBuffer tile);
+	}
+
+	/**
+	 * Block operation with access to the block position, the returned image has the size of the pushed
+	 * block including the halo
+	 */
+	@FunctionalInterface
+	public interface BlockProcessor {
+		public ImagePlus process(ComputeBuffer tile, Block block);
+	}
+
+	/**
+	 * Receives each pushed block, the buffer is closed by the executor afterwards
+	 */
+	@FunctionalInterface
+	public interface BlockVisitor {
+		public void visit(ComputeBuffer tile, Block block);
+	}
+
+	/**
+	 * Receives the finished slices
+	 */
+	@FunctionalInterface
+	public interface SliceWriter {
+		/**
+		 * @param slice	1-based slice number
+		 */
+		public void write(int slice, ImageProcessor processor);
+	}
+
+
+
+	private interface TileTask {
+		void run(Tile tile, ComputeBuffer tile_image);
+	}
+
+
+
+	/**
+	 * Position and size of a block without halo
+	 */
+	public static final class Block {
+
+		public final int index;
+		public final int x;
+		public final int y;
+		public final int z;
+		public final int width;
+		public final int height;
+		public final int depth;
+
+		Block(int index, int x, int y, int z, int width, int height, int depth) {
+			this.index = index;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.width = width;
+			this.height = height;
+			this.depth = depth;
+		}
+
+		@Override
+		public String toString() {
+			return "Block " + index + " [" + x + ", " + y + ", " + z + ", " + width + " x " + height + " x " + depth + "]";
+		}
+	}
+
+
+	private static class Slab {
+
+		final int firstSlice;
+		final int depth;
+		int remaining;
+		ImageProcessor[] planes;
+
+		Slab(int firstSlice, int depth) {
+			this.firstSlice = firstSlice;
+			this.depth = depth;
+		}
+	}
+
+	private static class Tile {
+
+		final Slab slab;
+		final Block block;
+		final Rectangle core;
+		int[] offset;
+
+		Tile(Slab slab, Block block) {
+			this.slab = slab;
+			this.block = block;
+			this.core = new Rectangle(block.x, block.y, block.width, block.height);
+		}
+	}
+
+
+	/**
+	 * Copies the block cores into their slab and writes the slabs in order once they are complete
+	 */
+	private static class Stitcher {
+
+		private final int width;
+		private final int height;
+		private final SliceWriter writer;
+		private final TreeMap<Integer, Slab> finished = new TreeMap<Integer, Slab>();
+		private int nextSlice = 0;
+
+		Stitcher(int width, int height, SliceWriter writer) {
+			this.width = width;
+			this.height = height;
+			this.writer = writer;
+		}
+
+		void add(Tile tile, ImagePlus result) {
+			Slab slab = tile.slab;
+			ImageStack resultStack = result.getStack();
+			synchronized (slab) {
+				if (slab.planes == null) {
+					slab.planes = new ImageProcessor[slab.depth];
+					for (int z = 0; z < slab.depth; z++) {
+						slab.planes[z] = resultStack.getProcessor(1).createProcessor(width, height);
+					}
+				}
+			}
+			for (int z = 0; z < slab.depth; z++) {
+				ImageProcessor processor = resultStack.getProcessor(tile.offset[2] + z + 1);
+				processor.setRoi(tile.offset[0], tile.offset[1], tile.core.width, tile.core.height);
+				ImageProcessor core = processor.crop();
+				synchronized (slab) {
+					slab.planes[z].insert(core, tile.core.x, tile.core.y);
+				}
+			}
+			synchronized (this) {
+				synchronized (slab) {
+					slab.remaining--;
+					if (slab.remaining > 0) {
+						return;
+					}
+				}
+				finished.put(slab.firstSlice, slab);
+				while (!finished.isEmpty() && finished.firstKey() == nextSlice) {
+					Slab complete = finished.pollFirstEntry().getValue();
+					for (int z = 0; z < complete.depth; z++) {
+						writer.write(complete.firstSlice + z + 1, complete.planes[z]);
+					}
+					nextSlice += complete.depth;
+					complete.planes = null;
+				}
+			}
+		}
+	}
+}
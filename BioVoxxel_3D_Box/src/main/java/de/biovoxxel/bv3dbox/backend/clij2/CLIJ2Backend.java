@@ -0,0 +1,837 @@
+package de.biovoxxel.bv3dbox.backend.clij2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import de.biovoxxel.bv3dbox.backend.BufferPool;
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.cpu.DistanceTransform;
+import de.biovoxxel.bv3dbox.backend.cpu.ParallelExecutor;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.ResultsTable;
+import ij.process.FloatProcessor;
+import ij.process.ShortProcessor;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij2.CLIJ2;
+import net.haesleinhuepf.clijx.imagej2.ImageJ2Tubeness;
+import net.haesleinhuepf.clijx.plugins.BinaryFillHolesSliceBySlice;
+
+/**
+ * {@link ComputeBackend} executing all operations on the OpenCL device of a CLIJ2 instance.
+ * Several backends can share one CLIJ2 instance, each of them only releases its own buffers
+ * and their operations are executed one after the other on the device.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CLIJ2Backend implements ComputeBackend {
+
+	private final CLIJ2 clij2;
+
+	private final boolean closeCLIJ2;
+
+	private final ImageJ2Tubeness ij2Tubeness = new ImageJ2Tubeness();
+
+	private ParallelExecutor executor;
+
+	private final BufferPool<ClearCLBuffer> bufferPool = new BufferPool<ClearCLBuffer>(BufferPool.DEFAULT_CAPACITY_MB << 20, this::closeOnDevice);
+
+	private final BufferTracker bufferTracker = new BufferTracker();
+
+	private final Set<CLIJ2Buffer> buffers = Collections.newSetFromMap(new IdentityHashMap<CLIJ2Buffer, Boolean>());
+
+	private Runnable closeListener;
+
+	public CLIJ2Backend(CLIJ2 clij2) {
+		this(clij2, true);
+	}
+
+	/**
+	 * @param closeCLIJ2	false if the CLIJ2 instance is shared and stays open when this backend is closed
+	 */
+	public CLIJ2Backend(CLIJ2 clij2, boolean closeCLIJ2) {
+		this.clij2 = clij2;
+		this.closeCLIJ2 = closeCLIJ2;
+	}
+
+	public CLIJ2 getCLIJ2() {
+		return clij2;
+	}
+
+	@Override
+	public String getName() {
+		return "CLIJ2 (" + clij2.getGPUName() + ")";
+	}
+
+	/**
+	 * Releases the buffers of this backend, buffers of other backends on the same CLIJ2 instance stay
+	 */
+	@Override
+	public void clear() {
+		List<CLIJ2Buffer> toBeClosed;
+		synchronized (buffers) {
+			toBeClosed = new ArrayList<CLIJ2Buffer>(buffers);
+		}
+		for (CLIJ2Buffer buffer : toBeClosed) {
+			buffer.close();
+		}
+		bufferPool.drain();
+	}
+
+	@Override
+	public void close() {
+		clear();
+		if (closeCLIJ2) {
+			clij2.close();
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		notifyCloseListener();
+	}
+
+	/**
+	 * @param listener	called once after this backend has been closed, used to track the sessions on a shared device
+	 */
+	public synchronized void setCloseListener(Runnable listener) {
+		this.closeListener = listener;
+	}
+
+	private void notifyCloseListener() {
+		Runnable listener;
+		synchronized (this) {
+			listener = closeListener;
+			closeListener = null;
+		}
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Threads for operations which are not available in CLIJ2 and run on the CPU
+	 */
+	private synchronized ParallelExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ParallelExecutor(Runtime.getRuntime().availableProcessors());
+		}
+		return executor;
+	}
+
+
+	private static CLIJ2Buffer clij2Buffer(ComputeBuffer buffer) {
+		if (buffer instanceof CLIJ2Buffer) {
+			return (CLIJ2Buffer) buffer;
+		}
+		throw new IllegalArgumentException("Buffer " + buffer + " does not belong to a CLIJ2 backend");
+	}
+
+	private static ClearCLBuffer cl(ComputeBuffer buffer) {
+		return clij2Buffer(buffer).getClearCLBuffer();
+	}
+
+	private ComputeBuffer wrap(ClearCLBuffer buffer) {
+		return track(new CLIJ2Buffer(buffer, this, bufferPool.getGeneration()));
+	}
+
+	private ComputeBuffer track(CLIJ2Buffer buffer) {
+		synchronized (buffers) {
+			buffers.add(buffer);
+		}
+		bufferTracker.allocated(buffer);
+		return buffer;
+	}
+
+	/**
+	 * Called by {@link CLIJ2Buffer#close()}, the ClearCLBuffer goes back to the pool if it is not too large
+	 */
+	void released(CLIJ2Buffer buffer, long generation) {
+		synchronized (buffers) {
+			buffers.remove(buffer);
+		}
+		bufferTracker.released(buffer);
+		if (!bufferPool.recycle(buffer.getDimensions(), buffer.getType(), buffer.getClearCLBuffer(), buffer.getSizeInBytes(), generation)) {
+			closeOnDevice(buffer.getClearCLBuffer());
+		}
+	}
+
+	private void closeOnDevice(ClearCLBuffer buffer) {
+		synchronized (clij2) {
+			buffer.close();
+		}
+	}
+
+	/**
+	 * @return a recycled buffer reset to 0 or null if the pool has none of these dimensions and type
+	 */
+	private ComputeBuffer reuse(long[] dimensions, BufferType type) {
+		long generation = bufferPool.getGeneration();
+		ClearCLBuffer buffer = bufferPool.acquire(dimensions, type);
+		if (buffer == null) {
+			return null;
+		}
+		clij2.set(buffer, 0);
+		return track(new CLIJ2Buffer(buffer, this, generation));
+	}
+
+	@Override
+	public BufferPool<ClearCLBuffer> getBufferPool() {
+		return bufferPool;
+	}
+
+	@Override
+	public BufferTracker getBufferTracker() {
+		return bufferTracker;
+	}
+
+
+	@Override
+	public ComputeBuffer create(ComputeBuffer template) {
+		synchronized (clij2) {
+			ComputeBuffer buffer = reuse(template.getDimensions(), template.getType());
+			return buffer != null ? buffer : wrap(clij2.create(cl(template)));
+		}
+	}
+
+	@Override
+	public ComputeBuffer create(long[] dimensions, BufferType type) {
+		synchronized (clij2) {
+			ComputeBuffer buffer = reuse(dimensions, type);
+			return buffer != null ? buffer : wrap(clij2.create(dimensions, CLIJ2Buffer.toNativeType(type)));
+		}
+	}
+
+	@Override
+	public ComputeBuffer create(long width, long height, long depth) {
+		synchronized (clij2) {
+			ComputeBuffer buffer = reuse(new long[] {width, height, depth}, BufferType.FLOAT);
+			return buffer != null ? buffer : wrap(clij2.create(width, height, depth));
+		}
+	}
+
+	@Override
+	public ComputeBuffer push(ImagePlus image) {
+		synchronized (clij2) {
+			return wrap(clij2.push(image));
+		}
+	}
+
+	@Override
+	public ComputeBuffer pushCurrentSelection(ImagePlus image) {
+		synchronized (clij2) {
+			return wrap(clij2.pushCurrentSelection(image));
+		}
+	}
+
+	@Override
+	public ImagePlus pull(ComputeBuffer buffer) {
+		if (buffer.getType() == BufferType.UNSIGNED_INT) {
+			return pullUnsignedInt(clij2Buffer(buffer));
+		}
+		synchronized (clij2) {
+			return clij2.pull(cl(buffer));
+		}
+	}
+
+	/**
+	 * ImageJ has no 32-bit integer images, UNSIGNED_INT labels are pulled as float like on the CPU backend
+	 */
+	private static ImagePlus pullUnsignedInt(CLIJ2Buffer buffer) {
+		int[] values = buffer.readUnsignedInts();
+		int width = (int) buffer.getWidth();
+		int height = (int) buffer.getHeight();
+		int planeSize = width * height;
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < buffer.getDepth(); z++) {
+			float[] plane = new float[planeSize];
+			for (int i = 0; i < planeSize; i++) {
+				plane[i] = values[z * planeSize + i] & 0xffffffffL;
+			}
+			stack.addSlice(new FloatProcessor(width, height, plane));
+		}
+		ImagePlus image = new ImagePlus(buffer.getName(), stack);
+		image.setDimensions(1, stack.getSize(), 1);
+		return image;
+	}
+
+	@Override
+	public ImagePlus pullBinary(ComputeBuffer buffer) {
+		synchronized (clij2) {
+			return clij2.pullBinary(cl(buffer));
+		}
+	}
+
+	/**
+	 * UNSIGNED_SHORT labels are pushed as 16-bit image, UNSIGNED_INT labels are written as one block of ints
+	 */
+	@Override
+	public ComputeBuffer pushLabels(int[][] planes, int width, int height, int maximumLabel) {
+		long[] dimensions = planes.length > 1 ? new long[] {width, height, planes.length} : new long[] {width, height};
+		ComputeBuffer labels = LabelBuffers.create(this, dimensions, maximumLabel);
+		if (labels.getType() == BufferType.UNSIGNED_SHORT) {
+			labels.close();
+			ImageStack stack = new ImageStack(width, height);
+			for (int[] plane : planes) {
+				short[] pixels = new short[plane.length];
+				for (int i = 0; i < plane.length; i++) {
+					pixels[i] = (short) plane[i];
+				}
+				stack.addSlice(new ShortProcessor(width, height, pixels, null));
+			}
+			return push(new ImagePlus("labels", stack));
+		}
+		int planeSize = width * height;
+		int[] values = new int[Math.multiplyExact(planeSize, planes.length)];
+		for (int z = 0; z < planes.length; z++) {
+			System.arraycopy(planes[z], 0, values, z * planeSize, planeSize);
+		}
+		clij2Buffer(labels).writeUnsignedInts(values);
+		return labels;
+	}
+
+	@Override
+	public void copy(ComputeBuffer source, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.copy(cl(source), cl(destination));
+		}
+	}
+
+	@Override
+	public void set(ComputeBuffer buffer, double value) {
+		synchronized (clij2) {
+			clij2.set(cl(buffer), value);
+		}
+	}
+
+	@Override
+	public void threshold(ComputeBuffer source, ComputeBuffer destination, double threshold) {
+		synchronized (clij2) {
+			clij2.threshold(cl(source), cl(destination), threshold);
+		}
+	}
+
+	@Override
+	public void automaticThreshold(ComputeBuffer source, ComputeBuffer destination, String method) {
+		synchronized (clij2) {
+			clij2.automaticThreshold(cl(source), cl(destination), method);
+		}
+	}
+
+	@Override
+	public void mask(ComputeBuffer source, ComputeBuffer mask, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.mask(cl(source), cl(mask), cl(destination));
+		}
+	}
+
+	@Override
+	public void binaryAnd(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.binaryAnd(cl(source1), cl(source2), cl(destination));
+		}
+	}
+
+	@Override
+	public void subtractImages(ComputeBuffer subtrahend, ComputeBuffer minuend, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.subtractImages(cl(subtrahend), cl(minuend), cl(destination));
+		}
+	}
+
+	@Override
+	public void divideImages(ComputeBuffer divident, ComputeBuffer divisor, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.divideImages(cl(divident), cl(divisor), cl(destination));
+		}
+	}
+
+	@Override
+	public void multiplyImageAndScalar(ComputeBuffer source, ComputeBuffer destination, double scalar) {
+		synchronized (clij2) {
+			clij2.multiplyImageAndScalar(cl(source), cl(destination), scalar);
+		}
+	}
+
+	@Override
+	public void absoluteDifference(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.absoluteDifference(cl(source1), cl(source2), cl(destination));
+		}
+	}
+
+	@Override
+	public void different(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination, double tolerance) {
+		synchronized (clij2) {
+			clij2.different(cl(source1), cl(source2), cl(destination), tolerance);
+		}
+	}
+
+	@Override
+	public void invert(ComputeBuffer source, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.invert(cl(source), cl(destination));
+		}
+	}
+
+	@Override
+	public void replaceIntensity(ComputeBuffer source, ComputeBuffer destination, double oldValue, double newValue) {
+		synchronized (clij2) {
+			clij2.replaceIntensity(cl(source), cl(destination), oldValue, newValue);
+		}
+	}
+
+	@Override
+	public void imageToStack(ComputeBuffer source, ComputeBuffer destination, long numberOfSlices) {
+		synchronized (clij2) {
+			clij2.imageToStack(cl(source), cl(destination), numberOfSlices);
+		}
+	}
+
+	@Override
+	public void subStack(ComputeBuffer source, ComputeBuffer destination, int startZ, int endZ) {
+		synchronized (clij2) {
+			clij2.subStack(cl(source), cl(destination), startZ, endZ);
+		}
+	}
+
+	@Override
+	public void makeIsotropic(ComputeBuffer source, ComputeBuffer destination, double originalVoxelSizeX, double originalVoxelSizeY, double originalVoxelSizeZ, double newVoxelSize) {
+		synchronized (clij2) {
+			clij2.makeIsotropic(cl(source), cl(destination), originalVoxelSizeX, originalVoxelSizeY, originalVoxelSizeZ, newVoxelSize);
+		}
+	}
+
+	@Override
+	public double maximumOfAllPixels(ComputeBuffer source) {
+		synchronized (clij2) {
+			return clij2.maximumOfAllPixels(cl(source));
+		}
+	}
+
+	@Override
+	public double minimumOfAllPixels(ComputeBuffer source) {
+		synchronized (clij2) {
+			return clij2.minimumOfAllPixels(cl(source));
+		}
+	}
+
+	@Override
+	public double meanOfAllPixels(ComputeBuffer source) {
+		synchronized (clij2) {
+			return clij2.meanOfAllPixels(cl(source));
+		}
+	}
+
+	@Override
+	public double getAutomaticThreshold(ComputeBuffer source, String method) {
+		synchronized (clij2) {
+			return clij2.getAutomaticThreshold(cl(source), method);
+		}
+	}
+
+	@Override
+	public double getAutomaticThreshold(ComputeBuffer source, String method, double minimumGreyValue, double maximumGreyValue, int numberOfBins) {
+		synchronized (clij2) {
+			return clij2.getAutomaticThreshold(cl(source), method, minimumGreyValue, maximumGreyValue, numberOfBins);
+		}
+	}
+
+	@Override
+	public void gaussianBlur2D(ComputeBuffer source, ComputeBuffer destination, double sigmaX, double sigmaY) {
+		synchronized (clij2) {
+			clij2.gaussianBlur2D(cl(source), cl(destination), sigmaX, sigmaY);
+		}
+	}
+
+	@Override
+	public void gaussianBlur3D(ComputeBuffer source, ComputeBuffer destination, double sigmaX, double sigmaY, double sigmaZ) {
+		synchronized (clij2) {
+			clij2.gaussianBlur3D(cl(source), cl(destination), sigmaX, sigmaY, sigmaZ);
+		}
+	}
+
+	@Override
+	public void differenceOfGaussian2D(ComputeBuffer source, ComputeBuffer destination, double sigma1X, double sigma1Y, double sigma2X, double sigma2Y) {
+		synchronized (clij2) {
+			clij2.differenceOfGaussian2D(cl(source), cl(destination), sigma1X, sigma1Y, sigma2X, sigma2Y);
+		}
+	}
+
+	@Override
+	public void differenceOfGaussian3D(ComputeBuffer source, ComputeBuffer destination, double sigma1X, double sigma1Y, double sigma1Z, double sigma2X, double sigma2Y, double sigma2Z) {
+		synchronized (clij2) {
+			clij2.differenceOfGaussian3D(cl(source), cl(destination), sigma1X, sigma1Y, sigma1Z, sigma2X, sigma2Y, sigma2Z);
+		}
+	}
+
+	@Override
+	public void minimum2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.minimum2DSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void minimum2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.minimum2DBox(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void minimum3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.minimum3DSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void minimum3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.minimum3DBox(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void minimum3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.minimum3DSliceBySliceSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void maximum2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.maximum2DSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void maximum2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.maximum2DBox(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void maximum3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.maximum3DSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void maximum3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.maximum3DBox(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void maximum3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.maximum3DSliceBySliceSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void mean2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.mean2DSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void mean3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.mean3DSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void median2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.median2DSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void median2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.median2DBox(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void median3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.median3DSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void median3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.median3DSliceBySliceSphere(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void median3DSliceBySliceBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		synchronized (clij2) {
+			clij2.median3DSliceBySliceBox(cl(source), cl(destination), radiusX, radiusY);
+		}
+	}
+
+	@Override
+	public void varianceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.varianceSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void varianceBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.varianceBox(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void greyscaleOpeningSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.greyscaleOpeningSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void greyscaleClosingSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.greyscaleClosingSphere(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void topHatBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.topHatBox(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void bottomHatBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.bottomHatBox(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void detectMaxima3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		synchronized (clij2) {
+			clij2.detectMaxima3DBox(cl(source), cl(destination), radiusX, radiusY, radiusZ);
+		}
+	}
+
+	@Override
+	public void tubeness(ComputeBuffer source, ComputeBuffer destination, double sigma) {
+		synchronized (clij2) {
+			ij2Tubeness.imageJ2Tubeness(clij2, cl(source), cl(destination), (float) sigma, 0f, 0f, 0f);
+		}
+	}
+
+	@Override
+	public void connectedComponentsLabelingBox(ComputeBuffer binarySource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.connectedComponentsLabelingBox(cl(binarySource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void connectedComponentsLabelingDiamond(ComputeBuffer binarySource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.connectedComponentsLabelingDiamond(cl(binarySource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void closeIndexGapsInLabelMap(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.closeIndexGapsInLabelMap(cl(labelSource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void excludeLabels(ComputeBuffer flagVector, ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.excludeLabels(cl(flagVector), cl(labelSource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void excludeLabelsOnEdges(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.excludeLabelsOnEdges(cl(labelSource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void excludeLabelsOutsideSizeRange(ComputeBuffer labelSource, ComputeBuffer labelDestination, double minimumSize, double maximumSize) {
+		synchronized (clij2) {
+			clij2.excludeLabelsOutsideSizeRange(cl(labelSource), cl(labelDestination), minimumSize, maximumSize);
+		}
+	}
+
+	@Override
+	public void maskedVoronoiLabeling(ComputeBuffer seeds, ComputeBuffer mask, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.maskedVoronoiLabeling(cl(seeds), cl(mask), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void extendLabelingViaVoronoi(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.extendLabelingViaVoronoi(cl(labelSource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void dilateLabels(ComputeBuffer labelSource, ComputeBuffer labelDestination, int radius) {
+		synchronized (clij2) {
+			clij2.dilateLabels(cl(labelSource), cl(labelDestination), radius);
+		}
+	}
+
+	@Override
+	public void erodeLabels(ComputeBuffer labelSource, ComputeBuffer labelDestination, int radius, boolean relabelIslands) {
+		synchronized (clij2) {
+			clij2.erodeLabels(cl(labelSource), cl(labelDestination), radius, relabelIslands);
+		}
+	}
+
+	@Override
+	public void reduceLabelsToLabelEdges(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		synchronized (clij2) {
+			clij2.reduceLabelsToLabelEdges(cl(labelSource), cl(labelDestination));
+		}
+	}
+
+	@Override
+	public void binaryFillHoles(ComputeBuffer binarySource, ComputeBuffer binaryDestination) {
+		synchronized (clij2) {
+			clij2.binaryFillHoles(cl(binarySource), cl(binaryDestination));
+		}
+	}
+
+	@Override
+	public void binaryFillHolesSliceBySlice(ComputeBuffer binarySource, ComputeBuffer binaryDestination) {
+		synchronized (clij2) {
+			BinaryFillHolesSliceBySlice.binaryFillHolesSliceBySlice(clij2, cl(binarySource), cl(binaryDestination));
+		}
+	}
+
+	@Override
+	public void distanceMap(ComputeBuffer source, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.distanceMap(cl(source), cl(destination));
+		}
+	}
+
+	/**
+	 * CLIJ2 has no anisotropic distance map, in this case the exact transform is computed
+	 * on the CPU and the result is pushed back to the device.
+	 */
+	@Override
+	public void distanceMap(ComputeBuffer source, ComputeBuffer destination, double spacingX, double spacingY, double spacingZ) {
+		synchronized (clij2) {
+			boolean is3D = source.getDepth() > 1;
+			if (spacingX == spacingY && (!is3D || spacingX == spacingZ)) {
+				distanceMap(source, destination);
+				return;
+			}
+			ImageStack binaryStack = clij2.pull(cl(source)).getStack();
+			int width = binaryStack.getWidth();
+			int height = binaryStack.getHeight();
+			float[][] planes = new float[binaryStack.getSize()][];
+			for (int z = 0; z < planes.length; z++) {
+				planes[z] = (float[]) binaryStack.getProcessor(z + 1).convertToFloat().getPixels();
+			}
+
+			DistanceTransform.distanceMap(getExecutor(), planes, width, height, spacingX, spacingY, spacingZ);
+
+			ImageStack distanceStack = new ImageStack(width, height);
+			for (float[] plane : planes) {
+				distanceStack.addSlice(new FloatProcessor(width, height, plane));
+			}
+			ClearCLBuffer distances = clij2.push(new ImagePlus(destination.getName(), distanceStack));
+			clij2.copy(distances, cl(destination));
+			distances.close();
+		}
+	}
+
+	@Override
+	public void euclideanDistanceFromLabelCentroidMap(ComputeBuffer labelSource, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.euclideanDistanceFromLabelCentroidMap(cl(labelSource), cl(destination));
+		}
+	}
+
+	@Override
+	public boolean labelOverlapCountMap(ComputeBuffer labels_1, ComputeBuffer labels_2, ComputeBuffer destination) {
+		synchronized (clij2) {
+			return clij2.labelOverlapCountMap(cl(labels_1), cl(labels_2), cl(destination));
+		}
+	}
+
+	@Override
+	public void touchingNeighborCountMap(ComputeBuffer labelSource, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.touchingNeighborCountMap(cl(labelSource), cl(destination));
+		}
+	}
+
+	@Override
+	public void proximalNeighborCountMap(ComputeBuffer labelSource, ComputeBuffer destination, double minimumDistance, double maximumDistance) {
+		synchronized (clij2) {
+			clij2.proximalNeighborCountMap(cl(labelSource), cl(destination), minimumDistance, maximumDistance);
+		}
+	}
+
+	@Override
+	public void generateParametricImage(ComputeBuffer labelSource, ComputeBuffer parameterVector, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.generateParametricImage(cl(labelSource), cl(parameterVector), cl(destination));
+		}
+	}
+
+	@Override
+	public void visualizeOutlinesOnOriginal(ComputeBuffer intensitySource, ComputeBuffer labelSource, ComputeBuffer destination) {
+		synchronized (clij2) {
+			clij2.visualizeOutlinesOnOriginal(cl(intensitySource), cl(labelSource), cl(destination));
+		}
+	}
+
+	@Override
+	public void drawSphere(ComputeBuffer destination, double x, double y, double z, double radiusX, double radiusY, double radiusZ, double value) {
+		synchronized (clij2) {
+			clij2.drawSphere(cl(destination), x, y, z, radiusX, radiusY, radiusZ, value);
+		}
+	}
+
+	@Override
+	public void statisticsOfLabelledPixels(ComputeBuffer intensitySource, ComputeBuffer labelSource, ResultsTable resultsTable) {
+		synchronized (clij2) {
+			clij2.statisticsOfLabelledPixels(cl(intensitySource), cl(labelSource), resultsTable);
+		}
+	}
+
+}
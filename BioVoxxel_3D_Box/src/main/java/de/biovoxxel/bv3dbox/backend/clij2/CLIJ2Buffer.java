@@ -0,0 +1,169 @@
+package de.biovoxxel.bv3dbox.backend.clij2;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
+import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
+
+/**
+ * {@link ComputeBuffer} wrapping a ClearCLBuffer in GPU memory.
+ * Buffers handed out by a {@link CLIJ2Backend} return the ClearCLBuffer to its buffer pool on close.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CLIJ2Buffer implements ComputeBuffer {
+
+	private final ClearCLBuffer buffer;
+	private final CLIJ2Backend owner;
+	private final long generation;
+	private boolean closed;
+
+	public CLIJ2Buffer(ClearCLBuffer buffer) {
+		this(buffer, null, 0);
+	}
+
+	/**
+	 * @param generation	buffer pool generation in which the ClearCLBuffer was created or acquired
+	 */
+	CLIJ2Buffer(ClearCLBuffer buffer, CLIJ2Backend owner, long generation) {
+		this.buffer = buffer;
+		this.owner = owner;
+		this.generation = generation;
+	}
+
+	public ClearCLBuffer getClearCLBuffer() {
+		return buffer;
+	}
+
+	@Override
+	public long getWidth() {
+		return buffer.getWidth();
+	}
+
+	@Override
+	public long getHeight() {
+		return buffer.getHeight();
+	}
+
+	@Override
+	public long getDepth() {
+		return buffer.getDepth();
+	}
+
+	@Override
+	public int getDimension() {
+		return (int) buffer.getDimension();
+	}
+
+	@Override
+	public long[] getDimensions() {
+		return buffer.getDimensions();
+	}
+
+	@Override
+	public long getVolume() {
+		return buffer.getVolume();
+	}
+
+	@Override
+	public BufferType getType() {
+		return toBufferType(buffer.getNativeType());
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return buffer.getSizeInBytes();
+	}
+
+	@Override
+	public String getName() {
+		return buffer.getName();
+	}
+
+	@Override
+	public void setName(String name) {
+		buffer.setName(name);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (owner == null) {
+			buffer.close();
+		} else {
+			owner.released(this, generation);
+		}
+	}
+
+	/**
+	 * Reads all pixels of an UNSIGNED_INT buffer in raster order. Unlike a pulled image, which is
+	 * converted to float, the values stay exact above 2^24.
+	 */
+	public int[] readUnsignedInts() {
+		if (getType() != BufferType.UNSIGNED_INT) {
+			throw new IllegalStateException(this + " is not of type " + BufferType.UNSIGNED_INT);
+		}
+		if (buffer.getVolume() > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(this + " exceeds the maximum array size");
+		}
+		int[] values = new int[(int) buffer.getVolume()];
+		synchronized (owner != null ? owner.getCLIJ2() : buffer) {
+			buffer.writeTo(IntBuffer.wrap(values), true);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes all pixels of an UNSIGNED_INT buffer in raster order
+	 */
+	public void writeUnsignedInts(int[] values) {
+		if (getType() != BufferType.UNSIGNED_INT) {
+			throw new IllegalStateException(this + " is not of type " + BufferType.UNSIGNED_INT);
+		}
+		if (values.length != buffer.getVolume()) {
+			throw new IllegalArgumentException(values.length + " values do not match " + this);
+		}
+		synchronized (owner != null ? owner.getCLIJ2() : buffer) {
+			buffer.readFrom(IntBuffer.wrap(values), true);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CLIJ2Buffer[" + buffer.getName() + ", " + Arrays.toString(getDimensions()) + ", " + getType() + "]";
+	}
+
+
+	static BufferType toBufferType(NativeTypeEnum nativeType) {
+		switch (nativeType) {
+		case UnsignedByte:
+			return BufferType.UNSIGNED_BYTE;
+		case UnsignedShort:
+			return BufferType.UNSIGNED_SHORT;
+		case UnsignedInt:
+			return BufferType.UNSIGNED_INT;
+		default:
+			return BufferType.FLOAT;
+		}
+	}
+
+	static NativeTypeEnum toNativeType(BufferType type) {
+		switch (type) {
+		case UNSIGNED_BYTE:
+			return NativeTypeEnum.UnsignedByte;
+		case UNSIGNED_SHORT:
+			return NativeTypeEnum.UnsignedShort;
+		case UNSIGNED_INT:
+			return NativeTypeEnum.UnsignedInt;
+		default:
+			return NativeTypeEnum.Float;
+		}
+	}
+}
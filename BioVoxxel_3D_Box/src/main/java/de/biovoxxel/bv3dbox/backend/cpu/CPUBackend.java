@@ -0,0 +1,832 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import de.biovoxxel.bv3dbox.backend.BufferPool;
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUFilters.Operation;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Pure java {@link ComputeBackend} for machines without OpenCL device.
+ * Operations are distributed over all available CPU cores (or the given number of threads).
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CPUBackend implements ComputeBackend {
+
+	private final ParallelExecutor executor;
+
+	private final boolean shutdownExecutor;
+
+	private final Set<CPUBuffer> buffers = Collections.newSetFromMap(new IdentityHashMap<CPUBuffer, Boolean>());
+
+	/**
+	 * Evicted planes are simply left to the garbage collector
+	 */
+	private final BufferPool<Object[]> bufferPool = new BufferPool<Object[]>(BufferPool.DEFAULT_CAPACITY_MB << 20, planes -> {});
+
+	private final BufferTracker bufferTracker = new BufferTracker();
+
+	private Runnable closeListener;
+
+	public CPUBackend() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public CPUBackend(int threads) {
+		this.executor = new ParallelExecutor(threads);
+		this.shutdownExecutor = true;
+	}
+
+	/**
+	 * Backend with its own buffers using the threads of another one, which stay running when this backend is closed
+	 */
+	public CPUBackend(ParallelExecutor executor) {
+		this.executor = executor;
+		this.shutdownExecutor = false;
+	}
+
+	@Override
+	public String getName() {
+		return "CPU (" + executor.getThreadCount() + " threads)";
+	}
+
+	public ParallelExecutor getExecutor() {
+		return executor;
+	}
+
+	@Override
+	public void clear() {
+		List<CPUBuffer> toBeClosed;
+		synchronized (buffers) {
+			toBeClosed = new ArrayList<CPUBuffer>(buffers);
+		}
+		for (CPUBuffer buffer : toBeClosed) {
+			buffer.close();
+		}
+		bufferPool.drain();
+	}
+
+	@Override
+	public void close() {
+		clear();
+		if (shutdownExecutor) {
+			executor.shutdown();
+		}
+		notifyCloseListener();
+	}
+
+	/**
+	 * @param listener	called once after this backend has been closed, used to track the sessions on a shared device
+	 */
+	public synchronized void setCloseListener(Runnable listener) {
+		this.closeListener = listener;
+	}
+
+	private void notifyCloseListener() {
+		Runnable listener;
+		synchronized (this) {
+			listener = closeListener;
+			closeListener = null;
+		}
+		if (listener != null) {
+			listener.run();
+		}
+	}
+
+	void released(CPUBuffer buffer, Object[] planes) {
+		synchronized (buffers) {
+			buffers.remove(buffer);
+		}
+		bufferTracker.released(buffer);
+		bufferPool.recycle(buffer.getDimensions(), buffer.getType(), planes, buffer.getSizeInBytes(), buffer.getGeneration());
+	}
+
+	@Override
+	public BufferPool<Object[]> getBufferPool() {
+		return bufferPool;
+	}
+
+	@Override
+	public BufferTracker getBufferTracker() {
+		return bufferTracker;
+	}
+
+	/**
+	 * @return the number of buffers created by this backend which are not closed yet
+	 */
+	public int getBufferCount() {
+		synchronized (buffers) {
+			return buffers.size();
+		}
+	}
+
+
+	private CPUBuffer cpu(ComputeBuffer buffer) {
+		if (!(buffer instanceof CPUBuffer) || ((CPUBuffer) buffer).getOwner() != this) {
+			throw new IllegalArgumentException("Buffer " + buffer + " does not belong to this CPU backend");
+		}
+		CPUBuffer cpuBuffer = (CPUBuffer) buffer;
+		if (cpuBuffer.isClosed()) {
+			throw new IllegalStateException("Buffer " + buffer.getName() + " has already been closed");
+		}
+		return cpuBuffer;
+	}
+
+	private static void checkSameSize(CPUBuffer a, CPUBuffer b) {
+		if (!a.hasSameSize(b)) {
+			throw new IllegalArgumentException("Image sizes do not match: " + a + " and " + b);
+		}
+	}
+
+	private CPUBuffer allocate(int width, int height, int depth, int dimension, BufferType type) {
+		long[] dimensions = dimension == 2 ? new long[] {width, height} : new long[] {width, height, depth};
+		long generation = bufferPool.getGeneration();
+		Object[] planes = bufferPool.acquire(dimensions, type);
+		CPUBuffer buffer = new CPUBuffer(this, width, height, depth, dimension, type, generation, planes);
+		synchronized (buffers) {
+			buffers.add(buffer);
+		}
+		bufferTracker.allocated(buffer);
+		return buffer;
+	}
+
+
+	@Override
+	public ComputeBuffer create(ComputeBuffer template) {
+		CPUBuffer source = cpu(template);
+		return allocate(source.width(), source.height(), source.depth(), source.getDimension(), source.getType());
+	}
+
+	@Override
+	public ComputeBuffer create(long[] dimensions, BufferType type) {
+		int depth = dimensions.length > 2 ? (int) dimensions[2] : 1;
+		return allocate((int) dimensions[0], (int) dimensions[1], depth, dimensions.length > 2 ? 3 : 2, type);
+	}
+
+	@Override
+	public ComputeBuffer create(long width, long height, long depth) {
+		return create(new long[] {width, height, depth}, BufferType.FLOAT);
+	}
+
+	@Override
+	public ComputeBuffer push(ImagePlus image) {
+		ImageStack stack = image.getStack();
+		int depth = stack.getSize();
+		BufferType type = BufferType.fromBitDepth(image.getBitDepth());
+		CPUBuffer buffer = allocate(stack.getWidth(), stack.getHeight(), depth, depth > 1 ? 3 : 2, type);
+		buffer.setName(image.getTitle());
+		executor.forEach(0, depth, z -> {
+			ImageProcessor processor = stack.getProcessor(z + 1);
+			if (image.getBitDepth() == 24) {
+				processor = processor.convertToFloat();
+			}
+			System.arraycopy(processor.getPixels(), 0, buffer.getPlane(z), 0, buffer.planeSize());
+		});
+		return buffer;
+	}
+
+	@Override
+	public ComputeBuffer pushCurrentSelection(ImagePlus image) {
+		Roi roi = image.getRoi();
+		if (roi == null) {
+			return push(image);
+		}
+		Rectangle bounds = roi.getBounds();
+		ImageStack croppedStack = image.getStack().crop(bounds.x, bounds.y, 0, bounds.width, bounds.height, image.getStackSize());
+		ImagePlus croppedImage = new ImagePlus(image.getTitle(), croppedStack);
+		return push(croppedImage);
+	}
+
+	@Override
+	public ImagePlus pull(ComputeBuffer buffer) {
+		CPUBuffer source = cpu(buffer);
+		int width = source.width();
+		int height = source.height();
+		ImageProcessor[] processors = new ImageProcessor[source.depth()];
+		executor.forEach(0, source.depth(), z -> {
+			switch (source.getType()) {
+			case UNSIGNED_BYTE:
+				processors[z] = new ByteProcessor(width, height, ((byte[]) source.getPlane(z)).clone());
+				break;
+			case UNSIGNED_SHORT:
+				processors[z] = new ShortProcessor(width, height, ((short[]) source.getPlane(z)).clone(), null);
+				break;
+			default:
+				processors[z] = new FloatProcessor(width, height, source.readPlane(z, null));
+				break;
+			}
+		});
+		return toImagePlus(source, processors);
+	}
+
+	@Override
+	public ImagePlus pullBinary(ComputeBuffer buffer) {
+		CPUBuffer source = cpu(buffer);
+		int planeSize = source.planeSize();
+		ImageProcessor[] processors = new ImageProcessor[source.depth()];
+		executor.forEach(0, source.depth(), z -> {
+			byte[] pixels = new byte[planeSize];
+			for (int i = 0; i < planeSize; i++) {
+				pixels[i] = source.get(z, i) != 0 ? (byte) 255 : 0;
+			}
+			processors[z] = new ByteProcessor(source.width(), source.height(), pixels);
+		});
+		return toImagePlus(source, processors);
+	}
+
+	@Override
+	public ComputeBuffer pushLabels(int[][] planes, int width, int height, int maximumLabel) {
+		CPUBuffer buffer = allocate(width, height, planes.length, planes.length > 1 ? 3 : 2, LabelBuffers.typeFor(maximumLabel));
+		executor.forEach(0, planes.length, z -> buffer.writeLabelPlane(z, planes[z]));
+		return buffer;
+	}
+
+	private static ImagePlus toImagePlus(CPUBuffer source, ImageProcessor[] processors) {
+		ImageStack stack = new ImageStack(source.width(), source.height());
+		for (ImageProcessor processor : processors) {
+			stack.addSlice(processor);
+		}
+		ImagePlus image = new ImagePlus(source.getName(), stack);
+		image.resetDisplayRange();
+		return image;
+	}
+
+
+	/**
+	 * Applies a pixel-wise function of up to two sources
+	 */
+	private void pixelwise(CPUBuffer source1, CPUBuffer source2, CPUBuffer destination, PixelFunction function) {
+		checkSameSize(source1, destination);
+		if (source2 != null) {
+			checkSameSize(source2, destination);
+		}
+		int planeSize = destination.planeSize();
+		executor.forEach(0, destination.depth(), z -> {
+			for (int i = 0; i < planeSize; i++) {
+				destination.set(z, i, function.apply(source1.get(z, i), source2 == null ? 0 : source2.get(z, i)));
+			}
+		});
+	}
+
+	@FunctionalInterface
+	private interface PixelFunction {
+		public double apply(double value1, double value2);
+	}
+
+
+	@Override
+	public void copy(ComputeBuffer source, ComputeBuffer destination) {
+		pixelwise(cpu(source), null, cpu(destination), (a, b) -> a);
+	}
+
+	@Override
+	public void set(ComputeBuffer buffer, double value) {
+		cpu(buffer).fill(value);
+	}
+
+	@Override
+	public void threshold(ComputeBuffer source, ComputeBuffer destination, double threshold) {
+		pixelwise(cpu(source), null, cpu(destination), (a, b) -> a >= threshold ? 1 : 0);
+	}
+
+	@Override
+	public void automaticThreshold(ComputeBuffer source, ComputeBuffer destination, String method) {
+		threshold(source, destination, getAutomaticThreshold(source, method));
+	}
+
+	@Override
+	public void mask(ComputeBuffer source, ComputeBuffer mask, ComputeBuffer destination) {
+		pixelwise(cpu(source), cpu(mask), cpu(destination), (a, b) -> b != 0 ? a : 0);
+	}
+
+	@Override
+	public void binaryAnd(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination) {
+		pixelwise(cpu(source1), cpu(source2), cpu(destination), (a, b) -> a != 0 && b != 0 ? 1 : 0);
+	}
+
+	@Override
+	public void subtractImages(ComputeBuffer subtrahend, ComputeBuffer minuend, ComputeBuffer destination) {
+		pixelwise(cpu(subtrahend), cpu(minuend), cpu(destination), (a, b) -> a - b);
+	}
+
+	@Override
+	public void divideImages(ComputeBuffer divident, ComputeBuffer divisor, ComputeBuffer destination) {
+		pixelwise(cpu(divident), cpu(divisor), cpu(destination), (a, b) -> (float) a / (float) b);
+	}
+
+	@Override
+	public void multiplyImageAndScalar(ComputeBuffer source, ComputeBuffer destination, double scalar) {
+		pixelwise(cpu(source), null, cpu(destination), (a, b) -> a * scalar);
+	}
+
+	@Override
+	public void absoluteDifference(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination) {
+		pixelwise(cpu(source1), cpu(source2), cpu(destination), (a, b) -> Math.abs(a - b));
+	}
+
+	@Override
+	public void different(ComputeBuffer source1, ComputeBuffer source2, ComputeBuffer destination, double tolerance) {
+		pixelwise(cpu(source1), cpu(source2), cpu(destination), (a, b) -> Math.abs(a - b) > tolerance ? 1 : 0);
+	}
+
+	@Override
+	public void invert(ComputeBuffer source, ComputeBuffer destination) {
+		pixelwise(cpu(source), null, cpu(destination), (a, b) -> -a);
+	}
+
+	@Override
+	public void replaceIntensity(ComputeBuffer source, ComputeBuffer destination, double oldValue, double newValue) {
+		pixelwise(cpu(source), null, cpu(destination), (a, b) -> a == oldValue ? newValue : a);
+	}
+
+	@Override
+	public void imageToStack(ComputeBuffer source, ComputeBuffer destination, long numberOfSlices) {
+		CPUBuffer input = cpu(source);
+		CPUBuffer output = cpu(destination);
+		float[] plane = input.readPlane(0, null);
+		executor.forEach(0, (int) Math.min(numberOfSlices, output.depth()), z -> output.writePlane(z, plane));
+	}
+
+	@Override
+	public void subStack(ComputeBuffer source, ComputeBuffer destination, int startZ, int endZ) {
+		CPUBuffer input = cpu(source);
+		CPUBuffer output = cpu(destination);
+		int slices = Math.min(endZ - startZ + 1, output.depth());
+		executor.forEach(0, slices, z -> output.writePlane(z, input.readPlane(startZ + z, null)));
+	}
+
+	@Override
+	public void makeIsotropic(ComputeBuffer source, ComputeBuffer destination, double originalVoxelSizeX, double originalVoxelSizeY, double originalVoxelSizeZ, double newVoxelSize) {
+		CPUBuffer input = cpu(source);
+		CPUBuffer output = cpu(destination);
+		float[][] planes = CPUFilters.floatPlanes(executor, input);
+		double scaleX = newVoxelSize / originalVoxelSizeX;
+		double scaleY = newVoxelSize / originalVoxelSizeY;
+		double scaleZ = newVoxelSize / originalVoxelSizeZ;
+		int width = input.width();
+		int height = input.height();
+		int depth = input.depth();
+		executor.forEach(0, output.depth(), z -> {
+			double sz = Math.min(depth - 1, z * scaleZ);
+			int z0 = (int) sz;
+			int z1 = Math.min(depth - 1, z0 + 1);
+			double fz = sz - z0;
+			for (int y = 0; y < output.height(); y++) {
+				double sy = Math.min(height - 1, y * scaleY);
+				int y0 = (int) sy;
+				int y1 = Math.min(height - 1, y0 + 1);
+				double fy = sy - y0;
+				for (int x = 0; x < output.width(); x++) {
+					double sx = Math.min(width - 1, x * scaleX);
+					int x0 = (int) sx;
+					int x1 = Math.min(width - 1, x0 + 1);
+					double fx = sx - x0;
+					double lower = bilinear(planes[z0], width, x0, x1, y0, y1, fx, fy);
+					double upper = bilinear(planes[z1], width, x0, x1, y0, y1, fx, fy);
+					output.set(x, y, z, lower + (upper - lower) * fz);
+				}
+			}
+		});
+	}
+
+	private static double bilinear(float[] plane, int width, int x0, int x1, int y0, int y1, double fx, double fy) {
+		double top = plane[y0 * width + x0] + (plane[y0 * width + x1] - plane[y0 * width + x0]) * fx;
+		double bottom = plane[y1 * width + x0] + (plane[y1 * width + x1] - plane[y1 * width + x0]) * fx;
+		return top + (bottom - top) * fy;
+	}
+
+
+	static double maximum(ParallelExecutor executor, CPUBuffer buffer) {
+		double[] maxima = new double[buffer.depth()];
+		int planeSize = buffer.planeSize();
+		executor.forEach(0, buffer.depth(), z -> {
+			double max = -Double.MAX_VALUE;
+			for (int i = 0; i < planeSize; i++) {
+				double value = buffer.get(z, i);
+				if (value > max) { max = value; }
+			}
+			maxima[z] = max;
+		});
+		double max = -Double.MAX_VALUE;
+		for (double value : maxima) {
+			max = Math.max(max, value);
+		}
+		return max;
+	}
+
+	static double minimum(ParallelExecutor executor, CPUBuffer buffer) {
+		double[] minima = new double[buffer.depth()];
+		int planeSize = buffer.planeSize();
+		executor.forEach(0, buffer.depth(), z -> {
+			double min = Double.MAX_VALUE;
+			for (int i = 0; i < planeSize; i++) {
+				double value = buffer.get(z, i);
+				if (value < min) { min = value; }
+			}
+			minima[z] = min;
+		});
+		double min = Double.MAX_VALUE;
+		for (double value : minima) {
+			min = Math.min(min, value);
+		}
+		return min;
+	}
+
+	@Override
+	public double maximumOfAllPixels(ComputeBuffer source) {
+		return maximum(executor, cpu(source));
+	}
+
+	@Override
+	public double minimumOfAllPixels(ComputeBuffer source) {
+		return minimum(executor, cpu(source));
+	}
+
+	@Override
+	public double meanOfAllPixels(ComputeBuffer source) {
+		CPUBuffer buffer = cpu(source);
+		double[] sums = new double[buffer.depth()];
+		int planeSize = buffer.planeSize();
+		executor.forEach(0, buffer.depth(), z -> {
+			double sum = 0;
+			for (int i = 0; i < planeSize; i++) {
+				sum += buffer.get(z, i);
+			}
+			sums[z] = sum;
+		});
+		double sum = 0;
+		for (double value : sums) {
+			sum += value;
+		}
+		return sum / buffer.getVolume();
+	}
+
+	@Override
+	public double getAutomaticThreshold(ComputeBuffer source, String method) {
+		return getAutomaticThreshold(source, method, minimumOfAllPixels(source), maximumOfAllPixels(source), 256);
+	}
+
+	/**
+	 * The bins are centered on min + i * (max - min) / (bins - 1) which for 8-bit images
+	 * from 0 to 255 with 256 bins gives the ImageJ histogram. Values outside the range are ignored.
+	 */
+	@Override
+	public double getAutomaticThreshold(ComputeBuffer source, String method, double minimumGreyValue, double maximumGreyValue, int numberOfBins) {
+		CPUBuffer buffer = cpu(source);
+		double binWidth = (maximumGreyValue - minimumGreyValue) / (numberOfBins - 1);
+		if (binWidth <= 0) {
+			return minimumGreyValue;
+		}
+		int[][] histograms = new int[buffer.depth()][];
+		int planeSize = buffer.planeSize();
+		executor.forEach(0, buffer.depth(), z -> {
+			int[] histogram = new int[numberOfBins];
+			for (int i = 0; i < planeSize; i++) {
+				double value = buffer.get(z, i);
+				if (value < minimumGreyValue || value > maximumGreyValue) {
+					continue;
+				}
+				histogram[(int) ((value - minimumGreyValue) / binWidth + 0.5)]++;
+			}
+			histograms[z] = histogram;
+		});
+		int[] histogram = new int[numberOfBins];
+		for (int[] planeHistogram : histograms) {
+			for (int b = 0; b < numberOfBins; b++) {
+				histogram[b] += planeHistogram[b];
+			}
+		}
+		int thresholdBin = BV3DBoxUtilities.getThresholdValue(method, histogram);
+		return minimumGreyValue + thresholdBin * binWidth;
+	}
+
+
+	private void filter(ComputeBuffer source, ComputeBuffer destination, int[][] offsets, Operation operation) {
+		CPUBuffer input = cpu(source);
+		CPUBuffer output = cpu(destination);
+		checkSameSize(input, output);
+		CPUFilters.filter(executor, input, output, offsets, operation);
+	}
+
+	private void minMaxBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ, boolean maximum) {
+		CPUBuffer input = cpu(source);
+		CPUBuffer output = cpu(destination);
+		checkSameSize(input, output);
+		CPUFilters.minMaxBox(executor, input, output, radiusX, radiusY, radiusZ, maximum);
+	}
+
+	@Override
+	public void gaussianBlur2D(ComputeBuffer source, ComputeBuffer destination, double sigmaX, double sigmaY) {
+		gaussianBlur3D(source, destination, sigmaX, sigmaY, 0);
+	}
+
+	@Override
+	public void gaussianBlur3D(ComputeBuffer source, ComputeBuffer destination, double sigmaX, double sigmaY, double sigmaZ) {
+		CPUBuffer output = cpu(destination);
+		CPUFilters.writePlanes(executor, CPUFilters.gaussian(executor, cpu(source), sigmaX, sigmaY, sigmaZ), output);
+	}
+
+	@Override
+	public void differenceOfGaussian2D(ComputeBuffer source, ComputeBuffer destination, double sigma1X, double sigma1Y, double sigma2X, double sigma2Y) {
+		differenceOfGaussian3D(source, destination, sigma1X, sigma1Y, 0, sigma2X, sigma2Y, 0);
+	}
+
+	@Override
+	public void differenceOfGaussian3D(ComputeBuffer source, ComputeBuffer destination, double sigma1X, double sigma1Y, double sigma1Z, double sigma2X, double sigma2Y, double sigma2Z) {
+		CPUBuffer input = cpu(source);
+		CPUBuffer output = cpu(destination);
+		float[][] blurred1 = CPUFilters.gaussian(executor, input, sigma1X, sigma1Y, sigma1Z);
+		float[][] blurred2 = CPUFilters.gaussian(executor, input, sigma2X, sigma2Y, sigma2Z);
+		int planeSize = input.planeSize();
+		executor.forEach(0, input.depth(), z -> {
+			for (int i = 0; i < planeSize; i++) {
+				blurred1[z][i] -= blurred2[z][i];
+			}
+		});
+		CPUFilters.writePlanes(executor, blurred1, output);
+	}
+
+	@Override
+	public void minimum2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, 0), Operation.MINIMUM);
+	}
+
+	@Override
+	public void minimum2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		minMaxBox(source, destination, radiusX, radiusY, 0, false);
+	}
+
+	@Override
+	public void minimum3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, radiusZ), Operation.MINIMUM);
+	}
+
+	@Override
+	public void minimum3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		minMaxBox(source, destination, radiusX, radiusY, radiusZ, false);
+	}
+
+	@Override
+	public void minimum3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		minimum2DSphere(source, destination, radiusX, radiusY);
+	}
+
+	@Override
+	public void maximum2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, 0), Operation.MAXIMUM);
+	}
+
+	@Override
+	public void maximum2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		minMaxBox(source, destination, radiusX, radiusY, 0, true);
+	}
+
+	@Override
+	public void maximum3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, radiusZ), Operation.MAXIMUM);
+	}
+
+	@Override
+	public void maximum3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		minMaxBox(source, destination, radiusX, radiusY, radiusZ, true);
+	}
+
+	@Override
+	public void maximum3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		maximum2DSphere(source, destination, radiusX, radiusY);
+	}
+
+	@Override
+	public void mean2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, 0), Operation.MEAN);
+	}
+
+	@Override
+	public void mean3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, radiusZ), Operation.MEAN);
+	}
+
+	@Override
+	public void median2DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, 0), Operation.MEDIAN);
+	}
+
+	@Override
+	public void median2DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		filter(source, destination, CPUFilters.boxOffsets(radiusX, radiusY, 0), Operation.MEDIAN);
+	}
+
+	@Override
+	public void median3DSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, radiusZ), Operation.MEDIAN);
+	}
+
+	@Override
+	public void median3DSliceBySliceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		median2DSphere(source, destination, radiusX, radiusY);
+	}
+
+	@Override
+	public void median3DSliceBySliceBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY) {
+		median2DBox(source, destination, radiusX, radiusY);
+	}
+
+	@Override
+	public void varianceSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, CPUFilters.sphereOffsets(radiusX, radiusY, radiusZ), Operation.VARIANCE);
+	}
+
+	@Override
+	public void varianceBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		filter(source, destination, CPUFilters.boxOffsets(radiusX, radiusY, radiusZ), Operation.VARIANCE);
+	}
+
+	@Override
+	public void greyscaleOpeningSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		ComputeBuffer temp = create(source);
+		minimum3DSphere(source, temp, radiusX, radiusY, radiusZ);
+		maximum3DSphere(temp, destination, radiusX, radiusY, radiusZ);
+		temp.close();
+	}
+
+	@Override
+	public void greyscaleClosingSphere(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		ComputeBuffer temp = create(source);
+		maximum3DSphere(source, temp, radiusX, radiusY, radiusZ);
+		minimum3DSphere(temp, destination, radiusX, radiusY, radiusZ);
+		temp.close();
+	}
+
+	@Override
+	public void topHatBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		ComputeBuffer eroded = create(source);
+		ComputeBuffer opened = create(source);
+		minimum3DBox(source, eroded, radiusX, radiusY, radiusZ);
+		maximum3DBox(eroded, opened, radiusX, radiusY, radiusZ);
+		subtractImages(source, opened, destination);
+		eroded.close();
+		opened.close();
+	}
+
+	@Override
+	public void bottomHatBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		ComputeBuffer dilated = create(source);
+		ComputeBuffer closed = create(source);
+		maximum3DBox(source, dilated, radiusX, radiusY, radiusZ);
+		minimum3DBox(dilated, closed, radiusX, radiusY, radiusZ);
+		subtractImages(source, closed, destination);
+		dilated.close();
+		closed.close();
+	}
+
+	@Override
+	public void detectMaxima3DBox(ComputeBuffer source, ComputeBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		CPUFilters.detectMaximaBox(executor, cpu(source), cpu(destination), radiusX, radiusY, radiusZ);
+	}
+
+	@Override
+	public void tubeness(ComputeBuffer source, ComputeBuffer destination, double sigma) {
+		Tubeness.tubeness(executor, cpu(source), cpu(destination), sigma);
+	}
+
+
+	@Override
+	public void connectedComponentsLabelingBox(ComputeBuffer binarySource, ComputeBuffer labelDestination) {
+		ConnectedComponentsLabeling.label(executor, cpu(binarySource), cpu(labelDestination), true);
+	}
+
+	@Override
+	public void connectedComponentsLabelingDiamond(ComputeBuffer binarySource, ComputeBuffer labelDestination) {
+		ConnectedComponentsLabeling.label(executor, cpu(binarySource), cpu(labelDestination), false);
+	}
+
+	@Override
+	public void closeIndexGapsInLabelMap(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		LabelOperations.closeIndexGaps(executor, cpu(labelSource), cpu(labelDestination));
+	}
+
+	@Override
+	public void excludeLabels(ComputeBuffer flagVector, ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		LabelOperations.excludeLabels(executor, cpu(flagVector), cpu(labelSource), cpu(labelDestination));
+	}
+
+	@Override
+	public void excludeLabelsOnEdges(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		LabelOperations.excludeLabelsOnEdges(executor, cpu(labelSource), cpu(labelDestination));
+	}
+
+	@Override
+	public void excludeLabelsOutsideSizeRange(ComputeBuffer labelSource, ComputeBuffer labelDestination, double minimumSize, double maximumSize) {
+		LabelOperations.excludeLabelsOutsideSizeRange(executor, cpu(labelSource), cpu(labelDestination), minimumSize, maximumSize);
+	}
+
+	@Override
+	public void maskedVoronoiLabeling(ComputeBuffer seeds, ComputeBuffer mask, ComputeBuffer labelDestination) {
+		CPUBuffer output = cpu(labelDestination);
+		ConnectedComponentsLabeling.label(executor, cpu(seeds), output, true);
+		VoronoiLabeling.dilate(executor, output, cpu(mask), output, -1);
+	}
+
+	@Override
+	public void extendLabelingViaVoronoi(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		VoronoiLabeling.dilate(executor, cpu(labelSource), null, cpu(labelDestination), -1);
+	}
+
+	@Override
+	public void dilateLabels(ComputeBuffer labelSource, ComputeBuffer labelDestination, int radius) {
+		VoronoiLabeling.dilate(executor, cpu(labelSource), null, cpu(labelDestination), radius);
+	}
+
+	@Override
+	public void erodeLabels(ComputeBuffer labelSource, ComputeBuffer labelDestination, int radius, boolean relabelIslands) {
+		LabelOperations.erodeLabels(executor, cpu(labelSource), cpu(labelDestination), radius, relabelIslands);
+	}
+
+	@Override
+	public void reduceLabelsToLabelEdges(ComputeBuffer labelSource, ComputeBuffer labelDestination) {
+		LabelOperations.reduceLabelsToLabelEdges(executor, cpu(labelSource), cpu(labelDestination));
+	}
+
+	@Override
+	public void binaryFillHoles(ComputeBuffer binarySource, ComputeBuffer binaryDestination) {
+		LabelOperations.binaryFillHoles(executor, cpu(binarySource), cpu(binaryDestination), false);
+	}
+
+	@Override
+	public void binaryFillHolesSliceBySlice(ComputeBuffer binarySource, ComputeBuffer binaryDestination) {
+		LabelOperations.binaryFillHoles(executor, cpu(binarySource), cpu(binaryDestination), true);
+	}
+
+	@Override
+	public void distanceMap(ComputeBuffer source, ComputeBuffer destination) {
+		distanceMap(source, destination, 1.0, 1.0, 1.0);
+	}
+
+	@Override
+	public void distanceMap(ComputeBuffer source, ComputeBuffer destination, double spacingX, double spacingY, double spacingZ) {
+		DistanceTransform.distanceMap(executor, cpu(source), cpu(destination), spacingX, spacingY, spacingZ);
+	}
+
+	@Override
+	public void euclideanDistanceFromLabelCentroidMap(ComputeBuffer labelSource, ComputeBuffer destination) {
+		LabelOperations.euclideanDistanceFromLabelCentroidMap(executor, cpu(labelSource), cpu(destination));
+	}
+
+	@Override
+	public boolean labelOverlapCountMap(ComputeBuffer labels_1, ComputeBuffer labels_2, ComputeBuffer destination) {
+		LabelOperations.labelOverlapCountMap(executor, cpu(labels_1), cpu(labels_2), cpu(destination));
+		return true;
+	}
+
+	@Override
+	public void touchingNeighborCountMap(ComputeBuffer labelSource, ComputeBuffer destination) {
+		LabelOperations.touchingNeighborCountMap(executor, cpu(labelSource), cpu(destination));
+	}
+
+	@Override
+	public void proximalNeighborCountMap(ComputeBuffer labelSource, ComputeBuffer destination, double minimumDistance, double maximumDistance) {
+		LabelOperations.proximalNeighborCountMap(executor, cpu(labelSource), cpu(destination), minimumDistance, maximumDistance);
+	}
+
+	@Override
+	public void generateParametricImage(ComputeBuffer labelSource, ComputeBuffer parameterVector, ComputeBuffer destination) {
+		LabelOperations.generateParametricImage(executor, cpu(labelSource), cpu(parameterVector), cpu(destination));
+	}
+
+	@Override
+	public void visualizeOutlinesOnOriginal(ComputeBuffer intensitySource, ComputeBuffer labelSource, ComputeBuffer destination) {
+		LabelOperations.visualizeOutlinesOnOriginal(executor, cpu(intensitySource), cpu(labelSource), cpu(destination));
+	}
+
+	@Override
+	public void drawSphere(ComputeBuffer destination, double x, double y, double z, double radiusX, double radiusY, double radiusZ, double value) {
+		LabelOperations.drawSphere(cpu(destination), x, y, z, radiusX, radiusY, radiusZ, value);
+	}
+
+	@Override
+	public void statisticsOfLabelledPixels(ComputeBuffer intensitySource, ComputeBuffer labelSource, ResultsTable resultsTable) {
+		double[][] statistics = LabelStatistics.measure(executor, cpu(intensitySource), cpu(labelSource));
+		LabelStatistics.toResultsTable(statistics, resultsTable);
+	}
+
+}
@@ -0,0 +1,348 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.Arrays;
+
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+
+/**
+ * {@link ComputeBuffer} keeping its pixels on the java heap, one primitive
+ * array per plane (byte[], short[], int[] or float[] according to the {@link BufferType}).
+ * Unsigned values are stored in the signed java types and masked on read.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class CPUBuffer implements ComputeBuffer {
+
+	private final int width;
+	private final int height;
+	private final int depth;
+	private final int dimension;
+	private final BufferType type;
+	private Object[] planes;
+	private String name = "";
+
+	private final CPUBackend owner;
+	private final long generation;
+
+	/**
+	 * @param generation	{@link de.biovoxxel.bv3dbox.backend.BufferPool} generation the buffer is created in
+	 * @param planes		recycled planes of the same size and type which are reset to 0, or null to allocate new ones
+	 */
+	CPUBuffer(CPUBackend owner, int width, int height, int depth, int dimension, BufferType type, long generation, Object[] planes) {
+		this.owner = owner;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.dimension = dimension;
+		this.type = type;
+		this.generation = generation;
+
+		if ((long) width * height > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Plane size " + width + "x" + height + " exceeds the maximum array size");
+		}
+
+		if (planes != null) {
+			this.planes = planes;
+			fill(0);
+			return;
+		}
+
+		this.planes = new Object[depth];
+		int planeSize = width * height;
+		for (int z = 0; z < depth; z++) {
+			switch (type) {
+			case UNSIGNED_BYTE:
+				this.planes[z] = new byte[planeSize];
+				break;
+			case UNSIGNED_SHORT:
+				this.planes[z] = new short[planeSize];
+				break;
+			case UNSIGNED_INT:
+				this.planes[z] = new int[planeSize];
+				break;
+			default:
+				this.planes[z] = new float[planeSize];
+				break;
+			}
+		}
+	}
+
+
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	public int depth() {
+		return depth;
+	}
+
+	public int planeSize() {
+		return width * height;
+	}
+
+	CPUBackend getOwner() {
+		return owner;
+	}
+
+	long getGeneration() {
+		return generation;
+	}
+
+
+	/**
+	 * @return the backing array of plane z, typed according to {@link #getType()}
+	 */
+	public Object getPlane(int z) {
+		checkOpen();
+		return planes[z];
+	}
+
+
+	public double get(int x, int y, int z) {
+		return get(z, y * width + x);
+	}
+
+
+	public double get(int z, int index) {
+		switch (type) {
+		case UNSIGNED_BYTE:
+			return ((byte[]) planes[z])[index] & 0xff;
+		case UNSIGNED_SHORT:
+			return ((short[]) planes[z])[index] & 0xffff;
+		case UNSIGNED_INT:
+			return ((int[]) planes[z])[index] & 0xffffffffL;
+		default:
+			return ((float[]) planes[z])[index];
+		}
+	}
+
+
+	public void set(int x, int y, int z, double value) {
+		set(z, y * width + x, value);
+	}
+
+
+	/**
+	 * Writes the value converted to the buffer type. Integer types are
+	 * truncated towards zero and saturate at the type limits, NaN is written as 0.
+	 */
+	public void set(int z, int index, double value) {
+		switch (type) {
+		case UNSIGNED_BYTE:
+			((byte[]) planes[z])[index] = (byte) saturate(value, 255d);
+			break;
+		case UNSIGNED_SHORT:
+			((short[]) planes[z])[index] = (short) saturate(value, 65535d);
+			break;
+		case UNSIGNED_INT:
+			((int[]) planes[z])[index] = (int) saturate(value, 4294967295d);
+			break;
+		default:
+			((float[]) planes[z])[index] = (float) value;
+			break;
+		}
+	}
+
+
+	private static long saturate(double value, double max) {
+		if (!(value > 0)) {
+			return 0;
+		}
+		return value >= max ? (long) max : (long) value;
+	}
+
+
+	/**
+	 * Copies plane z converted to float into target (allocated if null or too small)
+	 */
+	public float[] readPlane(int z, float[] target) {
+		int planeSize = planeSize();
+		if (target == null || target.length < planeSize) {
+			target = new float[planeSize];
+		}
+		switch (type) {
+		case UNSIGNED_BYTE:
+			byte[] bytes = (byte[]) planes[z];
+			for (int i = 0; i < planeSize; i++) {
+				target[i] = bytes[i] & 0xff;
+			}
+			break;
+		case UNSIGNED_SHORT:
+			short[] shorts = (short[]) planes[z];
+			for (int i = 0; i < planeSize; i++) {
+				target[i] = shorts[i] & 0xffff;
+			}
+			break;
+		case UNSIGNED_INT:
+			int[] ints = (int[]) planes[z];
+			for (int i = 0; i < planeSize; i++) {
+				target[i] = ints[i] & 0xffffffffL;
+			}
+			break;
+		default:
+			System.arraycopy((float[]) planes[z], 0, target, 0, planeSize);
+			break;
+		}
+		return target;
+	}
+
+
+	/**
+	 * Writes a float plane converted to the buffer type into plane z
+	 */
+	public void writePlane(int z, float[] source) {
+		int planeSize = planeSize();
+		if (type == BufferType.FLOAT) {
+			System.arraycopy(source, 0, (float[]) planes[z], 0, planeSize);
+		} else {
+			for (int i = 0; i < planeSize; i++) {
+				set(z, i, source[i]);
+			}
+		}
+	}
+
+
+	/**
+	 * Copies plane z of a label image into target (allocated if null or too small). Unlike
+	 * {@link #readPlane(int, float[])} the labels stay exact above 2^24.
+	 */
+	public int[] readLabelPlane(int z, int[] target) {
+		int planeSize = planeSize();
+		if (target == null || target.length < planeSize) {
+			target = new int[planeSize];
+		}
+		if (type == BufferType.UNSIGNED_INT) {
+			System.arraycopy((int[]) planes[z], 0, target, 0, planeSize);
+		} else {
+			for (int i = 0; i < planeSize; i++) {
+				target[i] = (int) get(z, i);
+			}
+		}
+		return target;
+	}
+
+
+	/**
+	 * Writes a label plane converted to the buffer type into plane z
+	 */
+	public void writeLabelPlane(int z, int[] source) {
+		int planeSize = planeSize();
+		if (type == BufferType.UNSIGNED_INT) {
+			System.arraycopy(source, 0, (int[]) planes[z], 0, planeSize);
+		} else {
+			for (int i = 0; i < planeSize; i++) {
+				set(z, i, source[i]);
+			}
+		}
+	}
+
+
+	public void fill(double value) {
+		for (int z = 0; z < depth; z++) {
+			switch (type) {
+			case UNSIGNED_BYTE:
+				Arrays.fill((byte[]) planes[z], (byte) saturate(value, 255d));
+				break;
+			case UNSIGNED_SHORT:
+				Arrays.fill((short[]) planes[z], (short) saturate(value, 65535d));
+				break;
+			case UNSIGNED_INT:
+				Arrays.fill((int[]) planes[z], (int) saturate(value, 4294967295d));
+				break;
+			default:
+				Arrays.fill((float[]) planes[z], (float) value);
+				break;
+			}
+		}
+	}
+
+
+	public boolean hasSameSize(CPUBuffer other) {
+		return width == other.width && height == other.height && depth == other.depth;
+	}
+
+
+	private void checkOpen() {
+		if (planes == null) {
+			throw new IllegalStateException("Buffer " + name + " has already been closed");
+		}
+	}
+
+
+	@Override
+	public long getWidth() {
+		return width;
+	}
+
+	@Override
+	public long getHeight() {
+		return height;
+	}
+
+	@Override
+	public long getDepth() {
+		return depth;
+	}
+
+	@Override
+	public int getDimension() {
+		return dimension;
+	}
+
+	@Override
+	public long[] getDimensions() {
+		if (dimension == 2) {
+			return new long[] {width, height};
+		}
+		return new long[] {width, height, depth};
+	}
+
+	@Override
+	public long getVolume() {
+		return (long) width * height * depth;
+	}
+
+	@Override
+	public BufferType getType() {
+		return type;
+	}
+
+	@Override
+	public long getSizeInBytes() {
+		return getVolume() * type.bytesPerPixel;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public boolean isClosed() {
+		return planes == null;
+	}
+
+	@Override
+	public void close() {
+		if (planes != null) {
+			Object[] released = planes;
+			planes = null;
+			owner.released(this, released);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "CPUBuffer[" + name + ", " + Arrays.toString(getDimensions()) + ", " + type + "]";
+	}
+}
@@ -0,0 +1,378 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.Arrays;
+
+import de.biovoxxel.bv3dbox.backend.BufferType;
+
+/**
+ * Neighborhood filters of the {@link CPUBackend}. All filters work on float copies
+ * of the planes and write the result converted to the destination type.
+ * Neighbors outside of the image are ignored (min, max, mean, median, variance)
+ * or replaced by the closest edge pixel (gaussian).
+ *
+ * Radii are truncated to integers as in CLIJ2. Sphere shaped neighborhoods contain
+ * all offsets with (dx/rx)^2 + (dy/ry)^2 + (dz/rz)^2 <= 1, axes with radius 0 are not extended.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class CPUFilters {
+
+	public enum Operation { MINIMUM, MAXIMUM, MEAN, MEDIAN, VARIANCE }
+
+	private CPUFilters() {}
+
+
+	/**
+	 * @return offsets as {dx[], dy[], dz[]} in raster order
+	 */
+	public static int[][] sphereOffsets(double radiusX, double radiusY, double radiusZ) {
+		int rx = (int) radiusX;
+		int ry = (int) radiusY;
+		int rz = (int) radiusZ;
+		int[][] offsets = new int[3][(2 * rx + 1) * (2 * ry + 1) * (2 * rz + 1)];
+		int count = 0;
+		for (int dz = -rz; dz <= rz; dz++) {
+			for (int dy = -ry; dy <= ry; dy++) {
+				for (int dx = -rx; dx <= rx; dx++) {
+					double distance = normalizedSquare(dx, rx) + normalizedSquare(dy, ry) + normalizedSquare(dz, rz);
+					if (distance <= 1.0) {
+						offsets[0][count] = dx;
+						offsets[1][count] = dy;
+						offsets[2][count] = dz;
+						count++;
+					}
+				}
+			}
+		}
+		for (int d = 0; d < 3; d++) {
+			offsets[d] = Arrays.copyOf(offsets[d], count);
+		}
+		return offsets;
+	}
+
+	private static double normalizedSquare(int offset, int radius) {
+		return radius == 0 ? 0 : (double) (offset * offset) / (radius * radius);
+	}
+
+
+	public static int[][] boxOffsets(double radiusX, double radiusY, double radiusZ) {
+		int rx = (int) radiusX;
+		int ry = (int) radiusY;
+		int rz = (int) radiusZ;
+		int count = (2 * rx + 1) * (2 * ry + 1) * (2 * rz + 1);
+		int[][] offsets = new int[3][count];
+		int i = 0;
+		for (int dz = -rz; dz <= rz; dz++) {
+			for (int dy = -ry; dy <= ry; dy++) {
+				for (int dx = -rx; dx <= rx; dx++) {
+					offsets[0][i] = dx;
+					offsets[1][i] = dy;
+					offsets[2][i] = dz;
+					i++;
+				}
+			}
+		}
+		return offsets;
+	}
+
+
+	/**
+	 * @return float view of all planes. FLOAT buffers are not copied.
+	 */
+	static float[][] floatPlanes(ParallelExecutor executor, CPUBuffer buffer) {
+		float[][] planes = new float[buffer.depth()][];
+		if (buffer.getType() == BufferType.FLOAT) {
+			for (int z = 0; z < planes.length; z++) {
+				planes[z] = (float[]) buffer.getPlane(z);
+			}
+		} else {
+			executor.forEach(0, planes.length, z -> planes[z] = buffer.readPlane(z, null));
+		}
+		return planes;
+	}
+
+	static float[][] newPlanes(CPUBuffer template) {
+		return new float[template.depth()][template.planeSize()];
+	}
+
+	static void writePlanes(ParallelExecutor executor, float[][] planes, CPUBuffer destination) {
+		executor.forEach(0, planes.length, z -> destination.writePlane(z, planes[z]));
+	}
+
+
+	/**
+	 * Applies the operation to the neighborhood of each pixel given as offsets
+	 */
+	public static void filter(ParallelExecutor executor, CPUBuffer source, CPUBuffer destination, int[][] offsets, Operation operation) {
+		final float[][] input = floatPlanes(executor, source);
+		final float[][] output = newPlanes(source);
+		final int width = source.width();
+		final int height = source.height();
+		final int depth = source.depth();
+		final int[] dx = offsets[0];
+		final int[] dy = offsets[1];
+		final int[] dz = offsets[2];
+		final int count = dx.length;
+
+		executor.forEachChunk(0, depth * height, (rowStart, rowEnd) -> {
+			float[] values = new float[count];
+			for (int row = rowStart; row < rowEnd; row++) {
+				int z = row / height;
+				int y = row % height;
+				float[] outputPlane = output[z];
+				for (int x = 0; x < width; x++) {
+					int n = 0;
+					for (int o = 0; o < count; o++) {
+						int nx = x + dx[o];
+						int ny = y + dy[o];
+						int nz = z + dz[o];
+						if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+							continue;
+						}
+						values[n++] = input[nz][ny * width + nx];
+					}
+					outputPlane[y * width + x] = reduce(values, n, operation);
+				}
+			}
+		});
+
+		writePlanes(executor, output, destination);
+	}
+
+
+	private static float reduce(float[] values, int n, Operation operation) {
+		if (n == 0) {
+			return 0f;
+		}
+		switch (operation) {
+		case MINIMUM: {
+			float min = values[0];
+			for (int i = 1; i < n; i++) {
+				if (values[i] < min) { min = values[i]; }
+			}
+			return min;
+		}
+		case MAXIMUM: {
+			float max = values[0];
+			for (int i = 1; i < n; i++) {
+				if (values[i] > max) { max = values[i]; }
+			}
+			return max;
+		}
+		case MEAN: {
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += values[i];
+			}
+			return (float) (sum / n);
+		}
+		case MEDIAN: {
+			Arrays.sort(values, 0, n);
+			return values[n / 2];
+		}
+		case VARIANCE: {
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += values[i];
+			}
+			double mean = sum / n;
+			double squares = 0;
+			for (int i = 0; i < n; i++) {
+				squares += (values[i] - mean) * (values[i] - mean);
+			}
+			return (float) (squares / n);
+		}
+		default:
+			throw new IllegalArgumentException("Unknown operation " + operation);
+		}
+	}
+
+
+	/**
+	 * Minimum or maximum in a box neighborhood as three separable 1D passes
+	 */
+	public static void minMaxBox(ParallelExecutor executor, CPUBuffer source, CPUBuffer destination, double radiusX, double radiusY, double radiusZ, boolean maximum) {
+		float[][] current = floatPlanes(executor, source);
+		float[][] temp = newPlanes(source);
+		int[] radii = {(int) radiusX, (int) radiusY, (int) radiusZ};
+		boolean copied = false;
+		for (int axis = 0; axis < 3; axis++) {
+			if (radii[axis] == 0 || (axis == 2 && source.depth() == 1)) {
+				continue;
+			}
+			minMaxLine(executor, current, temp, source.width(), source.height(), axis, radii[axis], maximum);
+			float[][] swap = current;
+			current = temp;
+			temp = copied ? swap : newPlanes(source);
+			copied = true;
+		}
+		writePlanes(executor, current, destination);
+	}
+
+
+	private static void minMaxLine(ParallelExecutor executor, float[][] input, float[][] output, int width, int height, int axis, int radius, boolean maximum) {
+		int depth = input.length;
+		executor.forEach(0, depth, z -> {
+			float[] out = output[z];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int position = axis == 0 ? x : (axis == 1 ? y : z);
+					int length = axis == 0 ? width : (axis == 1 ? height : depth);
+					int from = Math.max(0, position - radius);
+					int to = Math.min(length - 1, position + radius);
+					float value = maximum ? -Float.MAX_VALUE : Float.MAX_VALUE;
+					for (int p = from; p <= to; p++) {
+						float v;
+						if (axis == 0) {
+							v = input[z][y * width + p];
+						} else if (axis == 1) {
+							v = input[z][p * width + x];
+						} else {
+							v = input[p][y * width + x];
+						}
+						if (maximum ? v > value : v < value) {
+							value = v;
+						}
+					}
+					out[y * width + x] = value;
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Gaussian blur with clamped borders. An axis with sigma 0 is not blurred.
+	 */
+	public static float[][] gaussian(ParallelExecutor executor, CPUBuffer source, double sigmaX, double sigmaY, double sigmaZ) {
+		float[][] current = floatPlanes(executor, source);
+		double[] sigmas = {sigmaX, sigmaY, sigmaZ};
+		boolean ownsCurrent = false;
+		for (int axis = 0; axis < 3; axis++) {
+			if (sigmas[axis] <= 0 || (axis == 2 && source.depth() == 1)) {
+				continue;
+			}
+			float[] kernel = gaussianKernel(sigmas[axis]);
+			float[][] output = newPlanes(source);
+			convolveLine(executor, current, output, source.width(), source.height(), axis, kernel);
+			current = output;
+			ownsCurrent = true;
+		}
+		if (!ownsCurrent) {
+			float[][] copy = new float[current.length][];
+			for (int z = 0; z < copy.length; z++) {
+				copy[z] = current[z].clone();
+			}
+			current = copy;
+		}
+		return current;
+	}
+
+
+	/**
+	 * Normalized kernel of size (int)(8 sigma) rounded up to the next odd number as in CLIJ2
+	 */
+	static float[] gaussianKernel(double sigma) {
+		int size = (int) (sigma * 8);
+		if (size % 2 == 0) {
+			size++;
+		}
+		int radius = size / 2;
+		float[] kernel = new float[size];
+		double sum = 0;
+		for (int i = -radius; i <= radius; i++) {
+			double value = Math.exp(-(i * i) / (2 * sigma * sigma));
+			kernel[i + radius] = (float) value;
+			sum += value;
+		}
+		for (int i = 0; i < size; i++) {
+			kernel[i] /= sum;
+		}
+		return kernel;
+	}
+
+
+	private static void convolveLine(ParallelExecutor executor, float[][] input, float[][] output, int width, int height, int axis, float[] kernel) {
+		int depth = input.length;
+		int radius = kernel.length / 2;
+		executor.forEach(0, depth, z -> {
+			float[] out = output[z];
+			if (axis == 0) {
+				float[] in = input[z];
+				for (int y = 0; y < height; y++) {
+					int offset = y * width;
+					for (int x = 0; x < width; x++) {
+						double sum = 0;
+						for (int k = -radius; k <= radius; k++) {
+							int p = clamp(x + k, width);
+							sum += kernel[k + radius] * in[offset + p];
+						}
+						out[offset + x] = (float) sum;
+					}
+				}
+			} else if (axis == 1) {
+				float[] in = input[z];
+				for (int y = 0; y < height; y++) {
+					for (int k = -radius; k <= radius; k++) {
+						int sourceOffset = clamp(y + k, height) * width;
+						float weight = kernel[k + radius];
+						for (int x = 0; x < width; x++) {
+							out[y * width + x] += weight * in[sourceOffset + x];
+						}
+					}
+				}
+			} else {
+				int planeSize = width * height;
+				for (int k = -radius; k <= radius; k++) {
+					float[] in = input[clamp(z + k, depth)];
+					float weight = kernel[k + radius];
+					for (int i = 0; i < planeSize; i++) {
+						out[i] += weight * in[i];
+					}
+				}
+			}
+		});
+	}
+
+	private static int clamp(int position, int length) {
+		return position < 0 ? 0 : (position >= length ? length - 1 : position);
+	}
+
+
+	/**
+	 * Sets pixels to 1 which are the maximum of their box neighborhood. Within
+	 * plateaus only the first pixel in raster order of the neighborhood is marked.
+	 */
+	public static void detectMaximaBox(ParallelExecutor executor, CPUBuffer source, CPUBuffer destination, double radiusX, double radiusY, double radiusZ) {
+		final float[][] input = floatPlanes(executor, source);
+		final int width = source.width();
+		final int height = source.height();
+		final int depth = source.depth();
+		final int[][] offsets = boxOffsets(radiusX, radiusY, depth == 1 ? 0 : radiusZ);
+		final int count = offsets[0].length;
+
+		executor.forEach(0, depth, z -> {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					float center = input[z][y * width + x];
+					boolean isMaximum = true;
+					for (int o = 0; o < count && isMaximum; o++) {
+						int nx = x + offsets[0][o];
+						int ny = y + offsets[1][o];
+						int nz = z + offsets[2][o];
+						if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+							continue;
+						}
+						float value = input[nz][ny * width + nx];
+						boolean beforeCenter = offsets[2][o] < 0 || (offsets[2][o] == 0 && (offsets[1][o] < 0 || (offsets[1][o] == 0 && offsets[0][o] < 0)));
+						if (value > center || (beforeCenter && value == center)) {
+							isMaximum = false;
+						}
+					}
+					destination.set(z, y * width + x, isMaximum ? 1 : 0);
+				}
+			}
+		});
+	}
+}
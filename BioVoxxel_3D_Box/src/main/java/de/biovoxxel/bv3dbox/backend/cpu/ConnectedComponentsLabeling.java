@@ -0,0 +1,267 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Block-parallel connected components labeling. All pixels != 0 are foreground.
+ *
+ * The image is split into slabs along z (along y for 2D images) which are labelled
+ * independently with a two-pass union-find on their own thread. Provisional labels
+ * are then made globally unique by offsetting each slab and the components touching
+ * at slab borders are merged with a lock-free union-find.
+ *
+ * Roots always point to the smallest provisional label of a component, which is the
+ * one created at its first pixel in raster order (z, y, x). Final labels 1..n therefore
+ * follow the raster order independent of the number of threads, as in CLIJ2.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class ConnectedComponentsLabeling {
+
+	private ConnectedComponentsLabeling() {}
+
+
+	/**
+	 * Source and destination can be the same buffer.
+	 *
+	 * @param box	true for 8/26-connectivity, false for 4/6-connectivity (diamond)
+	 * @return the number of labels
+	 */
+	public static int label(ParallelExecutor executor, CPUBuffer source, CPUBuffer destination, boolean box) {
+		int width = source.width();
+		int height = source.height();
+		int depth = source.depth();
+		boolean is3D = depth > 1;
+		int[][] backwardOffsets = backwardOffsets(box, is3D);
+
+		int outerSize = is3D ? depth : height;
+		int slabCount = executor.getChunkCount(0, outerSize);
+		int[] slabStart = new int[slabCount + 1];
+		for (int s = 0; s <= slabCount; s++) {
+			slabStart[s] = (int) ((long) outerSize * s / slabCount);
+		}
+
+		int[][] provisional = new int[depth][width * height];
+		int[][] slabParents = new int[slabCount][];
+		int[] slabLabelCount = new int[slabCount];
+
+		executor.forEach(0, slabCount, s -> {
+			int[] parent = new int[1024];
+			int nextLabel = 1;
+			int zStart = is3D ? slabStart[s] : 0;
+			int zEnd = is3D ? slabStart[s + 1] : 1;
+			int yStart = is3D ? 0 : slabStart[s];
+			int yEnd = is3D ? height : slabStart[s + 1];
+
+			for (int z = zStart; z < zEnd; z++) {
+				for (int y = yStart; y < yEnd; y++) {
+					for (int x = 0; x < width; x++) {
+						int index = y * width + x;
+						if (source.get(z, index) == 0) {
+							continue;
+						}
+						int current = 0;
+						for (int[] offset : backwardOffsets) {
+							int nx = x + offset[0];
+							int ny = y + offset[1];
+							int nz = z + offset[2];
+							if (nx < 0 || nx >= width || ny < yStart || ny >= height || nz < zStart) {
+								continue;
+							}
+							int neighbor = provisional[nz][ny * width + nx];
+							if (neighbor == 0) {
+								continue;
+							}
+							if (current == 0) {
+								current = find(parent, neighbor);
+							} else {
+								current = union(parent, current, neighbor);
+							}
+						}
+						if (current == 0) {
+							if (nextLabel == parent.length) {
+								parent = Arrays.copyOf(parent, parent.length * 2);
+							}
+							parent[nextLabel] = nextLabel;
+							current = nextLabel++;
+						}
+						provisional[z][index] = current;
+					}
+				}
+			}
+			slabParents[s] = parent;
+			slabLabelCount[s] = nextLabel - 1;
+		});
+
+		int[] labelOffset = new int[slabCount];
+		int totalLabels = 0;
+		for (int s = 0; s < slabCount; s++) {
+			labelOffset[s] = totalLabels;
+			totalLabels += slabLabelCount[s];
+		}
+
+		AtomicIntegerArray parent = new AtomicIntegerArray(totalLabels + 1);
+		executor.forEach(0, slabCount, s -> {
+			int[] localParent = slabParents[s];
+			int offset = labelOffset[s];
+			for (int label = 1; label <= slabLabelCount[s]; label++) {
+				parent.set(offset + label, offset + find(localParent, label));
+			}
+			slabParents[s] = null;
+		});
+
+		executor.forEach(0, slabCount, s -> {
+			int offset = labelOffset[s];
+			int zStart = is3D ? slabStart[s] : 0;
+			int zEnd = is3D ? slabStart[s + 1] : 1;
+			int yStart = is3D ? 0 : slabStart[s];
+			int yEnd = is3D ? height : slabStart[s + 1];
+			for (int z = zStart; z < zEnd; z++) {
+				int[] plane = provisional[z];
+				for (int i = yStart * width; i < yEnd * width; i++) {
+					if (plane[i] != 0) {
+						plane[i] += offset;
+					}
+				}
+			}
+		});
+
+		executor.forEach(1, slabCount, s -> {
+			int border = slabStart[s];
+			int z = is3D ? border : 0;
+			int y0 = is3D ? 0 : border;
+			int y1 = is3D ? height : border + 1;
+			for (int y = y0; y < y1; y++) {
+				for (int x = 0; x < width; x++) {
+					int label = provisional[z][y * width + x];
+					if (label == 0) {
+						continue;
+					}
+					for (int[] offset : backwardOffsets) {
+						int nx = x + offset[0];
+						int ny = y + offset[1];
+						int nz = z + offset[2];
+						boolean inPreviousSlab = is3D ? nz == border - 1 : ny == border - 1;
+						if (!inPreviousSlab || nx < 0 || nx >= width || ny < 0 || ny >= height) {
+							continue;
+						}
+						int neighbor = provisional[nz][ny * width + nx];
+						if (neighbor != 0) {
+							union(parent, label, neighbor);
+						}
+					}
+				}
+			}
+		});
+
+		int[] finalLabel = new int[totalLabels + 1];
+		int labelCount = 0;
+		for (int label = 1; label <= totalLabels; label++) {
+			int root = find(parent, label);
+			finalLabel[label] = root == label ? ++labelCount : finalLabel[root];
+		}
+
+		executor.forEach(0, depth, z -> {
+			int[] plane = provisional[z];
+			for (int i = 0; i < plane.length; i++) {
+				destination.set(z, i, finalLabel[plane[i]]);
+			}
+		});
+		return labelCount;
+	}
+
+
+	/**
+	 * Neighbors already visited in a raster scan
+	 */
+	public static int[][] backwardOffsets(boolean box, boolean is3D) {
+		List<int[]> offsets = new ArrayList<int[]>();
+		int rz = is3D ? 1 : 0;
+		for (int dz = -rz; dz <= 0; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					boolean before = dz < 0 || (dz == 0 && (dy < 0 || (dy == 0 && dx < 0)));
+					if (!before) {
+						continue;
+					}
+					int distance = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+					if (box || distance == 1) {
+						offsets.add(new int[] {dx, dy, dz});
+					}
+				}
+			}
+		}
+		return offsets.toArray(new int[0][]);
+	}
+
+
+	private static int find(int[] parent, int label) {
+		int root = label;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		while (parent[label] != root) {
+			int next = parent[label];
+			parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+	private static int union(int[] parent, int a, int b) {
+		int rootA = find(parent, a);
+		int rootB = find(parent, b);
+		if (rootA == rootB) {
+			return rootA;
+		}
+		if (rootA < rootB) {
+			parent[rootB] = rootA;
+			return rootA;
+		}
+		parent[rootA] = rootB;
+		return rootB;
+	}
+
+
+	/**
+	 * Lock-free find with path halving
+	 */
+	private static int find(AtomicIntegerArray parent, int label) {
+		while (true) {
+			int next = parent.get(label);
+			if (next == label) {
+				return label;
+			}
+			int grandParent = parent.get(next);
+			if (next != grandParent) {
+				parent.compareAndSet(label, next, grandParent);
+			}
+			label = grandParent;
+		}
+	}
+
+	/**
+	 * Lock-free union, the larger root is linked to the smaller one only if it is still a root
+	 */
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			int rootA = find(parent, a);
+			int rootB = find(parent, b);
+			if (rootA == rootB) {
+				return;
+			}
+			if (rootA > rootB) {
+				int temp = rootA;
+				rootA = rootB;
+				rootB = temp;
+			}
+			if (parent.compareAndSet(rootB, rootB, rootA)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+/**
+ * Exact euclidean distance transform (Felzenszwalb and Huttenlocher, 2012) as three
+ * separable passes of the 1D lower envelope of parabolas. Distances are given from each
+ * foreground pixel (!= 0) to the closest background pixel (== 0) and take the voxel
+ * spacing of each axis into account. Pixels outside of the image are not considered
+ * as background.
+ *
+ * Each pass is O(n) per line and the lines of a pass are distributed over all threads.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class DistanceTransform {
+
+	private static final float INFINITY = Float.MAX_VALUE / 4;
+
+	private DistanceTransform() {}
+
+
+	/**
+	 * Spacings are usually given relative to the pixel width (1, pixelHeight / pixelWidth,
+	 * pixelDepth / pixelWidth) which returns distances in units of the pixel width.
+	 * The z spacing is ignored for 2D images.
+	 */
+	public static void distanceMap(ParallelExecutor executor, CPUBuffer source, CPUBuffer destination, double spacingX, double spacingY, double spacingZ) {
+		float[][] planes = new float[source.depth()][];
+		executor.forEach(0, source.depth(), z -> planes[z] = source.readPlane(z, null));
+
+		distanceMap(executor, planes, source.width(), source.height(), spacingX, spacingY, spacingZ);
+
+		CPUFilters.writePlanes(executor, planes, destination);
+	}
+
+
+	/**
+	 * Replaces the binary planes (background == 0) in place by the distance map.
+	 * If the image does not contain any background pixel all pixels are set to Float.MAX_VALUE.
+	 */
+	public static void distanceMap(ParallelExecutor executor, float[][] planes, int width, int height, double spacingX, double spacingY, double spacingZ) {
+		int planeSize = width * height;
+		executor.forEach(0, planes.length, z -> {
+			float[] plane = planes[z];
+			for (int i = 0; i < planeSize; i++) {
+				plane[i] = plane[i] == 0 ? 0f : INFINITY;
+			}
+		});
+
+		squaredDistances(executor, planes, width, height, validSpacing(spacingX), validSpacing(spacingY), validSpacing(spacingZ));
+
+		executor.forEach(0, planes.length, z -> {
+			float[] plane = planes[z];
+			for (int i = 0; i < planeSize; i++) {
+				plane[i] = plane[i] >= INFINITY ? Float.MAX_VALUE : (float) Math.sqrt(plane[i]);
+			}
+		});
+	}
+
+	private static double validSpacing(double spacing) {
+		return spacing > 0 && !Double.isInfinite(spacing) ? spacing : 1.0;
+	}
+
+
+	/**
+	 * Transforms planes holding 0 for background and {@link #INFINITY} for foreground in place
+	 * into the squared distances to the closest background pixel.
+	 */
+	static void squaredDistances(ParallelExecutor executor, float[][] squared, int width, int height, double spacingX, double spacingY, double spacingZ) {
+		int depth = squared.length;
+		float weightX = (float) (spacingX * spacingX);
+		float weightY = (float) (spacingY * spacingY);
+		float weightZ = (float) (spacingZ * spacingZ);
+
+		executor.forEachChunk(0, depth * height, (start, end) -> {
+			Envelope envelope = new Envelope(width);
+			for (int row = start; row < end; row++) {
+				float[] plane = squared[row / height];
+				int offset = (row % height) * width;
+				for (int x = 0; x < width; x++) { envelope.line[x] = plane[offset + x]; }
+				envelope.transform(width, weightX);
+				for (int x = 0; x < width; x++) { plane[offset + x] = envelope.result[x]; }
+			}
+		});
+
+		executor.forEachChunk(0, depth * width, (start, end) -> {
+			Envelope envelope = new Envelope(height);
+			for (int column = start; column < end; column++) {
+				float[] plane = squared[column / width];
+				int x = column % width;
+				for (int y = 0; y < height; y++) { envelope.line[y] = plane[y * width + x]; }
+				envelope.transform(height, weightY);
+				for (int y = 0; y < height; y++) { plane[y * width + x] = envelope.result[y]; }
+			}
+		});
+
+		if (depth > 1) {
+			executor.forEachChunk(0, width * height, (start, end) -> {
+				Envelope envelope = new Envelope(depth);
+				for (int i = start; i < end; i++) {
+					for (int z = 0; z < depth; z++) { envelope.line[z] = squared[z][i]; }
+					envelope.transform(depth, weightZ);
+					for (int z = 0; z < depth; z++) { squared[z][i] = envelope.result[z]; }
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * Per thread working memory for the 1D transform
+	 */
+	private static final class Envelope {
+
+		final float[] line;
+		final float[] result;
+		final int[] vertices;
+		final float[] boundaries;
+
+		Envelope(int length) {
+			line = new float[length];
+			result = new float[length];
+			vertices = new int[length];
+			boundaries = new float[length + 1];
+		}
+
+		/**
+		 * Lower envelope of the parabolas weight * (p - q)^2 + line(q) sampled at all positions p
+		 */
+		void transform(int length, float weight) {
+			int k = 0;
+			vertices[0] = 0;
+			boundaries[0] = -Float.MAX_VALUE;
+			boundaries[1] = Float.MAX_VALUE;
+			for (int q = 1; q < length; q++) {
+				float s = intersection(q, vertices[k], weight);
+				while (s <= boundaries[k]) {
+					k--;
+					s = intersection(q, vertices[k], weight);
+				}
+				k++;
+				vertices[k] = q;
+				boundaries[k] = s;
+				boundaries[k + 1] = Float.MAX_VALUE;
+			}
+			k = 0;
+			for (int q = 0; q < length; q++) {
+				while (boundaries[k + 1] < q) {
+					k++;
+				}
+				float distance = q - vertices[k];
+				result[q] = Math.min(INFINITY, weight * distance * distance + line[vertices[k]]);
+			}
+		}
+
+		private float intersection(int q, int p, float weight) {
+			return ((line[q] + weight * q * q) - (line[p] + weight * p * p)) / (2f * weight * (q - p));
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.biovoxxel.bv3dbox.backend.BitMask;
+import de.biovoxxel.bv3dbox.backend.BufferType;
+
+import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY;
+
+/**
+ * Label map operations of the {@link CPUBackend} following the CLIJ2 semantics.
+ * Operations removing labels always close the resulting index gaps keeping the label order.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class LabelOperations {
+
+	private LabelOperations() {}
+
+
+	/**
+	 * Writes map[label] for each pixel of the label image into the destination
+	 */
+	static void applyLabelMap(ParallelExecutor executor, CPUBuffer labels, double[] map, CPUBuffer destination) {
+		int planeSize = labels.planeSize();
+		executor.forEach(0, labels.depth(), z -> {
+			for (int i = 0; i < planeSize; i++) {
+				int label = (int) labels.get(z, i);
+				destination.set(z, i, label > 0 && label < map.length ? map[label] : 0);
+			}
+		});
+	}
+
+
+	/**
+	 * Relabels all labels with keep[label] == true sequentially in ascending order, all others are removed
+	 */
+	static void relabel(ParallelExecutor executor, CPUBuffer labels, boolean[] keep, CPUBuffer destination) {
+		double[] map = new double[keep.length];
+		int next = 0;
+		for (int l = 1; l < keep.length; l++) {
+			if (keep[l]) {
+				map[l] = ++next;
+			}
+		}
+		applyLabelMap(executor, labels, map, destination);
+	}
+
+
+	public static void closeIndexGaps(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination) {
+		int max = (int) CPUBackend.maximum(executor, labels);
+		boolean[] present = new boolean[max + 1];
+		int planeSize = labels.planeSize();
+		executor.forEach(0, labels.depth(), z -> {
+			for (int i = 0; i < planeSize; i++) {
+				int label = (int) labels.get(z, i);
+				if (label > 0) {
+					present[label] = true;
+				}
+			}
+		});
+		relabel(executor, labels, present, destination);
+	}
+
+
+	public static void excludeLabels(ParallelExecutor executor, CPUBuffer flagVector, CPUBuffer labels, CPUBuffer destination) {
+		int max = (int) CPUBackend.maximum(executor, labels);
+		boolean[] keep = new boolean[max + 1];
+		for (int l = 1; l <= max; l++) {
+			keep[l] = l >= flagVector.width() || flagVector.get(0, l) == 0;
+		}
+		relabel(executor, labels, keep, destination);
+	}
+
+
+	public static void excludeLabelsOnEdges(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination) {
+		int width = labels.width();
+		int height = labels.height();
+		int depth = labels.depth();
+		int max = (int) CPUBackend.maximum(executor, labels);
+		boolean[] present = new boolean[max + 1];
+		boolean[] onEdge = new boolean[max + 1];
+		for (int z = 0; z < depth; z++) {
+			boolean edgePlane = depth > 1 && (z == 0 || z == depth - 1);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int label = (int) labels.get(z, y * width + x);
+					present[label] = true;
+					if (edgePlane || x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+						onEdge[label] = true;
+					}
+				}
+			}
+		}
+		boolean[] keep = new boolean[max + 1];
+		for (int l = 1; l <= max; l++) {
+			keep[l] = present[l] && !onEdge[l];
+		}
+		relabel(executor, labels, keep, destination);
+	}
+
+
+	public static void excludeLabelsOutsideSizeRange(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination, double minimumSize, double maximumSize) {
+		long[] sizes = labelSizes(executor, labels);
+		boolean[] keep = new boolean[sizes.length];
+		for (int l = 1; l < sizes.length; l++) {
+			keep[l] = sizes[l] >= minimumSize && sizes[l] <= maximumSize;
+		}
+		relabel(executor, labels, keep, destination);
+	}
+
+
+	static long[] labelSizes(ParallelExecutor executor, CPUBuffer labels) {
+		int max = (int) CPUBackend.maximum(executor, labels);
+		AtomicLongArray sizes = new AtomicLongArray(max + 1);
+		int planeSize = labels.planeSize();
+		executor.forEach(0, labels.depth(), z -> {
+			int[] local = new int[max + 1];
+			for (int i = 0; i < planeSize; i++) {
+				local[(int) labels.get(z, i)]++;
+			}
+			for (int l = 1; l <= max; l++) {
+				if (local[l] != 0) {
+					sizes.addAndGet(l, local[l]);
+				}
+			}
+		});
+		long[] result = new long[max + 1];
+		for (int l = 1; l <= max; l++) {
+			result[l] = sizes.get(l);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Removes label pixels touching another label or the background, alternating box and diamond neighborhoods
+	 */
+	public static void erodeLabels(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination, int radius, boolean relabelIslands) {
+		int width = labels.width();
+		int height = labels.height();
+		int depth = labels.depth();
+		int[][] current = new int[depth][];
+		for (int z = 0; z < depth; z++) {
+			current[z] = labels.readLabelPlane(z, null);
+		}
+		int[][] boxOffsets = CPUFilters.boxOffsets(1, 1, depth > 1 ? 1 : 0);
+		int[][] diamondOffsets = CPUFilters.sphereOffsets(1, 1, depth > 1 ? 1 : 0);
+
+		for (int iteration = 0; iteration < radius; iteration++) {
+			int[][] offsets = iteration % 2 == 0 ? boxOffsets : diamondOffsets;
+			int[][] input = current;
+			int[][] output = new int[depth][width * height];
+			executor.forEach(0, depth, z -> {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						int value = input[z][y * width + x];
+						if (value == 0) {
+							continue;
+						}
+						boolean keep = true;
+						for (int o = 0; o < offsets[0].length && keep; o++) {
+							int nx = x + offsets[0][o];
+							int ny = y + offsets[1][o];
+							int nz = z + offsets[2][o];
+							if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+								continue;
+							}
+							keep = input[nz][ny * width + nx] == value;
+						}
+						output[z][y * width + x] = keep ? value : 0;
+					}
+				}
+			});
+			current = output;
+		}
+
+		for (int z = 0; z < depth; z++) {
+			destination.writeLabelPlane(z, current[z]);
+		}
+		if (relabelIslands) {
+			ConnectedComponentsLabeling.label(executor, destination, destination, false);
+		}
+	}
+
+
+	/**
+	 * Keeps only label pixels with a different value in their diamond neighborhood
+	 */
+	public static void reduceLabelsToLabelEdges(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination) {
+		int[][] output = edges(executor, labelPlanes(executor, labels), labels.width(), labels.height());
+		executor.forEach(0, output.length, z -> destination.writeLabelPlane(z, output[z]));
+	}
+
+
+	static int[][] edges(ParallelExecutor executor, int[][] input, int width, int height) {
+		int depth = input.length;
+		int[][] offsets = CPUFilters.sphereOffsets(1, 1, depth > 1 ? 1 : 0);
+		int[][] output = new int[depth][width * height];
+		executor.forEach(0, depth, z -> {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int value = input[z][y * width + x];
+					if (value == 0) {
+						continue;
+					}
+					for (int o = 0; o < offsets[0].length; o++) {
+						int nx = x + offsets[0][o];
+						int ny = y + offsets[1][o];
+						int nz = z + offsets[2][o];
+						if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+							continue;
+						}
+						if (input[nz][ny * width + nx] != value) {
+							output[z][y * width + x] = value;
+							break;
+						}
+					}
+				}
+			}
+		});
+		return output;
+	}
+
+
+	/**
+	 * Label planes in parallel, exact for integer labels above 2^24
+	 */
+	static int[][] labelPlanes(ParallelExecutor executor, CPUBuffer labels) {
+		int[][] planes = new int[labels.depth()][];
+		executor.forEach(0, labels.depth(), z -> planes[z] = labels.readLabelPlane(z, null));
+		return planes;
+	}
+
+
+	/**
+	 * Sets all background pixels which are not connected to the image border (diamond connectivity) to 1
+	 */
+	public static void binaryFillHoles(ParallelExecutor executor, CPUBuffer binary, CPUBuffer destination, boolean sliceBySlice) {
+		int depth = binary.depth();
+		if (sliceBySlice || depth == 1) {
+			executor.forEach(0, depth, z -> fillHoles(binary, destination, z, z + 1));
+		} else {
+			fillHoles(binary, destination, 0, depth);
+		}
+	}
+
+
+	private static void fillHoles(CPUBuffer binary, CPUBuffer destination, int zStart, int zEnd) {
+		int width = binary.width();
+		int height = binary.height();
+		int depth = zEnd - zStart;
+		BitMask outside = new BitMask(width, height, depth);
+		ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+
+		for (int z = 0; z < depth; z++) {
+			boolean edgePlane = depth > 1 && (z == 0 || z == depth - 1);
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if ((edgePlane || x == 0 || y == 0 || x == width - 1 || y == height - 1) && binary.get(zStart + z, y * width + x) == 0) {
+						outside.set(z, y * width + x, true);
+						queue.add(new int[] {x, y, z});
+					}
+				}
+			}
+		}
+
+		int[][] neighbors = {{1, 0, 0}, {-1, 0, 0}, {0, 1, 0}, {0, -1, 0}, {0, 0, 1}, {0, 0, -1}};
+		while (!queue.isEmpty()) {
+			int[] p = queue.poll();
+			for (int[] n : neighbors) {
+				int nx = p[0] + n[0];
+				int ny = p[1] + n[1];
+				int nz = p[2] + n[2];
+				if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+					continue;
+				}
+				int index = ny * width + nx;
+				if (!outside.get(nz, index) && binary.get(zStart + nz, index) == 0) {
+					outside.set(nz, index, true);
+					queue.add(new int[] {nx, ny, nz});
+				}
+			}
+		}
+
+		BitMask filled = outside.not();
+		for (int z = 0; z < depth; z++) {
+			if (destination.getType() == BufferType.UNSIGNED_BYTE) {
+				filled.getPlane(z, (byte[]) destination.getPlane(zStart + z), (byte) 1);
+			} else {
+				for (int i = 0; i < width * height; i++) {
+					destination.set(zStart + z, i, filled.get(z, i) ? 1 : 0);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * @return {x, y, z} centroid per label in pixels, index 0 unused
+	 */
+	static double[][] centroids(ParallelExecutor executor, CPUBuffer labels) {
+		double[][] stats = LabelStatistics.measure(executor, labels, labels);
+		double[][] centroids = new double[stats.length][];
+		for (int l = 1; l < stats.length; l++) {
+			centroids[l] = new double[] {
+					stats[l][STATISTICS_ENTRY.CENTROID_X.value],
+					stats[l][STATISTICS_ENTRY.CENTROID_Y.value],
+					stats[l][STATISTICS_ENTRY.CENTROID_Z.value]};
+		}
+		return centroids;
+	}
+
+
+	public static void euclideanDistanceFromLabelCentroidMap(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination) {
+		double[][] centroids = centroids(executor, labels);
+		int width = labels.width();
+		int height = labels.height();
+		executor.forEach(0, labels.depth(), z -> {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int label = (int) labels.get(z, y * width + x);
+					if (label <= 0) {
+						destination.set(z, y * width + x, 0);
+						continue;
+					}
+					double[] c = centroids[label];
+					double distance = Math.sqrt((x - c[0]) * (x - c[0]) + (y - c[1]) * (y - c[1]) + (z - c[2]) * (z - c[2]));
+					destination.set(z, y * width + x, distance);
+				}
+			}
+		});
+	}
+
+
+	public static void labelOverlapCountMap(ParallelExecutor executor, CPUBuffer labels_1, CPUBuffer labels_2, CPUBuffer destination) {
+		int max1 = (int) CPUBackend.maximum(executor, labels_1);
+		long stride = (long) CPUBackend.maximum(executor, labels_2) + 1;
+		Set<Long> pairs = new HashSet<Long>();
+		int planeSize = labels_1.planeSize();
+		executor.forEach(0, labels_1.depth(), z -> {
+			Set<Long> localPairs = new HashSet<Long>();
+			for (int i = 0; i < planeSize; i++) {
+				int label1 = (int) labels_1.get(z, i);
+				int label2 = (int) labels_2.get(z, i);
+				if (label1 > 0 && label2 > 0) {
+					localPairs.add(label1 * stride + label2);
+				}
+			}
+			synchronized (pairs) {
+				pairs.addAll(localPairs);
+			}
+		});
+
+		double[] counts = new double[max1 + 1];
+		for (long pair : pairs) {
+			counts[(int) (pair / stride)]++;
+		}
+		applyLabelMap(executor, labels_1, counts, destination);
+	}
+
+
+	/**
+	 * Counts for each label the number of different labels touching it (diamond neighborhood)
+	 */
+	public static void touchingNeighborCountMap(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination) {
+		int width = labels.width();
+		int height = labels.height();
+		int depth = labels.depth();
+		int max = (int) CPUBackend.maximum(executor, labels);
+		long stride = max + 1L;
+		Set<Long> pairs = new HashSet<Long>();
+		executor.forEach(0, depth, z -> {
+			Set<Long> localPairs = new HashSet<Long>();
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int label = (int) labels.get(z, y * width + x);
+					if (label <= 0) {
+						continue;
+					}
+					int[] neighbors = {
+							x + 1 < width ? (int) labels.get(z, y * width + x + 1) : 0,
+							y + 1 < height ? (int) labels.get(z, (y + 1) * width + x) : 0,
+							z + 1 < depth ? (int) labels.get(z + 1, y * width + x) : 0};
+					for (int neighbor : neighbors) {
+						if (neighbor > 0 && neighbor != label) {
+							localPairs.add(Math.min(label, neighbor) * stride + Math.max(label, neighbor));
+						}
+					}
+				}
+			}
+			synchronized (pairs) {
+				pairs.addAll(localPairs);
+			}
+		});
+
+		double[] counts = new double[max + 1];
+		for (long pair : pairs) {
+			counts[(int) (pair / stride)]++;
+			counts[(int) (pair % stride)]++;
+		}
+		applyLabelMap(executor, labels, counts, destination);
+	}
+
+
+	/**
+	 * Counts for each label the number of labels with a centroid distance within the given range
+	 */
+	public static void proximalNeighborCountMap(ParallelExecutor executor, CPUBuffer labels, CPUBuffer destination, double minimumDistance, double maximumDistance) {
+		double[][] centroids = centroids(executor, labels);
+		int max = centroids.length - 1;
+		double[] counts = new double[max + 1];
+		executor.forEach(1, max + 1, l -> {
+			int count = 0;
+			for (int other = 1; other <= max; other++) {
+				if (other == l) {
+					continue;
+				}
+				double dx = centroids[l][0] - centroids[other][0];
+				double dy = centroids[l][1] - centroids[other][1];
+				double dz = centroids[l][2] - centroids[other][2];
+				double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+				if (distance >= minimumDistance && distance <= maximumDistance) {
+					count++;
+				}
+			}
+			counts[l] = count;
+		});
+		applyLabelMap(executor, labels, counts, destination);
+	}
+
+
+	public static void generateParametricImage(ParallelExecutor executor, CPUBuffer labels, CPUBuffer parameterVector, CPUBuffer destination) {
+		double[] map = new double[parameterVector.width()];
+		for (int i = 0; i < map.length; i++) {
+			map[i] = parameterVector.get(0, i);
+		}
+		int planeSize = labels.planeSize();
+		executor.forEach(0, labels.depth(), z -> {
+			for (int i = 0; i < planeSize; i++) {
+				int label = (int) labels.get(z, i);
+				destination.set(z, i, label >= 0 && label < map.length ? map[label] : 0);
+			}
+		});
+	}
+
+
+	/**
+	 * Draws the label edges with the maximum intensity of the original into a copy of it
+	 */
+	public static void visualizeOutlinesOnOriginal(ParallelExecutor executor, CPUBuffer intensity, CPUBuffer labels, CPUBuffer destination) {
+		double maximum = CPUBackend.maximum(executor, intensity);
+		int[][] edges = edges(executor, labelPlanes(executor, labels), labels.width(), labels.height());
+		int planeSize = labels.planeSize();
+		executor.forEach(0, labels.depth(), z -> {
+			for (int i = 0; i < planeSize; i++) {
+				destination.set(z, i, edges[z][i] != 0 ? maximum : intensity.get(z, i));
+			}
+		});
+	}
+
+
+	public static void drawSphere(CPUBuffer destination, double cx, double cy, double cz, double radiusX, double radiusY, double radiusZ, double value) {
+		int width = destination.width();
+		int height = destination.height();
+		int depth = destination.depth();
+		int zStart = Math.max(0, (int) Math.floor(cz - radiusZ));
+		int zEnd = Math.min(depth - 1, (int) Math.ceil(cz + radiusZ));
+		int yStart = Math.max(0, (int) Math.floor(cy - radiusY));
+		int yEnd = Math.min(height - 1, (int) Math.ceil(cy + radiusY));
+		int xStart = Math.max(0, (int) Math.floor(cx - radiusX));
+		int xEnd = Math.min(width - 1, (int) Math.ceil(cx + radiusX));
+		for (int z = zStart; z <= zEnd; z++) {
+			for (int y = yStart; y <= yEnd; y++) {
+				for (int x = xStart; x <= xEnd; x++) {
+					double distance = normalizedSquare(x - cx, radiusX) + normalizedSquare(y - cy, radiusY) + normalizedSquare(z - cz, radiusZ);
+					if (distance <= 1.0) {
+						destination.set(z, y * width + x, value);
+					}
+				}
+			}
+		}
+	}
+
+	private static double normalizedSquare(double offset, double radius) {
+		if (radius == 0) {
+			return Math.abs(offset) < 0.5 ? 0 : Double.MAX_VALUE;
+		}
+		return (offset * offset) / (radius * radius);
+	}
+}
@@ -0,0 +1,254 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.Arrays;
+
+import ij.measure.ResultsTable;
+import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY;
+
+/**
+ * Multi-threaded equivalent of CLIJ2 statisticsOfLabelledPixels. Each thread accumulates
+ * a z-slab into its own arrays which are summed up afterwards. A second pass determines the
+ * distances to centroid and mass center. Coordinates and distances are given in pixels.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class LabelStatistics {
+
+	private LabelStatistics() {}
+
+
+	private static final class Accumulator {
+		final double[] sum, sumSquares, min, max, count, sumIx, sumIy, sumIz, sumX, sumY, sumZ;
+		final int[] boxMinX, boxMinY, boxMinZ, boxMaxX, boxMaxY, boxMaxZ;
+
+		Accumulator(int labelCount) {
+			int n = labelCount + 1;
+			sum = new double[n];
+			sumSquares = new double[n];
+			min = new double[n];
+			max = new double[n];
+			count = new double[n];
+			sumIx = new double[n];
+			sumIy = new double[n];
+			sumIz = new double[n];
+			sumX = new double[n];
+			sumY = new double[n];
+			sumZ = new double[n];
+			boxMinX = new int[n];
+			boxMinY = new int[n];
+			boxMinZ = new int[n];
+			boxMaxX = new int[n];
+			boxMaxY = new int[n];
+			boxMaxZ = new int[n];
+			Arrays.fill(min, Double.MAX_VALUE);
+			Arrays.fill(max, -Double.MAX_VALUE);
+			Arrays.fill(boxMinX, Integer.MAX_VALUE);
+			Arrays.fill(boxMinY, Integer.MAX_VALUE);
+			Arrays.fill(boxMinZ, Integer.MAX_VALUE);
+			Arrays.fill(boxMaxX, -1);
+			Arrays.fill(boxMaxY, -1);
+			Arrays.fill(boxMaxZ, -1);
+		}
+
+		void add(Accumulator other) {
+			for (int l = 0; l < sum.length; l++) {
+				sum[l] += other.sum[l];
+				sumSquares[l] += other.sumSquares[l];
+				min[l] = Math.min(min[l], other.min[l]);
+				max[l] = Math.max(max[l], other.max[l]);
+				count[l] += other.count[l];
+				sumIx[l] += other.sumIx[l];
+				sumIy[l] += other.sumIy[l];
+				sumIz[l] += other.sumIz[l];
+				sumX[l] += other.sumX[l];
+				sumY[l] += other.sumY[l];
+				sumZ[l] += other.sumZ[l];
+				boxMinX[l] = Math.min(boxMinX[l], other.boxMinX[l]);
+				boxMinY[l] = Math.min(boxMinY[l], other.boxMinY[l]);
+				boxMinZ[l] = Math.min(boxMinZ[l], other.boxMinZ[l]);
+				boxMaxX[l] = Math.max(boxMaxX[l], other.boxMaxX[l]);
+				boxMaxY[l] = Math.max(boxMaxY[l], other.boxMaxY[l]);
+				boxMaxZ[l] = Math.max(boxMaxZ[l], other.boxMaxZ[l]);
+			}
+		}
+	}
+
+
+	/**
+	 * @return all values as [label][STATISTICS_ENTRY.value] for labels 0..max, row 0 stays empty
+	 */
+	public static double[][] measure(ParallelExecutor executor, CPUBuffer intensity, CPUBuffer labels) {
+		final int width = labels.width();
+		final int height = labels.height();
+		final int depth = labels.depth();
+		final int labelCount = (int) CPUBackend.maximum(executor, labels);
+
+		int chunks = executor.getChunkCount(0, depth);
+		Accumulator[] accumulators = new Accumulator[chunks];
+		final int[] chunkIndex = {0};
+		executor.forEachChunk(0, depth, (zStart, zEnd) -> {
+			Accumulator a = new Accumulator(labelCount);
+			for (int z = zStart; z < zEnd; z++) {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						int index = y * width + x;
+						int label = (int) labels.get(z, index);
+						if (label <= 0) {
+							continue;
+						}
+						double value = intensity.get(z, index);
+						a.sum[label] += value;
+						a.sumSquares[label] += value * value;
+						if (value < a.min[label]) { a.min[label] = value; }
+						if (value > a.max[label]) { a.max[label] = value; }
+						a.count[label]++;
+						a.sumIx[label] += value * x;
+						a.sumIy[label] += value * y;
+						a.sumIz[label] += value * z;
+						a.sumX[label] += x;
+						a.sumY[label] += y;
+						a.sumZ[label] += z;
+						if (x < a.boxMinX[label]) { a.boxMinX[label] = x; }
+						if (y < a.boxMinY[label]) { a.boxMinY[label] = y; }
+						if (z < a.boxMinZ[label]) { a.boxMinZ[label] = z; }
+						if (x > a.boxMaxX[label]) { a.boxMaxX[label] = x; }
+						if (y > a.boxMaxY[label]) { a.boxMaxY[label] = y; }
+						if (z > a.boxMaxZ[label]) { a.boxMaxZ[label] = z; }
+					}
+				}
+			}
+			synchronized (accumulators) {
+				accumulators[chunkIndex[0]++] = a;
+			}
+		});
+
+		Accumulator total = accumulators[0];
+		for (int c = 1; c < chunks; c++) {
+			if (accumulators[c] != null) {
+				total.add(accumulators[c]);
+			}
+		}
+
+		int columns = STATISTICS_ENTRY.values().length;
+		double[][] stats = new double[labelCount + 1][columns];
+		for (int l = 1; l <= labelCount; l++) {
+			double[] row = stats[l];
+			double n = total.count[l];
+			row[STATISTICS_ENTRY.IDENTIFIER.value] = l;
+			if (n == 0) {
+				continue;
+			}
+			double mean = total.sum[l] / n;
+			row[STATISTICS_ENTRY.BOUNDING_BOX_X.value] = total.boxMinX[l];
+			row[STATISTICS_ENTRY.BOUNDING_BOX_Y.value] = total.boxMinY[l];
+			row[STATISTICS_ENTRY.BOUNDING_BOX_Z.value] = total.boxMinZ[l];
+			row[STATISTICS_ENTRY.BOUNDING_BOX_END_X.value] = total.boxMaxX[l];
+			row[STATISTICS_ENTRY.BOUNDING_BOX_END_Y.value] = total.boxMaxY[l];
+			row[STATISTICS_ENTRY.BOUNDING_BOX_END_Z.value] = total.boxMaxZ[l];
+			row[STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.value] = total.boxMaxX[l] - total.boxMinX[l] + 1;
+			row[STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.value] = total.boxMaxY[l] - total.boxMinY[l] + 1;
+			row[STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.value] = total.boxMaxZ[l] - total.boxMinZ[l] + 1;
+			row[STATISTICS_ENTRY.MINIMUM_INTENSITY.value] = total.min[l];
+			row[STATISTICS_ENTRY.MAXIMUM_INTENSITY.value] = total.max[l];
+			row[STATISTICS_ENTRY.MEAN_INTENSITY.value] = mean;
+			row[STATISTICS_ENTRY.SUM_INTENSITY.value] = total.sum[l];
+			row[STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.value] = Math.sqrt(Math.max(0, total.sumSquares[l] / n - mean * mean));
+			row[STATISTICS_ENTRY.PIXEL_COUNT.value] = n;
+			row[STATISTICS_ENTRY.SUM_INTENSITY_TIMES_X.value] = total.sumIx[l];
+			row[STATISTICS_ENTRY.SUM_INTENSITY_TIMES_Y.value] = total.sumIy[l];
+			row[STATISTICS_ENTRY.SUM_INTENSITY_TIMES_Z.value] = total.sumIz[l];
+			row[STATISTICS_ENTRY.MASS_CENTER_X.value] = total.sumIx[l] / total.sum[l];
+			row[STATISTICS_ENTRY.MASS_CENTER_Y.value] = total.sumIy[l] / total.sum[l];
+			row[STATISTICS_ENTRY.MASS_CENTER_Z.value] = total.sumIz[l] / total.sum[l];
+			row[STATISTICS_ENTRY.SUM_X.value] = total.sumX[l];
+			row[STATISTICS_ENTRY.SUM_Y.value] = total.sumY[l];
+			row[STATISTICS_ENTRY.SUM_Z.value] = total.sumZ[l];
+			row[STATISTICS_ENTRY.CENTROID_X.value] = total.sumX[l] / n;
+			row[STATISTICS_ENTRY.CENTROID_Y.value] = total.sumY[l] / n;
+			row[STATISTICS_ENTRY.CENTROID_Z.value] = total.sumZ[l] / n;
+		}
+
+		measureDistances(executor, labels, stats);
+
+		return stats;
+	}
+
+
+	private static void measureDistances(ParallelExecutor executor, CPUBuffer labels, double[][] stats) {
+		final int width = labels.width();
+		final int height = labels.height();
+		final int depth = labels.depth();
+		final int labelCount = stats.length - 1;
+		final int massSum = STATISTICS_ENTRY.SUM_DISTANCE_TO_MASS_CENTER.value;
+		final int massMax = STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.value;
+		final int centroidSum = STATISTICS_ENTRY.SUM_DISTANCE_TO_CENTROID.value;
+		final int centroidMax = STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.value;
+
+		int chunks = executor.getChunkCount(0, depth);
+		double[][][] partial = new double[chunks][][];
+		final int[] chunkIndex = {0};
+		executor.forEachChunk(0, depth, (zStart, zEnd) -> {
+			double[][] distances = new double[4][labelCount + 1];
+			for (int z = zStart; z < zEnd; z++) {
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						int label = (int) labels.get(z, y * width + x);
+						if (label <= 0) {
+							continue;
+						}
+						double[] row = stats[label];
+						double toMassCenter = distance(x, y, z, row[STATISTICS_ENTRY.MASS_CENTER_X.value], row[STATISTICS_ENTRY.MASS_CENTER_Y.value], row[STATISTICS_ENTRY.MASS_CENTER_Z.value]);
+						double toCentroid = distance(x, y, z, row[STATISTICS_ENTRY.CENTROID_X.value], row[STATISTICS_ENTRY.CENTROID_Y.value], row[STATISTICS_ENTRY.CENTROID_Z.value]);
+						distances[0][label] += toMassCenter;
+						distances[1][label] = Math.max(distances[1][label], toMassCenter);
+						distances[2][label] += toCentroid;
+						distances[3][label] = Math.max(distances[3][label], toCentroid);
+					}
+				}
+			}
+			synchronized (partial) {
+				partial[chunkIndex[0]++] = distances;
+			}
+		});
+
+		for (int l = 1; l <= labelCount; l++) {
+			double[] row = stats[l];
+			for (double[][] distances : partial) {
+				if (distances == null) {
+					continue;
+				}
+				row[massSum] += distances[0][l];
+				row[massMax] = Math.max(row[massMax], distances[1][l]);
+				row[centroidSum] += distances[2][l];
+				row[centroidMax] = Math.max(row[centroidMax], distances[3][l]);
+			}
+			double n = row[STATISTICS_ENTRY.PIXEL_COUNT.value];
+			if (n == 0) {
+				continue;
+			}
+			row[STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.value] = row[massSum] / n;
+			row[STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.value] = row[massMax] / row[STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.value];
+			row[STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.value] = row[centroidSum] / n;
+			row[STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.value] = row[centroidMax] / row[STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.value];
+		}
+	}
+
+	private static double distance(double x, double y, double z, double cx, double cy, double cz) {
+		return Math.sqrt((x - cx) * (x - cx) + (y - cy) * (y - cy) + (z - cz) * (z - cz));
+	}
+
+
+	/**
+	 * Appends one row per label to the table with the columns in STATISTICS_ENTRY order
+	 */
+	public static void toResultsTable(double[][] stats, ResultsTable resultsTable) {
+		STATISTICS_ENTRY[] entries = STATISTICS_ENTRY.values();
+		for (int l = 1; l < stats.length; l++) {
+			resultsTable.incrementCounter();
+			for (STATISTICS_ENTRY entry : entries) {
+				resultsTable.addValue(entry.toString(), stats[l][entry.value]);
+			}
+		}
+	}
+}
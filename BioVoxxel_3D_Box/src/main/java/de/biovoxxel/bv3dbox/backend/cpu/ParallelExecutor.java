@@ -0,0 +1,111 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * Distributes loops of the {@link CPUBackend} over a fixed number of threads.
+ * Loops are split into contiguous chunks to keep per-thread memory access linear.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ParallelExecutor {
+
+	private final int threads;
+	private final ForkJoinPool pool;
+
+	public ParallelExecutor(int threads) {
+		this.threads = Math.max(1, threads);
+		this.pool = this.threads > 1 ? new ForkJoinPool(this.threads) : null;
+	}
+
+	public int getThreadCount() {
+		return threads;
+	}
+
+
+	/**
+	 * Executes body for each index in [start, end), each index exactly once
+	 */
+	public void forEach(int start, int end, IntConsumer body) {
+		forEachChunk(start, end, (chunkStart, chunkEnd) -> {
+			for (int i = chunkStart; i < chunkEnd; i++) {
+				body.accept(i);
+			}
+		});
+	}
+
+
+	/**
+	 * Splits [start, end) in at most one contiguous chunk per thread
+	 */
+	public void forEachChunk(int start, int end, ChunkConsumer body) {
+		int length = end - start;
+		if (length <= 0) {
+			return;
+		}
+		int chunks = Math.min(threads, length);
+		if (chunks == 1 || pool == null || ForkJoinTask.getPool() == pool) {
+			body.accept(start, end);
+			return;
+		}
+
+		List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+		for (int c = 0; c < chunks; c++) {
+			final int chunkStart = start + (int) ((long) length * c / chunks);
+			final int chunkEnd = start + (int) ((long) length * (c + 1) / chunks);
+			futures.add(pool.submit(() -> body.accept(chunkStart, chunkEnd)));
+		}
+		waitFor(futures);
+	}
+
+
+	/**
+	 * @return the number of chunks forEachChunk will use for the given range
+	 */
+	public int getChunkCount(int start, int end) {
+		return Math.max(1, Math.min(threads, end - start));
+	}
+
+
+	private static void waitFor(List<Future<?>> futures) {
+		RuntimeException firstException = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (firstException == null) {
+					firstException = new IllegalStateException("Interrupted while waiting for CPU backend workers", e);
+				}
+			} catch (ExecutionException e) {
+				if (firstException == null) {
+					Throwable cause = e.getCause();
+					firstException = cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+				}
+			}
+		}
+		if (firstException != null) {
+			throw firstException;
+		}
+	}
+
+
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+
+	@FunctionalInterface
+	public interface ChunkConsumer {
+		public void accept(int chunkStart, int chunkEnd);
+	}
+}
@@ -0,0 +1,131 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+/**
+ * Tubeness (Sato et al., 1998) as in the ImageJ Tubeness plugin. The image is blurred
+ * with a gaussian of the given sigma and the hessian matrix of each pixel is derived
+ * from central differences of the gradient with clamped borders. The eigenvalues are
+ * sorted by their absolute value and a pixel is bright and tube-like if the largest
+ * eigenvalue (2D) or the two largest eigenvalues (3D) are negative.
+ *
+ * The response is sigma^2 * |l2| in 2D and sigma^2 * sqrt(l2 * l3) in 3D and 0 for
+ * all other pixels.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class Tubeness {
+
+	private Tubeness() {}
+
+
+	public static void tubeness(ParallelExecutor executor, CPUBuffer source, CPUBuffer destination, double sigma) {
+		final int width = source.width();
+		final int height = source.height();
+		final int depth = source.depth();
+		final boolean is3D = depth > 1;
+		final float[][] blurred = CPUFilters.gaussian(executor, source, sigma, sigma, sigma);
+
+		final float[][] gradientX = CPUFilters.newPlanes(source);
+		final float[][] gradientY = CPUFilters.newPlanes(source);
+		final float[][] gradientZ = is3D ? CPUFilters.newPlanes(source) : null;
+		executor.forEach(0, depth, z -> {
+			derive(blurred, gradientX[z], z, width, height, 0);
+			derive(blurred, gradientY[z], z, width, height, 1);
+			if (is3D) {
+				derive(blurred, gradientZ[z], z, width, height, 2);
+			}
+		});
+
+		final float[][] output = CPUFilters.newPlanes(source);
+		final double scale = sigma * sigma;
+		executor.forEach(0, depth, z -> {
+			float[] out = output[z];
+			double[] eigenvalues = new double[3];
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					double xx = difference(gradientX, x, y, z, width, height, 0);
+					double xy = difference(gradientX, x, y, z, width, height, 1);
+					double yy = difference(gradientY, x, y, z, width, height, 1);
+					double response;
+					if (is3D) {
+						double xz = difference(gradientX, x, y, z, width, height, 2);
+						double yz = difference(gradientY, x, y, z, width, height, 2);
+						double zz = difference(gradientZ, x, y, z, width, height, 2);
+						symmetricEigenvalues(xx, xy, xz, yy, yz, zz, eigenvalues);
+						response = eigenvalues[1] < 0 && eigenvalues[2] < 0 ? scale * Math.sqrt(eigenvalues[1] * eigenvalues[2]) : 0;
+					} else {
+						double mean = (xx + yy) / 2;
+						double root = Math.sqrt((xx - yy) * (xx - yy) / 4 + xy * xy);
+						double largest = Math.abs(mean + root) >= Math.abs(mean - root) ? mean + root : mean - root;
+						response = largest < 0 ? -scale * largest : 0;
+					}
+					out[y * width + x] = (float) response;
+				}
+			}
+		});
+		CPUFilters.writePlanes(executor, output, destination);
+	}
+
+
+	private static void derive(float[][] input, float[] output, int z, int width, int height, int axis) {
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				output[y * width + x] = (float) difference(input, x, y, z, width, height, axis);
+			}
+		}
+	}
+
+	/**
+	 * Central difference along the axis with clamped borders
+	 */
+	private static double difference(float[][] planes, int x, int y, int z, int width, int height, int axis) {
+		switch (axis) {
+		case 0:
+			return (planes[z][y * width + Math.min(x + 1, width - 1)] - planes[z][y * width + Math.max(x - 1, 0)]) / 2.0;
+		case 1:
+			return (planes[z][Math.min(y + 1, height - 1) * width + x] - planes[z][Math.max(y - 1, 0) * width + x]) / 2.0;
+		default:
+			return (planes[Math.min(z + 1, planes.length - 1)][y * width + x] - planes[Math.max(z - 1, 0)][y * width + x]) / 2.0;
+		}
+	}
+
+	/**
+	 * Closed form eigenvalues of a symmetric 3 x 3 matrix (Smith, 1961) sorted by
+	 * ascending absolute value
+	 */
+	static void symmetricEigenvalues(double xx, double xy, double xz, double yy, double yz, double zz, double[] eigenvalues) {
+		double offDiagonal = xy * xy + xz * xz + yz * yz;
+		if (offDiagonal == 0) {
+			eigenvalues[0] = xx;
+			eigenvalues[1] = yy;
+			eigenvalues[2] = zz;
+		} else {
+			double q = (xx + yy + zz) / 3;
+			double p = Math.sqrt(((xx - q) * (xx - q) + (yy - q) * (yy - q) + (zz - q) * (zz - q) + 2 * offDiagonal) / 6);
+			double bxx = (xx - q) / p;
+			double byy = (yy - q) / p;
+			double bzz = (zz - q) / p;
+			double bxy = xy / p;
+			double bxz = xz / p;
+			double byz = yz / p;
+			double halfDeterminant = (bxx * (byy * bzz - byz * byz) - bxy * (bxy * bzz - byz * bxz) + bxz * (bxy * byz - byy * bxz)) / 2;
+			double phi = Math.acos(Math.max(-1, Math.min(1, halfDeterminant))) / 3;
+			eigenvalues[0] = q + 2 * p * Math.cos(phi);
+			eigenvalues[2] = q + 2 * p * Math.cos(phi + 2 * Math.PI / 3);
+			eigenvalues[1] = 3 * q - eigenvalues[0] - eigenvalues[2];
+		}
+		sortByAbsoluteValue(eigenvalues);
+	}
+
+	private static void sortByAbsoluteValue(double[] values) {
+		for (int i = 1; i < values.length; i++) {
+			double value = values[i];
+			int j = i - 1;
+			while (j >= 0 && Math.abs(values[j]) > Math.abs(value)) {
+				values[j + 1] = values[j];
+				j--;
+			}
+			values[j + 1] = value;
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import java.util.Arrays;
+
+/**
+ * Label dilation used for dilateLabels, extendLabelingViaVoronoi and maskedVoronoiLabeling.
+ * As in CLIJ2 each iteration alternates between a box (even iterations) and a diamond
+ * (odd iterations) neighborhood and background pixels take the maximum neighboring label.
+ *
+ * Instead of scanning the whole image in every iteration the labels are propagated as a
+ * multi-source wavefront. A background pixel can only be reached in an iteration through
+ * a pixel labelled in one of the two previous iterations (every older neighbor has already
+ * seen a box iteration), so each iteration only visits the neighbors of the last two fronts.
+ * The result is identical to the iterative dilation while the cost is proportional to the
+ * number of labelled pixels instead of iterations * image size.
+ *
+ * Labels are kept as int planes (unsigned for UNSIGNED_INT buffers), which keeps them exact
+ * above 2^24.
+ *
+ * The fronts are kept per plane and each plane collects its own candidates from the fronts
+ * of itself and its neighboring planes, which allows processing all planes in parallel.
+ *
+ * @author BioVoxxel
+ *
+ */
+public final class VoronoiLabeling {
+
+	private VoronoiLabeling() {}
+
+
+	/**
+	 * Dilates the labels for the given number of iterations or until no background pixel
+	 * changes if iterations is negative. Only pixels where the mask is != 0 can be
+	 * labelled, mask can be null. Labels outside of the mask are removed.
+	 */
+	public static void dilate(ParallelExecutor executor, CPUBuffer labels, CPUBuffer mask, CPUBuffer destination, int iterations) {
+		int width = labels.width();
+		int height = labels.height();
+		int depth = labels.depth();
+		int planeSize = width * height;
+
+		int[][] current = new int[depth][];
+		int[][] visited = new int[depth][planeSize];
+		Front[] previous = new Front[depth];
+		Front[] beforePrevious = new Front[depth];
+		Front[] next = new Front[depth];
+
+		executor.forEach(0, depth, z -> {
+			int[] plane = labels.readLabelPlane(z, null);
+			Front front = new Front();
+			for (int i = 0; i < planeSize; i++) {
+				if (mask != null && mask.get(z, i) == 0) {
+					plane[i] = 0;
+				} else if (plane[i] != 0) {
+					front.add(i, plane[i]);
+				}
+			}
+			current[z] = plane;
+			previous[z] = front;
+			beforePrevious[z] = new Front();
+			next[z] = new Front();
+		});
+
+		int rz = depth > 1 ? 1 : 0;
+		int[][] boxOffsets = CPUFilters.boxOffsets(1, 1, rz);
+		int[][] diamondOffsets = CPUFilters.sphereOffsets(1, 1, rz);
+		int[][][] boxOffsetsByPlane = offsetsByPlane(boxOffsets, rz);
+		int[][][] diamondOffsetsByPlane = offsetsByPlane(diamondOffsets, rz);
+
+		Front[] fresh = previous;
+		Front[] older = beforePrevious;
+		Front[] found = next;
+		for (int iteration = 0; iterations < 0 || iteration < iterations; iteration++) {
+			int[][] offsets = iteration % 2 == 0 ? boxOffsets : diamondOffsets;
+			int[][][] offsetsByPlane = iteration % 2 == 0 ? boxOffsetsByPlane : diamondOffsetsByPlane;
+			int stamp = iteration + 1;
+			Front[] lastFront = fresh;
+			Front[] secondLastFront = older;
+			Front[] nextFront = found;
+
+			executor.forEach(0, depth, z -> {
+				Front candidates = nextFront[z];
+				candidates.clear();
+				int[] visitedPlane = visited[z];
+				int[] plane = current[z];
+				for (int sourceZ = Math.max(0, z - rz); sourceZ <= Math.min(depth - 1, z + rz); sourceZ++) {
+					int[][] planeOffsets = offsetsByPlane[z - sourceZ + rz];
+					for (Front front : new Front[] { lastFront[sourceZ], secondLastFront[sourceZ] }) {
+						for (int f = 0; f < front.size; f++) {
+							int sourceX = front.indices[f] % width;
+							int sourceY = front.indices[f] / width;
+							for (int o = 0; o < planeOffsets[0].length; o++) {
+								int x = sourceX + planeOffsets[0][o];
+								int y = sourceY + planeOffsets[1][o];
+								if (x < 0 || y < 0 || x >= width || y >= height) {
+									continue;
+								}
+								int index = y * width + x;
+								if (plane[index] != 0 || visitedPlane[index] == stamp || (mask != null && mask.get(z, index) == 0)) {
+									continue;
+								}
+								visitedPlane[index] = stamp;
+								candidates.add(index, maximumNeighbor(current, offsets, x, y, z, width, height, depth));
+							}
+						}
+					}
+				}
+			});
+
+			executor.forEach(0, depth, z -> {
+				Front candidates = nextFront[z];
+				int[] plane = current[z];
+				for (int c = 0; c < candidates.size; c++) {
+					plane[candidates.indices[c]] = candidates.values[c];
+				}
+			});
+
+			int changed = 0;
+			for (int z = 0; z < depth; z++) {
+				changed += nextFront[z].size;
+			}
+			if (changed == 0) {
+				break;
+			}
+			found = older;
+			older = fresh;
+			fresh = nextFront;
+		}
+
+		executor.forEach(0, depth, z -> destination.writeLabelPlane(z, current[z]));
+	}
+
+
+	private static int maximumNeighbor(int[][] labels, int[][] offsets, int x, int y, int z, int width, int height, int depth) {
+		int value = 0;
+		for (int o = 0; o < offsets[0].length; o++) {
+			int nx = x + offsets[0][o];
+			int ny = y + offsets[1][o];
+			int nz = z + offsets[2][o];
+			if (nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+				continue;
+			}
+			int neighbor = labels[nz][ny * width + nx];
+			if (Integer.compareUnsigned(neighbor, value) > 0) {
+				value = neighbor;
+			}
+		}
+		return value;
+	}
+
+
+	/**
+	 * Splits the offsets by dz into {dx[], dy[]} per plane, index 0 holds dz == -radiusZ
+	 */
+	private static int[][][] offsetsByPlane(int[][] offsets, int radiusZ) {
+		int[][][] byPlane = new int[2 * radiusZ + 1][][];
+		for (int dz = -radiusZ; dz <= radiusZ; dz++) {
+			int[] dx = new int[offsets[0].length];
+			int[] dy = new int[offsets[0].length];
+			int count = 0;
+			for (int o = 0; o < offsets[0].length; o++) {
+				if (offsets[2][o] == dz) {
+					dx[count] = offsets[0][o];
+					dy[count] = offsets[1][o];
+					count++;
+				}
+			}
+			byPlane[dz + radiusZ] = new int[][] { Arrays.copyOf(dx, count), Arrays.copyOf(dy, count) };
+		}
+		return byPlane;
+	}
+
+
+	/**
+	 * Pixels of one plane labelled in the same iteration
+	 */
+	private static final class Front {
+
+		int[] indices = new int[64];
+		int[] values = new int[64];
+		int size;
+
+		void add(int index, int value) {
+			if (size == indices.length) {
+				indices = Arrays.copyOf(indices, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			indices[size] = index;
+			values[size] = value;
+			size++;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scijava.Cancelable;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Processes a list of files in three overlapping stages. Reader threads open the next
+ * files while the current one is processed, the processing runs on the calling thread
+ * or, with {@link #setProcessingThreads(int)}, on several files at the same time, and
+ * writer threads save the results of the previous files. At most {@link #setPrefetch(int)}
+ * files are opened ahead of the one handed to the processing and at most
+ * {@link #setPendingWrites(int)} results wait for their writer, so a slow disk holds
+ * back the processing instead of filling the memory and a slow processing holds back
+ * the reading.
+ *
+ * A file which cannot be read, processed or written is reported in the {@link Summary}
+ * and the batch continues with the next one.
+ *
+ * @param <T>	what the reader makes of a file, e.g. an {@link ImagePlus}
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BatchPipeline<T> implements Cancelable {
+
+	LogService log = new StderrLogService();
+
+	private int readerThreads = 2;
+	private int prefetch = 2;
+	private int writerThreads = 2;
+	private int pendingWrites = 4;
+	private int processingThreads = 1;
+
+	private volatile String cancelReason = null;
+
+
+	public BatchPipeline<T> setReaderThreads(int readerThreads) {
+		this.readerThreads = Math.max(1, readerThreads);
+		return this;
+	}
+
+	/**
+	 * @param prefetch	number of files opened ahead of the one being processed
+	 */
+	public BatchPipeline<T> setPrefetch(int prefetch) {
+		this.prefetch = Math.max(0, prefetch);
+		return this;
+	}
+
+	public BatchPipeline<T> setWriterThreads(int writerThreads) {
+		this.writerThreads = Math.max(1, writerThreads);
+		return this;
+	}
+
+	/**
+	 * @param pendingWrites	number of results which may wait for or be in writing before the processing waits
+	 */
+	public BatchPipeline<T> setPendingWrites(int pendingWrites) {
+		this.pendingWrites = Math.max(1, pendingWrites);
+		return this;
+	}
+
+
+	/**
+	 * @param processingThreads	number of files processed at the same time. With more than one the processor
+	 * 							needs to be thread safe, e.g. by using a compute session per file, see
+	 * 							{@link de.biovoxxel.bv3dbox.backend.ComputeBackendFactory#openSession()}
+	 */
+	public BatchPipeline<T> setProcessingThreads(int processingThreads) {
+		this.processingThreads = Math.max(1, processingThreads);
+		return this;
+	}
+
+
+	/**
+	 * Runs the batch and returns when all results are written or the batch was canceled
+	 */
+	public Summary run(List<File> files, Reader<T> reader, Processor<T> processor, Writer writer) {
+
+		Summary summary = new Summary(files.size());
+		long start = System.nanoTime();
+
+		ExecutorService readers = Executors.newFixedThreadPool(readerThreads, daemonThreads("BV3D batch reader"));
+		ExecutorService writers = Executors.newFixedThreadPool(writerThreads, daemonThreads("BV3D batch writer"));
+		ExecutorService processors = processingThreads > 1 ? Executors.newFixedThreadPool(processingThreads, daemonThreads("BV3D batch processor")) : null;
+		Semaphore writeSlots = new Semaphore(pendingWrites);
+		Semaphore processingSlots = new Semaphore(processingThreads);
+		Deque<Future<T>> opened = new ArrayDeque<Future<T>>();
+
+		try {
+			int nextRead = 0;
+			for (int f = 0; f < files.size() && !isCanceled(); f++) {
+
+				for (; nextRead < files.size() && nextRead <= f + prefetch; nextRead++) {
+					File fileToRead = files.get(nextRead);
+					opened.add(readers.submit(() -> reader.read(fileToRead)));
+				}
+
+				File file = files.get(f);
+				IJ.showStatus("Batch processing " + (f + 1) + "/" + files.size() + ": " + file.getName());
+				IJ.showProgress(f, files.size());
+
+				long waitStart = System.nanoTime();
+				T input;
+				try {
+					input = opened.poll().get();
+				} catch (ExecutionException e) {
+					failed(summary, file, "reading", e.getCause());
+					continue;
+				} finally {
+					summary.readWaitNanos.addAndGet(System.nanoTime() - waitStart);
+				}
+
+				if (processors == null) {
+					process(file, input, processor, writer, writers, writeSlots, summary);
+				} else {
+					processingSlots.acquire();
+					processors.execute(() -> {
+						try {
+							process(file, input, processor, writer, writers, writeSlots, summary);
+						} catch (InterruptedException e) {
+							cancel("Interrupted");
+						} finally {
+							processingSlots.release();
+						}
+					});
+				}
+			}
+
+		} catch (InterruptedException e) {
+			cancel("Interrupted");
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Future<T> future : opened) {
+				future.cancel(true);
+			}
+			readers.shutdownNow();
+			if (processors != null) {
+				processors.shutdown();
+				try {
+					while (!processors.awaitTermination(1, TimeUnit.MINUTES)) {
+						log.info("Waiting for " + (processingThreads - processingSlots.availablePermits()) + " batch files to be processed");
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			writers.shutdown();
+			try {
+				while (!writers.awaitTermination(1, TimeUnit.MINUTES)) {
+					log.info("Waiting for " + (pendingWrites - writeSlots.availablePermits()) + " batch results to be written");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			summary.elapsedNanos = System.nanoTime() - start;
+			summary.canceled = isCanceled();
+		}
+
+		IJ.showProgress(1.0);
+		log.info(summary);
+		return summary;
+	}
+
+
+	/**
+	 * Processes one file and hands the result to the writers as soon as a write slot is free
+	 */
+	private void process(File file, T input, Processor<T> processor, Writer writer, ExecutorService writers, Semaphore writeSlots, Summary summary) throws InterruptedException {
+
+		long processingStart = System.nanoTime();
+		BatchResult result;
+		try {
+			result = processor.process(file, input);
+		} catch (Exception e) {
+			failed(summary, file, "processing", e);
+			return;
+		} finally {
+			summary.processingNanos.addAndGet(System.nanoTime() - processingStart);
+		}
+
+		long waitStart = System.nanoTime();
+		writeSlots.acquire();
+		summary.writeWaitNanos.addAndGet(System.nanoTime() - waitStart);
+
+		writers.execute(() -> {
+			try {
+				writer.write(file, result);
+				summary.succeeded(file);
+			} catch (IOException | RuntimeException e) {
+				failed(summary, file, "writing", e);
+			} finally {
+				result.flush();
+				writeSlots.release();
+			}
+		});
+	}
+
+
+	private void failed(Summary summary, File file, String stage, Throwable error) {
+		log.error("Batch " + stage + " failed for " + file, error);
+		summary.failures.put(file, stage + ": " + error);
+	}
+
+
+	/**
+	 * @return the files in the folder with the extension, sorted by name
+	 */
+	public static List<File> listFiles(File folder, String extension) {
+		File[] files = folder.listFiles(file -> file.isFile() && file.getName().toLowerCase().endsWith(extension.toLowerCase()));
+		if (files == null) {
+			return Collections.emptyList();
+		}
+		Arrays.sort(files);
+		return Arrays.asList(files);
+	}
+
+
+	/**
+	 * Reader for all formats ImageJ can open
+	 */
+	public static ImagePlus openImage(File file) throws IOException {
+		ImagePlus image = IJ.openImage(file.getPath());
+		if (image == null) {
+			throw new IOException("Cannot open " + file);
+		}
+		return image;
+	}
+
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+
+	/**
+	 * Stops reading and processing, results already processed are still written
+	 */
+	@Override
+	public void cancel(String reason) {
+		cancelReason = reason != null ? reason : "Canceled";
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return cancelReason != null;
+	}
+
+	@Override
+	public String getCancelReason() {
+		return cancelReason;
+	}
+
+
+
+	@FunctionalInterface
+	public interface Reader<T> {
+		/**
+		 * Called on a reader thread
+		 */
+		public T read(File file) throws IOException;
+	}
+
+	@FunctionalInterface
+	public interface Processor<T> {
+		/**
+		 * Called on the thread running the batch or on one of the processing threads
+		 */
+		public BatchResult process(File file, T input) throws Exception;
+	}
+
+	@FunctionalInterface
+	public interface Writer {
+		/**
+		 * Called on a writer thread
+		 */
+		public void write(File file, BatchResult result) throws IOException;
+	}
+
+
+	/**
+	 * Outcome of a batch and where its time went. A long read wait means the processing waited for the disk,
+	 * a long write wait means the writers could not keep up. With several processing threads the processing
+	 * and write wait times are summed over all of them.
+	 */
+	public static class Summary {
+
+		private final int total;
+		private final AtomicInteger succeeded = new AtomicInteger();
+		private final Map<File, String> failures = Collections.synchronizedMap(new LinkedHashMap<File, String>());
+		private final AtomicLong readWaitNanos = new AtomicLong();
+		private final AtomicLong processingNanos = new AtomicLong();
+		private final AtomicLong writeWaitNanos = new AtomicLong();
+		private volatile long elapsedNanos;
+		private volatile boolean canceled;
+
+		private Summary(int total) {
+			this.total = total;
+		}
+
+		private void succeeded(File file) {
+			succeeded.incrementAndGet();
+		}
+
+		public int getTotal() {
+			return total;
+		}
+
+		public int getSucceeded() {
+			return succeeded.get();
+		}
+
+		/**
+		 * @return the stage and error of each failed file
+		 */
+		public Map<File, String> getFailures() {
+			synchronized (failures) {
+				return new LinkedHashMap<File, String>(failures);
+			}
+		}
+
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		public long getReadWaitMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(readWaitNanos.get());
+		}
+
+		public long getProcessingMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(processingNanos.get());
+		}
+
+		public long getWriteWaitMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(writeWaitNanos.get());
+		}
+
+		public long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+		}
+
+		@Override
+		public String toString() {
+			return "Batch [files=" + total + ", succeeded=" + succeeded.get() + ", failed=" + failures.size() + (canceled ? ", canceled" : "")
+					+ ", elapsed=" + getElapsedMillis() + " ms, processing=" + getProcessingMillis() + " ms, read wait=" + getReadWaitMillis()
+					+ " ms, write wait=" + getWriteWaitMillis() + " ms]";
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.ImagePlus;
+
+/**
+ * Images and tables produced for one file of a batch, each stored under the suffix
+ * appended to the file name when it is written
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BatchResult {
+
+	private final Map<String, ImagePlus> images = new LinkedHashMap<String, ImagePlus>();
+	private final Map<String, ColumnarResultsTable> tables = new LinkedHashMap<String, ColumnarResultsTable>();
+
+
+	public BatchResult addImage(String suffix, ImagePlus image) {
+		images.put(suffix, image);
+		return this;
+	}
+
+	public BatchResult addTable(String suffix, ColumnarResultsTable table) {
+		tables.put(suffix, table);
+		return this;
+	}
+
+	public Map<String, ImagePlus> getImages() {
+		return Collections.unmodifiableMap(images);
+	}
+
+	public Map<String, ColumnarResultsTable> getTables() {
+		return Collections.unmodifiableMap(tables);
+	}
+
+
+	/**
+	 * Releases the pixel data once the result is written
+	 */
+	public void flush() {
+		for (ImagePlus image : images.values()) {
+			image.flush();
+		}
+		images.clear();
+		tables.clear();
+	}
+}
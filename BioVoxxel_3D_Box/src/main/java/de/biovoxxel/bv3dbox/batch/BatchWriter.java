@@ -0,0 +1,57 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.ImagePlus;
+import ij.io.FileSaver;
+
+/**
+ * Writes the images of a {@link BatchResult} as TIFF and its tables as CSV files named
+ * after the input file and the suffix of the result, e.g. "cells_labels.tif" and
+ * "cells_Primary_Results.csv" for "cells.tif"
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BatchWriter implements BatchPipeline.Writer {
+
+	private final File outputFolder;
+
+
+	public BatchWriter(File outputFolder) {
+		this.outputFolder = outputFolder;
+	}
+
+
+	@Override
+	public void write(File file, BatchResult result) throws IOException {
+
+		String baseName = getBaseName(file);
+
+		for (Map.Entry<String, ImagePlus> image : result.getImages().entrySet()) {
+			File imageFile = new File(outputFolder, baseName + "_" + image.getKey() + ".tif");
+			FileSaver saver = new FileSaver(image.getValue());
+			boolean saved = image.getValue().getStackSize() > 1 ? saver.saveAsTiffStack(imageFile.getPath()) : saver.saveAsTiff(imageFile.getPath());
+			if (!saved) {
+				throw new IOException("Cannot write " + imageFile);
+			}
+		}
+
+		for (Map.Entry<String, ColumnarResultsTable> table : result.getTables().entrySet()) {
+			table.getValue().saveAsCSV(new File(outputFolder, baseName + "_" + table.getKey() + ".csv").getPath());
+		}
+	}
+
+
+	/**
+	 * @return the file name without extension
+	 */
+	public static String getBaseName(File file) {
+		String name = file.getName();
+		int extension = name.lastIndexOf('.');
+		return extension > 0 ? name.substring(0, extension) : name;
+	}
+}
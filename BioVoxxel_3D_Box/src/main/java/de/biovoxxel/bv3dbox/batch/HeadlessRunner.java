@@ -0,0 +1,133 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import ij.ImagePlus;
+
+/**
+ * Command line entry point running a {@link PipelineDefinition} without display, e.g.
+ *
+ * <pre>
+ * java -Djava.awt.headless=true -cp "Fiji.app/jars/*:Fiji.app/plugins/*" de.biovoxxel.bv3dbox.batch.HeadlessRunner pipeline.json --input /data/raw/part_01 --output /data/results
+ * </pre>
+ *
+ * --input and --output override the folders of the pipeline definition, so the same
+ * definition can be used for each part of a data set. The input can also be a single file.
+ * The exit code is one of {@link #SUCCESS}, {@link #FAILED_FILES}, {@link #INVALID_ARGUMENTS}
+ * or {@link #NO_INPUT}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class HeadlessRunner {
+
+	/**
+	 * All files were processed and written
+	 */
+	public static final int SUCCESS = 0;
+
+	/**
+	 * At least one file could not be read, processed or written, the others were
+	 */
+	public static final int FAILED_FILES = 1;
+
+	/**
+	 * Wrong command line or invalid pipeline definition, nothing was processed
+	 */
+	public static final int INVALID_ARGUMENTS = 2;
+
+	/**
+	 * No input files found or output folder not writable, nothing was processed
+	 */
+	public static final int NO_INPUT = 3;
+
+	private static final String USAGE = "Usage: HeadlessRunner <pipeline.json> [--input <folder or file>] [--output <folder>]";
+
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		System.exit(run(args, System.out, System.err));
+	}
+
+
+	/**
+	 * @return the exit code
+	 */
+	public static int run(String[] args, PrintStream out, PrintStream err) {
+
+		if (args.length == 0 || args.length % 2 != 1) {
+			err.println(USAGE);
+			return INVALID_ARGUMENTS;
+		}
+
+		PipelineDefinition definition;
+		try (Reader reader = new InputStreamReader(Files.newInputStream(new File(args[0]).toPath()), StandardCharsets.UTF_8)) {
+			definition = PipelineDefinition.read(reader);
+		} catch (IOException e) {
+			err.println("Cannot read pipeline " + args[0] + ": " + e.getMessage());
+			return INVALID_ARGUMENTS;
+		}
+
+		for (int a = 1; a < args.length; a += 2) {
+			if (args[a].equals("--input")) {
+				definition.setInput(args[a + 1]);
+			} else if (args[a].equals("--output")) {
+				definition.setOutput(args[a + 1]);
+			} else {
+				err.println("Unknown option " + args[a]);
+				err.println(USAGE);
+				return INVALID_ARGUMENTS;
+			}
+		}
+
+		List<PipelineStep> steps;
+		try {
+			steps = definition.createSteps();
+		} catch (IllegalArgumentException e) {
+			err.println("Invalid pipeline " + args[0] + ": " + e.getMessage());
+			return INVALID_ARGUMENTS;
+		}
+
+		File input = definition.getInput();
+		File output = definition.getOutput();
+		if (input == null || output == null) {
+			err.println("The input and output need to be given in the pipeline or with --input and --output");
+			return INVALID_ARGUMENTS;
+		}
+
+		List<File> files = input.isFile() ? Collections.singletonList(input) : BatchPipeline.listFiles(input, definition.getExtension());
+		if (files.isEmpty()) {
+			err.println("No " + definition.getExtension() + " files in " + input);
+			return NO_INPUT;
+		}
+
+		if (!output.isDirectory() && !output.mkdirs()) {
+			err.println("Cannot create " + output);
+			return NO_INPUT;
+		}
+
+		BatchPipeline<ImagePlus> pipeline = new BatchPipeline<ImagePlus>()
+				.setReaderThreads(definition.getReaderThreads())
+				.setPrefetch(definition.getPrefetch())
+				.setWriterThreads(definition.getWriterThreads())
+				.setProcessingThreads(definition.getProcessingThreads());
+
+		BatchPipeline.Summary summary = pipeline.run(files, BatchPipeline::openImage, (file, image) -> PipelineSteps.process(steps, file, image), new BatchWriter(output));
+
+		out.println(summary);
+		for (Map.Entry<File, String> failure : summary.getFailures().entrySet()) {
+			err.println(failure.getKey() + " --> " + failure.getValue());
+		}
+
+		return summary.getSucceeded() == summary.getTotal() ? SUCCESS : FAILED_FILES;
+	}
+}
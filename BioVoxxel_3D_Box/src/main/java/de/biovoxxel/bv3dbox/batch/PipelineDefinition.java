@@ -0,0 +1,222 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * JSON description of a batch run for the {@link HeadlessRunner}, e.g.
+ *
+ * <pre>
+ * {
+ *   "input": "/data/raw",
+ *   "extension": ".tif",
+ *   "output": "/data/results",
+ *   "prefetch": 2,
+ *   "processingThreads": 2,
+ *   "steps": [
+ *     { "plugin": "VoronoiThresholdLabeling", "parameters": { "filterMethod": "Gaussian", "filterRadius": 2, "thresholdMethod": "Otsu" } },
+ *     { "plugin": "PostProcessor", "parameters": { "method": "Dilate Label", "iterations": 1 }, "save": "labels" },
+ *     { "plugin": "ObjectInspector", "parameters": { "secondaryFolder": "/data/nuclei_labels" } }
+ *   ]
+ * }
+ * </pre>
+ *
+ * Each step works on the image of the step before, the first one on the input image.
+ * Images of steps with a "save" suffix are written, the last image is always written
+ * with the suffix "output" if no step saved it. Tables are written with the suffix of
+ * the table, prefixed by the "save" suffix if given.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class PipelineDefinition {
+
+	private String input;
+	private String extension = ".tif";
+	private String output;
+	private int readerThreads = 2;
+	private int prefetch = 2;
+	private int writerThreads = 2;
+	private int processingThreads = 1;
+	private List<StepDefinition> steps = new ArrayList<StepDefinition>();
+
+
+	/**
+	 * @throws IOException	if the JSON cannot be read or parsed
+	 */
+	public static PipelineDefinition read(Reader reader) throws IOException {
+		PipelineDefinition definition;
+		try {
+			definition = new Gson().fromJson(reader, PipelineDefinition.class);
+		} catch (JsonParseException e) {
+			throw new IOException("Invalid pipeline definition: " + e.getMessage(), e);
+		}
+		if (definition == null) {
+			throw new IOException("Empty pipeline definition");
+		}
+		return definition;
+	}
+
+
+	/**
+	 * Creates and validates all steps before any file is touched
+	 *
+	 * @throws IllegalArgumentException	for unknown plugins, parameters or invalid values
+	 */
+	public List<PipelineStep> createSteps() {
+		if (steps == null || steps.isEmpty()) {
+			throw new IllegalArgumentException("The pipeline has no steps");
+		}
+		List<PipelineStep> pipelineSteps = new ArrayList<PipelineStep>();
+		for (int s = 0; s < steps.size(); s++) {
+			try {
+				pipelineSteps.add(PipelineSteps.create(steps.get(s)));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Step " + (s + 1) + ": " + e.getMessage(), e);
+			}
+		}
+		return pipelineSteps;
+	}
+
+
+	public File getInput() {
+		return input != null ? new File(input) : null;
+	}
+
+	public void setInput(String input) {
+		this.input = input;
+	}
+
+	public String getExtension() {
+		return extension;
+	}
+
+	public File getOutput() {
+		return output != null ? new File(output) : null;
+	}
+
+	public void setOutput(String output) {
+		this.output = output;
+	}
+
+	public int getReaderThreads() {
+		return readerThreads;
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	public int getWriterThreads() {
+		return writerThreads;
+	}
+
+	/**
+	 * @return number of files processed at the same time, each in its own compute session
+	 */
+	public int getProcessingThreads() {
+		return processingThreads;
+	}
+
+
+
+	/**
+	 * One plugin of the pipeline with its parameters. Values can be given as JSON strings, numbers or booleans.
+	 */
+	public static class StepDefinition {
+
+		private String plugin;
+		private String save;
+		private Map<String, String> parameters = new LinkedHashMap<String, String>();
+
+
+		public StepDefinition() {
+
+		}
+
+		public StepDefinition(String plugin, String save, Map<String, String> parameters) {
+			this.plugin = plugin;
+			this.save = save;
+			this.parameters = parameters;
+		}
+
+
+		public String getPlugin() {
+			return plugin;
+		}
+
+		/**
+		 * @return the suffix of the saved image or null if the image of this step is not saved
+		 */
+		public String getSave() {
+			return save;
+		}
+
+
+		/**
+		 * @throws IllegalArgumentException	if a parameter is not one of the known ones, e.g. misspelled
+		 */
+		void checkParameters(String... known) {
+			if (parameters == null) {
+				return;
+			}
+			List<String> knownParameters = Arrays.asList(known);
+			for (String parameter : parameters.keySet()) {
+				if (!knownParameters.contains(parameter)) {
+					throw new IllegalArgumentException("Unknown parameter '" + parameter + "' for " + plugin + ", known are " + knownParameters);
+				}
+			}
+		}
+
+		String getString(String parameter, String defaultValue) {
+			String value = parameters != null ? parameters.get(parameter) : null;
+			return value != null ? value : defaultValue;
+		}
+
+		Float getFloat(String parameter, float defaultValue) {
+			String value = getString(parameter, null);
+			try {
+				return value != null ? Float.valueOf(value) : defaultValue;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(parameter + " needs to be a number but is '" + value + "'");
+			}
+		}
+
+		int getInt(String parameter, int defaultValue) {
+			String value = getString(parameter, null);
+			try {
+				return value != null ? Integer.parseInt(value) : defaultValue;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException(parameter + " needs to be an integer but is '" + value + "'");
+			}
+		}
+
+		boolean getBoolean(String parameter, boolean defaultValue) {
+			String value = getString(parameter, null);
+			if (value == null) {
+				return defaultValue;
+			} else if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+				return Boolean.parseBoolean(value);
+			} else {
+				throw new IllegalArgumentException(parameter + " needs to be true or false but is '" + value + "'");
+			}
+		}
+
+		String getChoice(String parameter, String defaultValue, String... choices) {
+			String value = getString(parameter, defaultValue);
+			if (!Arrays.asList(choices).contains(value)) {
+				throw new IllegalArgumentException(parameter + " needs to be one of " + Arrays.asList(choices) + " but is '" + value + "'");
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import de.biovoxxel.bv3dbox.plugins.BV_PluginChain;
+import ij.ImagePlus;
+
+/**
+ * Image handed from one step of a pipeline to the next. Label images stay on the backend in a
+ * {@link BV_PluginChain} between the steps working on labels and are only pulled if a step
+ * needs them on the host or they are saved.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class PipelineImage implements AutoCloseable {
+
+	private ImagePlus image;
+	private BV_PluginChain chain = null;
+	private int changes = 0;
+
+
+	/**
+	 * @param original	the input image, which is never changed
+	 */
+	public PipelineImage(ImagePlus original) {
+		this.image = original;
+	}
+
+
+	/**
+	 * @return the image on the host, labels of the chain are pulled once per change
+	 */
+	public ImagePlus getImage() {
+		if (image == null) {
+			image = chain.pullLabels();
+		}
+		return image;
+	}
+
+	/**
+	 * Replaces the current image, a previous chain is closed
+	 */
+	public void setImage(ImagePlus image) {
+		closeChain();
+		this.image = image;
+		changes++;
+	}
+
+
+	/**
+	 * @return the chain with the current labels, a host image is pushed into a new session first
+	 */
+	public BV_PluginChain getChain() {
+		if (chain == null) {
+			chain = BV_PluginChain.labels(image);
+		}
+		return chain;
+	}
+
+	/**
+	 * Replaces the current image with the labels of the chain, which is closed with this image
+	 */
+	public void setChain(BV_PluginChain chain) {
+		closeChain();
+		this.chain = chain;
+		this.image = null;
+		changes++;
+	}
+
+	/**
+	 * To be called after the labels of {@link #getChain()} were processed
+	 */
+	public void labelsChanged() {
+		image = null;
+		changes++;
+	}
+
+
+	/**
+	 * @return number of changes since the original image, to find out if the current image was saved already
+	 */
+	public int getChanges() {
+		return changes;
+	}
+
+
+	private void closeChain() {
+		if (chain != null) {
+			chain.close();
+			chain = null;
+		}
+	}
+
+	@Override
+	public void close() {
+		closeChain();
+	}
+}
@@ -0,0 +1,27 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.io.File;
+
+import ij.ImagePlus;
+
+/**
+ * One processing step of a {@link PipelineDefinition}
+ *
+ * @author BioVoxxel
+ *
+ */
+public interface PipelineStep {
+
+	/**
+	 * @param file		the input file
+	 * @param original	the input image
+	 * @param image		the image of the previous step or the input image for the first step, replaced by the image handed to the next step
+	 * @param result	collects the tables of the step
+	 */
+	public void apply(File file, ImagePlus original, PipelineImage image, BatchResult result) throws Exception;
+
+	/**
+	 * @return the suffix under which the image of this step is saved or null
+	 */
+	public String getSave();
+}
@@ -0,0 +1,242 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import java.io.File;
+
+import de.biovoxxel.bv3dbox.batch.PipelineDefinition.StepDefinition;
+import de.biovoxxel.bv3dbox.plugins.BV_ObjectInspector;
+import de.biovoxxel.bv3dbox.plugins.BV_PluginChain;
+import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdLabeling;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
+
+/**
+ * The plugins which can be used in a {@link PipelineDefinition}. They use the plugin classes
+ * directly and never display or look up images in the WindowManager. Each file is processed
+ * in its own compute session, so several files can be processed at the same time. Labels
+ * stay on the backend in a {@link BV_PluginChain} from step to step, only the images of steps
+ * which are saved and the final image are pulled, see {@link PipelineImage}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class PipelineSteps {
+
+	public static final String VORONOI_THRESHOLD_LABELING = "VoronoiThresholdLabeling";
+	public static final String POST_PROCESSOR = "PostProcessor";
+	public static final String OBJECT_INSPECTOR = "ObjectInspector";
+
+	private static final String[] FILTER_METHODS = { "None", "Gaussian", "DoG", "DoG (diff to r*3)", "DoG (2D forced, diff to r*3)", "Median", "Mean", "Minimum", "Maximum", "Open", "Close", "Variance", "Tubeness", "Inverted Tubeness" };
+	private static final String[] BACKGROUND_METHODS = { "None", "DoG", "DoM", "Minimum", "TopHat", "BottomHat", "Inverted Tubeness" };
+	private static final String[] SEPARATION_METHODS = { "None", "Maxima", "Eroded Maxima", "EDM Maxima", "Maxima Spheres", "DoG Seeds", "Eroded box", "Eroded sphere" };
+	private static final String[] OUTPUT_TYPES = { "Labels", "Binary", "Outlines" };
+	private static final String[] POST_PROCESSING_METHODS = { "Erode Label", "Dilate Label", "Open Label", "Minimum (sphere)", "Minimum (box)", "Maximum (sphere)", "Maximum (box)", "Open (sphere)", "Open (box)", "Close (sphere)", "Close (box)", "Fill holes", "Median (sphere, max r=15)", "Median (box, max r=15)" };
+
+
+	private PipelineSteps() {
+
+	}
+
+
+	/**
+	 * @throws IllegalArgumentException	for unknown plugins, parameters or invalid values
+	 */
+	public static PipelineStep create(StepDefinition step) {
+		if (step.getPlugin() == null) {
+			throw new IllegalArgumentException("No plugin given");
+		}
+		switch (step.getPlugin()) {
+			case VORONOI_THRESHOLD_LABELING:
+				return new VoronoiThresholdLabelingStep(step);
+			case POST_PROCESSOR:
+				return new PostProcessorStep(step);
+			case OBJECT_INSPECTOR:
+				return new ObjectInspectorStep(step);
+			default:
+				throw new IllegalArgumentException("Unknown plugin '" + step.getPlugin() + "', known are " + VORONOI_THRESHOLD_LABELING + ", " + POST_PROCESSOR + ", " + OBJECT_INSPECTOR);
+		}
+	}
+
+
+	/**
+	 * Runs all steps on the input image
+	 *
+	 * @return the saved images and tables
+	 */
+	public static BatchResult process(Iterable<PipelineStep> steps, File file, ImagePlus original) throws Exception {
+		BatchResult result = new BatchResult();
+		try (PipelineImage image = new PipelineImage(original)) {
+			int savedChanges = 0;
+			for (PipelineStep step : steps) {
+				step.apply(file, original, image, result);
+				if (step.getSave() != null) {
+					result.addImage(step.getSave(), image.getImage());
+					savedChanges = image.getChanges();
+				}
+			}
+			if (image.getChanges() != savedChanges) {
+				result.addImage("output", image.getImage());
+			}
+		}
+		return result;
+	}
+
+
+
+	private static abstract class AbstractStep implements PipelineStep {
+
+		private final String save;
+
+		AbstractStep(StepDefinition step) {
+			this.save = step.getSave();
+		}
+
+		@Override
+		public String getSave() {
+			return save;
+		}
+	}
+
+
+
+	private static class VoronoiThresholdLabelingStep extends AbstractStep {
+
+		private final String filterMethod;
+		private final Float filterRadius;
+		private final String backgroundSubtractionMethod;
+		private final Float backgroundRadius;
+		private final String thresholdMethod;
+		private final String separationMethod;
+		private final Float spotSigma;
+		private final Float maximaRadius;
+		private final String outputType;
+
+		VoronoiThresholdLabelingStep(StepDefinition step) {
+			super(step);
+			step.checkParameters("filterMethod", "filterRadius", "backgroundSubtractionMethod", "backgroundRadius", "thresholdMethod", "separationMethod", "spotSigma", "maximaRadius", "outputType");
+			filterMethod = step.getChoice("filterMethod", "None", FILTER_METHODS);
+			filterRadius = step.getFloat("filterRadius", 1.0f);
+			backgroundSubtractionMethod = step.getChoice("backgroundSubtractionMethod", "None", BACKGROUND_METHODS);
+			backgroundRadius = step.getFloat("backgroundRadius", 1.0f);
+			thresholdMethod = step.getChoice("thresholdMethod", "Default", AutoThresholderImageJ1.getMethods());
+			separationMethod = step.getChoice("separationMethod", "Maxima", SEPARATION_METHODS);
+			spotSigma = step.getFloat("spotSigma", 0f);
+			maximaRadius = step.getFloat("maximaRadius", 0f);
+			outputType = step.getChoice("outputType", "Labels", OUTPUT_TYPES);
+		}
+
+		/**
+		 * Labels stay on the backend, binary and outline images are final outputs and pulled
+		 */
+		@Override
+		public void apply(File file, ImagePlus original, PipelineImage image, BatchResult result) {
+			BV_VoronoiThresholdLabeling bvvtl = new BV_VoronoiThresholdLabeling(image.getImage(), filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius, thresholdMethod, separationMethod, spotSigma, maximaRadius, outputType);
+			if (outputType.equals("Labels")) {
+				image.setChain(BV_PluginChain.labels(bvvtl));
+				return;
+			}
+			ImagePlus output;
+			try {
+				output = bvvtl.computeOutputImage();
+			} finally {
+				bvvtl.getCurrentBackend().close();
+			}
+			if (bvvtl.isCanceled()) {
+				throw new IllegalStateException(bvvtl.getCancelReason());
+			}
+			image.setImage(output);
+		}
+	}
+
+
+
+	private static class PostProcessorStep extends AbstractStep {
+
+		private final String method;
+		private final int iterations;
+
+		PostProcessorStep(StepDefinition step) {
+			super(step);
+			step.checkParameters("method", "iterations");
+			method = step.getChoice("method", "Erode Label", POST_PROCESSING_METHODS);
+			iterations = step.getInt("iterations", 1);
+		}
+
+		@Override
+		public void apply(File file, ImagePlus original, PipelineImage image, BatchResult result) {
+			image.getChain().postProcess(method, iterations);
+			image.labelsChanged();
+		}
+	}
+
+
+
+	/**
+	 * Inspects the image of the previous step as primary objects. The secondary labels are read
+	 * from the file with the same name in the secondary folder.
+	 */
+	private static class ObjectInspectorStep extends AbstractStep {
+
+		private final File secondaryFolder;
+		private final String primaryVolumeRange;
+		private final String primaryMMERRange;
+		private final String secondaryVolumeRange;
+		private final String secondaryMMERRange;
+		private final boolean excludePrimaryObjectsOnEdges;
+		private final boolean padStackTops;
+		private final boolean measureIntensity;
+		private final boolean measureShape;
+		private final boolean measureOverlap;
+		private final boolean measureDistances;
+
+		ObjectInspectorStep(StepDefinition step) {
+			super(step);
+			step.checkParameters("secondaryFolder", "primaryVolumeRange", "primaryMMERRange", "secondaryVolumeRange", "secondaryMMERRange", "excludePrimaryObjectsOnEdges", "padStackTops", "measureIntensity", "measureShape", "measureOverlap", "measureDistances");
+			String folder = step.getString("secondaryFolder", null);
+			if (folder == null) {
+				throw new IllegalArgumentException("secondaryFolder is required for " + OBJECT_INSPECTOR);
+			}
+			secondaryFolder = new File(folder);
+			primaryVolumeRange = step.getString("primaryVolumeRange", "0-Infinity");
+			primaryMMERRange = step.getString("primaryMMERRange", "0.00-1.00");
+			secondaryVolumeRange = step.getString("secondaryVolumeRange", "0-Infinity");
+			secondaryMMERRange = step.getString("secondaryMMERRange", "0.00-1.00");
+			excludePrimaryObjectsOnEdges = step.getBoolean("excludePrimaryObjectsOnEdges", true);
+			padStackTops = step.getBoolean("padStackTops", false);
+			measureIntensity = step.getBoolean("measureIntensity", true);
+			measureShape = step.getBoolean("measureShape", true);
+			measureOverlap = step.getBoolean("measureOverlap", true);
+			measureDistances = step.getBoolean("measureDistances", true);
+		}
+
+		@Override
+		public void apply(File file, ImagePlus original, PipelineImage image, BatchResult result) throws Exception {
+			ImagePlus secondaryLabels = BatchPipeline.openImage(new File(secondaryFolder, file.getName()));
+
+			BV_ObjectInspector bvoi;
+			try {
+				bvoi = image.getChain().objectInspector(secondaryLabels);
+			} finally {
+				secondaryLabels.close();
+			}
+			bvoi.setOriginalImages(original, original);
+			bvoi.setPrimaryVolumeRange(primaryVolumeRange);
+			bvoi.setPrimaryMMDTCRRange(primaryMMERRange);
+			bvoi.setSecondaryVolumeRange(secondaryVolumeRange);
+			bvoi.setSecondaryMMDTCRRange(secondaryMMERRange);
+			bvoi.setEdgeExclusion(excludePrimaryObjectsOnEdges);
+			bvoi.padStackTops(padStackTops);
+			bvoi.setOutputImageFlags(false, false, false);
+			bvoi.setMeasurementGroups(measureIntensity, measureShape, measureOverlap, measureDistances);
+			bvoi.inspect();
+
+			if (bvoi.isCanceled()) {
+				throw new IllegalStateException(bvoi.getCancelReason());
+			}
+
+			String prefix = getSave() != null ? getSave() + "_" : "";
+			result.addTable(prefix + "Primary_Results", bvoi.getPrimaryResults());
+			result.addTable(prefix + "Secondary_Results", bvoi.getSecondaryResults());
+			result.addTable(prefix + "Overlap_Results", bvoi.getOverlapResults());
+		}
+	}
+}
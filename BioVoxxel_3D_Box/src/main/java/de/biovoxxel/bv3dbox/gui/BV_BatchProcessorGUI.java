@@ -0,0 +1,239 @@
+package de.biovoxxel.bv3dbox.gui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.command.Command;
+import org.scijava.command.DynamicCommand;
+import org.scijava.module.MutableModuleItem;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import de.biovoxxel.bv3dbox.batch.BatchPipeline;
+import de.biovoxxel.bv3dbox.batch.BatchResult;
+import de.biovoxxel.bv3dbox.batch.BatchWriter;
+import de.biovoxxel.bv3dbox.plugins.BV_ObjectInspector;
+import de.biovoxxel.bv3dbox.plugins.BV_PluginChain;
+import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdLabeling;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import ij.IJ;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
+import net.imagej.updater.UpdateService;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Runs the Voronoi Threshold Labeler, optionally followed by the Post Processor and the
+ * Object Inspector, on all images of a folder. The next images are opened while the
+ * current one is processed and the results are written in the background, see
+ * {@link BatchPipeline}.
+ * 
+ * @author BioVoxxel
+ *
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Batch>Folder Batch Processor (2D/3D)")
+public class BV_BatchProcessorGUI extends DynamicCommand {
+	
+	@Parameter(label = "Input folder", style = "directory")
+	private File inputFolder;
+	
+	@Parameter(label = "File extension")
+	private String fileExtension = ".tif";
+	
+	@Parameter(label = "Output folder", style = "directory")
+	private File outputFolder;
+	
+	@Parameter(label = "Image filter", choices = { "None", "Gaussian", "DoG", "DoG (diff to r*3)", "DoG (2D forced, diff to r*3)", "Median", "Mean", "Minimum", "Maximum", "Open", "Close", "Variance", "Tubeness", "Inverted Tubeness"})
+	private String filterMethod = "None";
+	
+	@Parameter(label = "Filter radius", min = "0f", max = "1000f")
+	private Float filterRadius = 1.0f;
+	
+	@Parameter(label = "Background subtraction", choices = {"None", "DoG", "DoM", "Minimum", "TopHat", "BottomHat", "Inverted Tubeness"})
+	private String backgroundSubtractionMethod = "None";
+	
+	@Parameter(label = "Background radius", min = "0f", max = "1000f")
+	private Float backgroundRadius = 1.0f;
+	
+	@Parameter(label = "Threshold method", initializer = "thresholdMethodList")
+	private String thresholdMethod = "Default";
+	
+	@Parameter(label = "Separation method", choices = {"None", "Maxima", "Eroded Maxima", "EDM Maxima", "Maxima Spheres", "DoG Seeds", "Eroded box", "Eroded sphere"})
+	private String separationMethod = "Maxima";
+	
+	@Parameter(label = "Spot sigma / Erosion", min = "0f")
+	private Float spotSigma = 0f;
+	
+	@Parameter(label = "Maxima detection radius", min = "0f")
+	private Float maximaRadius = 0f;
+	
+	@Parameter(label = "Post processing", choices = {"None", "Erode Label", "Dilate Label", "Open Label", "Minimum (sphere)", "Minimum (box)", "Maximum (sphere)", "Maximum (box)", "Open (sphere)", "Open (box)", "Close (sphere)", "Close (box)", "Fill holes", "Median (sphere, max r=15)", "Median (box, max r=15)"})
+	private String postProcessingMethod = "None";
+	
+	@Parameter(label = "Post processing iterations", min = "0", stepSize = "1")
+	private Integer postProcessingIterations = 1;
+	
+	@Parameter(label = "Secondary labels folder", style = "directory", required = false, description = "Labels with the same file name as the input image are inspected as secondary objects of the created labels. Leave empty to skip the Object Inspector.")
+	private File secondaryFolder;
+	
+	@Parameter(label = "Primary volume limitation (px)", required = false)
+	private String primaryVolumeRange = "0-Infinity";
+	
+	@Parameter(label = "Secondary volume limitation (px)", required = false)
+	private String secondaryVolumeRange = "0-Infinity";
+	
+	@Parameter(label = "Exclude primary edge objects", required = false)
+	private Boolean excludePrimaryObjectsOnEdges = true;
+	
+	@Parameter(label = "Reader threads", min = "1", stepSize = "1", required = false)
+	private Integer readerThreads = 2;
+	
+	@Parameter(label = "Prefetched images", min = "0", stepSize = "1", required = false, description = "Images opened ahead of the one being processed. Each of them is held in memory.")
+	private Integer prefetch = 2;
+	
+	@Parameter(label = "Processing threads", min = "1", stepSize = "1", required = false, description = "Images processed at the same time, each in its own compute session. On a GPU the kernels of all of them share the device.")
+	private Integer processingThreads = 1;
+	
+	@Parameter(label = "Writer threads", min = "1", stepSize = "1", required = false)
+	private Integer writerThreads = 2;
+	
+	
+	public void run() {
+		
+		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
+		
+		List<File> files = BatchPipeline.listFiles(inputFolder, fileExtension);
+		if (files.isEmpty()) {
+			cancel("No " + fileExtension + " files in " + inputFolder);
+			return;
+		}
+		
+		if (!outputFolder.exists() && !outputFolder.mkdirs()) {
+			cancel("Cannot create " + outputFolder);
+			return;
+		}
+		
+		BatchPipeline<Input> pipeline = new BatchPipeline<Input>()
+				.setReaderThreads(readerThreads)
+				.setPrefetch(prefetch)
+				.setWriterThreads(writerThreads)
+				.setProcessingThreads(processingThreads);
+		
+		BatchPipeline.Summary summary = pipeline.run(files, this::read, this::process, new BatchWriter(outputFolder));
+		
+		IJ.log(summary.toString());
+		for (Map.Entry<File, String> failure : summary.getFailures().entrySet()) {
+			IJ.log("   " + failure.getKey().getName() + " --> " + failure.getValue());
+		}
+		BV3DBoxUtilities.showWindow("Log", true);
+	}
+	
+	
+	private Input read(File file) throws IOException {
+		ImagePlus secondaryLabels = null;
+		if (isInspecting()) {
+			secondaryLabels = BatchPipeline.openImage(new File(secondaryFolder, file.getName()));
+		}
+		return new Input(BatchPipeline.openImage(file), secondaryLabels);
+	}
+	
+	
+	private BatchResult process(File file, Input input) {
+		
+		BatchResult result = new BatchResult();
+		
+		BV_VoronoiThresholdLabeling bvvtl = new BV_VoronoiThresholdLabeling(input.image, filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius, thresholdMethod, separationMethod, spotSigma, maximaRadius, "Labels");
+		
+		//labels stay on the backend between the plugins, only the saved label image is pulled
+		try (BV_PluginChain chain = BV_PluginChain.labels(bvvtl)) {
+			
+			if (!postProcessingMethod.equals("None")) {
+				chain.postProcess(postProcessingMethod, postProcessingIterations);
+			}
+			ImagePlus labels = chain.pullLabels();
+			labels.setTitle("labels_" + input.image.getTitle());
+			result.addImage("labels", labels);
+			
+			if (isInspecting()) {
+				BV_ObjectInspector bvoi = chain.objectInspector(input.secondaryLabels);
+				bvoi.setPrimaryVolumeRange(primaryVolumeRange);
+				bvoi.setSecondaryVolumeRange(secondaryVolumeRange);
+				bvoi.setEdgeExclusion(excludePrimaryObjectsOnEdges);
+				bvoi.setOutputImageFlags(false, false, false);
+				bvoi.inspect();
+				if (bvoi.isCanceled()) {
+					throw new IllegalStateException(bvoi.getCancelReason());
+				}
+				result.addTable("Primary_Results", bvoi.getPrimaryResults());
+				result.addTable("Secondary_Results", bvoi.getSecondaryResults());
+				result.addTable("Overlap_Results", bvoi.getOverlapResults());
+				input.secondaryLabels.close();
+			}
+		}
+		
+		input.image.close();
+		return result;
+	}
+	
+	
+	private boolean isInspecting() {
+		return secondaryFolder != null && !secondaryFolder.getPath().isEmpty();
+	}
+	
+	
+	@SuppressWarnings("unused")
+	private void thresholdMethodList() {
+		List<String> thresholdMethodList = Arrays.asList(AutoThresholderImageJ1.getMethods());
+		
+		final MutableModuleItem<String> thresholdMethod = getInfo().getMutableInput("thresholdMethod", String.class);
+		thresholdMethod.setChoices(thresholdMethodList);
+	}
+	
+	
+	private static class Input {
+		
+		private final ImagePlus image;
+		private final ImagePlus secondaryLabels;
+		
+		private Input(ImagePlus image, ImagePlus secondaryLabels) {
+			this.image = image;
+			this.secondaryLabels = secondaryLabels;
+		}
+	}
+}
@@ -9,9 +9,13 @@ import org.scijava.plugin.Plugin;
 import org.scijava.widget.Button;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.plugins.BV_ConvolutedBackgroundSubtraction;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.PreviewScheduler;
+import de.biovoxxel.bv3dbox.utilities.ProgressivePreview;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
@@ -20,14 +24,17 @@ import ij.plugin.Filters3D;
 import ij.plugin.ImageCalculator;
 import ij.plugin.filter.RankFilters;
 import ij.process.ImageProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Filtering>Convoluted Background Subtraction (2D/3D)")
 public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	
 	BV_ConvolutedBackgroundSubtraction bvcbs;
-	CLIJ2 clij2;
+	ComputeBackend backend;
+	
+	private PreviewScheduler previewScheduler = new PreviewScheduler("BV3D Convoluted Background Subtraction preview");
+	
+	private BV_ConvolutedBackgroundSubtraction downsampledBvcbs = null;
+	private volatile boolean downsampledOutput = false;
 	
 	@Parameter(required = true, label = "Image", description = "", initializer = "setup")
 	ImagePlus currentImagePlus;
@@ -55,11 +62,19 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	
 	
 	public void run() {
-						
-		if (getOutputImage() == null) {
-			processImage();				
-		} else {
-			//just keep the output image open without further action
+		
+		previewScheduler.shutdown();
+		
+		try {
+			if (getOutputImage() == null || downsampledOutput) {
+				adaptFilter();
+				previewScheduler.runNow(ticket -> preview(ticket, false));
+			} else {
+				//just keep the output image open without further action
+			}
+		} finally {
+			backend.close();
+			closeDownsampledPreview();
 		}
 		
 	}
@@ -68,8 +83,24 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	@SuppressWarnings("unused")
 	private void setup() {
 		
+		if (backend != null) {
+			backend.close();
+		}
 		bvcbs = new BV_ConvolutedBackgroundSubtraction(currentImagePlus);
-		clij2 = bvcbs.getCLIJ2Instance();
+		backend = bvcbs.getCurrentBackend();
+		closeDownsampledPreview();
+	}
+	
+	
+	/**
+	 * The downsampled preview opens its own backend session
+	 */
+	private void closeDownsampledPreview() {
+		
+		if (downsampledBvcbs != null) {
+			downsampledBvcbs.getCurrentBackend().close();
+			downsampledBvcbs = null;
+		}
 	}
 	
 	@SuppressWarnings("unused")
@@ -83,6 +114,30 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	private void processImage() {
 		
 		adaptFilter();
+		previewScheduler.submit(ticket -> preview(ticket, true));
+	}
+	
+	
+	/**
+	 * @param progressive	show a downsampled preview of large images before the full resolution one, see {@link ProgressivePreview}
+	 */
+	private void preview(PreviewScheduler.Ticket ticket, boolean progressive) {
+		
+		int downsampling = progressive ? ProgressivePreview.getDownsampling(currentImagePlus) : 1;
+		if (downsampling > 1) {
+			
+			if (downsampledBvcbs == null) {
+				downsampledBvcbs = new BV_ConvolutedBackgroundSubtraction();
+				downsampledBvcbs.setInputImagePlus(ProgressivePreview.downsample(currentImagePlus, downsampling));
+			}
+			ImagePlus downsampledImagePlus = subtractBackground(ticket, downsampledBvcbs, filterRadius / downsampling);
+			ImagePlus upsampledImagePlus = ProgressivePreview.upsample(downsampledImagePlus, currentImagePlus.getWidth(), currentImagePlus.getHeight(), true);
+			ticket.publish(() -> {
+				showOutputImage(upsampledImagePlus);
+				downsampledOutput = true;
+			});
+			ticket.checkCanceled();
+		}
 		
 		ImagePlus tempOutputImagePlus = null;
 		
@@ -90,20 +145,54 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 			System.out.println("using ImageJ");
 			tempOutputImagePlus = imagejMedianFilter();
 			
+		} else {
+			
+			tempOutputImagePlus = subtractBackground(ticket, bvcbs, filterRadius);
+		}
+		
+		ImagePlus resultImagePlus = tempOutputImagePlus;
+		ticket.publish(() -> {
+			showOutputImage(resultImagePlus);
+			downsampledOutput = false;
+		});
+	}
+	
+	
+	/**
+	 * @param processor	background subtraction of the input image or of a downsampled copy, which filters with the calibration of its image
+	 * @param radius	filter radius in pixels of the image of the processor
+	 */
+	private ImagePlus subtractBackground(PreviewScheduler.Ticket ticket, BV_ConvolutedBackgroundSubtraction processor, float radius) {
+		
+		if (processor.isTiled()) {
+			
+			return processor.subtractBackgroundTiled(filterMethod, radius, force2DFiltering);
+			
 		} else {
 			System.out.println("using clij2");
 			
-			ClearCLBuffer input_image = bvcbs.getInputBuffer();
+			ComputeBuffer input_image = processor.getInputBuffer();
 			
-			ClearCLBuffer filtered_image = bvcbs.filterImage(input_image, filterMethod, filterRadius, force2DFiltering);
+			ComputeBuffer filtered_image = processor.filterImage(input_image, filterMethod, radius, force2DFiltering);
 			
 			//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, filtered_image, true, LutNames.GRAY);
 			
-			ClearCLBuffer output_image = bvcbs.subtractBackground(input_image, filtered_image);
-			
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, output_image, false, LutNames.GRAY);
+			ComputeBuffer output_image;
+			try {
+				ticket.checkCanceled();
+				output_image = processor.subtractBackground(input_image, filtered_image);
+			} finally {
+				filtered_image.close();
+			}
 			
+			ImagePlus tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(processor.getCurrentBackend(), output_image, false, LutNames.GRAY);
+			output_image.close();
+			return tempOutputImagePlus;
 		}
+	}
+	
+	
+	private void showOutputImage(ImagePlus tempOutputImagePlus) {
 		
 		String outputImageName = "BVCBS_" + currentImagePlus.getTitle();
 		ImagePlus outputImagePlus = WindowManager.getImage("BVCBS_" + currentImagePlus.getTitle());			
@@ -183,11 +272,14 @@ public class BV_ConvolutedBackgroundSubtractionGUI extends DynamicCommand {
 	
 	public void cancel(String reason) {
 		
+		previewScheduler.shutdown();
+		
 		ImagePlus outputImagePlus = getOutputImage();
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.close();
+		backend.close();
+		closeDownsampledPreview();
 		
 	}
 	
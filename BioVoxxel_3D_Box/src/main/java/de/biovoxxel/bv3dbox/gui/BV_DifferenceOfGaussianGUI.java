@@ -5,13 +5,14 @@ import org.scijava.command.DynamicCommand;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.plugins.BV_DifferenceOfGaussian;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
+import ij.process.StackStatistics;
 import net.imagej.updater.UpdateService;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Filtering>Difference of Gaussian (2D/3D)")
@@ -37,22 +38,37 @@ public class BV_DifferenceOfGaussianGUI extends DynamicCommand {
 		
 		BV_DifferenceOfGaussian bvdog = new BV_DifferenceOfGaussian(current_image_plus);
 		
-		CLIJ2 clij2 = bvdog.getCurrentCLIJ2Instance();
+		ComputeBackend backend = bvdog.getCurrentBackend();
 		
-		ClearCLBuffer dog_output_image = bvdog.runDoGFilter(x_radius, y_radius, filter2DOnly);
-		
-		ImagePlus outputImage = BV3DBoxUtilities.pullImageFromGPU(clij2, dog_output_image, false, LutNames.GRAY);
-		
-		outputImage.setCalibration(current_image_plus.getCalibration());
-		outputImage.setTitle(WindowManager.getUniqueName("DoG_" + current_image_plus.getTitle()));
-		
-		outputImage.show();
-		outputImage.setLut(current_image_plus.getProcessor().getLut());
-		outputImage.getProcessor().setMinAndMax(clij2.getMinimumOfAllPixels(dog_output_image), clij2.getMaximumOfAllPixels(dog_output_image));
-		outputImage.updateAndDraw();
-		
-		
-		clij2.close();
+		try {
+			ImagePlus outputImage;
+			double min;
+			double max;
+			if (bvdog.isTiled()) {
+				
+				outputImage = bvdog.runTiledDoGFilter(x_radius, y_radius, filter2DOnly);
+				StackStatistics statistics = new StackStatistics(outputImage);
+				min = statistics.min;
+				max = statistics.max;
+				
+			} else {
+				
+				ComputeBuffer dog_output_image = bvdog.runDoGFilter(x_radius, y_radius, filter2DOnly);
+				outputImage = BV3DBoxUtilities.pullImageFromGPU(backend, dog_output_image, false, LutNames.GRAY);
+				min = backend.minimumOfAllPixels(dog_output_image);
+				max = backend.maximumOfAllPixels(dog_output_image);
+			}
+			
+			outputImage.setCalibration(current_image_plus.getCalibration());
+			outputImage.setTitle(WindowManager.getUniqueName("DoG_" + current_image_plus.getTitle()));
+			
+			outputImage.show();
+			outputImage.setLut(current_image_plus.getProcessor().getLut());
+			outputImage.getProcessor().setMinAndMax(min, max);
+			outputImage.updateAndDraw();
+		} finally {
+			backend.close();
+		}
 	}
 	
 	
@@ -68,11 +68,15 @@ public class BV_FlatFieldCorrectionGUI extends DynamicCommand {
 					
 		BV_FlatFieldCorrection bvffcorr = new BV_FlatFieldCorrection();
 		
-		ImagePlus darkFieldImagePlus = WindowManager.getImage(darkFieldImageName);
+		try {
+			ImagePlus darkFieldImagePlus = WindowManager.getImage(darkFieldImageName);
 		
-		bvffcorr.setImages(originalImagePlus, flatFieldImagePlus, darkFieldImagePlus);
+			bvffcorr.setImages(originalImagePlus, flatFieldImagePlus, darkFieldImagePlus);
 		
-		bvffcorr.flatFieldCorrection();
+			bvffcorr.flatFieldCorrection();
+		} finally {
+			bvffcorr.getCurrentBackend().close();
+		}
 	}
 	
 	public void initializeOriginalImageChoices() {
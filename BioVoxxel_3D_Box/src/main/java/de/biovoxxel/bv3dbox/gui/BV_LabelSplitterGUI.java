@@ -11,13 +11,17 @@ import org.scijava.plugin.Plugin;
 import org.scijava.widget.Button;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.plugins.BV_LabelSplitter;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.PreviewScheduler;
+import de.biovoxxel.bv3dbox.utilities.SlabPreview;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -76,6 +80,9 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 	@Parameter(label = "Stack slice", initializer = "imageSetup", style = NumberWidget.SLIDER_STYLE, min = "1", callback = "slideSlices")
 	private Integer stackSlice = 1;
 	
+	@Parameter(label = "Preview current slice only", description = "Stacks are previewed on the current slice and the slices within the seed detection reach around it, the complete stack is processed with OK.", callback = "processImageOnTheFly", required = false)
+	private Boolean slicePreview = true;
+	
 	@Parameter(label = "On the fly mode", required = false)
 	private Boolean processOnTheFly = false;
 	
@@ -84,21 +91,34 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 	
 	
 	
-	private CLIJ2 clij2 = CLIJ2.getInstance();
+	private ComputeBackend backend = ComputeBackendFactory.openSession();
 		private BV_LabelSplitter labelSplitter;
 	
-	private ClearCLBuffer input_image;
+	private ComputeBuffer input_image;
 	private String outputImageName = null;
 	
+	private PreviewScheduler previewScheduler = new PreviewScheduler("BV3D Label Splitter preview");
+	
+	private SlabPreview inputSlab = null;
+	private ComputeBuffer input_slab_image = null;
+	private volatile boolean slabOutput = false;
+	
 	
 	public void run() {
 		
+		previewScheduler.shutdown();
+		
+		ImagePlus slicePreviewImagePlus = WindowManager.getImage(outputImageName);
+		if (slabOutput && slicePreviewImagePlus != null) {
+			slicePreviewImagePlus.close();	//only the previewed slices were computed
+		}
+		
 		if (WindowManager.getImage(outputImageName) == null) {
 			
 			setupImage();
-			ClearCLBuffer splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
+			ComputeBuffer splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
 			
-			ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(labelSplitter.getCurrentCLIJ2Instance(), splitted_label_image, false, LutNames.GLASBEY_LUT);
+			ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(labelSplitter.getCurrentBackend(), splitted_label_image, false, LutNames.GLASBEY_LUT);
 			splitted_label_image.close();
 			
 			outputImagePlus.setTitle(outputImageName);
@@ -109,8 +129,8 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 		}
 		
 		
-		if (clij2 != null) {
-			clij2.clear();			
+		if (backend != null) {
+			backend.close();			
 		}
 		
 	}
@@ -121,10 +141,10 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 		
 		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
 		
-		input_image = clij2.push(inputImagePlus);
+		input_image = backend.push(inputImagePlus);
 		System.out.println(input_image);
 		
-		labelSplitter = new BV_LabelSplitter(clij2);
+		labelSplitter = new BV_LabelSplitter(backend);
 		labelSplitter.setVoxelRatios(inputImagePlus);
 		
 		outputImageName = WindowManager.getUniqueName("BVLS_" + inputImagePlus.getTitle());
@@ -153,16 +173,68 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 	}
 	
 	public void processImage() {
+		boolean slicewise = slicePreview;
+		previewScheduler.submit(ticket -> preview(ticket, slicewise));
+	}
+	
+	private void preview(PreviewScheduler.Ticket ticket, boolean slicewise) {
 		
-		ClearCLBuffer splitted_label_image = labelSplitter.splitLabels(input_image, separationMethod, spotSigma, maximaRadius);
+		SlabPreview slab = slicewise ? getSlabPreview() : null;
 		
-		ImagePlus outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(labelSplitter.getCurrentCLIJ2Instance(), splitted_label_image, true, LutNames.GLASBEY_LUT);
-		splitted_label_image.close();
+		ImagePlus outputImagePlus;
+		BufferTracker.Run run = labelSplitter.getCurrentBackend().getBufferTracker().startRun("Label Splitter preview");
+		try {
+			ComputeBuffer splitted_label_image = labelSplitter.splitLabels(slab == null ? input_image : getSlabInput(slab), separationMethod, spotSigma, maximaRadius);
+			
+			outputImagePlus = BV3DBoxUtilities.pullImageFromGPU(labelSplitter.getCurrentBackend(), splitted_label_image, true, LutNames.GLASBEY_LUT);
+			splitted_label_image.close();
+		} finally {
+			run.close();
+		}
 		
-		BV3DBoxUtilities.updateOutputImagePlus(outputImagePlus, outputImageName);
+		ticket.publish(() -> {
+			if (slab == null) {
+				BV3DBoxUtilities.updateOutputImagePlus(outputImagePlus, outputImageName);
+			} else {
+				slab.showSlice(outputImagePlus, outputImageName);
+			}
+			slabOutput = slab != null;
+		});
 		//BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);	//not working ???
 	}
 	
+	/**
+	 * @return the slab around the current slice or null if the complete image needs to be previewed
+	 */
+	private SlabPreview getSlabPreview() {
+		
+		int seedHalo = labelSplitter.getSeedHalo(separationMethod, spotSigma, maximaRadius);
+		if (!SlabPreview.isApplicable(inputImagePlus) || seedHalo < 0) {
+			return null;
+		}
+		
+		SlabPreview slab = new SlabPreview(inputImagePlus, stackSlice, seedHalo);
+		if (slab.getFirstSlice() == 1 && slab.getLastSlice() == inputImagePlus.getStackSize()) {
+			return null;
+		}
+		return slab;
+	}
+	
+	/**
+	 * @return the slab on the device, kept until the slab changes
+	 */
+	private ComputeBuffer getSlabInput(SlabPreview slab) {
+		
+		if (!slab.isSameSlab(inputSlab)) {
+			if (input_slab_image != null) {
+				input_slab_image.close();
+			}
+			input_slab_image = backend.push(slab.getSlab());
+			inputSlab = slab;
+		}
+		return input_slab_image;
+	}
+	
 	
 	@SuppressWarnings("unused")
 	private void slideSlices() {
@@ -172,19 +244,22 @@ public class BV_LabelSplitterGUI extends DynamicCommand {
 
 			outputImagePlus.setSlice(stackSlice);
 			
+			if (slicePreview && slabOutput) {
+				processImage();
+			}
 		}	
 	}
 	
 	public void cancel() {
 		
+		previewScheduler.shutdown();
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
 		
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		if (labelSplitter != null) {
-			labelSplitter.getCurrentCLIJ2Instance().close();			
-		}
+		backend.close();
 	}
 	
 
@@ -6,6 +6,9 @@ import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.plugins.BV_MakeIsotropicImage;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
@@ -13,8 +16,6 @@ import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Segmentation>Make 3D Image Isotropic")
 public class BV_MakeIsotropicImageGUI implements Command {
@@ -28,14 +29,13 @@ public class BV_MakeIsotropicImageGUI implements Command {
 		
 		if (inputImagePlus.hasImageStack()) {
 			
-			CLIJ2 clij2 = CLIJ2.getInstance();
-			clij2.clear();
-			BV_MakeIsotropicImage bvmii = new BV_MakeIsotropicImage(clij2, inputImagePlus);
-			ClearCLBuffer isotropic_image = bvmii.makeIsotropic(clij2, inputImagePlus);
+			ComputeBackend backend = ComputeBackendFactory.openSession();
+			BV_MakeIsotropicImage bvmii = new BV_MakeIsotropicImage(backend, inputImagePlus);
+			ComputeBuffer isotropic_image = bvmii.makeIsotropic(backend, inputImagePlus);
 			
 			double pixelSize = inputImagePlus.getCalibration().pixelWidth;
 			
-			ImagePlus isotropicImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, isotropic_image, true, LutNames.GRAY);
+			ImagePlus isotropicImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, isotropic_image, true, LutNames.GRAY);
 			isotropic_image.close();
 						
 			isotropicImagePlus.setTitle("iso_" + WindowManager.getUniqueName(inputImagePlus.getTitle()));
@@ -50,7 +50,7 @@ public class BV_MakeIsotropicImageGUI implements Command {
 			
 			//BV3DBoxUtilities.addImagePlusToBatchModeImages(isotropicImagePlus);	//not solving the issue that in batch mode macros the output image is not displayed
 						
-			clij2.clear();
+			backend.close();
 			
 		} else {
 			JOptionPane.showMessageDialog(null, "Works only on stacks", "Stack required", JOptionPane.WARNING_MESSAGE);
@@ -99,6 +99,18 @@ public class BV_ObjectInspectorGUI extends DynamicCommand {
 	
 	@Parameter(required = false, label = "Show count map", description = "")
 	private Boolean show_count_map = false;
+	
+	@Parameter(required = false, label = "Measure intensities", description = "Intensity statistics and mass centers (needs the original images)")
+	private Boolean measure_intensity = true;
+	
+	@Parameter(required = false, label = "Measure shape", description = "Centroids, distances to centroid and bounding boxes")
+	private Boolean measure_shape = true;
+	
+	@Parameter(required = false, label = "Measure overlap", description = "Secondary object count, area fraction and primary label of secondary objects")
+	private Boolean measure_overlap = true;
+	
+	@Parameter(required = false, label = "Measure distances", description = "Distances of secondary objects to the border and center of their primary object")
+	private Boolean measure_distances = true;
 
 
 	
@@ -142,8 +154,12 @@ public class BV_ObjectInspectorGUI extends DynamicCommand {
 		bvoi.setEdgeExclusion(exclude_primary_objects_on_edges);
 		bvoi.padStackTops(pad_stack_tops);
 		bvoi.setOutputImageFlags(display_results_tables, display_analyzed_label_maps, show_count_map);
+		bvoi.setMeasurementGroups(measure_intensity, measure_shape, measure_overlap, measure_distances);
 		
 		bvoi.inspect();
+		if (bvoi.isCanceled()) {
+			cancel(bvoi.getCancelReason());
+		}
 	}
 	
 }
@@ -7,13 +7,13 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.plugins.BV_PostProcessor;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.SlabPreview;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -66,22 +66,31 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 	@Parameter(label = "Stack slice", initializer = "imageSetup", style = NumberWidget.SLIDER_STYLE, min = "1", callback = "slideSlices")
 	Integer stackSlice;
 	
+	@Parameter(label = "Preview current slice only", description = "Stacks are previewed on the current slice and the slices within the reach of the method around it, the complete stack is processed with OK.", callback = "processImage", required = false)
+	Boolean slicePreview = true;
+	
 	BV_PostProcessor bvpp;
 
 	private ImagePlus outputImagePlus = null;
 	private String outputImageName = null;
 	
+	private SlabPreview inputSlab = null;
+	private BV_PostProcessor slabProcessor = null;
+	private boolean slabOutput = false;
+	
 	public void run() {
 		
 		if (WindowManager.getImage(outputImageName) == null) {
 			setupImage();
-			processImage();
+			processImage(false);
+		} else if (slabOutput) {
+			processImage(false);
 		}
 		
 		outputImagePlus.setTitle(WindowManager.getUniqueName(outputImagePlus.getTitle()));
 		bvpp.getInputBuffer().close();
-		CLIJ2 clij2 = bvpp.getCLIJ2Instance();
-		clij2.clear();
+		closeSlab();
+		bvpp.getCurrentBackend().close();
 	}
 
 	
@@ -90,7 +99,12 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 		
 		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
 				
+		if (bvpp != null) {
+			bvpp.getCurrentBackend().close();
+		}
 		bvpp = new BV_PostProcessor(inputImagePlus);
+		inputSlab = null;
+		slabProcessor = null;
 		
 		outputImageName = "BVPP_" + inputImagePlus.getTitle();
 		
@@ -108,26 +122,80 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 	}
 	
 	public void processImage() {
+		processImage(slicePreview);
+	}
+	
+	private void processImage(boolean slicewise) {
 		
-		ClearCLBuffer outputBuffer = bvpp.postProcessor(method, iterations);
+		SlabPreview slab = slicewise ? getSlabPreview() : null;
+		BV_PostProcessor processor = slab == null ? bvpp : getSlabProcessor(slab);
 		
-		ImagePlus tempImagePlus = BV3DBoxUtilities.pullImageFromGPU(bvpp.getCLIJ2Instance(), outputBuffer, true, LutNames.GLASBEY_LUT);
-		outputBuffer.close();
+		ComputeBuffer outputBuffer = processor.postProcessor(method, iterations);
 		
-		outputImagePlus = WindowManager.getImage(outputImageName);
+		ImagePlus tempImagePlus = BV3DBoxUtilities.pullImageFromGPU(bvpp.getCurrentBackend(), outputBuffer, true, LutNames.GLASBEY_LUT);
+		outputBuffer.close();
 		
-		if (outputImagePlus == null) {
-			outputImagePlus = new ImagePlus();
+		if (slab != null) {
+			
+			outputImagePlus = slab.showSlice(tempImagePlus, outputImageName);
+			
+		} else {
+			
+			outputImagePlus = WindowManager.getImage(outputImageName);
+			
+			if (outputImagePlus == null) {
+				outputImagePlus = new ImagePlus();
+			}
+			outputImagePlus.setImage(tempImagePlus);
+			outputImagePlus.setCalibration(inputImagePlus.getCalibration());
+			outputImagePlus.setTitle("BVPP_" + inputImagePlus.getTitle());
+			outputImagePlus.getProcessor().resetMinAndMax();
+			outputImagePlus.show();
 		}
-		outputImagePlus.setImage(tempImagePlus);
-		outputImagePlus.setCalibration(inputImagePlus.getCalibration());
-		outputImagePlus.setTitle("BVPP_" + inputImagePlus.getTitle());
-		outputImagePlus.getProcessor().resetMinAndMax();
-		outputImagePlus.show();
+		slabOutput = slab != null;
 		
 		BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
 	}
 	
+	/**
+	 * @return the slab around the current slice or null if the complete image needs to be previewed
+	 */
+	private SlabPreview getSlabPreview() {
+		
+		int halo = BV_PostProcessor.getHalo(method, iterations);
+		if (!SlabPreview.isApplicable(inputImagePlus) || halo < 0) {
+			return null;
+		}
+		
+		SlabPreview slab = new SlabPreview(inputImagePlus, stackSlice != null ? stackSlice : inputImagePlus.getSlice(), halo);
+		if (slab.getFirstSlice() == 1 && slab.getLastSlice() == inputImagePlus.getStackSize()) {
+			return null;
+		}
+		return slab;
+	}
+	
+	/**
+	 * @return a post processor on the slab, kept until the slab changes
+	 */
+	private BV_PostProcessor getSlabProcessor(SlabPreview slab) {
+		
+		if (!slab.isSameSlab(inputSlab)) {
+			closeSlab();
+			slabProcessor = new BV_PostProcessor(bvpp.getCurrentBackend());
+			slabProcessor.setInputImage(slab.getSlab());
+			inputSlab = slab;
+		}
+		return slabProcessor;
+	}
+	
+	private void closeSlab() {
+		if (slabProcessor != null) {
+			slabProcessor.getInputBuffer().close();
+			slabProcessor = null;
+			inputSlab = null;
+		}
+	}
+	
 	@SuppressWarnings("unused")
 	private void slideSlices() {
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
@@ -138,6 +206,9 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 
 			outputImagePlus.setSlice(stackSlice);
 			
+			if (slicePreview && slabOutput) {
+				processImage();
+			}
 		}	
 	}
 	
@@ -146,8 +217,7 @@ public class BV_PostProcessorGUI extends DynamicCommand {
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		CLIJ2 clij2 = bvpp.getCLIJ2Instance();
-		clij2.clear();
+		bvpp.getCurrentBackend().close();
 	}
 	
 }
@@ -75,6 +75,14 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 	
 
 	public void run() {
+		try {
+			correctImage();
+		} finally {
+			bvpffc.getCurrentBackend().close();
+		}
+	}
+	
+	private void correctImage() {
 						
 		if (activeChannelOnly && inputImagePlus.getNChannels() > 1) {
 			
@@ -132,7 +140,7 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 		}	
 		
 		if (activeChannelOnly && inputImagePlus.isStack()) {
-			run();
+			correctImage();
 		}
 		
 	}
@@ -144,6 +152,7 @@ public class BV_PseudoFlatFieldCorrectionGUI extends DynamicCommand {
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
+		bvpffc.getCurrentBackend().close();
 		
 	}
 	
@@ -5,12 +5,12 @@ import org.scijava.command.DynamicCommand;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.plugins.BV_RecursiveFilter;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -74,15 +74,17 @@ public class BV_RecursiveFilterGUI extends DynamicCommand {
 						
 		BV_RecursiveFilter bvrf = new BV_RecursiveFilter(current_image_plus);
 		
-		ClearCLBuffer output_image = bvrf.runRecursiveFilter(filter_method, recursiveRadius, iterations);
-		
-		ImagePlus outputImage = BV3DBoxUtilities.pullImageFromGPU(bvrf.getCurrentCLIJ2Instance(), output_image, true, LutNames.GRAY);
-		outputImage.setTitle(WindowManager.getUniqueName(current_image_plus.getTitle() + "_" + recursiveRadius + "_" + iterations + "x"));
-		outputImage.setCalibration(current_image_plus.getCalibration());
-		outputImage.show();
-		outputImage.setLut(current_image_plus.getProcessor().getLut());
-		
-		bvrf.getCurrentCLIJ2Instance().close();
+		try {
+			ComputeBuffer output_image = bvrf.runRecursiveFilter(filter_method, recursiveRadius, iterations);
+			
+			ImagePlus outputImage = BV3DBoxUtilities.pullImageFromGPU(bvrf.getCurrentBackend(), output_image, true, LutNames.GRAY);
+			outputImage.setTitle(WindowManager.getUniqueName(current_image_plus.getTitle() + "_" + recursiveRadius + "_" + iterations + "x"));
+			outputImage.setCalibration(current_image_plus.getCalibration());
+			outputImage.show();
+			outputImage.setLut(current_image_plus.getProcessor().getLut());
+		} finally {
+			bvrf.getCurrentBackend().close();
+		}
 	}
 	
 	public void checkUpdateSites() {
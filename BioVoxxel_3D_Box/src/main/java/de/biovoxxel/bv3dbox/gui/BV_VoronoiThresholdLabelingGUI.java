@@ -12,15 +12,20 @@ import org.scijava.widget.Button;
 import org.scijava.widget.ChoiceWidget;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.StageCache;
 import de.biovoxxel.bv3dbox.plugins.BV_LabelSplitter;
 import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdLabeling;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.PreviewScheduler;
+import de.biovoxxel.bv3dbox.utilities.ProgressivePreview;
+import de.biovoxxel.bv3dbox.utilities.SlabPreview;
 import ij.ImagePlus;
 import ij.WindowManager;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
-import net.haesleinhuepf.clijx.plugins.BinaryFillHolesSliceBySlice;
 import net.imagej.updater.UpdateService;
 
 /*
@@ -108,6 +113,9 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 	@Parameter(label = "Apply on complete image")
 	private Boolean applyOnCompleteImage = false;
 	
+	@Parameter(label = "Preview current slice only", description = "Stacks are previewed on the current slice and the slices within the filter and seed reach around it. Automatic thresholds, hole filling and edge exclusion only see this slab, the complete stack is processed with OK.", callback = "processImageOnTheFly", required = false)
+	private Boolean slicePreview = true;
+	
 	@Parameter(label = "On the fly mode", required = false)
 	private Boolean processOnTheFly = false;
 	
@@ -118,9 +126,15 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 	BV_VoronoiThresholdLabeling bvvtl = new BV_VoronoiThresholdLabeling();
 	BV_LabelSplitter labelSplitter;
 	
-	private CLIJ2 clij2;
+	private ComputeBackend backend;
+	
+	
+	private StageCache stageCache = new StageCache(ComputeBackendFactory.getPreviewCacheCapacity());
+	
+	private PreviewScheduler previewScheduler = new PreviewScheduler("BV3D Voronoi Threshold Labeling preview");
 	
-	private ClearCLBuffer input_image;
+	private volatile boolean slabOutput = false;
+	private volatile boolean downsampledOutput = false;
 	
 //	private String priorFilterMethod;
 //	private String priorBackgroundMethod;
@@ -130,27 +144,36 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 	
 	public void run() {
 		
-		if (inputImagePlus.getRoi() != null && applyOnCompleteImage) {
-			
-			bvvtl.getOutputImage().close();
-			inputImagePlus.killRoi();
-			setupImage();
-			processImage();
-			
-		} else {
-			
-			if (bvvtl.getOutputImage() == null) {
+		previewScheduler.shutdown();
+		PreviewParameters parameters = new PreviewParameters(this);
+		
+		try {
+			if (inputImagePlus.getRoi() != null && applyOnCompleteImage) {
+				
+				bvvtl.getOutputImage().close();
+				inputImagePlus.killRoi();
 				setupImage();
-				processImage();				
+				previewScheduler.runNow(ticket -> preview(ticket, parameters, false, false));
+				
 			} else {
-				//just keep the output image open without further action
+				
+				if (bvvtl.getOutputImage() == null) {
+					setupImage();
+					previewScheduler.runNow(ticket -> preview(ticket, parameters, false, false));
+				} else if (slabOutput || downsampledOutput) {
+					previewScheduler.runNow(ticket -> preview(ticket, parameters, false, false));
+				} else {
+					//just keep the output image open without further action
+				}
+				
 			}
 			
+			BV3DBoxUtilities.showWindow("Log", true);
+		} finally {
+			stageCache.clear();
+			bvvtl.releaseInputImage();
+			backend.close();
 		}
-		
-		BV3DBoxUtilities.showWindow("Log", true);
-		bvvtl.getInputImageAsClearClBuffer().close();
-		clij2.close();
 			
 	}
 	
@@ -160,12 +183,12 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 		
 		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
 		
+		stageCache.clear();
 		bvvtl.setupInputImage(inputImagePlus);
-		input_image = bvvtl.getInputImageAsClearClBuffer();
 		
-		clij2 = bvvtl.getCurrentCLIJ2Instance();
+		backend = bvvtl.getCurrentBackend();
 		
-		labelSplitter = new BV_LabelSplitter(bvvtl.getCurrentCLIJ2Instance());
+		labelSplitter = new BV_LabelSplitter(bvvtl.getCurrentBackend());
 		
 		final MutableModuleItem<Integer> stackSlice = getInfo().getMutableInput("stackSlice", Integer.class);
 		
@@ -255,16 +278,159 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 	}
 		
 	private void processImage() {
+		PreviewParameters parameters = new PreviewParameters(this);
+		previewScheduler.submit(ticket -> preview(ticket, parameters, parameters.slicePreview, true));
+	}
+	
+	/**
+	 * @param parameters	read when the preview was requested, the GUI fields may change while it runs
+	 * @param slicewise	preview only the current slice, see {@link SlabPreview}
+	 * @param progressive	show a downsampled preview of large inputs before the full resolution one, see {@link ProgressivePreview}
+	 */
+	private void preview(PreviewScheduler.Ticket ticket, PreviewParameters parameters, boolean slicewise, boolean progressive) {
+		BufferTracker.Run run = backend.getBufferTracker().startRun("Voronoi Threshold Labeling preview");
+		try {
+			SlabPreview slab = slicewise ? getSlabPreview(parameters) : null;
+			
+			int downsampling = progressive ? ProgressivePreview.getDownsampling(slab == null ? bvvtl.getFilterInputImage() : slab.getSlab()) : 1;
+			if (downsampling > 1) {
+				previewImage(ticket, parameters, slab, downsampling);
+			}
+			previewImage(ticket, parameters, slab, 1);
+		} finally {
+			run.close();
+		}
+	}
+	
+	/**
+	 * @return the slab around the current slice or null if the complete image needs to be previewed
+	 */
+	private SlabPreview getSlabPreview(PreviewParameters parameters) {
+		
+		ImagePlus filterInputImagePlus = bvvtl.getFilterInputImage();
+		if (!SlabPreview.isApplicable(inputImagePlus) || filterInputImagePlus.getStackSize() != inputImagePlus.getNSlices()) {
+			return null;
+		}
+		
+		bvvtl.setParameters(parameters.filterMethod, parameters.filterRadius, parameters.backgroundSubtractionMethod, parameters.backgroundRadius, parameters.thresholdMethod, parameters.separationMethod, parameters.spotSigma, parameters.maximaRadius, parameters.outputType);
+		int[] filterHalo = bvvtl.getFilterHalo(true);
+		int seedHalo = labelSplitter.getSeedHalo(parameters.separationMethod, parameters.spotSigma, parameters.maximaRadius);
+		if (filterHalo == null || seedHalo < 0) {
+			return null;
+		}
+		
+		SlabPreview slab = new SlabPreview(filterInputImagePlus, parameters.stackSlice, filterHalo[2] + seedHalo);
+		if (slab.getFirstSlice() == 1 && slab.getLastSlice() == filterInputImagePlus.getStackSize()) {
+			return null;
+		}
+		return slab;
+	}
+	
+	/**
+	 * Runs the pipeline through the stage cache. Each stage key contains the parameters of the stage
+	 * and the keys of its inputs, so only the stages downstream of a changed parameter are recomputed.
+	 * A superseded preview stops between the stages, the stages finished so far stay cached.
+	 * 
+	 * A downsampled preview uses the radii divided by the downsampling factor and the calibration of the downsampled input.
+	 * 
+	 * All stages read the same parameters, which are also the ones in the stage keys.
+	 * 
+	 * @param slab	the slab to process instead of the complete image or null
+	 * @param downsampling	factor to downsample the input by in x and y, 1 = full resolution
+	 */
+	private void previewImage(PreviewScheduler.Ticket ticket, PreviewParameters parameters, SlabPreview slab, int downsampling) {
+		
+		boolean completeInput = slab == null && downsampling == 1;
+		String inputKey = completeInput ? "input" : StageCache.key("input", slab == null ? "complete" : slab.getFirstSlice() + "-" + slab.getLastSlice(), downsampling);
+		ComputeBuffer stage_input_image = completeInput ? bvvtl.getInputImageAsComputeBuffer() : stageCache.get(inputKey, () -> backend.push(getPreviewInput(slab, downsampling)));
+		ticket.checkCanceled();
+		
+		double[] calibration = ProgressivePreview.downsampleCalibration(BV3DBoxUtilities.readCalibration(inputImagePlus), downsampling);
+		Float stageFilterRadius = parameters.filterRadius / downsampling;
+		Float stageBackgroundRadius = parameters.backgroundRadius / downsampling;
+		Float stageSpotSigma = parameters.spotSigma / downsampling;
+		Float stageMaximaRadius = parameters.maximaRadius / downsampling;
+		
+		String filterKey = StageCache.key("filter", parameters.filterMethod, stageFilterRadius, inputKey);
+		ComputeBuffer filtered_image = stageCache.get(filterKey, () -> bvvtl.filterImage(stage_input_image, parameters.filterMethod, stageFilterRadius, calibration));
+		ticket.checkCanceled();
+		
+		String backgroundKey = StageCache.key("background", parameters.backgroundSubtractionMethod, stageBackgroundRadius, filterKey);
+		ComputeBuffer background_subtracted_image = stageCache.get(backgroundKey, () -> bvvtl.backgroundSubtraction(filtered_image, parameters.backgroundSubtractionMethod, stageBackgroundRadius, calibration));
+		ticket.checkCanceled();
+		
+		String thresholdKey = StageCache.key("threshold", parameters.thresholdMethod, parameters.histogramUsage, backgroundKey);
+		ComputeBuffer thresholded_image = stageCache.get(thresholdKey, () -> thresholdImage(background_subtracted_image, parameters.thresholdMethod, parameters.histogramUsage));
+		ticket.checkCanceled();
+		
+		BV3DBoxUtilities.showWindow("Log", false);
+		
+		boolean fillsHoles = !parameters.fillHoles.equals("Off");
+		String binaryKey = fillsHoles ? StageCache.key("fill holes", parameters.fillHoles, thresholdKey) : thresholdKey;
+		ComputeBuffer binary_image = fillsHoles ? stageCache.get(binaryKey, () -> fillHoles(thresholded_image, parameters.fillHoles)) : thresholded_image;
+		ticket.checkCanceled();
+		
+		String separationMethod = parameters.separationMethod;
+		String seedKey;
+		switch (separationMethod) {
+		case "None":
+			seedKey = binaryKey;
+			break;
+		case "Maxima":
+		case "Eroded Maxima":
+			seedKey = StageCache.key("seeds", separationMethod, stageSpotSigma, stageMaximaRadius, inputKey);	//only depend on the input image
+			break;
+		default:
+			seedKey = StageCache.key("seeds", separationMethod, stageSpotSigma, stageMaximaRadius, binaryKey);
+			break;
+		}
+		ComputeBuffer seed_image = separationMethod.equals("None") ? binary_image : stageCache.get(seedKey, () -> detectSeeds(stage_input_image, binary_image, separationMethod, stageSpotSigma, stageMaximaRadius, downsampling));
+		ticket.checkCanceled();
+		
+		String labelKey = StageCache.key("labels", seedKey, binaryKey);
+		ComputeBuffer label_image = stageCache.get(labelKey, () -> labelSplitter.createLabels(seed_image, binary_image));
+		ticket.checkCanceled();
+		
+		boolean limitsVolume = !parameters.volumeRange.equalsIgnoreCase("0-infinity");
+		String volumeKey = limitsVolume ? StageCache.key("volume range", parameters.volumeRange, labelKey) : labelKey;
+		ComputeBuffer size_limited_image = limitsVolume ? stageCache.get(volumeKey, () -> excludeLabelsOutsideVolumeRange(label_image, parameters.volumeRange, downsampling)) : label_image;
+		ticket.checkCanceled();
+		
+		ComputeBuffer output_image = parameters.excludeOnEdges ? stageCache.get(StageCache.key("exclude on edges", volumeKey), () -> excludeLabelsOnEdges(size_limited_image)) : size_limited_image;
+		
+		ticket.checkCanceled();
+		
+		ticket.publish(() -> {
+			if (completeInput) {
+				bvvtl.createOutputImage(output_image, parameters.outputType);
+			} else {
+				bvvtl.createPreviewImage(stage_input_image, output_image, parameters.outputType, slab, downsampling);
+			}
+			slabOutput = slab != null;
+			downsampledOutput = downsampling > 1;
+		});
+		stageCache.trim();
+	}
+	
+	
+	private ImagePlus getPreviewInput(SlabPreview slab, int downsampling) {
+		
+		ImagePlus previewInputImagePlus = slab == null ? bvvtl.getFilterInputImage() : slab.getSlab();
+		
+		if (downsampling > 1) {
+			previewInputImagePlus = ProgressivePreview.downsample(previewInputImagePlus, downsampling);
+		}
+		return previewInputImagePlus;
+	}
 	
-		ClearCLBuffer filtered_image = bvvtl.filterImage(input_image, filterMethod, filterRadius);
-		ClearCLBuffer background_subtracted_image = bvvtl.backgroundSubtraction(filtered_image, backgroundSubtractionMethod, backgroundRadius);
-		filtered_image.close();
+	
+	private ComputeBuffer thresholdImage(ComputeBuffer background_subtracted_image, String thresholdMethod, String histogramUsage) {
 		
 		double thresholdValue = 0.0;
 		
 		if (inputImagePlus.getRoi() == null) {
 			
-			thresholdValue = BV3DBoxUtilities.getThresholdValue(clij2, thresholdMethod, background_subtracted_image, histogramUsage);
+			thresholdValue = BV3DBoxUtilities.getThresholdValue(backend, thresholdMethod, background_subtracted_image, histogramUsage);
 			
 		} else {
 			
@@ -294,94 +460,59 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 			thresholdValue = BV3DBoxUtilities.getThresholdValue(thresholdMethod, finalHistogram);
 						
 		}
-				
-		BV3DBoxUtilities.showWindow("Log", false);
 		
-		ClearCLBuffer thresholded_image = BV3DBoxUtilities.thresholdImage(clij2, background_subtracted_image, thresholdValue);		
-		background_subtracted_image.close();
-				
+		return BV3DBoxUtilities.thresholdImage(backend, background_subtracted_image, thresholdValue);
+	}
+	
+	
+	private ComputeBuffer fillHoles(ComputeBuffer thresholded_image, String fillHoles) {
 		
-		switch (fillHoles) {
+		ComputeBuffer filled_holes_image = backend.create(thresholded_image);
 		
-		case "2D":			
-			ClearCLBuffer temp_fill_slice_holes_image = clij2.create(thresholded_image);
-			clij2.copy(thresholded_image, temp_fill_slice_holes_image);
-			BinaryFillHolesSliceBySlice.binaryFillHolesSliceBySlice(clij2, temp_fill_slice_holes_image, thresholded_image);
-			temp_fill_slice_holes_image.close();
-			
-			break;
-			
-		case "3D":
-			ClearCLBuffer temp_fill_holes_image = clij2.create(thresholded_image);
-			clij2.copy(thresholded_image, temp_fill_holes_image);
-			clij2.binaryFillHoles(temp_fill_holes_image, thresholded_image);
-			temp_fill_holes_image.close();
-			break;
-			
-		default:
-			break;
+		if (fillHoles.equals("2D")) {
+			backend.binaryFillHolesSliceBySlice(thresholded_image, filled_holes_image);
+		} else {
+			backend.binaryFillHoles(thresholded_image, filled_holes_image);
 		}
+		return filled_holes_image;
+	}
+	
+	
+	/**
+	 * @param downsampling	factor the input was downsampled by in x and y, the seed detection keeps its reach in z
+	 */
+	private ComputeBuffer detectSeeds(ComputeBuffer input_image, ComputeBuffer binary_image, String separationMethod, Float spotSigma, Float maximaRadius, int downsampling) {
 		
-		
-		
-		ClearCLBuffer seed_image;
-		
-		switch (separationMethod) {
-		
-		case "None":
-			seed_image = thresholded_image;
-			break;
-		case "Maxima":
-			seed_image = labelSplitter.detectMaxima(input_image, spotSigma, maximaRadius);
-			break;
-		case "Eroded Maxima":
-			seed_image = labelSplitter.detectErodedMaxima(input_image, Math.round(spotSigma), maximaRadius);
-			break;
-		case "EDM Maxima":
-			seed_image = labelSplitter.detectDistanceMapMaxima(thresholded_image, maximaRadius);
-			break;
-		case "Maxima Spheres":
-			seed_image = labelSplitter.createMaximaSpheres(thresholded_image, spotSigma, maximaRadius);
-			break;
-		case "DoG Seeds":
-			
-			ClearCLBuffer binary_8_bit_image = clij2.create(thresholded_image);
-			clij2.replaceIntensity(thresholded_image, binary_8_bit_image, 1, 255);
-			seed_image = labelSplitter.detectDoGSeeds(binary_8_bit_image, spotSigma, maximaRadius);
-			binary_8_bit_image.close();
-			break;
-		default:
-			seed_image = labelSplitter.createErodedSeeds(thresholded_image, Math.round(spotSigma), separationMethod);
-			break;
+		BV_LabelSplitter labelSplitter = this.labelSplitter;
+		if (downsampling > 1) {
+			double[] voxelRatios = this.labelSplitter.getVoxelRatios();
+			labelSplitter = new BV_LabelSplitter(backend);
+			labelSplitter.setVoxelRatios(new double[] {voxelRatios[0], voxelRatios[1] / downsampling});
 		}
 		
+		return labelSplitter.detectSeeds(input_image, binary_image, separationMethod, spotSigma, maximaRadius);
+	}
+	
+	
+	/**
+	 * @param downsampling	factor the input was downsampled by in x and y, the volume range is scaled accordingly
+	 */
+	private ComputeBuffer excludeLabelsOutsideVolumeRange(ComputeBuffer label_image, String volumeRange, int downsampling) {
 		
-		ClearCLBuffer output_image = labelSplitter.createLabels(seed_image, thresholded_image);
-		
-		if (!volumeRange.equalsIgnoreCase("0-infinity")) {
-			
-			ClearCLBuffer size_limited_temp_image = clij2.create(output_image);
-			clij2.copy(output_image, size_limited_temp_image);
-
-			
-			float minVolume = BV3DBoxUtilities.getMinFromRange(volumeRange);
-			float maxVolume = BV3DBoxUtilities.getMaxFromRange(volumeRange);
-			
-			clij2.excludeLabelsOutsideSizeRange(size_limited_temp_image, output_image, minVolume, maxVolume); 
-			size_limited_temp_image.close();
-		}
+		float minVolume = BV3DBoxUtilities.getMinFromRange(volumeRange) / (downsampling * downsampling);
+		float maxVolume = BV3DBoxUtilities.getMaxFromRange(volumeRange) / (downsampling * downsampling);
 		
-		if (excludeOnEdges) {
-			ClearCLBuffer excluded_on_edges_image = clij2.create(output_image);
-			clij2.copy(output_image, excluded_on_edges_image);
-			clij2.excludeLabelsOnEdges(excluded_on_edges_image, output_image);
-			excluded_on_edges_image.close();
-		}
+		ComputeBuffer size_limited_image = backend.create(label_image);
+		backend.excludeLabelsOutsideSizeRange(label_image, size_limited_image, minVolume, maxVolume); 
+		return size_limited_image;
+	}
+	
+	
+	private ComputeBuffer excludeLabelsOnEdges(ComputeBuffer label_image) {
 		
-		thresholded_image.close();
-		seed_image.close();
-		bvvtl.createOutputImage(output_image, outputType);
-		output_image.close();
+		ComputeBuffer excluded_on_edges_image = backend.create(label_image);
+		backend.excludeLabelsOnEdges(label_image, excluded_on_edges_image);
+		return excluded_on_edges_image;
 	}
 	
 	
@@ -395,20 +526,69 @@ public class BV_VoronoiThresholdLabelingGUI extends DynamicCommand {
 			
 			outputImagePlus.setSlice(stackSlice);
 			
+			if (slicePreview && slabOutput) {
+				processImage();
+			}
 		}	
 	}
 	
 	@Override
 	public void cancel() {
 		
+		previewScheduler.shutdown();
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(bvvtl.getOutputImageName());
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
 		
 		BV3DBoxUtilities.showWindow("Log", true);
-		clij2.close();
+		stageCache.clear();
+		backend.close();
 		
 	}
+	
+	
+	/**
+	 * Snapshot of the GUI parameters taken on the event thread. A preview runs on the preview thread
+	 * while the user can already change the parameters, so the stages, their cache keys and the
+	 * published output all read this snapshot instead of the fields.
+	 */
+	private static final class PreviewParameters {
+		
+		final String filterMethod;
+		final Float filterRadius;
+		final String backgroundSubtractionMethod;
+		final Float backgroundRadius;
+		final String histogramUsage;
+		final String thresholdMethod;
+		final String fillHoles;
+		final String separationMethod;
+		final Float spotSigma;
+		final Float maximaRadius;
+		final String volumeRange;
+		final boolean excludeOnEdges;
+		final String outputType;
+		final int stackSlice;
+		final boolean slicePreview;
+		
+		PreviewParameters(BV_VoronoiThresholdLabelingGUI gui) {
+			filterMethod = gui.filterMethod;
+			filterRadius = gui.filterRadius;
+			backgroundSubtractionMethod = gui.backgroundSubtractionMethod;
+			backgroundRadius = gui.backgroundRadius;
+			histogramUsage = gui.histogramUsage;
+			thresholdMethod = gui.thresholdMethod;
+			fillHoles = gui.fillHoles;
+			separationMethod = gui.separationMethod;
+			spotSigma = gui.spotSigma;
+			maximaRadius = gui.maximaRadius;
+			volumeRange = gui.volumeRange;
+			excludeOnEdges = gui.excludeOnEdges;
+			outputType = gui.outputType;
+			stackSlice = gui.stackSlice;
+			slicePreview = gui.slicePreview;
+		}
+	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+package de.biovoxxel.bv3dbox.gui;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.command.DynamicCommand;
+import org.scijava.module.MutableModuleItem;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import de.biovoxxel.bv3dbox.plugins.BV_VoronoiThresholdSweep;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.ImagePlus;
+import ij.WindowManager;
+import net.imagej.updater.UpdateService;
+
+/*
+ * BSD 3-Clause License
+ *
+ * Copyright (c) 2022, Jan Brocher (BioVoxxel)
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ * 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * 
+ * 3. Neither the name of the copyright holder nor the names of its
+ * contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * 
+ * Please cite BioVoxxel according to the provided DOI related to this software.
+ * 
+ */
+
+/**
+ * Parameter sweep of the Voronoi Threshold Labeler, see {@link BV_VoronoiThresholdSweep}
+ * 
+ * @author BioVoxxel
+ *
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Segmentation>Voronoi Threshold Sweep (2D/3D)")
+public class BV_VoronoiThresholdSweepGUI extends DynamicCommand {
+	
+	@Parameter(required = true)
+	private ImagePlus inputImagePlus;
+	
+	@Parameter(label = "Image filter", choices = { "None", "Gaussian", "DoG", "DoG (diff to r*3)", "DoG (2D forced, diff to r*3)", "Median", "Mean", "Minimum", "Maximum", "Open", "Close", "Variance", "Tubeness", "Inverted Tubeness"})
+	private String filterMethod = "None";
+	
+	@Parameter(label = "Filter radius", min = "0f", max = "1000f")
+	private Float filterRadius = 1.0f;
+	
+	@Parameter(label = "Background subtraction", choices = {"None", "DoG", "DoM", "Minimum", "TopHat", "BottomHat", "Inverted Tubeness"})
+	private String backgroundSubtractionMethod = "None";
+	
+	@Parameter(label = "Background radius", min = "0f", max = "1000f")
+	private Float backgroundRadius = 1.0f;
+	
+	@Parameter(label = "Histogram usage", choices = {"full", "ignore black", "ignore white", "ignore both"})
+	private String histogramUsage = "full";
+	
+	@Parameter(label = "Threshold methods", description = "Comma separated list of threshold methods or All")
+	private String thresholdMethods = "Default, Otsu";
+	
+	@Parameter(label = "Separation method", choices = {"None", "Maxima", "Eroded Maxima", "EDM Maxima", "Maxima Spheres", "DoG Seeds", "Eroded box", "Eroded sphere"})
+	private String separationMethod = "Maxima";
+	
+	@Parameter(label = "Spot sigmas / Erosions", description = "Comma separated values or ranges as from-to:step, e.g. 1-3:0.5")
+	private String spotSigmas = "1-3:1";
+	
+	@Parameter(label = "Maxima detection radii", description = "Comma separated values or ranges as from-to:step, e.g. 1-3:0.5")
+	private String maximaRadii = "1-3:1";
+	
+	@Parameter(label = "Reference labels", initializer = "initializeReferenceChoices", required = false, description = "Ground truth labels to calculate the Jaccard index of each combination")
+	private String referenceLabelsTitle = "None";
+	
+	@Parameter(label = "Parallel combinations", min = "1", stepSize = "1", required = false, description = "Combinations processed at the same time on the CPU backend")
+	private Integer workers = Runtime.getRuntime().availableProcessors();
+	
+	private volatile BV_VoronoiThresholdSweep sweep = null;
+	
+	
+	public void run() {
+		
+		try {
+			List<String> thresholdMethodList = BV_VoronoiThresholdSweep.parseThresholdMethods(thresholdMethods);
+			float[] spotSigmaValues = BV_VoronoiThresholdSweep.parseValues(spotSigmas);
+			float[] maximaRadiusValues = BV_VoronoiThresholdSweep.parseValues(maximaRadii);
+			
+			sweep = new BV_VoronoiThresholdSweep(inputImagePlus, filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius);
+			sweep.setHistogramUsage(histogramUsage);
+			sweep.setSeparationMethod(separationMethod);
+			sweep.setThresholdMethods(thresholdMethodList);
+			sweep.setSpotSigmas(spotSigmaValues);
+			sweep.setMaximaRadii(maximaRadiusValues);
+			sweep.setReferenceLabels(referenceLabelsTitle == null || referenceLabelsTitle.equals("None") ? null : WindowManager.getImage(referenceLabelsTitle));
+			sweep.setWorkers(workers);
+		} catch (IllegalArgumentException e) {
+			cancel(e.getMessage());
+			return;
+		}
+		
+		ColumnarResultsTable table = sweep.sweep();
+		table.show("Sweep_" + inputImagePlus.getTitle());
+	}
+	
+	
+	/**
+	 * Combinations which are not started yet are skipped
+	 */
+	public void cancel(String reason) {
+		
+		super.cancel(reason);
+		BV_VoronoiThresholdSweep runningSweep = sweep;
+		if (runningSweep != null) {
+			runningSweep.cancel(reason);
+		}
+	}
+	
+	
+	@SuppressWarnings("unused")
+	private void initializeReferenceChoices() {
+		
+		BV3DBoxUtilities.displayMissingDependencyWarning(getContext().service(UpdateService.class), "clij,clij2,clijx-assistant,clijx-assistant-extensions,3D ImageJ Suite");
+		
+		final MutableModuleItem<String> referenceLabelsTitle = getInfo().getMutableInput("referenceLabelsTitle", String.class);
+		referenceLabelsTitle.setChoices(Arrays.asList(BV3DBoxUtilities.extendImageTitleListWithNone()));
+	}
+}
@@ -1,58 +1,72 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import ij.ImagePlus;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_ConvolutedBackgroundSubtraction {
 	
 	
-	private CLIJ2 clij2;
+	private ComputeBackend backend;
 	private ImagePlus inputImagePlus;
-	private ClearCLBuffer input_image;
+	private ComputeBuffer input_image;
+	private boolean tiled;
 	
 	
 	public BV_ConvolutedBackgroundSubtraction() {
-		this.clij2 = CLIJ2.getInstance();
+		this.backend = ComputeBackendFactory.openSession();
 	}
 	
 	
 	public BV_ConvolutedBackgroundSubtraction(ImagePlus inputImagePlus) {
-		this.inputImagePlus = inputImagePlus;
-		this.clij2 = CLIJ2.getInstance();
-		clij2.clear();
-		this.input_image = clij2.push(inputImagePlus);
+		this.backend = ComputeBackendFactory.openSession();
+		setInputImagePlus(inputImagePlus);
 	}
 	
+	/**
+	 * Pushes the image unless it is too large to be filtered as a whole, see {@link #isTiled()}
+	 * 
+	 * @param inputImagePlus
+	 */
 	public void setInputImagePlus(ImagePlus inputImagePlus) {
 		this.inputImagePlus = inputImagePlus;
-		this.input_image = clij2.push(inputImagePlus);
+		this.tiled = TiledFilterExecutor.needsTiling(inputImagePlus, ComputeBackendFactory.getTileMemoryLimit());
+		this.input_image = tiled ? null : backend.push(inputImagePlus);
+	}
+	
+	/**
+	 * @return true if the input image was not pushed and needs {@link #subtractBackgroundTiled(String, float, boolean)}
+	 */
+	public boolean isTiled() {
+		return tiled;
 	}
 	
-	public CLIJ2 getCLIJ2Instance() {
-		return clij2;
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 	}
 	
 	public ImagePlus getInputImagePlus() {
 		return inputImagePlus;
 	}
 	
-	public ClearCLBuffer getInputBuffer() {
+	public ComputeBuffer getInputBuffer() {
 		return input_image;
 	}
 	
-	public ClearCLBuffer subtractBackground(ClearCLBuffer originalBuffer, ClearCLBuffer backgroundBuffer) {
+	public ComputeBuffer subtractBackground(ComputeBuffer originalBuffer, ComputeBuffer backgroundBuffer) {
 		
-		ClearCLBuffer backgroundSubtractedOutputImage = clij2.create(originalBuffer);
+		ComputeBuffer backgroundSubtractedOutputImage = backend.create(originalBuffer);
 
-		clij2.subtractImages(originalBuffer, backgroundBuffer, backgroundSubtractedOutputImage);
+		backend.subtractImages(originalBuffer, backgroundBuffer, backgroundSubtractedOutputImage);
 		
 		return backgroundSubtractedOutputImage;
 	}
 	
 	
-	public ClearCLBuffer filterImage(ClearCLBuffer originalBuffer, String filterMethod, float filterRadius, boolean force2D) {
+	public ComputeBuffer filterImage(ComputeBuffer originalBuffer, String filterMethod, float filterRadius, boolean force2D) {
 		
 		long zSlices = originalBuffer.getDepth();
 		
@@ -68,20 +82,20 @@ public class BV_ConvolutedBackgroundSubtraction {
 		
 		//System.out.println("z_filter_radius = " + z_filter_radius);
 		
-		ClearCLBuffer filteredImage = clij2.create(originalBuffer);
+		ComputeBuffer filteredImage = backend.create(originalBuffer);
 		
 		switch (filterMethod) {
 		case "Gaussian":
-			clij2.gaussianBlur3D(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
+			backend.gaussianBlur3D(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "Median":
 			if (zSlices > 1) {
 				
-				clij2.median3DSliceBySliceSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);
+				backend.median3DSliceBySliceSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);
 				
 			} else {
 				
-				clij2.median2DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);
+				backend.median2DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);
 				
 			}
 			break;
@@ -89,17 +103,17 @@ public class BV_ConvolutedBackgroundSubtraction {
 		case "Mean":
 			if (zSlices > 1) {
 				
-				clij2.mean3DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);	
+				backend.mean3DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);	
 			
 			} else {
 				
-				clij2.mean2DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);	
+				backend.mean2DSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius);	
 				
 			}
 			break;
 			
 		case "Open":
-			clij2.greyscaleOpeningSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
+			backend.greyscaleOpeningSphere(originalBuffer, filteredImage, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 
 //		case "Close":
@@ -110,18 +124,58 @@ public class BV_ConvolutedBackgroundSubtraction {
 			break;
 		}
 		
-		ClearCLBuffer borderCorrectedImage = clij2.create(originalBuffer);
+		ComputeBuffer borderCorrectedImage = backend.create(originalBuffer);
 		if (zSlices > 1) {
 			
-			clij2.maximum3DSliceBySliceSphere(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5));
+			backend.maximum3DSliceBySliceSphere(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5));
 			
 		} else {
 			
-			clij2.maximum2DSphere(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5));
+			backend.maximum2DSphere(filteredImage, borderCorrectedImage, Math.floor(filterRadius/5), Math.floor(y_filter_radius/5));
 		}
+		filteredImage.close();
 		
 		return borderCorrectedImage;
 		
 	}
+	
+	
+	/**
+	 * Filters and subtracts the background in overlapping blocks of the input image
+	 * 
+	 * @return the background subtracted image, identical to the one of filterImage() and subtractBackground()
+	 */
+	public ImagePlus subtractBackgroundTiled(String filterMethod, float filterRadius, boolean force2D) {
+		
+		double[] calibration = BV3DBoxUtilities.readCalibration(inputImagePlus);
+		
+		double y_filter_radius = filterRadius * calibration[1];
+		double z_filter_radius = inputImagePlus.getNSlices() > 1 && !force2D ? filterRadius / calibration[2] : 0.0d;
+		
+		int[] filterHalo;
+		switch (filterMethod) {
+		case "Gaussian":
+			filterHalo = TiledFilterExecutor.gaussianHalo(filterRadius, y_filter_radius, z_filter_radius);
+			break;
+		case "Median":
+			filterHalo = TiledFilterExecutor.sphereHalo(filterRadius, y_filter_radius, 0);
+			break;
+		case "Open":
+			int[] sphereHalo = TiledFilterExecutor.sphereHalo(filterRadius, y_filter_radius, z_filter_radius);
+			filterHalo = TiledFilterExecutor.sum(sphereHalo, sphereHalo);
+			break;
+		default:
+			filterHalo = TiledFilterExecutor.sphereHalo(filterRadius, y_filter_radius, z_filter_radius);
+			break;
+		}
+		int[] borderCorrectionHalo = TiledFilterExecutor.sphereHalo(Math.floor(filterRadius/5), Math.floor(y_filter_radius/5), 0);
+		
+		return new TiledFilterExecutor(backend, TiledFilterExecutor.sum(filterHalo, borderCorrectionHalo)).setParallelTilesFromMemoryLimit(inputImagePlus).process(inputImagePlus, tile -> {
+			ComputeBuffer filtered_tile = filterImage(tile, filterMethod, filterRadius, force2D);
+			ComputeBuffer background_subtracted_tile = subtractBackground(tile, filtered_tile);
+			filtered_tile.close();
+			return background_subtracted_tile;
+		});
+	}
 		
 }
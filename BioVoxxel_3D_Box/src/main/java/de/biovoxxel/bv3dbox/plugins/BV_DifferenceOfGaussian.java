@@ -1,26 +1,29 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_DifferenceOfGaussian {
 
 	ImagePlus inputImagePlus;
-	private ClearCLBuffer input_image;
+	private ComputeBuffer input_image;
 	private Calibration cal;
 	
 	int finalIteration = 0;
 	double lastDifference = Double.NEGATIVE_INFINITY;
 	
-	private CLIJ2 clij2;
+	private ComputeBackend backend;
 	private double x_y_ratio;
 	private double z_x_ratio;
 	//private double z_y_ratio;
 	private int z_slices;
+	private boolean tiled;
 	
 	
 	public BV_DifferenceOfGaussian(ImagePlus inputImagePlus) {
@@ -31,8 +34,10 @@ public class BV_DifferenceOfGaussian {
 	private void setupImage(ImagePlus image) {
 		this.inputImagePlus = image;
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		if (backend == null) {
+			backend = ComputeBackendFactory.openSession();
+		}
+		backend.clear();
 		
 		cal = inputImagePlus.getCalibration();
 		x_y_ratio = cal.pixelWidth / cal.pixelHeight;
@@ -41,36 +46,69 @@ public class BV_DifferenceOfGaussian {
 		
 		z_slices = inputImagePlus.getNSlices();
 		
+		tiled = inputImagePlus.getRoi() == null && TiledFilterExecutor.needsTiling(inputImagePlus, ComputeBackendFactory.getTileMemoryLimit());
+		
 		if (inputImagePlus.getRoi() != null) {
-			input_image = clij2.pushCurrentSelection(inputImagePlus);
-		} else {
-			input_image = clij2.push(inputImagePlus);
+			input_image = backend.pushCurrentSelection(inputImagePlus);
+		} else if (!tiled) {
+			input_image = backend.push(inputImagePlus);
 		}
 		
 	}
 	
 	
-	public ClearCLBuffer runDoGFilter(double radius_1, double radius_2, boolean limitTo2D) {
+	public ComputeBuffer runDoGFilter(double radius_1, double radius_2, boolean limitTo2D) {
+		
+		ComputeBuffer output_image = backend.create(input_image);
+		differenceOfGaussian(input_image, output_image, radius_1, radius_2, limitTo2D);
+		
+		return output_image;
+		
+	}
+	
+	
+	/**
+	 * Runs the filter on overlapping blocks of the input image which is not pushed as a whole
+	 * 
+	 * @return the filtered image which is identical to the one of {@link #runDoGFilter(double, double, boolean)}
+	 */
+	public ImagePlus runTiledDoGFilter(double radius_1, double radius_2, boolean limitTo2D) {
 		
-		ClearCLBuffer output_image = clij2.create(input_image);
+		double sigma = Math.max(radius_1, radius_2);
+		int[] halo = TiledFilterExecutor.gaussianHalo(sigma, sigma * x_y_ratio, z_slices == 1 || limitTo2D ? 0.0 : sigma / z_x_ratio);
+		
+		return new TiledFilterExecutor(backend, halo).setParallelTilesFromMemoryLimit(inputImagePlus).process(inputImagePlus, tile -> {
+			ComputeBuffer output_tile = backend.create(tile);
+			differenceOfGaussian(tile, output_tile, radius_1, radius_2, limitTo2D);
+			return output_tile;
+		});
+	}
+	
+	
+	private void differenceOfGaussian(ComputeBuffer input, ComputeBuffer output, double radius_1, double radius_2, boolean limitTo2D) {
 		if (z_slices == 1) {
-			clij2.differenceOfGaussian2D(input_image, output_image, radius_1, radius_1 * x_y_ratio, radius_2, radius_2 * x_y_ratio);			
+			backend.differenceOfGaussian2D(input, output, radius_1, radius_1 * x_y_ratio, radius_2, radius_2 * x_y_ratio);			
 		} else {
 			if (limitTo2D) {
-				clij2.differenceOfGaussian3D(input_image, output_image, radius_1, radius_1 * x_y_ratio, 0.0, radius_2, radius_2 * x_y_ratio, 0.0);			
+				backend.differenceOfGaussian3D(input, output, radius_1, radius_1 * x_y_ratio, 0.0, radius_2, radius_2 * x_y_ratio, 0.0);			
 				
 			} else {
-				clij2.differenceOfGaussian3D(input_image, output_image, radius_1, radius_1 * x_y_ratio, radius_1 / z_x_ratio, radius_2, radius_2 * x_y_ratio, radius_2 / z_x_ratio);			
+				backend.differenceOfGaussian3D(input, output, radius_1, radius_1 * x_y_ratio, radius_1 / z_x_ratio, radius_2, radius_2 * x_y_ratio, radius_2 / z_x_ratio);			
 			}
 		}
-		
-		return output_image;
-		
 	}
 	
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	/**
+	 * @return true if the image is too large to be filtered as a whole and needs {@link #runTiledDoGFilter(double, double, boolean)}
+	 */
+	public boolean isTiled() {
+		return tiled;
+	}
+	
+	
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 		
 	}
 	
@@ -8,15 +8,16 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.process.ImageConverter;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 
 /*
@@ -60,13 +61,13 @@ public class BV_FlatFieldCorrection {
 
 	LogService log = new StderrLogService();
 	
-	private CLIJ2 clij2;
+	private ComputeBackend backend;
 	
 	private ImagePlus originalImagePlus = null;
 		
-	private ClearCLBuffer original_image = null;
-	private ClearCLBuffer flat_field_image = null;
-	private ClearCLBuffer dark_field_image = null;
+	private ComputeBuffer original_image = null;
+	private ComputeBuffer flat_field_image = null;
+	private ComputeBuffer dark_field_image = null;
 	
 	//private final int WIDTH = 0;
 	//private final int HEIGHT = 1;
@@ -76,8 +77,11 @@ public class BV_FlatFieldCorrection {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		backend = ComputeBackendFactory.openSession();
+	}
+	
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 	}
 	
 
@@ -112,15 +116,15 @@ public class BV_FlatFieldCorrection {
 				
 				originalDimensions = new long[]{(long)originalBrightnessImagePlus.getWidth(), (long)originalBrightnessImagePlus.getHeight(), (long)originalBrightnessImagePlus.getStackSize()};
 				
-				original_image = clij2.create(originalDimensions, NativeTypeEnum.Float);
-				original_image = clij2.push(originalBrightnessImagePlus);
+				original_image = backend.create(originalDimensions, BufferType.FLOAT);
+				original_image = backend.push(originalBrightnessImagePlus);
 				
 			} else {
 				
 				originalDimensions = new long[]{(long)originalImagePlus.getWidth(), (long)originalImagePlus.getHeight(), (long)originalImagePlus.getStackSize()};
 				
-				original_image = clij2.create(originalDimensions, NativeTypeEnum.Float);
-				original_image = clij2.push(originalImagePlus);
+				original_image = backend.create(originalDimensions, BufferType.FLOAT);
+				original_image = backend.push(originalImagePlus);
 			
 			}
 		}
@@ -141,24 +145,24 @@ public class BV_FlatFieldCorrection {
 				
 				flatFieldDimensions = new long[]{(long)flatFieldBrightnessImagePlus.getWidth(), (long)flatFieldBrightnessImagePlus.getHeight(), (long)flatFieldBrightnessImagePlus.getStackSize()};
 				
-				flat_field_image = clij2.create(flatFieldDimensions, NativeTypeEnum.Float);
-				flat_field_image = clij2.push(flatFieldBrightnessImagePlus);
+				flat_field_image = backend.create(flatFieldDimensions, BufferType.FLOAT);
+				flat_field_image = backend.push(flatFieldBrightnessImagePlus);
 				
 			} else {
 				
 				flatFieldDimensions = new long[]{(long)flatFieldImagePlus.getWidth(), (long)flatFieldImagePlus.getHeight(), (long)flatFieldImagePlus.getStackSize()};
 				
-				flat_field_image = clij2.create(flatFieldDimensions, NativeTypeEnum.Float);
+				flat_field_image = backend.create(flatFieldDimensions, BufferType.FLOAT);
 				
 				
 				if (originalDimensions[DEPTH] > 1 && flatFieldDimensions[DEPTH] == 1) {
 					
-					ClearCLBuffer temp_flat_field = clij2.push(flatFieldImagePlus);
+					ComputeBuffer temp_flat_field = backend.push(flatFieldImagePlus);
 					
-					clij2.imageToStack(temp_flat_field, flat_field_image, originalDimensions[DEPTH]);
+					backend.imageToStack(temp_flat_field, flat_field_image, originalDimensions[DEPTH]);
 					
 				} else {
-					flat_field_image = clij2.push(flatFieldImagePlus);				
+					flat_field_image = backend.push(flatFieldImagePlus);				
 				}
 				
 			}
@@ -178,23 +182,23 @@ public class BV_FlatFieldCorrection {
 				
 				darkFieldDimensions = new long[]{(long)darkFieldBrightnessImagePlus.getWidth(), (long)darkFieldBrightnessImagePlus.getHeight(), (long)darkFieldBrightnessImagePlus.getStackSize()};
 				
-				dark_field_image = clij2.create(darkFieldDimensions, NativeTypeEnum.Float);
-				dark_field_image = clij2.push(darkFieldBrightnessImagePlus);
+				dark_field_image = backend.create(darkFieldDimensions, BufferType.FLOAT);
+				dark_field_image = backend.push(darkFieldBrightnessImagePlus);
 				
 			} else {
 				
 				darkFieldDimensions = new long[]{(long)darkFieldImagePlus.getWidth(), (long)darkFieldImagePlus.getHeight(), (long)darkFieldImagePlus.getStackSize()};
 				
-				dark_field_image = clij2.create(originalDimensions, NativeTypeEnum.Float);
+				dark_field_image = backend.create(originalDimensions, BufferType.FLOAT);
 				
 				if (originalDimensions[DEPTH] > 1 && darkFieldDimensions[DEPTH] == 1) {
 					
-					ClearCLBuffer temp_dark_field = clij2.push(darkFieldImagePlus);
+					ComputeBuffer temp_dark_field = backend.push(darkFieldImagePlus);
 					
-					clij2.imageToStack(temp_dark_field, dark_field_image, originalDimensions[DEPTH]);
+					backend.imageToStack(temp_dark_field, dark_field_image, originalDimensions[DEPTH]);
 					
 				} else {
-					dark_field_image = clij2.push(darkFieldImagePlus);				
+					dark_field_image = backend.push(darkFieldImagePlus);				
 				}	
 			}
 		}	
@@ -226,36 +230,36 @@ public class BV_FlatFieldCorrection {
 	
 	public void flatFieldCorrection() {
 		
-		ClearCLBuffer original_minus_dark_field;
-		ClearCLBuffer flat_field_minus_dark_field;
-		ClearCLBuffer corrected_image = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
+		ComputeBuffer original_minus_dark_field;
+		ComputeBuffer flat_field_minus_dark_field;
+		ComputeBuffer corrected_image = backend.create(original_image.getDimensions(), BufferType.FLOAT);
 		
 		if (dark_field_image != null) {
-			original_minus_dark_field = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
-			flat_field_minus_dark_field = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
+			original_minus_dark_field = backend.create(original_image.getDimensions(), BufferType.FLOAT);
+			flat_field_minus_dark_field = backend.create(original_image.getDimensions(), BufferType.FLOAT);
 		
 			
-			clij2.subtractImages(original_image, dark_field_image, original_minus_dark_field);
-			clij2.subtractImages(flat_field_image, dark_field_image, flat_field_minus_dark_field);
+			backend.subtractImages(original_image, dark_field_image, original_minus_dark_field);
+			backend.subtractImages(flat_field_image, dark_field_image, flat_field_minus_dark_field);
 
-			double meanOfFlatField = clij2.getMeanOfAllPixels(flat_field_minus_dark_field);
+			double meanOfFlatField = backend.meanOfAllPixels(flat_field_minus_dark_field);
 			
-			ClearCLBuffer divided_image = clij2.create(original_minus_dark_field);
-			clij2.divideImages(original_minus_dark_field, flat_field_minus_dark_field, divided_image);
+			ComputeBuffer divided_image = backend.create(original_minus_dark_field);
+			backend.divideImages(original_minus_dark_field, flat_field_minus_dark_field, divided_image);
 			original_minus_dark_field.close();
 			flat_field_minus_dark_field.close();
 			
-			clij2.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
+			backend.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
 			divided_image.close();
 			
 		} else {
-			ClearCLBuffer divided_image = clij2.create(original_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.divideImages(original_image, flat_field_image, divided_image);
+			ComputeBuffer divided_image = backend.create(original_image.getDimensions(), BufferType.FLOAT);
+			backend.divideImages(original_image, flat_field_image, divided_image);
 			
-			double meanOfFlatField = clij2.getMeanOfAllPixels(flat_field_image);
+			double meanOfFlatField = backend.meanOfAllPixels(flat_field_image);
 			log.debug("meanOfFlatField = " + meanOfFlatField);
 			
-			clij2.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
+			backend.multiplyImageAndScalar(divided_image, corrected_image, meanOfFlatField);
 			divided_image.close();
 		}
 		
@@ -264,11 +268,11 @@ public class BV_FlatFieldCorrection {
 		
 		if (originalImagePlus.getBitDepth() == 24 && !originalImagePlus.hasImageStack()) {
 			
-			ImagePlus correctedLightnessImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, corrected_image, true, LutNames.GRAY);
+			ImagePlus correctedLightnessImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, corrected_image, true, LutNames.GRAY);
 			
 			if (showDebugImages) {
 				
-				BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, corrected_image, false, LutNames.GRAY, originalImagePlus.getCalibration());
+				BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, corrected_image, false, LutNames.GRAY, originalImagePlus.getCalibration());
 				
 			}
 			
@@ -282,7 +286,7 @@ public class BV_FlatFieldCorrection {
 			
 		} else {
 			
-			correctedImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, corrected_image, false, LutNames.GRAY);
+			correctedImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, corrected_image, false, LutNames.GRAY);
 			
 					
 		}
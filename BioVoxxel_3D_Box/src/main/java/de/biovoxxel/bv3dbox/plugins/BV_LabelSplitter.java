@@ -7,14 +7,19 @@ import org.joml.Math;
 import org.scijava.prefs.DefaultPrefService;
 
 
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor;
+import de.biovoxxel.bv3dbox.backend.clij2.CLIJ2Backend;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.measure.ResultsTable;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
 import net.haesleinhuepf.clij2.CLIJ2;
 
 
@@ -57,27 +62,42 @@ import net.haesleinhuepf.clij2.CLIJ2;
  * @author BioVoxxel
  *
  */
-public class BV_LabelSplitter {
+public class BV_LabelSplitter implements AutoCloseable {
 
 	private boolean showDebugImages = new DefaultPrefService().getBoolean(BV3DBoxSettings.class, "bv_3d_box_settings_display_debug_images", false);
-	private CLIJ2 clij2;
+	private ComputeBackend backend;
+	private final boolean ownsBackend;
 	private BV_LabelSeparator labelSeparator = new BV_LabelSeparator();
 	
 	private double[] voxelRatios = {1.0, 1.0};
 		
 	
 	
+	/**
+	 * Opens its own session, which is released with {@link #close()}
+	 */
 	public BV_LabelSplitter() {
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		backend = ComputeBackendFactory.openSession();
+		ownsBackend = true;
 	}
 	
 	/**
+	 * 
+	 * @param backend	stays open when this label splitter is closed
+	 */
+	public BV_LabelSplitter(ComputeBackend backend) {
+		this.backend = backend;
+		ownsBackend = false;
+	}
+	
+	/**
+	 * Kept for scripts which still hand over their own CLIJ2 instance
 	 * 
 	 * @param clij2
 	 */
 	public BV_LabelSplitter(CLIJ2 clij2) {
-		this.clij2 = clij2;
+		this.backend = new CLIJ2Backend(clij2, false);
+		ownsBackend = true;
 	}
 	
 	/**
@@ -86,8 +106,8 @@ public class BV_LabelSplitter {
 	 */
 	public BV_LabelSplitter(ImagePlus inputImagePlus) {
 
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		backend = ComputeBackendFactory.openSession();
+		ownsBackend = true;
 		
 		voxelRatios = BV3DBoxUtilities.getVoxelRatios(inputImagePlus);
 				
@@ -100,13 +120,13 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer splitLabels(ClearCLBuffer input_image, String separationMethod, Float spotSigma, Float maximaRadius) {
+	public ComputeBuffer splitLabels(ComputeBuffer input_image, String separationMethod, Float spotSigma, Float maximaRadius) {
 		
-		ClearCLBuffer seedImage = clij2.create(input_image);
+		ComputeBuffer seedImage;
 		
-		ClearCLBuffer thresholdedImage = clij2.create(input_image);
+		ComputeBuffer thresholdedImage = backend.create(input_image);
 				
-		clij2.threshold(input_image, thresholdedImage, 1);
+		backend.threshold(input_image, thresholdedImage, 1);
 						
 		switch (separationMethod) {
 		
@@ -131,8 +151,8 @@ public class BV_LabelSplitter {
 			break;
 			
 		case "DoG Seeds":
-			ClearCLBuffer binary_8_bit_image = clij2.create(thresholdedImage);
-			clij2.replaceIntensity(thresholdedImage, binary_8_bit_image, 1, 255);
+			ComputeBuffer binary_8_bit_image = backend.create(thresholdedImage);
+			backend.replaceIntensity(thresholdedImage, binary_8_bit_image, 1, 255);
 			seedImage = detectDoGSeeds(binary_8_bit_image, spotSigma, maximaRadius);
 			binary_8_bit_image.close();
 			break;
@@ -142,7 +162,7 @@ public class BV_LabelSplitter {
 			break;
 		}
 		
-		ClearCLBuffer label_image = createLabels(seedImage, thresholdedImage);
+		ComputeBuffer label_image = createLabels(seedImage, thresholdedImage);
 		
 		seedImage.close();
 		thresholdedImage.close();
@@ -158,20 +178,20 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer detectMaxima(ClearCLBuffer input_image, Float spotSigma, Float maximaRadius) {
+	public ComputeBuffer detectMaxima(ComputeBuffer input_image, Float spotSigma, Float maximaRadius) {
 			
 		double y_filter_sigma = spotSigma * voxelRatios[0];
 		double z_filter_sigma = spotSigma / voxelRatios[1];
 			
-		ClearCLBuffer temp = clij2.create(input_image);
-		clij2.gaussianBlur3D(input_image, temp, spotSigma, y_filter_sigma, z_filter_sigma);
+		ComputeBuffer temp = backend.create(input_image);
+		backend.gaussianBlur3D(input_image, temp, spotSigma, y_filter_sigma, z_filter_sigma);
 		
 		
 		double y_maxima_radius = maximaRadius * voxelRatios[0];
 		double z_maxima_radius = maximaRadius / voxelRatios[1];
 		
-		ClearCLBuffer maxima_image = clij2.create(input_image);
-		clij2.detectMaxima3DBox(temp, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
+		ComputeBuffer maxima_image = backend.create(input_image);
+		backend.detectMaxima3DBox(temp, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
 		temp.close();
 		
 		return maxima_image;
@@ -184,11 +204,11 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer detectErodedMaxima(ClearCLBuffer input_image, Integer erode_iteration, Float maximaRadius) {
+	public ComputeBuffer detectErodedMaxima(ComputeBuffer input_image, Integer erode_iteration, Float maximaRadius) {
 		
-		ClearCLBuffer eroded_seeds = createErodedSeeds(input_image, erode_iteration, "Eroded sphere");
+		ComputeBuffer eroded_seeds = createErodedSeeds(input_image, erode_iteration, "Eroded sphere");
 		
-		ClearCLBuffer eroded_maxima = detectMaxima(eroded_seeds, 0f, maximaRadius);
+		ComputeBuffer eroded_maxima = detectMaxima(eroded_seeds, 0f, maximaRadius);
 		
 		eroded_seeds.close();
 		
@@ -197,18 +217,18 @@ public class BV_LabelSplitter {
 	
 	
 	
-	public ClearCLBuffer detectDistanceMapMaxima(ClearCLBuffer binary_image, Float maximaRadius) {
+	public ComputeBuffer detectDistanceMapMaxima(ComputeBuffer binary_image, Float maximaRadius) {
 		
 		double y_maxima_radius = maximaRadius * voxelRatios[0];
 		double z_maxima_radius = maximaRadius / voxelRatios[1];
 		
-		ClearCLBuffer distance_map = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
+		ComputeBuffer distance_map = backend.create(binary_image.getDimensions(), BufferType.FLOAT);
 		
-		clij2.distanceMap(binary_image, distance_map);
+		backend.distanceMap(binary_image, distance_map, 1.0, 1.0 / voxelRatios[0], voxelRatios[1]);
 		
-		ClearCLBuffer maxima_image = clij2.create(binary_image);
+		ComputeBuffer maxima_image = backend.create(binary_image);
 		
-		clij2.detectMaxima3DBox(distance_map, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
+		backend.detectMaxima3DBox(distance_map, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
 		
 		distance_map.close();
 		
@@ -223,29 +243,29 @@ public class BV_LabelSplitter {
 	 * @param maximaRadius
 	 * @return
 	 */
-	public ClearCLBuffer createMaximaSpheres(ClearCLBuffer binary_image, Float spotSigma, Float maximaRadius) {
+	public ComputeBuffer createMaximaSpheres(ComputeBuffer binary_image, Float spotSigma, Float maximaRadius) {
 		
 		double y_maxima_radius = maximaRadius * voxelRatios[0];
 		double z_maxima_radius = maximaRadius / voxelRatios[1] == Double.POSITIVE_INFINITY ? 0.0 : maximaRadius / voxelRatios[1];
 			
 		System.out.println(maximaRadius / voxelRatios[1]);
 		
-		ClearCLBuffer distance_map = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.distanceMap(binary_image, distance_map);
+		ComputeBuffer distance_map = backend.create(binary_image.getDimensions(), BufferType.FLOAT);
+		backend.distanceMap(binary_image, distance_map, 1.0, 1.0 / voxelRatios[0], voxelRatios[1]);
 		
-		ClearCLBuffer gaussian_distance_map = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.gaussianBlur3D(distance_map, gaussian_distance_map, spotSigma, y_maxima_radius, z_maxima_radius);
+		ComputeBuffer gaussian_distance_map = backend.create(binary_image.getDimensions(), BufferType.FLOAT);
+		backend.gaussianBlur3D(distance_map, gaussian_distance_map, spotSigma, y_maxima_radius, z_maxima_radius);
 		
-		ClearCLBuffer maxima_image = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.detectMaxima3DBox(gaussian_distance_map, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
+		ComputeBuffer maxima_image = backend.create(binary_image.getDimensions(), BufferType.FLOAT);
+		backend.detectMaxima3DBox(gaussian_distance_map, maxima_image, maximaRadius, y_maxima_radius, z_maxima_radius);
 		gaussian_distance_map.close();
 		
-		ClearCLBuffer maxima_labels = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.connectedComponentsLabelingDiamond(maxima_image, maxima_labels);
+		ComputeBuffer maxima_labels = LabelBuffers.create(backend, binary_image.getDimensions());
+		backend.connectedComponentsLabelingDiamond(maxima_image, maxima_labels);
 		maxima_image.close();
 				
 		ResultsTable resultsTable = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(distance_map, maxima_labels, resultsTable);
+		backend.statisticsOfLabelledPixels(distance_map, maxima_labels, resultsTable);
 		distance_map.close();
 		maxima_labels.close();
 		
@@ -265,8 +285,8 @@ public class BV_LabelSplitter {
 		System.out.println(y);
 		System.out.println(z);
 		
-		ClearCLBuffer sphere_image = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.set(sphere_image, 0);
+		ComputeBuffer sphere_image = LabelBuffers.create(backend, binary_image.getDimensions(), maxima_intensity.length);
+		backend.set(sphere_image, 0);
 		
 		for (int i = 0; i < maxima_intensity.length; i++) {
 			
@@ -274,22 +294,22 @@ public class BV_LabelSplitter {
 			double y_radius = maxima_intensity[i] * voxelRatios[0];
 			double z_radius = maxima_intensity[i] / voxelRatios[1] == Double.POSITIVE_INFINITY ? 1.0 : maxima_intensity[i] / voxelRatios[1];
 						
-			clij2.drawSphere(sphere_image, x[i], y[i], z[i], x_radius, y_radius, z_radius, i+1);
+			backend.drawSphere(sphere_image, x[i], y[i], z[i], x_radius, y_radius, z_radius, i+1);
 		}
 		
-		ClearCLBuffer separated_sphere_image = clij2.create(binary_image.getDimensions(), NativeTypeEnum.Float);
-		labelSeparator.splitLabels(clij2, sphere_image, separated_sphere_image);
+		ComputeBuffer separated_sphere_image = backend.create(sphere_image);
+		labelSeparator.splitLabels(backend, sphere_image, separated_sphere_image);
 		sphere_image.close();
 		
 		if (showDebugImages) {
 			
 			ImagePlus sphereImagePlus = WindowManager.getImage("debug_sphere_image");
 			if (sphereImagePlus == null) {
-				sphereImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, separated_sphere_image, true, LutNames.GLASBEY_LUT);
+				sphereImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, separated_sphere_image, true, LutNames.GLASBEY_LUT);
 				sphereImagePlus.setTitle("debug_sphere_image");
 				sphereImagePlus.show();		
 			} else {
-				sphereImagePlus.setImage(BV3DBoxUtilities.pullImageFromGPU(clij2, separated_sphere_image, true, LutNames.GLASBEY_LUT));
+				sphereImagePlus.setImage(BV3DBoxUtilities.pullImageFromGPU(backend, separated_sphere_image, true, LutNames.GLASBEY_LUT));
 				sphereImagePlus.setTitle("debug_sphere_image");
 			}	
 		}
@@ -306,9 +326,9 @@ public class BV_LabelSplitter {
 	 * @param threshold
 	 * @return
 	 */
-	public ClearCLBuffer detectDoGSeeds(ClearCLBuffer input_image, Float sigma, Float threshold) {
+	public ComputeBuffer detectDoGSeeds(ComputeBuffer input_image, Float sigma, Float threshold) {
 		
-		ClearCLBuffer dog_image = clij2.create(input_image);
+		ComputeBuffer dog_image = backend.create(input_image);
 		boolean is3D = input_image.getDimension() > 2 ? true : false;
 		
 		double y_filter_sigma = sigma * voxelRatios[0];
@@ -316,16 +336,16 @@ public class BV_LabelSplitter {
 		
 		if (is3D) {
 			
-			clij2.differenceOfGaussian3D(input_image, dog_image, 0, 0, 0, sigma, y_filter_sigma, z_filter_sigma);
+			backend.differenceOfGaussian3D(input_image, dog_image, 0, 0, 0, sigma, y_filter_sigma, z_filter_sigma);
 			
 		} else {
 			
-			clij2.differenceOfGaussian2D(input_image, dog_image, 0, 0, sigma, y_filter_sigma);
+			backend.differenceOfGaussian2D(input_image, dog_image, 0, 0, sigma, y_filter_sigma);
 			
 		}
 		
-		ClearCLBuffer dog_seed_image = clij2.create(dog_image);
-		clij2.different(input_image, dog_image, dog_seed_image, 255f - threshold);
+		ComputeBuffer dog_seed_image = backend.create(dog_image);
+		backend.different(input_image, dog_image, dog_seed_image, 255f - threshold);
 		
 		dog_image.close();
 		
@@ -340,27 +360,27 @@ public class BV_LabelSplitter {
 	 * @param erosion_method
 	 * @return
 	 */
-	public ClearCLBuffer createErodedSeeds(ClearCLBuffer input_image, Integer erode_iteration, String erosion_method) {
+	public ComputeBuffer createErodedSeeds(ComputeBuffer input_image, Integer erode_iteration, String erosion_method) {
 		
 		boolean is3D = input_image.getDimension() > 2 ? true : false;
 		
-		ClearCLBuffer eroded_image = clij2.create(input_image);
+		ComputeBuffer eroded_image = backend.create(input_image);
 		
 		if (is3D) {
 			if (erosion_method.equals("Eroded box")) {
-				clij2.minimum3DBox(input_image, eroded_image, erode_iteration, erode_iteration, erode_iteration);
+				backend.minimum3DBox(input_image, eroded_image, erode_iteration, erode_iteration, erode_iteration);
 			}
 			
 			if (erosion_method.equals("Eroded sphere")) {
-				clij2.minimum3DSphere(input_image, eroded_image, erode_iteration, erode_iteration, erode_iteration);
+				backend.minimum3DSphere(input_image, eroded_image, erode_iteration, erode_iteration, erode_iteration);
 			}
 		} else {
 			if (erosion_method.equals("Eroded box")) {
-				clij2.minimum2DBox(input_image, eroded_image, erode_iteration, erode_iteration);
+				backend.minimum2DBox(input_image, eroded_image, erode_iteration, erode_iteration);
 			}
 			
 			if (erosion_method.equals("Eroded sphere")) {
-				clij2.minimum2DSphere(input_image, eroded_image, erode_iteration, erode_iteration);
+				backend.minimum2DSphere(input_image, eroded_image, erode_iteration, erode_iteration);
 			}
 		}
 		
@@ -386,32 +406,133 @@ public class BV_LabelSplitter {
 //		return plateaus_image;
 //	}
 	
+	/**
+	 * Seeds as used by the Voronoi Threshold Labeler. Intensity maxima are detected in the input image,
+	 * all other seeds in the binary image.
+	 * 
+	 * @param input_image	gray input image
+	 * @param binary_image	thresholded image
+	 * @param separationMethod	any method of {@link #splitLabels(ComputeBuffer, String, Float, Float)} except "None"
+	 * @param spotSigma
+	 * @param maximaRadius
+	 * @return the seed image
+	 */
+	public ComputeBuffer detectSeeds(ComputeBuffer input_image, ComputeBuffer binary_image, String separationMethod, Float spotSigma, Float maximaRadius) {
+		
+		ComputeBuffer seed_image;
+		
+		switch (separationMethod) {
+		
+		case "Maxima":
+			seed_image = detectMaxima(input_image, spotSigma, maximaRadius);
+			break;
+		case "Eroded Maxima":
+			seed_image = detectErodedMaxima(input_image, Math.round(spotSigma), maximaRadius);
+			break;
+		case "EDM Maxima":
+			seed_image = detectDistanceMapMaxima(binary_image, maximaRadius);
+			break;
+		case "Maxima Spheres":
+			seed_image = createMaximaSpheres(binary_image, spotSigma, maximaRadius);
+			break;
+		case "DoG Seeds":
+			
+			ComputeBuffer binary_8_bit_image = backend.create(binary_image);
+			backend.replaceIntensity(binary_image, binary_8_bit_image, 1, 255);
+			seed_image = detectDoGSeeds(binary_8_bit_image, spotSigma, maximaRadius);
+			binary_8_bit_image.close();
+			break;
+		default:
+			seed_image = createErodedSeeds(binary_image, Math.round(spotSigma), separationMethod);
+			break;
+		}
+		return seed_image;
+	}
+	
+	
+	/**
+	 * @param separationMethod
+	 * @return true if the seeds of {@link #detectSeeds(ComputeBuffer, ComputeBuffer, String, Float, Float)} only depend on the input image and not on the threshold
+	 */
+	public static boolean isInputSeedMethod(String separationMethod) {
+		return separationMethod.equals("Maxima") || separationMethod.equals("Eroded Maxima");
+	}
+	
+	
 	/**
 	 * 
 	 * @param seed_image
 	 * @param thresholded_image
-	 * @return
+	 * @return the label image in the smallest label type, see {@link LabelBuffers}
 	 */
-	public ClearCLBuffer createLabels(ClearCLBuffer seed_image, ClearCLBuffer thresholded_image) {
+	public ComputeBuffer createLabels(ComputeBuffer seed_image, ComputeBuffer thresholded_image) {
 		// mask spots
-		ClearCLBuffer masked_spots = clij2.create(seed_image);
-		clij2.mask(seed_image, thresholded_image, masked_spots);
+		ComputeBuffer masked_spots = backend.create(seed_image);
+		backend.mask(seed_image, thresholded_image, masked_spots);
 		//clij2.binaryAnd(seed_image, thresholded_image, masked_spots);	//old before version 1.9.0
 		
-		ClearCLBuffer output_image = clij2.create(seed_image.getDimensions(), NativeTypeEnum.Float);
-		clij2.maskedVoronoiLabeling(masked_spots, thresholded_image, output_image);
+		ComputeBuffer output_image = LabelBuffers.create(backend, seed_image.getDimensions());
+		backend.maskedVoronoiLabeling(masked_spots, thresholded_image, output_image);
 		masked_spots.close();
 		
-		return output_image;
+		return LabelBuffers.fit(backend, output_image);
+	}
+	
+	
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 	}
 	
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	/**
+	 * 
+	 * @param separationMethod
+	 * @param spotSigma
+	 * @param maximaRadius
+	 * @return the number of slices the seed detection reaches above and below each slice or -1 if it depends on the complete stack
+	 */
+	public int getSeedHalo(String separationMethod, Float spotSigma, Float maximaRadius) {
+		
+		if (voxelRatios[1] <= 0) {
+			return -1;
+		}
+		double z_filter_sigma = spotSigma / voxelRatios[1];
+		double z_maxima_radius = maximaRadius / voxelRatios[1];
+		
+		switch (separationMethod) {
+		case "None":
+			return 0;
+		case "Maxima":
+			return TiledFilterExecutor.sum(TiledFilterExecutor.gaussianHalo(0, 0, z_filter_sigma), TiledFilterExecutor.sphereHalo(0, 0, z_maxima_radius))[2];
+		case "Eroded Maxima":
+			return TiledFilterExecutor.sum(TiledFilterExecutor.sphereHalo(0, 0, spotSigma), TiledFilterExecutor.sphereHalo(0, 0, z_maxima_radius))[2];
+		case "DoG Seeds":
+			return TiledFilterExecutor.gaussianHalo(0, 0, z_filter_sigma)[2];
+		case "Eroded box":
+		case "Eroded sphere":
+			return TiledFilterExecutor.sphereHalo(0, 0, spotSigma)[2];
+		default:
+			return -1;	//distance map based seeds
+		}
 	}
 	
 	
 	
+	/**
+	 * Closes the session opened by this label splitter including the buffers it returned,
+	 * a backend handed over to the constructor stays open
+	 */
+	@Override
+	public void close() {
+		if (ownsBackend) {
+			backend.close();
+		}
+	}
+	
+	public double[] getVoxelRatios() {
+		return voxelRatios;
+	}
+	
 	public void setVoxelRatios(double[] voxelRatios) {
 		this.voxelRatios = voxelRatios;
 	}
@@ -1,32 +1,28 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_MakeIsotropicImage {
 	
 	ImagePlus inputImagePlus;
-	ClearCLBuffer input_image;
+	ComputeBuffer input_image;
 	float[] calibration = new float[3];
-	CLIJ2 clij2;
+	ComputeBackend backend;
 	
-	public BV_MakeIsotropicImage(CLIJ2 clij2, ImagePlus inputImagePlus) {
+	public BV_MakeIsotropicImage(ComputeBackend backend, ImagePlus inputImagePlus) {
 		
-		if (clij2 == null) {
-			clij2 = CLIJ2.getInstance();
-		} else {
-			this.clij2 = clij2;
-		}
-		clij2.clear();
+		this.backend = backend != null ? backend : ComputeBackendFactory.openSession();
 		
 		this.inputImagePlus = inputImagePlus;
-		input_image = clij2.push(inputImagePlus);
+		input_image = this.backend.push(inputImagePlus);
 	}
 	
 	
-	public ClearCLBuffer makeIsotropic(CLIJ2 clij2, ImagePlus image) {
+	public ComputeBuffer makeIsotropic(ComputeBackend backend, ImagePlus image) {
 				
 		Calibration cal = image.getCalibration();
 		
@@ -35,15 +31,15 @@ public class BV_MakeIsotropicImage {
 		calibration[2] = (float) cal.pixelDepth;
 		
 		
-		return makeIsotropic(clij2, input_image, calibration);
+		return makeIsotropic(backend, input_image, calibration);
 		
 	}
 	
-	public ClearCLBuffer makeIsotropic(CLIJ2 clij2, ClearCLBuffer input_image, float[] calibration) {
+	public ComputeBuffer makeIsotropic(ComputeBackend backend, ComputeBuffer input_image, float[] calibration) {
 		
-		ClearCLBuffer output_image = createOutputBufferFromSource(input_image);
+		ComputeBuffer output_image = createOutputBufferFromSource(input_image);
 		
-		clij2.makeIsotropic(input_image, output_image, calibration[0], calibration[1], calibration[2], calibration[0]);
+		backend.makeIsotropic(input_image, output_image, calibration[0], calibration[1], calibration[2], calibration[0]);
 		
 		input_image.close();
 		
@@ -52,13 +48,13 @@ public class BV_MakeIsotropicImage {
 	
 	
 	
-	public ClearCLBuffer createOutputBufferFromSource(ClearCLBuffer input) {
+	public ComputeBuffer createOutputBufferFromSource(ComputeBuffer input) {
 
         float scale1X = (float) (calibration[0] / calibration[0]);
         float scale1Y = (float) (calibration[1] / calibration[0]);
         float scale1Z = (float) (calibration[2] / calibration[0]);
 
-        return clij2.create(
+        return backend.create(
                 (long) (input.getWidth() * scale1X),
                 (long) (input.getHeight() * scale1Y),
                 (long) (input.getDepth() * scale1Z));
@@ -1,32 +1,28 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 public class BV_MakeIsotropicVoxel {
 	
 	ImagePlus inputImagePlus;
-	ClearCLBuffer input_image;
+	ComputeBuffer input_image;
 	float[] calibration = new float[3];
-	CLIJ2 clij2;
+	ComputeBackend backend;
 	
-	public BV_MakeIsotropicVoxel(CLIJ2 clij2, ImagePlus inputImagePlus) {
+	public BV_MakeIsotropicVoxel(ComputeBackend backend, ImagePlus inputImagePlus) {
 		
-		if (clij2 == null) {
-			clij2 = CLIJ2.getInstance();
-		} else {
-			this.clij2 = clij2;
-		}
-		clij2.clear();
+		this.backend = backend != null ? backend : ComputeBackendFactory.openSession();
 		
 		this.inputImagePlus = inputImagePlus;
-		input_image = clij2.push(inputImagePlus);
+		input_image = this.backend.push(inputImagePlus);
 	}
 	
 	
-	public ClearCLBuffer makeIsotropic(CLIJ2 clij2, ImagePlus image, float finalVoxelSize) {
+	public ComputeBuffer makeIsotropic(ComputeBackend backend, ImagePlus image, float finalVoxelSize) {
 				
 		Calibration cal = image.getCalibration();
 		
@@ -35,14 +31,14 @@ public class BV_MakeIsotropicVoxel {
 		calibration[2] = (float) cal.pixelDepth;
 		
 		
-		return makeIsotropic(clij2, input_image, calibration, finalVoxelSize);
+		return makeIsotropic(backend, input_image, calibration, finalVoxelSize);
 		
 	}
 	
-	public ClearCLBuffer makeIsotropic(CLIJ2 clij2, ClearCLBuffer input_image, float[] calibration, float finalVoxelSize) {
+	public ComputeBuffer makeIsotropic(ComputeBackend backend, ComputeBuffer input_image, float[] calibration, float finalVoxelSize) {
 		
-		ClearCLBuffer output_image = createOutputBufferFromSource(input_image, finalVoxelSize);
-		clij2.makeIsotropic(input_image, output_image, calibration[0], calibration[1], calibration[2], finalVoxelSize);
+		ComputeBuffer output_image = createOutputBufferFromSource(input_image, finalVoxelSize);
+		backend.makeIsotropic(input_image, output_image, calibration[0], calibration[1], calibration[2], finalVoxelSize);
 		
 		input_image.close();
 		
@@ -51,13 +47,13 @@ public class BV_MakeIsotropicVoxel {
 	
 	
 	
-	public ClearCLBuffer createOutputBufferFromSource(ClearCLBuffer input, float finalVoxelSize) {
+	public ComputeBuffer createOutputBufferFromSource(ComputeBuffer input, float finalVoxelSize) {
 
         float scale1X = (float) (calibration[0] / finalVoxelSize);
         float scale1Y = (float) (calibration[1] / finalVoxelSize);
         float scale1Z = (float) (calibration[2] / finalVoxelSize);
 
-        return clij2.create(
+        return backend.create(
                 (long) (input.getWidth() * scale1X),
                 (long) (input.getHeight() * scale1Y),
                 (long) (input.getDepth() * scale1Z));
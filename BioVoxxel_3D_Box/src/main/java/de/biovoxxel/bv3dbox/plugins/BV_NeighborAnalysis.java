@@ -6,6 +6,10 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
@@ -14,9 +18,6 @@ import ij.ImagePlus;
 import ij.WindowManager;
 import ij.gui.Plot;
 import ij.measure.ResultsTable;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 
 /*
@@ -59,8 +60,8 @@ public class BV_NeighborAnalysis {
 	private PrefService prefs = new DefaultPrefService();
 //	private Boolean displayDebugImages = prefs.getBoolean(BV3DBoxSettings.class, "bv_3d_box_settings_display_debug_images", false);
 	private Boolean displayDebugImages = false;
-	private CLIJ2 clij2;
-	private ClearCLBuffer connectedComponentLabels;
+	private ComputeBackend backend;
+	private ComputeBuffer connectedComponentLabels;
 	
 	
 	
@@ -68,12 +69,12 @@ public class BV_NeighborAnalysis {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		
-		this.clij2 = CLIJ2.getInstance();
+		this.backend = ComputeBackendFactory.openSession();
 		setupImage(inputImage);
 	}
 
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 	}
 	
 	
@@ -81,21 +82,18 @@ public class BV_NeighborAnalysis {
 		
 		if (inputImage.getProcessor().isBinary()) {
 			
-			ClearCLBuffer temp_input_image = clij2.push(inputImage);
-			connectedComponentLabels = clij2.create(temp_input_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingDiamond(temp_input_image, connectedComponentLabels);
-			temp_input_image.close();
+			connectedComponentLabels = BV3DBoxUtilities.labelBinaryImage(backend, inputImage, false);
 			
 		} else {
 			
-			connectedComponentLabels = clij2.push(inputImage);
+			connectedComponentLabels = LabelBuffers.push(backend, inputImage);
 			
 		}
 		connectedComponentLabels.setName(inputImage.getTitle());
 	}
 
 	
-	public ClearCLBuffer getConnectedComponentInput() {
+	public ComputeBuffer getConnectedComponentInput() {
 		return connectedComponentLabels;
 	}
 	
@@ -105,7 +103,7 @@ public class BV_NeighborAnalysis {
 	 * @param method - NeighborMethods enum type expected
 	 * @return ClearCLBuffer
 	 */
-	public ClearCLBuffer getNeighborCountMap(ClearCLBuffer input_image, String method, String sizeRange, String distanceRange, Boolean excludeFinalEdgeObjects) {
+	public ComputeBuffer getNeighborCountMap(ComputeBuffer input_image, String method, String sizeRange, String distanceRange, Boolean excludeFinalEdgeObjects) {
 		
 		log.debug("input_image = " + input_image);
 		log.debug("method = " + method);
@@ -116,50 +114,50 @@ public class BV_NeighborAnalysis {
 			
 			log.debug("Running size exclusion with range = " + sizeRange);
 			
-			ClearCLBuffer size_limited_label_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
+			ComputeBuffer size_limited_label_image = backend.create(input_image);
 			
-			clij2.copy(input_image, size_limited_label_image);
+			backend.copy(input_image, size_limited_label_image);
 			
 			double minSize = (double) BV3DBoxUtilities.getMinFromRange(sizeRange);
 			log.debug("minSize = " + minSize);
 			double maxSize = (double) BV3DBoxUtilities.getMaxFromRange(sizeRange);
 			log.debug("maxSize = " + maxSize);
 			
-			clij2.excludeLabelsOutsideSizeRange(size_limited_label_image, input_image, minSize, maxSize);
+			backend.excludeLabelsOutsideSizeRange(size_limited_label_image, input_image, minSize, maxSize);
 			
-			if(displayDebugImages) { BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, input_image, true, LutNames.GLASBEY_LUT, null); }
+			if(displayDebugImages) { BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, input_image, true, LutNames.GLASBEY_LUT, null); }
 			
 			size_limited_label_image.close();
 		} 
 		
 		
-		ClearCLBuffer voronoi_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);	
-		ClearCLBuffer neighbor_count_map = clij2.create(voronoi_image);
+		ComputeBuffer voronoi_image = backend.create(input_image);	
+		ComputeBuffer neighbor_count_map = backend.create(voronoi_image);
 		neighbor_count_map.setName("NCM_" + input_image.getName());
 		
-		clij2.extendLabelingViaVoronoi(input_image, voronoi_image);
+		backend.extendLabelingViaVoronoi(input_image, voronoi_image);
 		
-		if (displayDebugImages) { BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, voronoi_image, false, LutNames.GLASBEY_LUT, null); }
+		if (displayDebugImages) { BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, voronoi_image, false, LutNames.GLASBEY_LUT, null); }
 		
 		if (method.equals(NeighborMethods.OBJECTS.method)) {
 								
-			ClearCLBuffer touching_voronoi_neighbor_map = clij2.create(voronoi_image);
-			clij2.touchingNeighborCountMap(voronoi_image, touching_voronoi_neighbor_map);
+			ComputeBuffer touching_voronoi_neighbor_map = backend.create(voronoi_image);
+			backend.touchingNeighborCountMap(voronoi_image, touching_voronoi_neighbor_map);
 			
 			if (excludeFinalEdgeObjects) {
 				
-				ClearCLBuffer no_edge_voronoi_image = clij2.create(voronoi_image);
-				clij2.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi_image);
+				ComputeBuffer no_edge_voronoi_image = backend.create(voronoi_image);
+				backend.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi_image);
 				
-				ClearCLBuffer no_edge_voronoi_neighbor_map = clij2.create(voronoi_image);
-				clij2.mask(touching_voronoi_neighbor_map, no_edge_voronoi_image, no_edge_voronoi_neighbor_map);
+				ComputeBuffer no_edge_voronoi_neighbor_map = backend.create(voronoi_image);
+				backend.mask(touching_voronoi_neighbor_map, no_edge_voronoi_image, no_edge_voronoi_neighbor_map);
 				no_edge_voronoi_image.close();
 				
-				clij2.mask(no_edge_voronoi_neighbor_map, input_image, neighbor_count_map);
+				backend.mask(no_edge_voronoi_neighbor_map, input_image, neighbor_count_map);
 				
 			} else {
 				
-				clij2.mask(touching_voronoi_neighbor_map, input_image, neighbor_count_map);
+				backend.mask(touching_voronoi_neighbor_map, input_image, neighbor_count_map);
 				
 			}
 			
@@ -170,21 +168,21 @@ public class BV_NeighborAnalysis {
 			float minDistance = BV3DBoxUtilities.getMinFromRange(distanceRange);
 			float maxDistance = BV3DBoxUtilities.getMaxFromRange(distanceRange);
 			
-			ClearCLBuffer proximal_neighbor_map = clij2.create(voronoi_image);
-			clij2.proximalNeighborCountMap(input_image, proximal_neighbor_map, minDistance, maxDistance);
+			ComputeBuffer proximal_neighbor_map = backend.create(voronoi_image);
+			backend.proximalNeighborCountMap(input_image, proximal_neighbor_map, minDistance, maxDistance);
 			
 			if (excludeFinalEdgeObjects) {
 				
-				ClearCLBuffer no_edge_voronoi = clij2.create(voronoi_image);
-				clij2.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi);
-				clij2.mask(proximal_neighbor_map, no_edge_voronoi, neighbor_count_map);
+				ComputeBuffer no_edge_voronoi = backend.create(voronoi_image);
+				backend.excludeLabelsOnEdges(voronoi_image, no_edge_voronoi);
+				backend.mask(proximal_neighbor_map, no_edge_voronoi, neighbor_count_map);
 				
 				
 				no_edge_voronoi.close();
 				
 			} else {
 				
-				clij2.copy(proximal_neighbor_map, neighbor_count_map);
+				backend.copy(proximal_neighbor_map, neighbor_count_map);
 				
 			}
 			
@@ -214,16 +212,16 @@ public class BV_NeighborAnalysis {
 	}
 	
 	
-	public double[] getNeighborCounts(ClearCLBuffer neighbor_count_map) {
+	public double[] getNeighborCounts(ComputeBuffer neighbor_count_map) {
 		
 		ResultsTable table = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(neighbor_count_map, connectedComponentLabels, table);
+		backend.statisticsOfLabelledPixels(neighbor_count_map, connectedComponentLabels, table);
 		
 		return table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.value);
 
 	}
 	
-	public Plot getNeighborPlotFromCountMap(ClearCLBuffer neighbor_count_map) {
+	public Plot getNeighborPlotFromCountMap(ComputeBuffer neighbor_count_map) {
 		
 		return getNeighborPlotFromHistogram(getNeighborCounts(neighbor_count_map));
 	
@@ -240,9 +238,9 @@ public class BV_NeighborAnalysis {
 	}
 	
 	
-	public Plot getNeighborDistribution(ClearCLBuffer neighbor_count_map) {
+	public Plot getNeighborDistribution(ComputeBuffer neighbor_count_map) {
 		
-		int maxNeighborCount = (int) clij2.getMaximumOfAllPixels(neighbor_count_map);
+		int maxNeighborCount = (int) backend.maximumOfAllPixels(neighbor_count_map);
 		log.debug("maxNeighborCount = " + maxNeighborCount);
 		double[] distribution = new double[maxNeighborCount + 1];
 		
@@ -286,23 +284,27 @@ public class BV_NeighborAnalysis {
 		
 		BV_NeighborAnalysis neighborAnalysis = new BV_NeighborAnalysis(inputImagePlus);
 		
-		ClearCLBuffer neighbor_image = neighborAnalysis.getNeighborCountMap(neighborAnalysis.getConnectedComponentInput(), "objects", "200-infinity", "1-infinity", false);
+		try {
+			ComputeBuffer neighbor_image = neighborAnalysis.getNeighborCountMap(neighborAnalysis.getConnectedComponentInput(), "objects", "200-infinity", "1-infinity", false);
 		
-		ImagePlus neighborCountMapImp = BV3DBoxUtilities.pullImageFromGPU(neighborAnalysis.getCurrentCLIJ2Instance(), neighbor_image, false, LutNames.GEEN_FIRE_BLUE_LUT);
-		neighborCountMapImp.setTitle(WindowManager.getUniqueName("NeighborCount_" + inputImagePlus.getTitle()));
-		neighborCountMapImp.setCalibration(inputImagePlus.getCalibration());
-		neighborCountMapImp.show();
+			ImagePlus neighborCountMapImp = BV3DBoxUtilities.pullImageFromGPU(neighborAnalysis.getCurrentBackend(), neighbor_image, false, LutNames.GEEN_FIRE_BLUE_LUT);
+			neighborCountMapImp.setTitle(WindowManager.getUniqueName("NeighborCount_" + inputImagePlus.getTitle()));
+			neighborCountMapImp.setCalibration(inputImagePlus.getCalibration());
+			neighborCountMapImp.show();
 		
-		if (plotNeighborCount) {
-			Plot plot = neighborAnalysis.getNeighborPlotFromCountMap(neighbor_image);
-			plot.setStyle(0, "blue,#a0a0ff,0");
-			plot.show();
-		}
+			if (plotNeighborCount) {
+				Plot plot = neighborAnalysis.getNeighborPlotFromCountMap(neighbor_image);
+				plot.setStyle(0, "blue,#a0a0ff,0");
+				plot.show();
+			}
 		
-		if (plotNeighborDistribution) {
-			Plot plot = neighborAnalysis.getNeighborDistribution(neighbor_image);
-			plot.setStyle(0, "blue,#a0a0ff,0");
-			plot.show();
+			if (plotNeighborDistribution) {
+				Plot plot = neighborAnalysis.getNeighborDistribution(neighbor_image);
+				plot.setStyle(0, "blue,#a0a0ff,0");
+				plot.show();
+			}
+		} finally {
+			neighborAnalysis.getCurrentBackend().close();
 		}
 		
 	}
@@ -1,5 +1,7 @@
 package de.biovoxxel.bv3dbox.plugins;
 
+import java.util.EnumSet;
+
 import javax.swing.JOptionPane;
 
 import org.scijava.Cancelable;
@@ -9,20 +11,24 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine;
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine.Group;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable.ColumnType;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
-import ij.macro.Variable;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import ij.process.ImageProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 
 /*
@@ -75,6 +81,10 @@ public class BV_ObjectInspector implements Cancelable {
 	private ImagePlus secondary_ImagePlus;
 	private String original_1_title;
 	private String original_2_title;
+	private ImagePlus original_1_ImagePlus;
+	private ImagePlus original_2_ImagePlus;
+	private ComputeBuffer primary_label_buffer;
+	private ComputeBuffer secondary_label_buffer;
 	private String primary_volume_range = "0-Infinity";
 	private String primary_MMER_range = "0.00-1.00";
 	private String secondary_volume_range = "0-Infinity";
@@ -84,19 +94,26 @@ public class BV_ObjectInspector implements Cancelable {
 	private Boolean display_results_tables = true;
 	private Boolean display_analyzed_label_maps = false;
 	private Boolean show_count_map = false;
+	private Boolean measure_intensity = true;
+	private Boolean measure_shape = true;
+	private Boolean measure_overlap = true;
+	private Boolean measure_distances = true;
+	private volatile String cancelReason = null;
 	
-	CLIJ2 clij2;
+	ComputeBackend backend;
 	
-	ClearCLBuffer labels_1_gpu = null;
-	ClearCLBuffer labels_2_gpu = null;
-	ClearCLBuffer original_1_gpu = null;
-	ClearCLBuffer original_2_gpu = null;
+	ComputeBuffer labels_1_gpu = null;
+	ComputeBuffer labels_2_gpu = null;
+	ComputeBuffer original_1_gpu = null;
+	ComputeBuffer original_2_gpu = null;
 	
 	String PRIMARY_RESULTS_TABLE_NAME = "Primary_Results";
 	String SECONDARY_RESULTS_TABLE_NAME = "Secondary_Results";
+	String OVERLAP_RESULTS_TABLE_NAME = "Overlap_Results";
 	
-	ResultsTable final_primary_results_table = new ResultsTable();
-	ResultsTable final_secondary_results_table = new ResultsTable();
+	ColumnarResultsTable final_primary_results_table = new ColumnarResultsTable();
+	ColumnarResultsTable final_secondary_results_table = new ColumnarResultsTable();
+	ColumnarResultsTable final_overlap_results_table = new ColumnarResultsTable();
 	
 	String GLASBEY_LUT = "glasbey_on_dark";
 	String GEEN_FIRE_BLUE_LUT = "Green Fire Blue";
@@ -113,6 +130,22 @@ public class BV_ObjectInspector implements Cancelable {
 		this.secondary_ImagePlus = secondary_ImagePlus;
 	}
 	
+	/**
+	 * Inspection of label images which are already on the backend, e.g. from {@link BV_PostProcessor#postProcessor(String, int)}.
+	 * The label images are copied on the backend and neither changed nor closed, the backend is not cleared.
+	 * The calibration is taken from the first original image if set, the names of the buffers are used as titles.
+	 * 
+	 * @param backend	the backend holding both label images
+	 * @param primary_label_buffer
+	 * @param secondary_label_buffer
+	 */
+	public BV_ObjectInspector(ComputeBackend backend, ComputeBuffer primary_label_buffer, ComputeBuffer secondary_label_buffer) {
+		
+		this.backend = backend;
+		this.primary_label_buffer = primary_label_buffer;
+		this.secondary_label_buffer = secondary_label_buffer;
+	}
+	
 	/**
 	 * Original images (one or both, can also be the same) need to be set if the analysis should also read out pixel intensity-based data. 
 	 *  
@@ -124,6 +157,19 @@ public class BV_ObjectInspector implements Cancelable {
 		this.original_2_title = original_2_title;
 	}
 	
+	/**
+	 * Same as {@link #setOriginalImages(String, String)} for images which are not displayed, e.g. in batch processing
+	 * 
+	 * @param original_1_ImagePlus	can be null
+	 * @param original_2_ImagePlus	can be null
+	 */
+	public void setOriginalImages(ImagePlus original_1_ImagePlus, ImagePlus original_2_ImagePlus) {
+		this.original_1_ImagePlus = original_1_ImagePlus;
+		this.original_2_ImagePlus = original_2_ImagePlus;
+		this.original_1_title = original_1_ImagePlus != null ? original_1_ImagePlus.getTitle() : null;
+		this.original_2_title = original_2_ImagePlus != null ? original_2_ImagePlus.getTitle() : null;
+	}
+	
 	/**
 	 * Exclusion size for primary object labels
 	 * 
@@ -201,13 +247,56 @@ public class BV_ObjectInspector implements Cancelable {
 		this.show_count_map = show_count_map;
 	}
 	
+	/**
+	 * Defines which measurements will be calculated and added to the results tables.
+	 * Volume, pixel count and the extension ratios used for label exclusion are always measured.
+	 * 
+	 * @param measure_intensity	intensity statistics and mass centers (needs original images)
+	 * @param measure_shape	centroids, distances to centroid and bounding boxes
+	 * @param measure_overlap	secondary object count, area fraction and primary label of secondary objects
+	 * @param measure_distances	distances of secondary objects to the border and center of the primary objects
+	 */
+	public void setMeasurementGroups(boolean measure_intensity, boolean measure_shape, boolean measure_overlap, boolean measure_distances) {
+		this.measure_intensity = measure_intensity;
+		this.measure_shape = measure_shape;
+		this.measure_overlap = measure_overlap;
+		this.measure_distances = measure_distances;
+	}
+	
+	private EnumSet<Group> getMeasurementGroups() {
+		EnumSet<Group> groups = EnumSet.noneOf(Group.class);
+		if (measure_intensity) { groups.add(Group.INTENSITY); }
+		if (measure_shape) { groups.add(Group.SHAPE); }
+		if (measure_overlap) { groups.add(Group.OVERLAP); }
+		if (measure_distances) { groups.add(Group.DISTANCES); }
+		return groups;
+	}
+	
 		
 	public void inspect() {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		cancelReason = null;
+		
+		boolean chained = primary_label_buffer != null;
+		if (!chained) {
+			backend = ComputeBackendFactory.openSession();
+		}
+		
+		try {
+			inspect(chained);
+		} finally {
+			if (chained) {
+				closeOriginalBuffers();
+			} else {
+				backend.close();
+			}
+		}
+	}
+	
+	
+	private void inspect(boolean chained) {
 		
 		log.debug("------------------------------------------------------");
 		log.debug("labels_1_ImagePlus = " + primary_ImagePlus);
@@ -223,40 +312,43 @@ public class BV_ObjectInspector implements Cancelable {
 		log.debug("display_results_tables = " + display_results_tables);
 		log.debug("display_analyzed_label_maps = " + display_analyzed_label_maps);
 		log.debug("show_count_map = " + show_count_map);
+		log.debug("measurement groups = " + getMeasurementGroups());
 		log.debug("------------------------------------------------------");
 		
-		
-		clij2.clear();
 
-		if (primary_ImagePlus == secondary_ImagePlus) {
+		if (chained ? primary_label_buffer == secondary_label_buffer : primary_ImagePlus == secondary_ImagePlus) {
 			cancel("Primary and secondary label image need to be different");
 			return;
 		}
 		
-		if (primary_ImagePlus.getNDimensions() > 3 || secondary_ImagePlus.getNDimensions() > 3) {
+		if (!chained && (primary_ImagePlus.getNDimensions() > 3 || secondary_ImagePlus.getNDimensions() > 3)) {
 			cancel("Does not work on hyperstacks");
+			return;
 		}
 		
-		int[] dimensions_label_image_1 = primary_ImagePlus.getDimensions();
-		int[] dimensions_label_image_2 = secondary_ImagePlus.getDimensions();
+		int[] dimensions_label_image_1 = chained ? getImageDimensions(primary_label_buffer) : primary_ImagePlus.getDimensions();
+		int[] dimensions_label_image_2 = chained ? getImageDimensions(secondary_label_buffer) : secondary_ImagePlus.getDimensions();
 		
 		for (int dim = 0; dim < dimensions_label_image_1.length; dim++) {
 			if (dimensions_label_image_1[dim] != dimensions_label_image_2[dim]) {
 				cancel("Image dimensions between primary and secondary image do not match");
+				return;
 			}
 		}
 		
-		if (primary_ImagePlus.getNDimensions() > 3 || secondary_ImagePlus.getNDimensions() > 3) {
+		if (!chained && (primary_ImagePlus.getNDimensions() > 3 || secondary_ImagePlus.getNDimensions() > 3)) {
 			cancel("Does not work on hyperstacks");
+			return;
 		}
 		
-		ImagePlus original_1_ImagePlus = WindowManager.getImage(original_1_title);
-		ImagePlus original_2_ImagePlus = WindowManager.getImage(original_2_title);
+		ImagePlus original_1_ImagePlus = this.original_1_ImagePlus != null ? this.original_1_ImagePlus : WindowManager.getImage(original_1_title);
+		ImagePlus original_2_ImagePlus = this.original_2_ImagePlus != null ? this.original_2_ImagePlus : WindowManager.getImage(original_2_title);
 
 		if (original_1_ImagePlus != null) {
 			
 			if (original_1_ImagePlus.getNDimensions() > 3) {
 				cancel("Does not work on hyperstacks");
+				return;
 			}
 			
 			int[] dimensions_original_1 = original_1_ImagePlus.getDimensions();
@@ -264,6 +356,7 @@ public class BV_ObjectInspector implements Cancelable {
 			for (int dim = 0; dim < dimensions_label_image_1.length; dim++) {
 				if (dimensions_original_1[dim] != dimensions_label_image_1[dim]) {
 					cancel("Image dimensions of " + original_1_ImagePlus.getTitle() + " do not match");
+					return;
 				}
 			}
 			
@@ -273,6 +366,7 @@ public class BV_ObjectInspector implements Cancelable {
 			
 			if (original_2_ImagePlus.getNDimensions() > 3) {
 				cancel("Does not work on hyperstacks");
+				return;
 			}
 			
 			int[] dimensions_original_2 = original_2_ImagePlus.getDimensions();
@@ -280,13 +374,22 @@ public class BV_ObjectInspector implements Cancelable {
 			for (int dim = 0; dim < dimensions_label_image_1.length; dim++) {
 				if (dimensions_original_2[dim] != dimensions_label_image_1[dim]) {
 					cancel("Image dimensions of " + original_2_ImagePlus.getTitle() + " do not match");
+					return;
 				}
 			}
 			
 		}
 		
 		
-		Calibration voxel_calibration = primary_ImagePlus.getCalibration();
+		String primary_title = chained ? primary_label_buffer.getName() : primary_ImagePlus.getTitle();
+		String secondary_title = chained ? secondary_label_buffer.getName() : secondary_ImagePlus.getTitle();
+		
+		Calibration voxel_calibration;
+		if (chained) {
+			voxel_calibration = original_1_ImagePlus != null ? original_1_ImagePlus.getCalibration() : new Calibration();
+		} else {
+			voxel_calibration = primary_ImagePlus.getCalibration();
+		}
 		String calibrated_units = voxel_calibration.getUnit();
 		if (!calibrated_units.matches(".*ixel.*") && !calibrated_units.matches(".*oxel.*") && original_1_ImagePlus != null) {
 			voxel_calibration = original_1_ImagePlus.getCalibration();
@@ -299,66 +402,70 @@ public class BV_ObjectInspector implements Cancelable {
 		double voxel_volume = voxel_width * voxel_height * voxel_depth;
 		
 	
-		if (exclude_primary_objects_on_edges && pad_stack_tops) {
+		if (!chained && exclude_primary_objects_on_edges && pad_stack_tops) {
 			padStackLids(primary_ImagePlus);
 		}
 		
 		
 		
 		
-		if (primary_ImagePlus.getProcessor().isBinary()) {
+		if (chained) {
+			
+			labels_1_gpu = copyLabelBuffer(primary_label_buffer, exclude_primary_objects_on_edges && pad_stack_tops);
+			
+		} else if (primary_ImagePlus.getProcessor().isBinary()) {
 			
 			log.debug("Start convert " + primary_ImagePlus.getTitle() + " to connected components");
-			ClearCLBuffer binaryInput_1 = clij2.push(primary_ImagePlus);
-			labels_1_gpu = clij2.create(binaryInput_1.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingBox(binaryInput_1, labels_1_gpu);
-			binaryInput_1.close();
+			labels_1_gpu = BV3DBoxUtilities.labelBinaryImage(backend, primary_ImagePlus, true);
 			log.debug("End convert " + primary_ImagePlus.getTitle() + " to connected components");
 			
 		} else if (primary_ImagePlus.getBitDepth() != 24) {
 			
-			labels_1_gpu = clij2.push(primary_ImagePlus);
+			labels_1_gpu = LabelBuffers.push(backend, primary_ImagePlus);
 			log.debug("Pushed to GPU = " + labels_1_gpu);
 			
 		} else {
 			
 			JOptionPane.showMessageDialog(null, "Wrong input image format\nNeeds to be of type gray-scale label mask or 8-bit binary", "Wrong image type", JOptionPane.WARNING_MESSAGE);
+			cancel("Wrong input image format");
 			return;
 			
 		}
-		labels_1_gpu.setName("gpu_" + primary_ImagePlus.getTitle());
+		labels_1_gpu.setName("gpu_" + primary_title);
 		
 		
 		
 				
-		if (secondary_ImagePlus.getProcessor().isBinary()) {
+		if (chained) {
+			
+			labels_2_gpu = copyLabelBuffer(secondary_label_buffer, false);
+			
+		} else if (secondary_ImagePlus.getProcessor().isBinary()) {
 			
 			log.debug("Start convert " + secondary_ImagePlus.getTitle() + " to connected components");
-			ClearCLBuffer binaryInput_2 = clij2.push(secondary_ImagePlus);
-			labels_2_gpu = clij2.create(binaryInput_2.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingBox(binaryInput_2, labels_2_gpu);
-			binaryInput_2.close();
+			labels_2_gpu = BV3DBoxUtilities.labelBinaryImage(backend, secondary_ImagePlus, true);
 			log.debug("End convert " + secondary_ImagePlus.getTitle() + " to connected components");
 			
 		} else if (secondary_ImagePlus.getBitDepth() != 24) {
 			
-			labels_2_gpu = clij2.push(secondary_ImagePlus);
+			labels_2_gpu = LabelBuffers.push(backend, secondary_ImagePlus);
 			log.debug("Pushed to GPU = " + labels_2_gpu);
 			
 		} else {
 			
 			JOptionPane.showMessageDialog(null, "Wrong input image format\nNeeds to be of type gray-scale label mask or 8-bit binary", "Wrong image type", JOptionPane.WARNING_MESSAGE);
+			cancel("Wrong input image format");
 			return;
 			
 		}
 		
-		labels_2_gpu.setName("gpu_" + secondary_ImagePlus.getTitle());
+		labels_2_gpu.setName("gpu_" + secondary_title);
 		
 		
 		
 		
 		if (original_1_ImagePlus != null) {
-			original_1_gpu = clij2.push(original_1_ImagePlus);
+			original_1_gpu = backend.push(original_1_ImagePlus);
 			original_1_gpu.setName("gpu_" + original_1_ImagePlus.getTitle());
 			
 			log.debug("Pushed to GPU = " + original_1_ImagePlus);
@@ -366,8 +473,10 @@ public class BV_ObjectInspector implements Cancelable {
 	
 		
 		
-		if (original_2_ImagePlus != null) {
-			original_2_gpu = clij2.push(original_2_ImagePlus);
+		if (original_2_ImagePlus != null && original_2_ImagePlus == original_1_ImagePlus) {
+			original_2_gpu = original_1_gpu;
+		} else if (original_2_ImagePlus != null) {
+			original_2_gpu = backend.push(original_2_ImagePlus);
 			original_2_gpu.setName("gpu_" + original_2_ImagePlus.getTitle());
 			
 			log.debug("Pushed to GPU = " + original_2_ImagePlus);
@@ -376,25 +485,25 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		if (exclude_primary_objects_on_edges) {
 						
-			ClearCLBuffer temp_input_to_exclude_edge_objects = clij2.create(labels_1_gpu);
-			clij2.copy(labels_1_gpu, temp_input_to_exclude_edge_objects);
+			ComputeBuffer temp_input_to_exclude_edge_objects = backend.create(labels_1_gpu);
+			backend.copy(labels_1_gpu, temp_input_to_exclude_edge_objects);
 			
 			if (pad_stack_tops) {
-				ClearCLBuffer temp_output_to_exclude_edge_objects = clij2.create(labels_1_gpu);
+				ComputeBuffer temp_output_to_exclude_edge_objects = backend.create(labels_1_gpu);
 				labels_1_gpu.close();
 				
 				long width = temp_input_to_exclude_edge_objects.getWidth();
 				long height = temp_input_to_exclude_edge_objects.getHeight();
 				long depth = temp_input_to_exclude_edge_objects.getDepth() - 2;
 				
-				clij2.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, temp_output_to_exclude_edge_objects);
+				backend.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, temp_output_to_exclude_edge_objects);
 				
-				labels_1_gpu = clij2.create(width, height, depth);
+				labels_1_gpu = backend.create(new long[] {width, height, depth}, temp_output_to_exclude_edge_objects.getType());
 				removePaddedSlices(temp_output_to_exclude_edge_objects, labels_1_gpu);
 				temp_output_to_exclude_edge_objects.close();
 				
 			} else {
-				clij2.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, labels_1_gpu);
+				backend.excludeLabelsOnEdges(temp_input_to_exclude_edge_objects, labels_1_gpu);
 			}
 			
 			temp_input_to_exclude_edge_objects.close();
@@ -404,11 +513,11 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		//exclude primary labels according to input limiters
-		ClearCLBuffer finalLabels_1 = clij2.create(labels_1_gpu);
-		finalLabels_1.setName("final_" + primary_ImagePlus.getTitle());
+		ComputeBuffer finalLabels_1 = backend.create(labels_1_gpu);
+		finalLabels_1.setName("final_" + primary_title);
 		
 		
-		ResultsTable final_edge_analysis_table_1 = new ResultsTable();
+		ColumnarResultsTable final_edge_analysis_table_1 = new ColumnarResultsTable();
 		
 		//TODO: test if min_max- or mean_max
 		labelExclusion(labels_1_gpu, primary_volume_range, primary_MMER_range, final_edge_analysis_table_1, finalLabels_1);
@@ -418,14 +527,14 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		//Masking secondary labels with primary labels
-		ClearCLBuffer tempMaskedLabels_2 = clij2.create(labels_2_gpu);
-		log.debug("Secondary label number before masking = " + clij2.maximumOfAllPixels(labels_2_gpu));
+		ComputeBuffer tempMaskedLabels_2 = backend.create(labels_2_gpu);
+		log.debug("Secondary label number before masking = " + backend.maximumOfAllPixels(labels_2_gpu));
 		
-		ClearCLBuffer maskedLabels_2 = clij2.create(labels_2_gpu);
+		ComputeBuffer maskedLabels_2 = backend.create(labels_2_gpu);
 		maskedLabels_2.setName("masked_" + labels_2_gpu.getName());
 		
-		clij2.mask(labels_2_gpu, finalLabels_1, tempMaskedLabels_2);
-		clij2.closeIndexGapsInLabelMap(tempMaskedLabels_2, maskedLabels_2);
+		backend.mask(labels_2_gpu, finalLabels_1, tempMaskedLabels_2);
+		backend.closeIndexGapsInLabelMap(tempMaskedLabels_2, maskedLabels_2);
 		
 		tempMaskedLabels_2.close();
 		labels_2_gpu.close();
@@ -435,133 +544,158 @@ public class BV_ObjectInspector implements Cancelable {
 		
 		
 		//exclude secondary labels according to input limiters
-		ClearCLBuffer finalLabels_2 = clij2.create(maskedLabels_2);
-		finalLabels_2.setName("final_" + secondary_ImagePlus.getTitle());
+		ComputeBuffer finalLabels_2 = backend.create(maskedLabels_2);
+		finalLabels_2.setName("final_" + secondary_title);
 		
-		ResultsTable final_edge_analysis_table_2 = new ResultsTable();
+		ColumnarResultsTable final_edge_analysis_table_2 = new ColumnarResultsTable();
 		
 		//TODO: test if min_max- or mean_max
 		labelExclusion(maskedLabels_2, secondary_volume_range, secondary_MMER_range, final_edge_analysis_table_2, finalLabels_2);
 
 		maskedLabels_2.close();
 				
-		//create overlap count mask		
-		ClearCLBuffer overlapCountMap = clij2.create(finalLabels_1);
-		overlapCountMap.setName("CountMap_" + primary_ImagePlus.getTitle());
-		boolean label_overlap_count_map_created = clij2.labelOverlapCountMap(finalLabels_1, finalLabels_2, overlapCountMap);
-		log.debug("LabelOverlapCountMap finished = " + label_overlap_count_map_created);
-				
-		ResultsTable primary_original_measurements_table = new ResultsTable();
+		//create overlap count mask for display, the counts are measured together with all other values
+		if (show_count_map) {
+			ComputeBuffer overlapCountMap = backend.create(finalLabels_1);
+			overlapCountMap.setName("CountMap_" + primary_title);
+			boolean label_overlap_count_map_created = backend.labelOverlapCountMap(finalLabels_1, finalLabels_2, overlapCountMap);
+			log.debug("LabelOverlapCountMap finished = " + label_overlap_count_map_created);
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, overlapCountMap, true, LutNames.GEEN_FIRE_BLUE_LUT, voxel_calibration);	//test output			
+			overlapCountMap.close();
+		}
 		
-						
-		if (original_1_gpu == null) {
-			
-			clij2.statisticsOfLabelledPixels(finalLabels_1, finalLabels_1, primary_original_measurements_table);
-	
-		} else {
-			
-			clij2.statisticsOfLabelledPixels(original_1_gpu, finalLabels_1, primary_original_measurements_table);
-
+		ComputeBuffer border_distance_map = null;
+		if (measure_distances) {
+			border_distance_map = backend.create(finalLabels_1);
+			border_distance_map.setName("border_dist_" + finalLabels_1.getName());
+			backend.distanceMap(finalLabels_1, border_distance_map, 1.0, voxel_height / voxel_width, voxel_depth / voxel_width);
+			log.debug("MaximumExtensionMap created");
 		}
 		
-//		read primary identifier add to final table
-		Variable[] primary_label_identifier = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name());
-		final_primary_results_table.setColumn("PRIM_OBJ_ID", primary_label_identifier);
+		//measure primary and secondary labels with all maps in one pass
+		LabelMeasurementEngine measurementEngine = new LabelMeasurementEngine(backend, getMeasurementGroups());
+		measurementEngine.setPrimary(finalLabels_1, original_1_gpu);
+		measurementEngine.setSecondary(finalLabels_2, original_2_gpu);
+		measurementEngine.setBorderDistanceMap(border_distance_map);
 		
+		ColumnarResultsTable primary_original_measurements_table = new ColumnarResultsTable();
+		ColumnarResultsTable secondary_original_measurements_table = new ColumnarResultsTable();
+		measurementEngine.measure(primary_original_measurements_table, secondary_original_measurements_table);
+		log.debug("Primary and secondary labels measured");
 		
-//		get secondary object count and display count map if desired
-		ResultsTable overlapCountTable = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(overlapCountMap, finalLabels_1, overlapCountTable);
-		Variable[] secondaryObjectCountArray = overlapCountTable.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name());
-//		secondaryObjectCountArray[0] = new Variable("Background");
-		final_primary_results_table.setColumn("SEC_OBJECT_COUNT", secondaryObjectCountArray);
+		if (border_distance_map != null) {
+			border_distance_map.close();
+		}
 		
-		if (show_count_map) {
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, overlapCountMap, true, LutNames.GEEN_FIRE_BLUE_LUT, voxel_calibration);	//test output			
+		if (display_analyzed_label_maps) {
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, finalLabels_1, true, LutNames.GLASBEY_LUT, voxel_calibration);
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, finalLabels_2, true, LutNames.GLASBEY_LUT, voxel_calibration);
+		}
+		finalLabels_1.close();
+		finalLabels_2.close();
+		
+		
+		final_primary_results_table = new ColumnarResultsTable(primary_original_measurements_table.size());
+		final_secondary_results_table = new ColumnarResultsTable(secondary_original_measurements_table.size());
+		final_overlap_results_table = new ColumnarResultsTable();
+		
+//		read primary identifier add to final table
+		final_primary_results_table.setColumn("PRIM_OBJ_ID", primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name());
+		
+		
+//		get secondary object count and the overlap volume of each primary and secondary object pair
+		if (measure_overlap) {
+			final_primary_results_table.setColumn("SEC_OBJECT_COUNT", primary_original_measurements_table, LabelMeasurementEngine.OVERLAP_COUNT);
+			
+			final String overlap_volume_column = "OVERLAP_VOLUME ("+calibrated_units+"^3)";
+			final_overlap_results_table.addColumn("PRIMARY_LABEL", ColumnType.INT);
+			final_overlap_results_table.addColumn("SECONDARY_LABEL", ColumnType.INT);
+			final_overlap_results_table.addColumn(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT, ColumnType.LONG);
+			final_overlap_results_table.addColumn(overlap_volume_column, ColumnType.DOUBLE);
+			measurementEngine.getOverlaps().forEach((primary_label, secondary_label, overlap_pixel_count) -> {
+				int row = final_overlap_results_table.addRow();
+				final_overlap_results_table.setValue("PRIMARY_LABEL", row, primary_label);
+				final_overlap_results_table.setValue("SECONDARY_LABEL", row, secondary_label);
+				final_overlap_results_table.setValue(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT, row, overlap_pixel_count);
+				final_overlap_results_table.setValue(overlap_volume_column, row, overlap_pixel_count * voxel_volume);
+			});
 		}
-		overlapCountMap.close();
 				
 		//Calculate primary scaled volumes
-		double[] primary_volume_in_pixels = primary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
+		double[] primary_volume_in_pixels = primary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
 		
-		Variable[] primary_volume_in_units = new Variable[primary_volume_in_pixels.length];
+		double[] primary_volume_in_units = new double[primary_volume_in_pixels.length];
 		for (int cal = 0; cal < primary_volume_in_pixels.length; cal++) {
-			primary_volume_in_units[cal] = new Variable(primary_volume_in_pixels[cal] * voxel_volume);
+			primary_volume_in_units[cal] = primary_volume_in_pixels[cal] * voxel_volume;
 		}
 		final_primary_results_table.setColumn("VOLUME ("+calibrated_units+"^3)", primary_volume_in_units);
 		
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name()));
-		
-		if (original_1_gpu != null) {
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name()));
-			
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name()));
-			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name()));
+		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
+		
+		if (original_1_gpu != null && measure_intensity) {
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name());
+			
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name());
 					
 		} else {
 			//skip intensity based measurements if original input image not available
 		}
 		
-		//create binary secondary labels to calculate %area
-		ClearCLBuffer binary_finalLabels_2 = clij2.create(finalLabels_1);
-		clij2.binaryAnd(finalLabels_1, finalLabels_2, binary_finalLabels_2);
-		
-		ResultsTable area_fraction_table = new ResultsTable();
-		
-		clij2.statisticsOfLabelledPixels(binary_finalLabels_2, finalLabels_1, area_fraction_table);
-		
-		Variable[] sum_int = area_fraction_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name());
-		Variable[] pixel_count = area_fraction_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
-		
-		System.out.println("size=" + sum_int.length);
-		
-		Variable[] area_fraction = new Variable[sum_int.length];
-		for (int af = 0; af < sum_int.length; af++) {
-			
-			area_fraction[af] = new Variable( (100 / pixel_count[af].getValue()) * sum_int[af].getValue() );
+		//%area of secondary labels within primary labels
+		if (measure_overlap) {
+			double[] overlap_pixel_count = primary_original_measurements_table.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT);
 			
+			double[] area_fraction = new double[overlap_pixel_count.length];
+			for (int af = 0; af < overlap_pixel_count.length; af++) {
+				
+				area_fraction[af] = (100 / primary_volume_in_pixels[af]) * overlap_pixel_count[af];
+				
+			}
+			final_primary_results_table.setColumn("AREA_FRACTION_%", area_fraction);
 		}
-		final_primary_results_table.setColumn("AREA_FRACTION_%", area_fraction);
-		binary_finalLabels_2.close();
-		area_fraction_table = null;
 		
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name()));
+		if (measure_shape) {
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name());
+		}
 		
 		//final_edge_analysis_table_1.show("final_edge_analysis_table_1");
 	
-		final_primary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1.getColumnAsVariables("MIN_MAX_EXTENSION_RATIO"));
-		final_primary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1.getColumnAsVariables("MEAN_MAX_EXTENSION_RATIO"));
-		final_primary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("MIN_EXTENSION"));
-		final_primary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("MAX_EXTENSION"));
-		final_primary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("MEAN_EXTENSION"));
-		final_primary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_1.getColumnAsVariables("STD_DEV_EXTENSION"));
-		
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name()));
-		final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name()));
-		
-		
-		Variable[] primary_bounding_box_width = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
-		Variable[] primary_bounding_box_height = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
-		Variable[] primary_bounding_box_depth = primary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
-		Variable[] primary_bounding_box_extent = new Variable[primary_bounding_box_width.length];
-		for (int e = 0; e < primary_bounding_box_extent.length; e++) {
-			primary_bounding_box_extent[e] = new Variable( (primary_volume_in_pixels[e] / (primary_bounding_box_width[e].getValue() * primary_bounding_box_height[e].getValue() * primary_bounding_box_depth[e].getValue())) );
+		final_primary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1, "MIN_MAX_EXTENSION_RATIO");
+		final_primary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_1, "MEAN_MAX_EXTENSION_RATIO");
+		final_primary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_1, "MIN_EXTENSION");
+		final_primary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_1, "MAX_EXTENSION");
+		final_primary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_1, "MEAN_EXTENSION");
+		final_primary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_1, "STD_DEV_EXTENSION");
+		
+		if (measure_shape) {
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
+			final_primary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), primary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
+			
+			
+			double[] primary_bounding_box_width = primary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
+			double[] primary_bounding_box_height = primary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
+			double[] primary_bounding_box_depth = primary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
+			double[] primary_bounding_box_extent = new double[primary_bounding_box_width.length];
+			for (int e = 0; e < primary_bounding_box_extent.length; e++) {
+				primary_bounding_box_extent[e] = primary_volume_in_pixels[e] / (primary_bounding_box_width[e] * primary_bounding_box_height[e] * primary_bounding_box_depth[e]);
+			}
+			final_primary_results_table.setColumn("BOUNDING_BOX_EXTENT", primary_bounding_box_extent);
 		}
-		final_primary_results_table.setColumn("BOUNDING_BOX_EXTENT", primary_bounding_box_extent);
 		
 		primary_original_measurements_table = null;
 
@@ -573,86 +707,37 @@ public class BV_ObjectInspector implements Cancelable {
 //		log.info("volume_fraction_of_primary_objects = " + volume_fraction_of_primary_objects);
 	
 		
-		//calculate secondary distances
-		ClearCLBuffer center_distance_map = clij2.create(finalLabels_1);
-		center_distance_map.setName("centroid_dist_" + finalLabels_1.getName());
-		clij2.euclideanDistanceFromLabelCentroidMap(finalLabels_1, center_distance_map);
-		log.debug("EuclideanDistanceFromLabelCentroidMap created");
-		
-		ClearCLBuffer border_distance_map = clij2.create(finalLabels_1);
-		border_distance_map.setName("border_dist_" + finalLabels_1.getName());
-		clij2.distanceMap(finalLabels_1, border_distance_map);
-		log.debug("MaximumExtensionMap created");
-
-		
-		double max_primary_label_count = clij2.maximumOfAllPixels(finalLabels_1);
-		log.debug("max_primary_label_count = " + max_primary_label_count);
-		
-		ResultsTable secondary_original_measurements_table = new ResultsTable();
-		ResultsTable center_distance_table = new ResultsTable();
-		ResultsTable border_distance_table = new ResultsTable();
-		
-		ResultsTable primary_label_origin_of_secondary_label_table = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(finalLabels_1, finalLabels_2, primary_label_origin_of_secondary_label_table);
-					
-		if (original_2_gpu == null) {
-			
-			clij2.statisticsOfLabelledPixels(finalLabels_2, finalLabels_2, secondary_original_measurements_table);
-			
-		} else {
-			
-			clij2.statisticsOfLabelledPixels(original_2_gpu, finalLabels_2, secondary_original_measurements_table);
-			
-		}
-		clij2.statisticsOfLabelledPixels(center_distance_map, finalLabels_2, center_distance_table);
-		center_distance_map.close();
-		clij2.statisticsOfLabelledPixels(border_distance_map, finalLabels_2, border_distance_table);
-		border_distance_map.close();
-		
-		
-		if (display_analyzed_label_maps) {
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, finalLabels_1, true, LutNames.GLASBEY_LUT, voxel_calibration);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, finalLabels_2, true, LutNames.GLASBEY_LUT, voxel_calibration);
-		}
-		finalLabels_1.close();
-		finalLabels_2.close();
-		
-		
-		if (primary_label_origin_of_secondary_label_table.size() > 0) {
-			
-			Variable[] primary_label_origin_of_secondary_label = primary_label_origin_of_secondary_label_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name());
-			//primary_label_origin_of_secondary_label[0] = new Variable("Background");
-			final_secondary_results_table.setColumn("PRIMARY_LABEL", primary_label_origin_of_secondary_label);
-			primary_label_origin_of_secondary_label_table = null;
-		}
-		
 		if (secondary_original_measurements_table.size() > 0) {
 			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name()));
+			if (measure_overlap) {
+				final_secondary_results_table.setColumn("PRIMARY_LABEL", secondary_original_measurements_table, LabelMeasurementEngine.PRIMARY_LABEL);
+			}
+			
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name());
 			
 			//Calculate primary scaled volumes
-			double[] secondary_volume_in_pixels = secondary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
-			Variable[] secondary_volume_in_units = new Variable[secondary_volume_in_pixels.length];
+			double[] secondary_volume_in_pixels = secondary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
+			double[] secondary_volume_in_units = new double[secondary_volume_in_pixels.length];
 			for (int cal2 = 0; cal2 < secondary_volume_in_pixels.length; cal2++) {
-				secondary_volume_in_units[cal2] = new Variable(secondary_volume_in_pixels[cal2] * voxel_volume);
+				secondary_volume_in_units[cal2] = secondary_volume_in_pixels[cal2] * voxel_volume;
 			}
 			final_secondary_results_table.setColumn("VOLUME ("+calibrated_units+"^3)", secondary_volume_in_units);
 			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name()));
+			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
 			
-			if (original_2_gpu != null) {
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name()));
+			if (original_2_gpu != null && measure_intensity) {
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.name());
 				
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name()));
-				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name()));
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_X.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Y.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MASS_CENTER_Z.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_MASS_CENTER.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_MASS_CENTER.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_MASS_CENTER_RATIO.name());
 				
 			} else {
 				//skip intensity based measurements if original input image not available
@@ -660,47 +745,49 @@ public class BV_ObjectInspector implements Cancelable {
 			
 			//final_edge_analysis_table_2.show("final_edge_analysis_table_2");
 			
-			final_secondary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2.getColumnAsVariables("MIN_MAX_EXTENSION_RATIO"));
-			final_secondary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2.getColumnAsVariables("MEAN_MAX_EXTENSION_RATIO"));
-			final_secondary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("MIN_EXTENSION"));
-			final_secondary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("MAX_EXTENSION"));
-			final_secondary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("MEAN_EXTENSION"));
-			final_secondary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_2.getColumnAsVariables("STD_DEV_EXTENSION"));
-			
-			
-			final_secondary_results_table.setColumn("AVER_BORDER_DIST", center_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-			final_secondary_results_table.setColumn("SHORT_BORDER_DIST", center_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-			final_secondary_results_table.setColumn("LONG_BORDER_DIST", center_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-			
-			final_secondary_results_table.setColumn("AVER_CENTER_DIST", border_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.name()));
-			final_secondary_results_table.setColumn("SHORT_CENTER_DIST", border_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.name()));
-			final_secondary_results_table.setColumn("LONG_CENTER_DIST", border_distance_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.name()));
-			
-			center_distance_table = null;
-			border_distance_table = null;
-			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name()));
-			
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name()));
-			final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name()));
-			
+			final_secondary_results_table.setColumn("MIN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2, "MIN_MAX_EXTENSION_RATIO");
+			final_secondary_results_table.setColumn("MEAN_MAX_EXTENSION_RATIO", final_edge_analysis_table_2, "MEAN_MAX_EXTENSION_RATIO");
+			final_secondary_results_table.setColumn("MIN_EXTENSION", final_edge_analysis_table_2, "MIN_EXTENSION");
+			final_secondary_results_table.setColumn("MAX_EXTENSION", final_edge_analysis_table_2, "MAX_EXTENSION");
+			final_secondary_results_table.setColumn("MEAN_EXTENSION", final_edge_analysis_table_2, "MEAN_EXTENSION");
+			final_secondary_results_table.setColumn("STD_DEV_EXTENSION", final_edge_analysis_table_2, "STD_DEV_EXTENSION");
+			
+			if (measure_distances) {
+				final_secondary_results_table.setColumn("AVER_BORDER_DIST", secondary_original_measurements_table, LabelMeasurementEngine.MEAN_BORDER_DISTANCE);
+				final_secondary_results_table.setColumn("SHORT_BORDER_DIST", secondary_original_measurements_table, LabelMeasurementEngine.MIN_BORDER_DISTANCE);
+				final_secondary_results_table.setColumn("LONG_BORDER_DIST", secondary_original_measurements_table, LabelMeasurementEngine.MAX_BORDER_DISTANCE);
+				
+				final_secondary_results_table.setColumn("AVER_CENTER_DIST", secondary_original_measurements_table, LabelMeasurementEngine.MEAN_CENTER_DISTANCE);
+				final_secondary_results_table.setColumn("SHORT_CENTER_DIST", secondary_original_measurements_table, LabelMeasurementEngine.MIN_CENTER_DISTANCE);
+				final_secondary_results_table.setColumn("LONG_CENTER_DIST", secondary_original_measurements_table, LabelMeasurementEngine.MAX_CENTER_DISTANCE);
+			}
 			
-			Variable[] secondary_bounding_box_width = secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
-			Variable[] secondary_bounding_box_height = secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
-			Variable[] secondary_bounding_box_depth = secondary_original_measurements_table.getColumnAsVariables(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
-			Variable[] secondary_bounding_box_extent = new Variable[secondary_bounding_box_width.length];
-			for (int e = 0; e < secondary_bounding_box_extent.length; e++) {
-				secondary_bounding_box_extent[e] = new Variable( (secondary_volume_in_pixels[e] / (secondary_bounding_box_width[e].getValue() * secondary_bounding_box_height[e].getValue() * secondary_bounding_box_depth[e].getValue())) );
+			if (measure_shape) {
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_X.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Y.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.CENTROID_Z.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_DISTANCE_TO_CENTROID.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_DISTANCE_TO_CENTROID.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAX_MEAN_DISTANCE_TO_CENTROID_RATIO.name());
+				
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
+				final_secondary_results_table.setColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name(), secondary_original_measurements_table, StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
+				
+				
+				double[] secondary_bounding_box_width = secondary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_WIDTH.name());
+				double[] secondary_bounding_box_height = secondary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_HEIGHT.name());
+				double[] secondary_bounding_box_depth = secondary_original_measurements_table.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.BOUNDING_BOX_DEPTH.name());
+				double[] secondary_bounding_box_extent = new double[secondary_bounding_box_width.length];
+				for (int e = 0; e < secondary_bounding_box_extent.length; e++) {
+					secondary_bounding_box_extent[e] = secondary_volume_in_pixels[e] / (secondary_bounding_box_width[e] * secondary_bounding_box_height[e] * secondary_bounding_box_depth[e]);
+				}
+				final_secondary_results_table.setColumn("BOUNDING_BOX_EXTENT", secondary_bounding_box_extent);
 			}
-			final_secondary_results_table.setColumn("BOUNDING_BOX_EXTENT", secondary_bounding_box_extent);
 			
-			final_secondary_results_table.sort("PRIMARY_LABEL");
+			if (measure_overlap) {
+				final_secondary_results_table.sort("PRIMARY_LABEL");
+			}
 			
 			secondary_original_measurements_table = null;
 			
@@ -709,20 +796,78 @@ public class BV_ObjectInspector implements Cancelable {
 		if (display_results_tables) {
 			final_primary_results_table.show(PRIMARY_RESULTS_TABLE_NAME);	
 			final_secondary_results_table.show(SECONDARY_RESULTS_TABLE_NAME);			
+			if (measure_overlap) {
+				final_overlap_results_table.show(OVERLAP_RESULTS_TABLE_NAME);
+			}
+		}
+	}
+	
+	
+	/**
+	 * @return the dimensions of the buffer in the order of {@link ImagePlus#getDimensions()}
+	 */
+	private static int[] getImageDimensions(ComputeBuffer buffer) {
+		return new int[] {(int) buffer.getWidth(), (int) buffer.getHeight(), 1, (int) buffer.getDepth(), 1};
+	}
+	
+	
+	private ComputeBuffer copyLabelBuffer(ComputeBuffer label_buffer, boolean pad_stack_tops) {
+		
+		if (pad_stack_tops) {
+			//the backend cannot paste into a larger buffer, so padding still needs a round trip
+			ImagePlus label_ImagePlus = backend.pull(label_buffer);
+			padStackLids(label_ImagePlus);
+			return LabelBuffers.push(backend, label_ImagePlus);
 		}
 		
-		clij2.clear();
+		ComputeBuffer label_copy = backend.create(label_buffer);
+		backend.copy(label_buffer, label_copy);
+		return label_copy;
+	}
+	
+	
+	private void closeOriginalBuffers() {
+		if (original_2_gpu != null && original_2_gpu != original_1_gpu) {
+			original_2_gpu.close();
+		}
+		if (original_1_gpu != null) {
+			original_1_gpu.close();
+		}
+		original_1_gpu = null;
+		original_2_gpu = null;
 	}
 	
 	
 	public ResultsTable getPrimaryTable() {
-		return final_primary_results_table;
+		return final_primary_results_table.toResultsTable();
 	}
 	
 	public ResultsTable getSecondaryTable() {
+		return final_secondary_results_table.toResultsTable();
+	}
+	
+	/**
+	 * @return overlapping pixels and volume of each pair of primary and secondary object
+	 */
+	public ResultsTable getOverlapTable() {
+		return final_overlap_results_table.toResultsTable();
+	}
+	
+	/**
+	 * Primary results without conversion to an ImageJ ResultsTable, e.g. for CSV or binary export
+	 */
+	public ColumnarResultsTable getPrimaryResults() {
+		return final_primary_results_table;
+	}
+	
+	public ColumnarResultsTable getSecondaryResults() {
 		return final_secondary_results_table;
 	}
 	
+	public ColumnarResultsTable getOverlapResults() {
+		return final_overlap_results_table;
+	}
+	
 	
 	public void padStackLids(ImagePlus inputImage) {
 		ImageStack imageStack = inputImage.getStack();
@@ -738,14 +883,14 @@ public class BV_ObjectInspector implements Cancelable {
 	}
 	
 	
-	public void removePaddedSlices(ClearCLBuffer input, ClearCLBuffer output) {
+	public void removePaddedSlices(ComputeBuffer input, ComputeBuffer output) {
 	
 		int depth = (int) input.getDepth();
-		clij2.subStack(input, output, 1, depth-1);
+		backend.subStack(input, output, 1, depth-1);
 	
 	}
 	
-	public void labelExclusion(ClearCLBuffer input, String volumeRange, String MMER_Range, ResultsTable final_edge_analysis_table, ClearCLBuffer output) throws NumberFormatException {
+	public void labelExclusion(ComputeBuffer input, String volumeRange, String MMER_Range, ColumnarResultsTable final_edge_analysis_table, ComputeBuffer output) throws NumberFormatException {
 		
 		log.debug("Starting label exclusion for " + input.getName());
 		//get minimum volume limiter
@@ -765,26 +910,27 @@ public class BV_ObjectInspector implements Cancelable {
 		log.debug("Max MMDTCR = " + max_MMER);
 		
 			
-		ResultsTable inputStatisticsTable = new ResultsTable(); 
-		clij2.statisticsOfLabelledPixels(input, input, inputStatisticsTable);
+		String[] edge_analysis_columns = { "VOLUME_OF_LABEL", "MIN_MAX_EXTENSION_RATIO", "MEAN_MAX_EXTENSION_RATIO", "MIN_EXTENSION", "MAX_EXTENSION", "MEAN_EXTENSION", "STD_DEV_EXTENSION" };
+		for (String column : edge_analysis_columns) {
+			final_edge_analysis_table.addColumn(column, ColumnType.DOUBLE);
+		}
+		
+		ColumnarResultsTable inputStatisticsTable = getLabelEdgeAnalysisTable(input);
 		//inputStatisticsTable.show("inputStatisticsTable_" + input.getName());	//test output
-		float[] volumeOfLabel = inputStatisticsTable.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
-		if (volumeOfLabel != null) {
+		if (inputStatisticsTable.size() > 0) {
 			
+			double[] volumeOfLabel = inputStatisticsTable.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
 			log.debug("volumeOfLabel[] size = " + volumeOfLabel.length);
 			
 			int label_count = inputStatisticsTable.size();
 			log.debug("Object count = " + label_count);
 			
-			ResultsTable edge_analysis_table = getLabelEdgeAnalysisTable(input);
-			log.debug("Initial edge_analysis_table size = " + edge_analysis_table.size());
-			
-			float[] min_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MINIMUM_INTENSITY.value);
-			float[] max_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MAXIMUM_INTENSITY.value);
-			float[] mean_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.MEAN_INTENSITY.value);
-			float[] std_extension = edge_analysis_table.getColumn(StatisticsOfLabelledPixels.STATISTICS_ENTRY.STANDARD_DEVIATION_INTENSITY.value);
-			float[] min_max_extension_ratio = new float[min_extension.length];
-			float[] mean_max_extension_ratio = new float[min_extension.length];
+			double[] min_extension = inputStatisticsTable.getColumnAsDoubles(LabelMeasurementEngine.MIN_EXTENSION);
+			double[] max_extension = inputStatisticsTable.getColumnAsDoubles(LabelMeasurementEngine.MAX_EXTENSION);
+			double[] mean_extension = inputStatisticsTable.getColumnAsDoubles(LabelMeasurementEngine.MEAN_EXTENSION);
+			double[] std_extension = inputStatisticsTable.getColumnAsDoubles(LabelMeasurementEngine.STD_DEV_EXTENSION);
+			double[] min_max_extension_ratio = new double[min_extension.length];
+			double[] mean_max_extension_ratio = new double[min_extension.length];
 			
 			int[] label_exclusion_vector = new int[label_count + 1];
 			label_exclusion_vector[0] = 0;
@@ -802,14 +948,14 @@ public class BV_ObjectInspector implements Cancelable {
 					
 					label_exclusion_vector[object + 1] = 0;	//keep label
 					keptObjects++;
-					final_edge_analysis_table.addRow();
-					final_edge_analysis_table.addValue("VOLUME_OF_LABEL", volumeOfLabel[object]);	//for test reasons
-					final_edge_analysis_table.addValue("MIN_MAX_EXTENSION_RATIO", min_max_extension_ratio[object]);
-					final_edge_analysis_table.addValue("MEAN_MAX_EXTENSION_RATIO", mean_max_extension_ratio[object]);
-					final_edge_analysis_table.addValue("MIN_EXTENSION", min_extension[object]);
-					final_edge_analysis_table.addValue("MAX_EXTENSION", max_extension[object]);
-					final_edge_analysis_table.addValue("MEAN_EXTENSION", mean_extension[object]);
-					final_edge_analysis_table.addValue("STD_DEV_EXTENSION", std_extension[object]);
+					int row = final_edge_analysis_table.addRow();
+					final_edge_analysis_table.setValue("VOLUME_OF_LABEL", row, volumeOfLabel[object]);	//for test reasons
+					final_edge_analysis_table.setValue("MIN_MAX_EXTENSION_RATIO", row, min_max_extension_ratio[object]);
+					final_edge_analysis_table.setValue("MEAN_MAX_EXTENSION_RATIO", row, mean_max_extension_ratio[object]);
+					final_edge_analysis_table.setValue("MIN_EXTENSION", row, min_extension[object]);
+					final_edge_analysis_table.setValue("MAX_EXTENSION", row, max_extension[object]);
+					final_edge_analysis_table.setValue("MEAN_EXTENSION", row, mean_extension[object]);
+					final_edge_analysis_table.setValue("STD_DEV_EXTENSION", row, std_extension[object]);
 					
 				} else {
 					
@@ -823,7 +969,7 @@ public class BV_ObjectInspector implements Cancelable {
 			
 			log.debug("kept objects = " + keptObjects);
 			log.debug("excluded objects = " + excludedObjects);
-			log.debug("final edge_analysis_table size = " + edge_analysis_table.size());
+			log.debug("final edge_analysis_table size = " + final_edge_analysis_table.size());
 			
 			ImagePlus exclusion_vector_ImagePlus = IJ.createImage("label_exclusion_vector " + input.getName(), label_count + 1, 1, 1, 8);
 			ImageProcessor exclusionVectorProcessor = exclusion_vector_ImagePlus.getProcessor();
@@ -832,32 +978,41 @@ public class BV_ObjectInspector implements Cancelable {
 				exclusionVectorProcessor.putPixel(xPixel, 0, label_exclusion_vector[xPixel]);
 			}
 			
-			ClearCLBuffer exclusionVectorImage = clij2.push(exclusion_vector_ImagePlus);
+			ComputeBuffer exclusionVectorImage = backend.push(exclusion_vector_ImagePlus);
 			
-			clij2.excludeLabels(exclusionVectorImage, input, output);
+			backend.excludeLabels(exclusionVectorImage, input, output);
 			
 			//cleanup
 			exclusionVectorImage.close();
 			
 		} else {
 			
-			clij2.copy(input, output);
+			backend.copy(input, output);
 		}
 		
 		log.debug("Finishing label exclusion for " + input.getName());
 	}
 	
 	
-	public ResultsTable getLabelEdgeAnalysisTable(ClearCLBuffer input) {
+	/**
+	 * Pixel count of each label and the distances of its label edges to its centroid
+	 * (MIN_EXTENSION, MAX_EXTENSION, MEAN_EXTENSION and STD_DEV_EXTENSION)
+	 * 
+	 * @param input
+	 * @return
+	 */
+	public ColumnarResultsTable getLabelEdgeAnalysisTable(ComputeBuffer input) {
+		
+		ComputeBuffer label_edges = backend.create(input);
+		backend.reduceLabelsToLabelEdges(input, label_edges);
 		
-		ClearCLBuffer label_edges = clij2.create(input);
-		ClearCLBuffer distance_map = clij2.create(input);
-		clij2.reduceLabelsToLabelEdges(input, label_edges);
-		clij2.euclideanDistanceFromLabelCentroidMap(input, distance_map);
-		ResultsTable edge_agalysis_table = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(distance_map, label_edges, edge_agalysis_table);
+		LabelMeasurementEngine measurementEngine = new LabelMeasurementEngine(backend, EnumSet.of(Group.EXTENSION));
+		measurementEngine.setPrimary(input, null);
+		measurementEngine.setLabelEdges(label_edges);
+		
+		ColumnarResultsTable edge_agalysis_table = new ColumnarResultsTable();
+		measurementEngine.measure(edge_agalysis_table, null);
 		label_edges.close();
-		distance_map.close();
 		return edge_agalysis_table;
 	}
 	
@@ -867,20 +1022,21 @@ public class BV_ObjectInspector implements Cancelable {
 
 	@Override
 	public boolean isCanceled() {
-		// TODO Auto-generated method stub
-		return false;
+		return cancelReason != null;
 	}
 
+	/**
+	 * Called for invalid inputs, {@link #inspect()} stops without results then
+	 */
 	@Override
 	public void cancel(String reason) {
-		// TODO Auto-generated method stub
-		
+		cancelReason = reason != null ? reason : "Canceled";
+		log.error(cancelReason);
 	}
 
 	@Override
 	public String getCancelReason() {
-		// TODO Auto-generated method stub
-		return null;
+		return cancelReason;
 	}
 	
 }
@@ -3,6 +3,8 @@
  */
 package de.biovoxxel.bv3dbox.plugins;
 
+import java.util.EnumSet;
+
 import javax.swing.JOptionPane;
 
 import org.scijava.log.LogLevel;
@@ -11,16 +13,22 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.BitMask;
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine;
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine.Group;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.measure.ResultsTable;
 import ij.process.ImageProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels;
 
 /*
@@ -140,70 +148,66 @@ public class BV_OverlapExtractor {
 		//get maximum volume limiter
 		float maxVolume = BV3DBoxUtilities.getMaxFromRange(volume_range);
 	
-		CLIJ2 clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		ComputeBackend backend = ComputeBackendFactory.openSession();
 		
-		ClearCLBuffer image_1_CCL;
+		ComputeBuffer image_1_CCL;
 		if (image_plus_1.getProcessor().isBinary()) {
 			
-			ClearCLBuffer image_1_gpu = clij2.push(image_plus_1);
-			
-			image_1_CCL = clij2.create(image_1_gpu.getDimensions(), NativeTypeEnum.Float);
-			
 			if (treat_binary_objects_as_one) {
-				clij2.closeIndexGapsInLabelMap(image_1_gpu, image_1_CCL);
+				ComputeBuffer image_1_gpu = backend.push(image_plus_1);
+				image_1_CCL = LabelBuffers.create(backend, image_1_gpu.getDimensions(), 1);
+				backend.closeIndexGapsInLabelMap(image_1_gpu, image_1_CCL);
+				image_1_gpu.close();
 			} else {
-				clij2.connectedComponentsLabelingBox(image_1_gpu, image_1_CCL);	
+				image_1_CCL = BV3DBoxUtilities.labelBinaryImage(backend, image_plus_1, true);
 			}
-			
-			image_1_gpu.close();
 		} else {
-			image_1_CCL = clij2.push(image_plus_1);
+			image_1_CCL = LabelBuffers.push(backend, image_plus_1);
 		}
 		
 		if (exclude_edge_objects) {
-			ClearCLBuffer image_1_temp = clij2.create(image_1_CCL);
-			clij2.copy(image_1_CCL, image_1_temp);
-			clij2.excludeLabelsOnEdges(image_1_temp, image_1_CCL);
+			ComputeBuffer image_1_temp = backend.create(image_1_CCL);
+			backend.copy(image_1_CCL, image_1_temp);
+			backend.excludeLabelsOnEdges(image_1_temp, image_1_CCL);
 			image_1_temp.close();
 		}
 
-		ClearCLBuffer image_2_CCL;
+		//a selector treated as one object is only counted per primary label and stays a bit mask
+		ComputeBuffer image_2_CCL = null;
+		BitMask selector_mask = null;
 		if (image_plus_2.getProcessor().isBinary()) {
 			
-			ClearCLBuffer image_2_gpu = clij2.push(image_plus_2);
-			image_2_CCL = clij2.create(image_2_gpu.getDimensions(), NativeTypeEnum.Float);
-			
 			if (treat_binary_objects_as_one) {
-				clij2.closeIndexGapsInLabelMap(image_2_gpu, image_2_CCL);
+				selector_mask = BitMask.fromStack(image_plus_2.getStack());
 			} else {
-				clij2.connectedComponentsLabelingBox(image_2_gpu, image_2_CCL);
+				image_2_CCL = BV3DBoxUtilities.labelBinaryImage(backend, image_plus_2, true);
 			}
-			
-			image_2_gpu.close();
 		} else {
-			image_2_CCL = clij2.push(image_plus_2);
+			image_2_CCL = LabelBuffers.push(backend, image_plus_2);
 		}
 		
 		
-		ResultsTable original_results = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(image_1_CCL, image_1_CCL, original_results);
-		double[] original_pixel_count = original_results.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.value);
-		
 		if (show_original_primary_statistics) {
+			ResultsTable original_results = new ResultsTable();
+			backend.statisticsOfLabelledPixels(image_1_CCL, image_1_CCL, original_results);
 			original_results.show("Original Primary Statistics");			
 		}
 		
-		ClearCLBuffer image_2_mask_on_image_1 = clij2.create(image_1_CCL);
-		clij2.binaryAnd(image_1_CCL, image_2_CCL, image_2_mask_on_image_1);
-			//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, image_2_mask_on_image_1, false);
+		//pixel count and overlapping pixels of each primary label in one pass
+		LabelMeasurementEngine measurementEngine = new LabelMeasurementEngine(backend, EnumSet.of(Group.OVERLAP));
+		measurementEngine.setPrimary(image_1_CCL, null);
+		if (selector_mask != null) {
+			measurementEngine.setSecondary(selector_mask);
+		} else {
+			measurementEngine.setSecondary(image_2_CCL, null);
+		}
 		
-		ResultsTable comparison_1_and_2 = new ResultsTable();
-		clij2.statisticsOfLabelledPixels(image_2_mask_on_image_1, image_1_CCL, comparison_1_and_2);
-		//comparison_1_and_2.show("comparison_1_and_2");
-		double[] comparison_1_2_overlap = comparison_1_and_2.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.SUM_INTENSITY.value);
+		ColumnarResultsTable original_results = new ColumnarResultsTable();
+		measurementEngine.measure(original_results, null);
+		double[] original_pixel_count = original_results.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.PIXEL_COUNT.name());
+		double[] comparison_1_2_overlap = original_results.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT);
 		
-		int max_primary_label_count = (int) clij2.maximumOfAllPixels(image_1_CCL);
+		int max_primary_label_count = (int) backend.maximumOfAllPixels(image_1_CCL);
 		
 		log.debug("max_primary_label_count = " + max_primary_label_count);
 		
@@ -242,21 +246,21 @@ public class BV_OverlapExtractor {
 		
 				
 		if (show_percent_volume_map) {
-			ClearCLBuffer percent_volume_map = clij2.create(image_1_CCL.getDimensions(), NativeTypeEnum.Float);
-			ClearCLBuffer percent_volume_vector = clij2.push(percent_volume_image);
+			ComputeBuffer percent_volume_map = backend.create(image_1_CCL.getDimensions(), BufferType.FLOAT);
+			ComputeBuffer percent_volume_vector = backend.push(percent_volume_image);
 			percent_volume_map.setName("%volume_" + image_plus_2.getTitle());
-			clij2.generateParametricImage(image_1_CCL, percent_volume_vector, percent_volume_map);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, percent_volume_map, true, LutNames.GEEN_FIRE_BLUE_LUT, image_plus_1.getCalibration());
+			backend.generateParametricImage(image_1_CCL, percent_volume_vector, percent_volume_map);
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, percent_volume_map, true, LutNames.GEEN_FIRE_BLUE_LUT, image_plus_1.getCalibration());
 			percent_volume_map.close();
 			percent_volume_vector.close();
 		}
 		
 		if (show_extracted_objects) {
-			ClearCLBuffer flag_list_vector = clij2.push(flag_list_image);
-			ClearCLBuffer kept_image_1_CCL = clij2.create(image_1_CCL);
+			ComputeBuffer flag_list_vector = backend.push(flag_list_image);
+			ComputeBuffer kept_image_1_CCL = backend.create(image_1_CCL);
 			kept_image_1_CCL.setName("extracted_" + image_plus_1.getTitle());
-			clij2.excludeLabels(flag_list_vector, image_1_CCL, kept_image_1_CCL);		
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, kept_image_1_CCL, true, LutNames.GEEN_FIRE_BLUE_LUT, image_plus_1.getCalibration());
+			backend.excludeLabels(flag_list_vector, image_1_CCL, kept_image_1_CCL);		
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, kept_image_1_CCL, true, LutNames.GEEN_FIRE_BLUE_LUT, image_plus_1.getCalibration());
 			flag_list_vector.close();
 			kept_image_1_CCL.close();
 			
@@ -271,7 +275,7 @@ public class BV_OverlapExtractor {
 			count_statistics_table.addRow();
 			count_statistics_table.addValue("IMAGE_NAME", image_plus_1.getTitle());
 			count_statistics_table.addValue("ORIGINAL_COUNT", max_primary_label_count);
-			count_statistics_table.addValue("SELECTOR_COUNT", clij2.maximumOfAllPixels(image_2_CCL));
+			count_statistics_table.addValue("SELECTOR_COUNT", selector_mask != null ? (selector_mask.cardinality() > 0 ? 1 : 0) : backend.maximumOfAllPixels(image_2_CCL));
 			count_statistics_table.addValue("EXTRACTED_COUNT", kept_objects_count);
 			count_statistics_table.show("OE3D_Count");
 		}
@@ -286,39 +290,29 @@ public class BV_OverlapExtractor {
 			
 			int starting_row = full_statistics_table.size();
 			log.debug("starting_row = " + starting_row);
-			double[] label_id =  original_results.getColumnAsDoubles(StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.value);
-			log.debug("label_id length = " + label_id.length);
-			int offset = 0;
-			for (int row = starting_row; row < max_primary_label_count + starting_row; row++) {
-				log.debug("processing row = " + row + " / starting row = " + starting_row);
-				int index = row - starting_row;
-				log.debug("index = " + index);
-				if (kept_results[index]) {
-					log.debug("row - offset = " + (row - offset));
-					full_statistics_table.setValue("IDENTIFIER", row - offset, (row - offset + 1));
-					full_statistics_table.setValue("ORIGINAL_LABEL_ID", row - offset, label_id[index]);
-					full_statistics_table.setValue("ORIGINAL_VOXELS", row - offset, original_pixel_count[index]);
-					full_statistics_table.setValue("SELECTOR_VOXELS", row - offset, comparison_1_2_overlap[index]);
-					full_statistics_table.setValue("PERCENT_VOLUME", row - offset, percent_volume[index]);					
-				} else {	
-					full_statistics_table.setValue("IDENTIFIER", row - offset, (row - offset + 1));
-					full_statistics_table.setValue("ORIGINAL_LABEL_ID", row - offset, label_id[index]);
-					full_statistics_table.setValue("ORIGINAL_VOXELS", row - offset, original_pixel_count[index]);
-					full_statistics_table.setValue("SELECTOR_VOXELS", row - offset, comparison_1_2_overlap[index]);
-					full_statistics_table.setValue("PERCENT_VOLUME", row - offset, percent_volume[index]);		
-//					offset++;
-//					log.debug("offset = " + offset);
-				}
+			
+			int[] identifier = new int[max_primary_label_count];
+			for (int index = 0; index < max_primary_label_count; index++) {
+				identifier[index] = starting_row + index + 1;
 			}
 			
+			ColumnarResultsTable image_statistics_table = new ColumnarResultsTable(max_primary_label_count);
+			image_statistics_table.setColumn("IDENTIFIER", identifier);
+			image_statistics_table.setColumn("ORIGINAL_LABEL_ID", original_results, StatisticsOfLabelledPixels.STATISTICS_ENTRY.IDENTIFIER.name());
+			image_statistics_table.setColumn("ORIGINAL_VOXELS", original_pixel_count);
+			image_statistics_table.setColumn("SELECTOR_VOXELS", comparison_1_2_overlap);
+			image_statistics_table.setColumn("PERCENT_VOLUME", percent_volume);
+			image_statistics_table.appendTo(full_statistics_table);
+			
 			full_statistics_table.show("OE3D_Statistics");
 		}
 		
 		image_1_CCL.close();
-		image_2_CCL.close();
-		comparison_1_2_overlap = null;
+		if (image_2_CCL != null) {
+			image_2_CCL.close();
+		}
 		
-		clij2.clear();
+		backend.close();
 		
 	}
 	
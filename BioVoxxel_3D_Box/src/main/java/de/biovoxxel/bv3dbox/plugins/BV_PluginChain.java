@@ -0,0 +1,191 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+/**
+ * Chains the Voronoi Threshold Labeler, the Post Processor and the Object Inspector while the
+ * label image stays on the backend. Only the outputs which are asked for are pulled, e.g.
+ *
+ * <pre>
+ * try (BV_PluginChain chain = BV_PluginChain.labels(bvvtl)) {
+ *     chain.postProcess("Open Label", 1).postProcess("Dilate Label", 2);
+ *     ImagePlus labels = chain.pullLabels();
+ *     BV_ObjectInspector bvoi = chain.objectInspector(secondaryLabels);
+ *     bvoi.inspect();
+ * }
+ * </pre>
+ *
+ * The chain owns its label image and everything it pushed and closes them in {@link #close()}.
+ * All plugins of one chain work on the same backend. Started from the Voronoi Threshold Labeler
+ * the chain also owns and closes its compute session.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BV_PluginChain implements AutoCloseable {
+
+	private final ComputeBackend backend;
+	private final ImagePlus inputImagePlus;
+	private final String title;
+	private final Calibration calibration;
+	private final List<ComputeBuffer> pushedBuffers = new ArrayList<ComputeBuffer>();
+	private final boolean ownsBackend;
+	private ComputeBuffer labels;
+
+
+	private BV_PluginChain(ComputeBackend backend, boolean ownsBackend, ImagePlus inputImagePlus, String title, ComputeBuffer labels) {
+		this.backend = backend;
+		this.ownsBackend = ownsBackend;
+		this.inputImagePlus = inputImagePlus;
+		this.title = title;
+		this.calibration = inputImagePlus.getCalibration();
+		this.labels = labels;
+	}
+
+
+	/**
+	 * Starts with the labels of the Voronoi Threshold Labeler, its filter input is closed as it is not needed anymore.
+	 * The session of the labeler is closed with the chain.
+	 *
+	 * @param bvvtl	with the input image and parameters set
+	 */
+	public static BV_PluginChain labels(BV_VoronoiThresholdLabeling bvvtl) {
+		ComputeBuffer labels;
+		try {
+			labels = bvvtl.computeLabelBuffer();
+		} catch (RuntimeException e) {
+			bvvtl.getCurrentBackend().close();
+			throw e;
+		} finally {
+			bvvtl.releaseInputImage();
+		}
+		if (bvvtl.isCanceled()) {
+			bvvtl.getCurrentBackend().close();
+			throw new IllegalStateException(bvvtl.getCancelReason());
+		}
+		return new BV_PluginChain(bvvtl.getCurrentBackend(), true, bvvtl.getInputImage(), bvvtl.getOutputImageName(), labels);
+	}
+
+
+	/**
+	 * Starts with an existing label or binary image, which is pushed once. The backend stays open.
+	 */
+	public static BV_PluginChain labels(ComputeBackend backend, ImagePlus labelImagePlus) {
+		ComputeBuffer labels = pushLabels(backend, labelImagePlus);
+		return new BV_PluginChain(backend, false, labelImagePlus, labelImagePlus.getTitle(), labels);
+	}
+
+
+	/**
+	 * Starts with an existing label or binary image in a new compute session, which is closed with the chain
+	 */
+	public static BV_PluginChain labels(ImagePlus labelImagePlus) {
+		ComputeBackend backend = ComputeBackendFactory.openSession();
+		ComputeBuffer labels;
+		try {
+			labels = pushLabels(backend, labelImagePlus);
+		} catch (RuntimeException e) {
+			backend.close();
+			throw e;
+		}
+		return new BV_PluginChain(backend, true, labelImagePlus, labelImagePlus.getTitle(), labels);
+	}
+
+
+	/**
+	 * Replaces the current label image with the post processed one
+	 *
+	 * @param method	one of the methods of the Post Processor
+	 */
+	public BV_PluginChain postProcess(String method, int iteration) {
+		BV_PostProcessor bvpp = new BV_PostProcessor(backend, labels);
+		ComputeBuffer processed_labels = bvpp.postProcessor(method, iteration);
+		processed_labels.setName(labels.getName());
+		labels.close();
+		labels = processed_labels;
+		return this;
+	}
+
+
+	/**
+	 * Object Inspector with the current label image as primary objects and the input image as original image
+	 * for both. Settings can be changed before calling {@link BV_ObjectInspector#inspect()}, which needs to
+	 * happen before the chain is closed.
+	 *
+	 * @param secondaryLabels	label or binary image, which is pushed once
+	 */
+	public BV_ObjectInspector objectInspector(ImagePlus secondaryLabels) {
+		ComputeBuffer secondary_labels = pushLabels(backend, secondaryLabels);
+		pushedBuffers.add(secondary_labels);
+		return objectInspector(secondary_labels);
+	}
+
+
+	/**
+	 * Same as {@link #objectInspector(ImagePlus)} with secondary labels already on the backend of the chain.
+	 * The caller closes them.
+	 */
+	public BV_ObjectInspector objectInspector(ComputeBuffer secondary_labels) {
+		BV_ObjectInspector bvoi = new BV_ObjectInspector(backend, labels, secondary_labels);
+		bvoi.setOriginalImages(inputImagePlus, inputImagePlus);
+		return bvoi;
+	}
+
+
+	/**
+	 * @return the current label image with the title and calibration of the input
+	 */
+	public ImagePlus pullLabels() {
+		ImagePlus labelImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, labels, false, LutNames.GLASBEY_LUT);
+		labelImagePlus.setTitle(title);
+		labelImagePlus.setCalibration(calibration);
+		return labelImagePlus;
+	}
+
+
+	/**
+	 * @return the current label image, which stays owned by the chain
+	 */
+	public ComputeBuffer getLabelBuffer() {
+		return labels;
+	}
+
+	public ComputeBackend getBackend() {
+		return backend;
+	}
+
+
+	private static ComputeBuffer pushLabels(ComputeBackend backend, ImagePlus labelImagePlus) {
+		ComputeBuffer labels;
+		if (labelImagePlus.getProcessor().isBinary()) {
+			labels = BV3DBoxUtilities.labelBinaryImage(backend, labelImagePlus, true);
+		} else {
+			labels = LabelBuffers.push(backend, labelImagePlus);
+		}
+		labels.setName(labelImagePlus.getTitle());
+		return labels;
+	}
+
+
+	@Override
+	public void close() {
+		labels.close();
+		for (ComputeBuffer buffer : pushedBuffers) {
+			buffer.close();
+		}
+		pushedBuffers.clear();
+		if (ownsBackend) {
+			backend.close();
+		}
+	}
+}
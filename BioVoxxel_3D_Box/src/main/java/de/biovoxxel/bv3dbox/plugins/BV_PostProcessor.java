@@ -10,11 +10,12 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import ij.ImagePlus;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -60,8 +61,8 @@ public class BV_PostProcessor extends DynamicCommand {
 
 	private final LogService log = new StderrLogService();
 	private final PrefService prefs = new DefaultPrefService();
-	private static CLIJ2 clij2;
-	private ClearCLBuffer input_image;
+	private ComputeBackend backend;
+	private ComputeBuffer input_image;
 //	private BV_LabelSeparator bvls = new BV_LabelSeparator();
 	
 	/**
@@ -73,8 +74,7 @@ public class BV_PostProcessor extends DynamicCommand {
 	
 		log.debug("input_image = " + inputImagePlus);
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		backend = ComputeBackendFactory.openSession();
 		
 		setInputImage(inputImagePlus);
 		
@@ -85,30 +85,62 @@ public class BV_PostProcessor extends DynamicCommand {
 	public BV_PostProcessor() {		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 	}
+	
+	
+	/**
+	 * Post processor sharing the backend of another one, the input image is set with {@link #setInputImage(ImagePlus)}
+	 * 
+	 * @param backend
+	 */
+	public BV_PostProcessor(ComputeBackend backend) {
+		this();
+		this.backend = backend;
+	}
+	
+	
+	/**
+	 * Post processing of a label image which is already on the backend, e.g. from {@link BV_VoronoiThresholdLabeling#computeLabelBuffer()}.
+	 * The backend is not cleared and the label image is neither changed nor closed.
+	 * 
+	 * @param backend	the backend holding the label image
+	 * @param label_image
+	 */
+	public BV_PostProcessor(ComputeBackend backend, ComputeBuffer label_image) {
+		
+		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
+		
+		log.debug("input_image = " + label_image);
+		
+		this.backend = backend;
+		this.input_image = label_image;
+	}
 
 	
+	/**
+	 * Pushes the label image in the smallest label type, binary images are labelled first
+	 */
 	public void setInputImage(ImagePlus inputImagePlus) {
-		ClearCLBuffer temp_input_image = clij2.push(inputImagePlus);
-		log.debug("temp_input_image = " + temp_input_image);
-		this.input_image = clij2.create(temp_input_image.getDimensions(), NativeTypeEnum.Float);
-
 		if (inputImagePlus.getProcessor().isBinary()) {
-			clij2.connectedComponentsLabelingDiamond(temp_input_image, input_image);
+			ComputeBuffer temp_input_image = backend.push(inputImagePlus);
+			log.debug("temp_input_image = " + temp_input_image);
+			ComputeBuffer label_image = LabelBuffers.create(backend, temp_input_image.getDimensions());
+			backend.connectedComponentsLabelingDiamond(temp_input_image, label_image);
+			temp_input_image.close();
+			this.input_image = LabelBuffers.fit(backend, label_image);
 		} else {
 			
-			clij2.copy(temp_input_image, input_image);
+			this.input_image = LabelBuffers.push(backend, inputImagePlus);
 		}
-		temp_input_image.close();
 	}
 	
 	
-	public ClearCLBuffer getInputBuffer() {
+	public ComputeBuffer getInputBuffer() {
 		return input_image;
 	}
 	
-	public ClearCLBuffer postProcessor(String method, int iteration) {
+	public ComputeBuffer postProcessor(String method, int iteration) {
 
-		ClearCLBuffer output_image = clij2.create(input_image);
+		ComputeBuffer output_image = backend.create(input_image);
 			
 		boolean is3D = input_image.getDimension() > 2 ? true : false;
 		
@@ -124,17 +156,17 @@ public class BV_PostProcessor extends DynamicCommand {
 //			
 				
 			case "Erode Label":
-				clij2.erodeLabels(input_image, output_image, iteration, true);
+				backend.erodeLabels(input_image, output_image, iteration, true);
 				break;
 				
 			case "Dilate Label":
-				clij2.dilateLabels(input_image, output_image, iteration);
+				backend.dilateLabels(input_image, output_image, iteration);
 				break;
 				
 			case "Open Label":
-				ClearCLBuffer temp_eroded = clij2.create(input_image);
-				clij2.erodeLabels(input_image, temp_eroded, iteration, true);
-				clij2.dilateLabels(temp_eroded, output_image, iteration);
+				ComputeBuffer temp_eroded = backend.create(input_image);
+				backend.erodeLabels(input_image, temp_eroded, iteration, true);
+				backend.dilateLabels(temp_eroded, output_image, iteration);
 				temp_eroded.close();
 				break;
 			
@@ -157,96 +189,96 @@ public class BV_PostProcessor extends DynamicCommand {
 				
 			case "Minimum (sphere)":
 				if (is3D) {
-					clij2.minimum3DSphere(input_image, output_image, iteration, iteration, iteration);					
+					backend.minimum3DSphere(input_image, output_image, iteration, iteration, iteration);					
 				} else {
-					clij2.minimum2DSphere(input_image, output_image, iteration, iteration);
+					backend.minimum2DSphere(input_image, output_image, iteration, iteration);
 				}
 				break;
 				
 			case "Minimum (box)":
 				if (is3D) {
-					clij2.minimum3DBox(input_image, output_image, iteration, iteration, iteration);					
+					backend.minimum3DBox(input_image, output_image, iteration, iteration, iteration);					
 				} else {
-					clij2.minimum2DBox(input_image, output_image, iteration, iteration);
+					backend.minimum2DBox(input_image, output_image, iteration, iteration);
 				}
 				break;
 				
 			case "Maximum (sphere)":
 				if (is3D) {
-					clij2.maximum3DSphere(input_image, output_image, iteration, iteration, iteration);					
+					backend.maximum3DSphere(input_image, output_image, iteration, iteration, iteration);					
 				} else {
-					clij2.maximum2DSphere(input_image, output_image, iteration, iteration);
+					backend.maximum2DSphere(input_image, output_image, iteration, iteration);
 				}
 				break;
 				
 			case "Maximum (box)":
 				if (is3D) {
-					clij2.maximum3DBox(input_image, output_image, iteration, iteration, iteration);					
+					backend.maximum3DBox(input_image, output_image, iteration, iteration, iteration);					
 				} else {
-					clij2.maximum2DBox(input_image, output_image, iteration, iteration);
+					backend.maximum2DBox(input_image, output_image, iteration, iteration);
 				}
 				break;
 				
 			case "Open (sphere)":
-				ClearCLBuffer temp_eroded_sphere = clij2.create(input_image);
+				ComputeBuffer temp_eroded_sphere = backend.create(input_image);
 				if (is3D) {
 //					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.minimum3DSphere(input_image, temp_eroded_sphere, iteration, iteration, iteration);	
-					clij2.maximum3DSphere(temp_eroded_sphere, output_image, iteration, iteration, iteration);		
+					backend.minimum3DSphere(input_image, temp_eroded_sphere, iteration, iteration, iteration);	
+					backend.maximum3DSphere(temp_eroded_sphere, output_image, iteration, iteration, iteration);		
 				} else {
 //					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.minimum2DSphere(input_image, temp_eroded_sphere, iteration, iteration);
-					clij2.maximum2DSphere(temp_eroded_sphere, output_image, iteration, iteration);
+					backend.minimum2DSphere(input_image, temp_eroded_sphere, iteration, iteration);
+					backend.maximum2DSphere(temp_eroded_sphere, output_image, iteration, iteration);
 				}
 				temp_eroded_sphere.close();
 				break;
 				
 			case "Open (box)":
-				ClearCLBuffer temp_eroded_box = clij2.create(input_image);
+				ComputeBuffer temp_eroded_box = backend.create(input_image);
 				if (is3D) {
 //					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.minimum3DBox(input_image, temp_eroded_box, iteration, iteration, iteration);	
-					clij2.maximum3DBox(temp_eroded_box, output_image, iteration, iteration, iteration);		
+					backend.minimum3DBox(input_image, temp_eroded_box, iteration, iteration, iteration);	
+					backend.maximum3DBox(temp_eroded_box, output_image, iteration, iteration, iteration);		
 				} else {
 //					clij2.greyscaleOpeningSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.minimum2DBox(input_image, temp_eroded_box, iteration, iteration);
-					clij2.maximum2DBox(temp_eroded_box, output_image, iteration, iteration);
+					backend.minimum2DBox(input_image, temp_eroded_box, iteration, iteration);
+					backend.maximum2DBox(temp_eroded_box, output_image, iteration, iteration);
 				}
 				temp_eroded_box.close();
 				break;
 				
 			case "Close (sphere)":
-				ClearCLBuffer temp_dilated_sphere = clij2.create(input_image);
+				ComputeBuffer temp_dilated_sphere = backend.create(input_image);
 				if (is3D) {
 //					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.maximum3DSphere(input_image, temp_dilated_sphere, iteration, iteration, iteration);		
-					clij2.minimum3DSphere(temp_dilated_sphere, output_image, iteration, iteration, iteration);	
+					backend.maximum3DSphere(input_image, temp_dilated_sphere, iteration, iteration, iteration);		
+					backend.minimum3DSphere(temp_dilated_sphere, output_image, iteration, iteration, iteration);	
 				} else {
 //					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.maximum2DSphere(input_image, temp_dilated_sphere, iteration, iteration);
-					clij2.minimum2DSphere(temp_dilated_sphere, output_image, iteration, iteration);
+					backend.maximum2DSphere(input_image, temp_dilated_sphere, iteration, iteration);
+					backend.minimum2DSphere(temp_dilated_sphere, output_image, iteration, iteration);
 				}
 				temp_dilated_sphere.close();
 				break;
 				
 			case "Close (box)":
-				ClearCLBuffer temp_dilated_box = clij2.create(input_image);
+				ComputeBuffer temp_dilated_box = backend.create(input_image);
 				if (is3D) {
 //					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, iteration);
-					clij2.maximum3DBox(input_image, temp_dilated_box, iteration, iteration, iteration);		
-					clij2.minimum3DBox(temp_dilated_box, output_image, iteration, iteration, iteration);	
+					backend.maximum3DBox(input_image, temp_dilated_box, iteration, iteration, iteration);		
+					backend.minimum3DBox(temp_dilated_box, output_image, iteration, iteration, iteration);	
 				} else {
 //					clij2.greyscaleClosingSphere(input_image, output_image, iteration, iteration, 0);
-					clij2.maximum2DBox(input_image, temp_dilated_box, iteration, iteration);
-					clij2.minimum2DBox(temp_dilated_box, output_image, iteration, iteration);
+					backend.maximum2DBox(input_image, temp_dilated_box, iteration, iteration);
+					backend.minimum2DBox(temp_dilated_box, output_image, iteration, iteration);
 				}
 				temp_dilated_box.close();
 				break;
 				
 			case "Fill holes":
-				ClearCLBuffer filled_holes_image = clij2.create(input_image);
-				clij2.binaryFillHoles(input_image, filled_holes_image);
-				clij2.connectedComponentsLabelingDiamond(filled_holes_image, output_image);
+				ComputeBuffer filled_holes_image = backend.create(input_image);
+				backend.binaryFillHoles(input_image, filled_holes_image);
+				backend.connectedComponentsLabelingDiamond(filled_holes_image, output_image);
 				filled_holes_image.close();
 				
 				break;
@@ -254,18 +286,18 @@ public class BV_PostProcessor extends DynamicCommand {
 			case "Median (sphere, max r=15)":
 				iteration = iteration > 15 ? 15 : iteration;
 				if (is3D) {
-					clij2.median3DSliceBySliceSphere(input_image, output_image, iteration, iteration);
+					backend.median3DSliceBySliceSphere(input_image, output_image, iteration, iteration);
 				} else {
-					clij2.median2DSphere(input_image, output_image, iteration, iteration);
+					backend.median2DSphere(input_image, output_image, iteration, iteration);
 				}
 				break;
 				
 			case "Median (box, max r=15)":
 				iteration = iteration > 15 ? 15 : iteration;
 				if (is3D) {
-					clij2.median3DSliceBySliceBox(input_image, output_image, iteration, iteration);
+					backend.median3DSliceBySliceBox(input_image, output_image, iteration, iteration);
 				} else {
-					clij2.median2DBox(input_image, output_image, iteration, iteration);
+					backend.median2DBox(input_image, output_image, iteration, iteration);
 				}
 				break;
 				
@@ -290,8 +322,8 @@ public class BV_PostProcessor extends DynamicCommand {
 			}
 		
 		
-		ClearCLBuffer output_image_with_closed_index_gaps = clij2.create(output_image);
-		clij2.closeIndexGapsInLabelMap(output_image, output_image_with_closed_index_gaps);
+		ComputeBuffer output_image_with_closed_index_gaps = backend.create(output_image);
+		backend.closeIndexGapsInLabelMap(output_image, output_image_with_closed_index_gaps);
 		
 		output_image.close();
 		
@@ -312,20 +344,51 @@ public class BV_PostProcessor extends DynamicCommand {
 //	}
 //	
 	
-	public ImagePlus getImagePlus(ClearCLBuffer buffer) {
-		return clij2.pull(buffer);
+	/**
+	 * 
+	 * @param method
+	 * @param iteration
+	 * @return the number of slices the method reaches above and below each slice or -1 if it depends on the complete stack
+	 */
+	public static int getHalo(String method, int iteration) {
+		
+		switch (method) {
+		case "Erode Label":
+		case "Dilate Label":
+		case "Minimum (sphere)":
+		case "Minimum (box)":
+		case "Maximum (sphere)":
+		case "Maximum (box)":
+			return iteration;
+		case "Open Label":
+		case "Open (sphere)":
+		case "Open (box)":
+		case "Close (sphere)":
+		case "Close (box)":
+			return 2 * iteration;
+		case "Median (sphere, max r=15)":
+		case "Median (box, max r=15)":
+			return 0;	//slice by slice
+		default:
+			return -1;
+		}
+	}
+	
+	
+	public ImagePlus getImagePlus(ComputeBuffer buffer) {
+		return backend.pull(buffer);
 	}
 	
-	public CLIJ2 getCLIJ2Instance() {
-		return clij2;
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 	}
 	
 	public static void main(String[] args) {
 		ImagePlus inputImage = new ImagePlus("C:\\Users\\broch\\Desktop\\Binary Nuclei.tif"); 
 		BV_PostProcessor bvpp = new BV_PostProcessor(inputImage);
 		
-		ClearCLBuffer output = bvpp.postProcessor("Erode", 3);
-		clij2.pull(output).show();
+		ComputeBuffer output = bvpp.postProcessor("Erode", 3);
+		bvpp.getCurrentBackend().pull(output).show();
 	}
 	
 }
@@ -7,15 +7,16 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
 import ij.ImagePlus;
 import ij.WindowManager;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -56,8 +57,8 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 	PrefService prefs = new DefaultPrefService();
 	LogService log = new StderrLogService();
 			
-	CLIJ2 clij2;
-	ClearCLBuffer inputImage;
+	ComputeBackend backend;
+	ComputeBuffer inputImage;
 	
 	private ImagePlus inputImagePlus;
 	private ImagePlus outputImagePlus = null;
@@ -85,21 +86,23 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 		
 		readCalibration();
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		if (backend == null) {
+			backend = ComputeBackendFactory.openSession();
+		}
+		backend.clear();
 		
 				
 		if (inputImagePlus.getRoi() != null) {
 			if (activeSlice > 0) {
-				inputImage = clij2.pushCurrentSelection(inputImagePlus.crop("slice"));
+				inputImage = backend.pushCurrentSelection(inputImagePlus.crop("slice"));
 			} else {
-				inputImage = clij2.pushCurrentSelection(inputImagePlus);				
+				inputImage = backend.pushCurrentSelection(inputImagePlus);				
 			}
 		} else {
 			if (activeSlice > 0) {
-				inputImage = clij2.push(inputImagePlus.crop("whole-slice"));
+				inputImage = backend.push(inputImagePlus.crop("whole-slice"));
 			} else {
-				inputImage = clij2.push(inputImagePlus);
+				inputImage = backend.push(inputImagePlus);
 			}
 						
 		}
@@ -110,9 +113,9 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 	//TODO: implement for RGB images
 	public ImagePlus runCorrection(float radius, boolean force2D, boolean showBackgroundImage) {
 		
-		ClearCLBuffer backgound = clij2.create(inputImage.getDimensions(), NativeTypeEnum.Float);
-		clij2.copy(inputImage, backgound);
-		ClearCLBuffer blurredBackground = clij2.create(backgound);
+		ComputeBuffer backgound = backend.create(inputImage.getDimensions(), BufferType.FLOAT);
+		backend.copy(inputImage, backgound);
+		ComputeBuffer blurredBackground = backend.create(backgound);
 		
 		double y_filter_radius = radius * x_y_ratio;
 		
@@ -132,10 +135,10 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 			} 
 			log.debug("z_filter_radius=" + z_filter_radius);
 			
-			clij2.gaussianBlur3D(backgound, blurredBackground, radius, y_filter_radius, z_filter_radius);
+			backend.gaussianBlur3D(backgound, blurredBackground, radius, y_filter_radius, z_filter_radius);
 			log.debug("3D filtering for background creation");
 		} else {
-			clij2.gaussianBlur2D(backgound, blurredBackground, radius, y_filter_radius);
+			backend.gaussianBlur2D(backgound, blurredBackground, radius, y_filter_radius);
 			log.debug("2D filtering for background creation");
 		}
 		
@@ -143,22 +146,22 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 		
 		ImagePlus tempOutputImagePlus;
 		if (showBackgroundImage) {
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, blurredBackground, false, LutNames.PHYSICS);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, blurredBackground, false, LutNames.PHYSICS);
 			
 		} else {
 			
-			double meanBackgroundIntensity = clij2.meanOfAllPixels(blurredBackground);
+			double meanBackgroundIntensity = backend.meanOfAllPixels(blurredBackground);
 			log.debug("meanBackgroundIntensity = " + meanBackgroundIntensity);
 			
-			ClearCLBuffer dividedImage = clij2.create(blurredBackground);
-			clij2.divideImages(inputImage, blurredBackground, dividedImage);
+			ComputeBuffer dividedImage = backend.create(blurredBackground);
+			backend.divideImages(inputImage, blurredBackground, dividedImage);
 			log.debug("Image devided by background");
 			
-			ClearCLBuffer outputImage = clij2.create(dividedImage);
-			clij2.multiplyImageAndScalar(dividedImage, outputImage, meanBackgroundIntensity);
+			ComputeBuffer outputImage = backend.create(dividedImage);
+			backend.multiplyImageAndScalar(dividedImage, outputImage, meanBackgroundIntensity);
 			dividedImage.close();
 			
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, outputImage, true, LutNames.GRAY);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, outputImage, true, LutNames.GRAY);
 			outputImage.close();
 		}
 		
@@ -205,6 +208,11 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 		return outputImageName;
 	}
 	
+	
+	public ComputeBackend getCurrentBackend() {
+		return backend;
+	}
+	
 
 	@Override
 	public boolean isCanceled() {
@@ -219,7 +227,7 @@ public class BV_PseudoFlatFieldCorrection implements Cancelable {
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.clear();
+		backend.clear();
 		
 	}
 
@@ -5,10 +5,11 @@ package de.biovoxxel.bv3dbox.plugins;
 
 import org.scijava.Cancelable;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import ij.ImagePlus;
 import ij.measure.Calibration;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 /*
  * BSD 3-Clause License
@@ -52,13 +53,13 @@ import net.haesleinhuepf.clij2.CLIJ2;
 public class BV_RecursiveFilter implements Cancelable {
 
 	ImagePlus inputImagePlus;
-	private ClearCLBuffer input_image;
-	ClearCLBuffer difference_check;
+	private ComputeBuffer input_image;
+	ComputeBuffer difference_check;
 	
 	int finalIteration = 0;
 	double lastDifference = Double.NEGATIVE_INFINITY;
 	
-	private CLIJ2 clij2;
+	private ComputeBackend backend;
 	private double x_y_ratio;
 	private double z_x_ratio;
 	private double z_y_ratio;
@@ -74,8 +75,10 @@ public class BV_RecursiveFilter implements Cancelable {
 	private void setupImage(ImagePlus image) {
 		this.inputImagePlus = image;
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		if (backend == null) {
+			backend = ComputeBackendFactory.openSession();
+		}
+		backend.clear();
 		
 		Calibration cal = inputImagePlus.getCalibration();
 		x_y_ratio = cal.pixelWidth / cal.pixelHeight;
@@ -85,16 +88,16 @@ public class BV_RecursiveFilter implements Cancelable {
 		z_slices = inputImagePlus.getNSlices();
 		
 		if (inputImagePlus.getRoi() != null) {
-			input_image = clij2.pushCurrentSelection(inputImagePlus);
+			input_image = backend.pushCurrentSelection(inputImagePlus);
 		} else {
-			input_image = clij2.push(inputImagePlus);
+			input_image = backend.push(inputImagePlus);
 		}
 		
 	}
 	
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 		
 	}
 	
@@ -105,10 +108,10 @@ public class BV_RecursiveFilter implements Cancelable {
 	 * Uncalibrated images are filtered isotropically in all dimensions. Calibrated images are filtered in relation to their
 	 * x/y, x/z, and y/z calibrated aspect ratio to avoid dimensional distortion artifacts.
 	 */
-	public ClearCLBuffer runRecursiveFilter(String filterMethod, double radius, int iterations) {
+	public ComputeBuffer runRecursiveFilter(String filterMethod, double radius, int iterations) {
 		
-		ClearCLBuffer temp_image = clij2.create(input_image);
-		difference_check = clij2.create(input_image);
+		ComputeBuffer temp_image = backend.create(input_image);
+		difference_check = backend.create(input_image);
 		
 		finalIteration = iterations;
 		
@@ -125,19 +128,19 @@ public class BV_RecursiveFilter implements Cancelable {
 				
 				for (int j = 0; j < fullIterations; j++) {
 					
-					clij2.copy(input_image, temp_image);
-					clij2.median2DSphere(temp_image, input_image, radius, (radius * x_y_ratio));
+					backend.copy(input_image, temp_image);
+					backend.median2DSphere(temp_image, input_image, radius, (radius * x_y_ratio));
 					
 				}
-				if (isLowDifference(clij2, temp_image, input_image)) {
+				if (isLowDifference(backend, temp_image, input_image)) {
 					finalIteration = i;
 					break;
 				}
 			}
 			
 			if (finalRadius != 0) {
-				clij2.copy(input_image, temp_image);
-				clij2.median2DSphere(temp_image, input_image, finalRadius, (finalRadius * x_y_ratio));
+				backend.copy(input_image, temp_image);
+				backend.median2DSphere(temp_image, input_image, finalRadius, (finalRadius * x_y_ratio));
 				
 			}
 		
@@ -146,10 +149,10 @@ public class BV_RecursiveFilter implements Cancelable {
 				
 				for (int i = 0; i < iterations; i++) {
 					
-					clij2.copy(input_image, temp_image);
-					clij2.gaussianBlur2D(temp_image, input_image, radius, (radius * x_y_ratio));
+					backend.copy(input_image, temp_image);
+					backend.gaussianBlur2D(temp_image, input_image, radius, (radius * x_y_ratio));
 					
-					if (isLowDifference(clij2, temp_image, input_image)) {
+					if (isLowDifference(backend, temp_image, input_image)) {
 						finalIteration = i;
 						break;
 					}
@@ -170,20 +173,20 @@ public class BV_RecursiveFilter implements Cancelable {
 					
 					for (int j = 0; j < fullIterations; j++) {
 						
-						clij2.copy(input_image, temp_image);
-						clij2.median3DSphere(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
+						backend.copy(input_image, temp_image);
+						backend.median3DSphere(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
 						
 					}
 
-					if (isLowDifference(clij2, temp_image, input_image)) {
+					if (isLowDifference(backend, temp_image, input_image)) {
 						finalIteration = i;
 						break;
 					}
 				}
 				
 				if (finalRadius != 0) {
-					clij2.copy(input_image, temp_image);
-					clij2.median3DSphere(temp_image, input_image, (finalRadius * z_x_ratio), (finalRadius * z_y_ratio), finalRadius);					
+					backend.copy(input_image, temp_image);
+					backend.median3DSphere(temp_image, input_image, (finalRadius * z_x_ratio), (finalRadius * z_y_ratio), finalRadius);					
 				}
 			}
 			
@@ -191,10 +194,10 @@ public class BV_RecursiveFilter implements Cancelable {
 				
 				for (int i = 0; i < iterations; i++) {
 					
-					clij2.copy(input_image, temp_image);
-					clij2.gaussianBlur3D(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
+					backend.copy(input_image, temp_image);
+					backend.gaussianBlur3D(temp_image, input_image, radius, (radius * x_y_ratio), radius / z_x_ratio);
 									
-					if (isLowDifference(clij2, temp_image, input_image)) {
+					if (isLowDifference(backend, temp_image, input_image)) {
 						finalIteration = i;
 						break;
 					}		
@@ -208,9 +211,9 @@ public class BV_RecursiveFilter implements Cancelable {
 	}
 	
 	
-	private boolean isLowDifference(CLIJ2 clij2, ClearCLBuffer img1, ClearCLBuffer img2) {
-		clij2.absoluteDifference(img1, img2, difference_check);
-		double currentDifference = clij2.meanOfAllPixels(difference_check);
+	private boolean isLowDifference(ComputeBackend backend, ComputeBuffer img1, ComputeBuffer img2) {
+		backend.absoluteDifference(img1, img2, difference_check);
+		double currentDifference = backend.meanOfAllPixels(difference_check);
 		
 		boolean lowDifference = false;
 		if (currentDifference - lastDifference == 0) {
@@ -4,7 +4,6 @@
 package de.biovoxxel.bv3dbox.plugins;
 
 import java.text.DecimalFormat;
-import java.util.Arrays;
 import java.util.List;
 
 import org.scijava.ItemVisibility;
@@ -20,20 +19,21 @@ import org.scijava.widget.Button;
 import org.scijava.widget.ChoiceWidget;
 import org.scijava.widget.NumberWidget;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.PreviewScheduler;
+import de.biovoxxel.bv3dbox.utilities.ThresholdComparison;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
-import ij.process.AutoThresholder;
 import ij.process.ImageProcessor;
 import ij.process.LUT;
 import ij.process.StackProcessor;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
-import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
 
 /*
  * BSD 3-Clause License
@@ -97,6 +97,9 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	@Parameter(label = "Auto Threshold", initializer = "thresholdMethodList", callback = "thresholdCheck", persist = true)
 	private String thresholdMethod = "Default";
 	
+	@Parameter(label = "Compare all methods", description = "Ranks all methods of the threshold library by their Jaccard index against the contrast saturation", callback = "compareAllMethods", required = false)
+	private Button compareAllButton = null;
+	
 	@Parameter(label = "Contrast saturation (%)", min = "0.00", max = "100.00", stepSize = "0.05", style = NumberWidget.SLIDER_STYLE, callback = "thresholdCheck", persist = false, required = false)
 	private Double saturation = 0.00;
 
@@ -125,8 +128,8 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	private String dice = "";
 	
 		
-	CLIJ2 clij2;
-	ClearCLBuffer inputImage;
+	ComputeBackend backend;
+	ComputeBuffer inputImage;
 	int bins = 256;
 	
 	byte[] red = new byte[bins];
@@ -152,6 +155,10 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	private double jaccardIndex;
 
 	private double diceCoeff;
+	
+	private PreviewScheduler previewScheduler = new PreviewScheduler("BV3D Threshold Check preview");
+	
+	private int[] stackHistogram;
 		
 	/**
 	 * 
@@ -161,22 +168,42 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		
 		System.out.println(inputImagePlus);
 		
-		double thresholdValue = getThreshold();
-		applyThreshold(thresholdValue);
+		previewScheduler.shutdown();
+		
+		try {
+			double thresholdValue = getThreshold();
+			applyThreshold(thresholdValue);
+		} finally {
+			backend.close();
+		}
 		
 	}
 	
 	
 	public void thresholdCheck() {
-		double thresholdValue = getThreshold();
-		
-		applyThresholdLUT(thresholdValue);
-		
+		previewScheduler.submit(ticket -> {
+			double thresholdValue = getThreshold();
+			ticket.checkCanceled();
+			
+			LUT thresholdLUT = createLUT(thresholdValue);
+			ticket.publish(() -> inputImagePlus.setLut(thresholdLUT));
+		});
 	}
 	
 	public double getThreshold() {
 		
-		int[] stackHistogram = BV3DBoxUtilities.getHistogram(inputImagePlus);
+		double thresholdValue = ThresholdComparison.getThreshold(thresholdLibrary, thresholdMethod, getThresholdHistogram());
+		
+		log.debug(thresholdMethod + " with value = " + thresholdValue + " displayed");
+		return thresholdValue;
+			
+	}
+	
+	
+	/**
+	 * @return the stack histogram limited according to the histogram usage
+	 */
+	private int[] getThresholdHistogram() {
 		
 		int[] finalHistogram = stackHistogram.clone();
 		//System.out.println("initial stackHistogram extremes =" + finalHistogram[0] + " / " + finalHistogram[stackHistogram.length-1]);
@@ -199,34 +226,30 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		}
 		//System.out.println("final stackHistogram extremes =" + finalHistogram[0] + " / " + finalHistogram[stackHistogram.length-1]);
 		
-		double thresholdValue = 0.0;
+		return finalHistogram;
+	}
+	
+	
+	/**
+	 * Scores all methods of the current library on the stack histogram and shows them ranked in a table
+	 */
+	@SuppressWarnings("unused")
+	private void compareAllMethods() {
 		
-		if (thresholdLibrary.equals("CLIJ2")) {
-			
-			thresholdValue = BV3DBoxUtilities.getThresholdValue(thresholdMethod, finalHistogram);
-			//thresholdValue = clij2.getAutomaticThreshold(inputImage, thresholdMethod);	
-			
-		} else if (thresholdLibrary.equals("IJ")) {
-			
-			AutoThresholder autoThresholder = new AutoThresholder();
-			
-			if (thresholdMethod.equals("Huang2")) {
-
-				thresholdValue = (double) BV3DBoxUtilities.calculateHuang2(finalHistogram);
-				
-			} else {
-				
-				thresholdValue = (double) autoThresholder.getThreshold(thresholdMethod, finalHistogram);
-			}
-
-
+		if (saturation <= 0.0) {
+			log.warn("Comparing all methods needs a contrast saturation above 0% as reference foreground");
+			IJ.showStatus("Set a contrast saturation to compare all methods");
+			return;
 		}
 		
-		thresholdValue = thresholdValue + 1; //correction to achieve same result as IJ 
-		
-		log.debug(thresholdMethod + " with value = " + thresholdValue + " displayed");
-		return thresholdValue;
+		previewScheduler.submit(ticket -> {
+			ThresholdComparison comparison = new ThresholdComparison(stackHistogram, saturation);
+			List<ThresholdComparison.Score> ranking = comparison.compareAll(thresholdLibrary, getThresholdHistogram());
+			ticket.checkCanceled();
 			
+			log.debug("Best method = " + ranking.get(0));
+			ticket.publish(() -> ThresholdComparison.toTable(ranking).show("Threshold Comparison (" + thresholdLibrary + ") of " + inputImagePlus.getTitle()));
+		});
 	}
 
 
@@ -285,7 +308,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	
 	public void applyThreshold(double thresholdValue) {
 		
-		ClearCLBuffer outputImage = clij2.create(inputImage);
+		ComputeBuffer outputImage = backend.create(inputImage);
 		log.debug("outputImage = " + outputImage);
 		
 //		if (inputImagePlus.getBitDepth() == 16) {
@@ -295,7 +318,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 //		}
 //		log.debug("thresholdValue = " + thresholdValue);
 		
-		clij2.threshold(inputImage, outputImage, thresholdValue);
+		backend.threshold(inputImage, outputImage, thresholdValue);
 		
 		String outputImageName = WindowManager.getUniqueName(thresholdMethod + "_" + inputImagePlus.getTitle());
 		
@@ -305,7 +328,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		
 		if (outputImageStyle.equals("0/255")) {
 			log.debug("creating 0/255 result");
-			ImagePlus outputImagePlus = clij2.pullBinary(outputImage);
+			ImagePlus outputImagePlus = backend.pullBinary(outputImage);
 			outputImagePlus.setTitle(outputImageName);
 			outputImagePlus.setCalibration(inputImagePlus.getCalibration());
 //TODO: in batch mode images are not correctly displayed
@@ -319,14 +342,15 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		} else if (outputImageStyle.equals("0/1")) {
 			log.debug("creating 0/1 result");
 			outputImage.setName(outputImageName);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, outputImage, true, LutNames.GRAY, inputImagePlus.getCalibration());
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, outputImage, true, LutNames.GRAY, inputImagePlus.getCalibration());
 			
 		} else {
 			log.debug("creating label result");
-			ClearCLBuffer labelOutputImage = clij2.create(outputImage.getDimensions(), NativeTypeEnum.Float);
-			clij2.connectedComponentsLabelingBox(outputImage, labelOutputImage);
+			ComputeBuffer labelOutputImage = LabelBuffers.create(backend, outputImage.getDimensions());
+			backend.connectedComponentsLabelingBox(outputImage, labelOutputImage);
+			labelOutputImage = LabelBuffers.fit(backend, labelOutputImage);
 			labelOutputImage.setName(outputImageName);
-			BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, labelOutputImage, true, LutNames.GLASBEY_LUT, inputImagePlus.getCalibration());
+			BV3DBoxUtilities.pullAndDisplayImageFromGPU(backend, labelOutputImage, true, LutNames.GLASBEY_LUT, inputImagePlus.getCalibration());
 			labelOutputImage.close();
 			
 		}
@@ -335,7 +359,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 		//cleanup
 		inputImage.close();
 		outputImage.close();
-		clij2.clear();
+		backend.clear();
 		
 	}
 	
@@ -349,26 +373,7 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	
 	private void thresholdMethodList() {
 		
-		List<String> finalThresholdMethodList;
-		
-		if (thresholdLibrary.equals("CLIJ2")) {
-			
-			finalThresholdMethodList =  Arrays.asList(AutoThresholderImageJ1.getMethods());
-			
-		} else { 
-			
-			String[] thresholdMethodArray = AutoThresholder.getMethods();
-			String[] extendedThresholdMethodArray = new String[thresholdMethodArray.length + 1];
-			
-			System.arraycopy(thresholdMethodArray, 0, extendedThresholdMethodArray, 0, 2);
-			extendedThresholdMethodArray[2] = "Huang2";
-			System.arraycopy(thresholdMethodArray, 2, extendedThresholdMethodArray, 3, thresholdMethodArray.length-2);
-			
-			System.out.println(extendedThresholdMethodArray);
-			
-			finalThresholdMethodList = Arrays.asList(extendedThresholdMethodArray);
-			
-		}	
+		List<String> finalThresholdMethodList = ThresholdComparison.getMethods(thresholdLibrary);
 		
 		final MutableModuleItem<String> thresholdMethod = getInfo().getMutableInput("thresholdMethod", String.class);
 		thresholdMethod.setChoices(finalThresholdMethodList);
@@ -395,10 +400,14 @@ public class BV_ThresholdCheck extends DynamicCommand {
 				
 		originalLut = inputImagePlus.getProcessor().getLut();
 
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
+		if (backend == null) {
+			backend = ComputeBackendFactory.openSession();
+		}
+		backend.clear();
 		
-		inputImage = clij2.push(BV3DBoxUtilities.convertToGray8(inputImagePlus));
+		inputImage = backend.push(BV3DBoxUtilities.convertToGray8(inputImagePlus));
+		
+		stackHistogram = BV3DBoxUtilities.getHistogram(inputImagePlus);
 					
 		log.debug(inputImagePlus.getTitle() + " pushed to GPU");
 		
@@ -421,12 +430,14 @@ public class BV_ThresholdCheck extends DynamicCommand {
 	@SuppressWarnings("unused")
 	private void invertImage() {
 		
-		inputImagePlus.setLut(originalLut);
-		
-		StackProcessor sp = new StackProcessor(inputImagePlus.getStack());
-		sp.invert();
-		
-		imageSetup();
+		previewScheduler.runNow(ticket -> {
+			inputImagePlus.setLut(originalLut);
+			
+			StackProcessor sp = new StackProcessor(inputImagePlus.getStack());
+			sp.invert();
+			
+			imageSetup();
+		});
 		
 		thresholdCheck();
 		
@@ -434,73 +445,49 @@ public class BV_ThresholdCheck extends DynamicCommand {
 
 
 	
+	/**
+	 * Scores the threshold with {@link ThresholdComparison} on the stack histogram, so that the values
+	 * are the same as in the table of {@link #compareAllMethods()}
+	 * 
+	 * @return the lowest intensity of the saturated reference foreground
+	 */
 	public double getSaturatedMaxIntentsity(double percentSaturation, double thresholdValue) {
 		
-		percentSaturation = percentSaturation > 100 ? 100 : percentSaturation;
-		
-		//int totalPixelCount = (inputImagePlus.getWidth() * inputImagePlus.getHeight() * inputImagePlus.getNSlices());
-		double totalPixelCount = (double) inputImage.getVolume();
-		log.debug("totalPixelCount =" + totalPixelCount);
+		ThresholdComparison comparison = new ThresholdComparison(stackHistogram, percentSaturation);
+		ThresholdComparison.Score score = comparison.score(thresholdMethod, thresholdValue);
+		log.debug("score = " + score);
 		
-		double acceptedSaturatedPixelCount = totalPixelCount / 100 * percentSaturation;
+		truePositive = score.getTruePositive();
+		trueNegative = score.getTrueNegative();
+		falsePositive = score.getFalsePositive();
+		falseNegative = score.getFalseNegative();
+		log.debug("TP / TN / FP / FN = " + truePositive + " / " + trueNegative + " / " + falsePositive + " / " + falseNegative);
 		
-		ImageProcessor inputProcessor = inputImagePlus.getProcessor();
-		int[] histogram = inputProcessor.getHistogram(256);
-		
-		double saturatedPixelCount = 0;
-		double foregroundPixelCount = 0;
-		double saturationIntensity = 255;
-		for (int intensity = 255; intensity >= 0; intensity--) {
-	
-			if (saturatedPixelCount <= acceptedSaturatedPixelCount) {
-				saturatedPixelCount += histogram[intensity];
-				saturationIntensity = intensity;
-			} 
-			
-			if (intensity >= thresholdValue) {
-				foregroundPixelCount += histogram[intensity];
-			}
-		}
-		log.debug("foregroundPixelCount =" + foregroundPixelCount);
-		
-		double backgroundPixelCount = totalPixelCount - foregroundPixelCount;
-		log.debug("backgroundPixelCount =" + backgroundPixelCount);
-		
-		truePositive = Math.min(saturatedPixelCount, foregroundPixelCount);
-		log.debug("truePositive =" + truePositive);
-		trueNegative = Math.min(backgroundPixelCount, (totalPixelCount - saturatedPixelCount));
-		log.debug("trueNegative =" + trueNegative);
-		falsePositive = Math.max(foregroundPixelCount - saturatedPixelCount, 0);
-		log.debug("falsePositive =" + falsePositive);
-		falseNegative = Math.max(saturatedPixelCount - foregroundPixelCount, 0);
-		log.debug("falseNegative =" + falseNegative);
-		
-		sensitivity = truePositive / (truePositive + falseNegative);
-		sensitivity = Math.max(sensitivity, 1.0);
+		sensitivity = score.getSensitivity();
 		log.debug("Sensitivity = " + df.format(sensitivity));
 		
-		specificity = trueNegative / (trueNegative + falsePositive);
-		specificity = Math.max(specificity, 1.0);
+		specificity = score.getSpecificity();
 		log.debug("Specificity = " + df.format(specificity));
 		
-		jaccardIndex = truePositive / (truePositive + falsePositive + falseNegative);
+		jaccardIndex = score.getJaccardIndex();
 		log.debug("JaccardIndex = " + df.format(jaccardIndex));
 		
-		diceCoeff = (2 * truePositive) / (2 * truePositive + falsePositive + falseNegative);
+		diceCoeff = score.getDiceCoefficient();
 		log.debug("DiceCoeff = " + df.format(diceCoeff));
 		
-		System.out.println("recalc dice = " + ((2*jaccardIndex) / (jaccardIndex + 1)));
-		
-//TODO: calculation of at least the specificity seems to be still not correct (at least for stacks)
 		IJ.showStatus(thresholdMethod + "(" + thresholdLibrary + "): JaccardIndex=" + df.format(jaccardIndex) + " / DiceCoeff = " + df.format(diceCoeff));
 		
-		return saturationIntensity;
+		return comparison.getReferenceIntensity();
 	}
 	
 	
 		
 	public void cancel() {
+		previewScheduler.shutdown();
 		inputImagePlus.setLut(originalLut);
+		if (backend != null) {
+			backend.close();
+		}
 	}
 	
 }
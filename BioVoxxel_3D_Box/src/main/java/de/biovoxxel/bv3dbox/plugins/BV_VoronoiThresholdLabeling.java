@@ -1,6 +1,7 @@
 package de.biovoxxel.bv3dbox.plugins;
 
 import java.awt.Rectangle;
+import java.util.Arrays;
 
 import org.scijava.Cancelable;
 import org.scijava.log.LogLevel;
@@ -9,21 +10,25 @@ import org.scijava.log.StderrLogService;
 import org.scijava.prefs.DefaultPrefService;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxSettings;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities.LutNames;
+import de.biovoxxel.bv3dbox.utilities.ProgressivePreview;
+import de.biovoxxel.bv3dbox.utilities.SlabPreview;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.WindowManager;
 import ij.gui.Roi;
 import ij.plugin.LutLoader;
+import ij.process.ImageProcessor;
 import ij.process.LUT;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij.coremem.enums.NativeTypeEnum;
-import net.haesleinhuepf.clij2.CLIJ2;
-import net.haesleinhuepf.clijx.CLIJx;
-import net.haesleinhuepf.clijx.imagej2.ImageJ2Tubeness;
 
 
 /*
@@ -71,14 +76,12 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	PrefService prefs = new DefaultPrefService();
 	LogService log = new StderrLogService();
 			
-	private CLIJ2 clij2;
-	private CLIJx clijx;
-	
-	ImageJ2Tubeness ij2Tubeness = new ImageJ2Tubeness();
+	private ComputeBackend backend;
 	
 	private ImagePlus inputImagePlus;
 	
-	private ClearCLBuffer input_image;
+	private ComputeBuffer input_image;
+	private ImagePlus filterInputImagePlus;
 	private ImagePlus outputImagePlus = null;
 	private String outputImageName = "";
 	
@@ -99,11 +102,11 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 
 	private final String OUTPUT_PREFIX = "VTL_"; 
 
-	private ClearCLBuffer filteredImage = null;
-	private ClearCLBuffer backgroundSubtractedImage = null;
-	private ClearCLBuffer thresholdedImage = null;
-	private ClearCLBuffer seedImage = null;
-	private ClearCLBuffer outputImage = null;
+	private ComputeBuffer backgroundSubtractedImage = null;
+	private ComputeBuffer thresholdedImage = null;
+	private ComputeBuffer outputImage = null;
+	
+	private volatile String cancelReason = null;
 
 	
 	public BV_VoronoiThresholdLabeling() {
@@ -153,17 +156,17 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		
 		log.setLevel(prefs.getInt(BV3DBoxSettings.class, "bv_3d_box_settings_debug_level", LogLevel.INFO));
 		this.inputImagePlus = image;
+		cancelReason = null;
 				
 		outputImageName = WindowManager.getUniqueName(OUTPUT_PREFIX + inputImagePlus.getTitle());
 		log.debug("outputImageName = " + outputImageName);
 		
 		calibration = BV3DBoxUtilities.readCalibration(image);
 		
-		clij2 = CLIJ2.getInstance();
-		clij2.clear();
-		
-		clijx = CLIJx.getInstance();
-		clijx.clear();
+		if (backend == null) {
+			backend = ComputeBackendFactory.openSession();
+		}
+		backend.clear();
 		
 		Roi currentRoi = inputImagePlus.getRoi();
 		log.debug("currentRoi = " + currentRoi);
@@ -179,13 +182,18 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 			ImagePlus tempImagePlus = new ImagePlus("tempImage", croppedStack);
 			log.debug("tempImagePlus = " + tempImagePlus);
 
-			input_image = clij2.push(BV3DBoxUtilities.convertToGray8(tempImagePlus));
+			filterInputImagePlus = BV3DBoxUtilities.convertToGray8(tempImagePlus);
 			
 		} else {
 			
-			input_image = clij2.push(BV3DBoxUtilities.convertToGray8(inputImagePlus));
+			filterInputImagePlus = BV3DBoxUtilities.convertToGray8(inputImagePlus);
 			
 		}
+		
+		input_image = null;
+		if (!TiledFilterExecutor.needsTiling(filterInputImagePlus, ComputeBackendFactory.getTileMemoryLimit())) {
+			input_image = backend.push(filterInputImagePlus);
+		}
 	}
 	
 	
@@ -221,42 +229,202 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	 * Complete processing sequence with either the default input values or the given ones (via Constructor)
 	 */
 	public void processImage() {
-						
-		filteredImage = filterImage(input_image, filterMethod, filterRadius);
-		IJ.showProgress(0.2);
 		
-		backgroundSubtractedImage = backgroundSubtraction(filteredImage, backgroundSubtractionMethod, backgroundRadius);
-		filteredImage.close();
+		BufferTracker.Run run = backend.getBufferTracker().startRun("Voronoi Threshold Labeling");
+		try {
+		
+			outputImage = computeLabels();
+			
+			createOutputImage(outputImage, outputType);
+			outputImage.close();
+			IJ.showProgress(1.0);
+			
+		} finally {
+			run.close();
+		}
+		
+		logUnreleased(run);
+	}
+	
+	
+	/**
+	 * Complete processing sequence like {@link #processImage()} without displaying the output image, e.g. for batch processing
+	 * 
+	 * @return the output image of the current output type
+	 */
+	public ImagePlus computeOutputImage() {
+		
+		ImagePlus tempOutputImagePlus;
+		
+		BufferTracker.Run run = backend.getBufferTracker().startRun("Voronoi Threshold Labeling");
+		try {
+			
+			outputImage = computeLabels();
+			
+			tempOutputImagePlus = pullOutputImage(null, outputImage, outputType);
+			outputImage.close();
+			
+		} finally {
+			run.close();
+		}
+		
+		logUnreleased(run);
+		
+		tempOutputImagePlus.setTitle(outputImageName);
+		tempOutputImagePlus.setCalibration(inputImagePlus.getCalibration());
+		return tempOutputImagePlus;
+	}
+	
+	
+	/**
+	 * Complete processing sequence like {@link #computeOutputImage()} but the label image stays on the backend,
+	 * e.g. to hand it over to the {@link BV_PostProcessor} or {@link BV_ObjectInspector} without pulling and pushing it again.
+	 * 
+	 * @return the label image, which needs to be closed by the caller
+	 */
+	public ComputeBuffer computeLabelBuffer() {
+		
+		ComputeBuffer label_image = computeLabels();
+		label_image.setName(outputImageName);
+		IJ.showProgress(1.0);
+		
+		return label_image;
+	}
+	
+	
+	/**
+	 * Filtering, background subtraction, thresholding and label splitting with the current parameters
+	 * 
+	 * @return the label image
+	 */
+	private ComputeBuffer computeLabels() {
+		
+		if (isTiled()) {
+			return computeLabelsTiled();
+		}
+		
+		backgroundSubtractedImage = filterAndSubtractBackground(getInputImageAsComputeBuffer());
 		IJ.showProgress(0.4);
 		
 		thresholdedImage = thresholdImage(backgroundSubtractedImage, thresholdMethod);
 		backgroundSubtractedImage.close();
 		IJ.showProgress(0.6);
 				
-		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(clij2);
+		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(backend);
 		
-		outputImage = labelSplitter.splitLabels(thresholdedImage, separationMethod, spotSigma, maximaRadius);
+		ComputeBuffer label_image = labelSplitter.splitLabels(thresholdedImage, separationMethod, spotSigma, maximaRadius);
 		IJ.showProgress(0.8);
 		
 		thresholdedImage.close();
-		seedImage.close();
 		IJ.showProgress(0.9);
 		
-		createOutputImage(outputImage, outputType);
-		outputImage.close();
-		IJ.showProgress(1.0);
+		return label_image;
+	}
+	
+	
+	/**
+	 * Like {@link #computeLabels()} for inputs which exceed the tile memory limit. The input is filtered in blocks
+	 * and thresholded on the host. Without separation the objects are labelled in blocks as well, otherwise
+	 * only the thresholded image is pushed, since the Voronoi labeling needs the complete mask.
+	 * 
+	 * @return the label image
+	 */
+	private ComputeBuffer computeLabelsTiled() {
+		
+		ImagePlus thresholdedImagePlus = filterAndSubtractBackgroundTiled();
+		IJ.showProgress(0.4);
 		
+		thresholdOnHost(thresholdedImagePlus, thresholdMethod);
+		IJ.showProgress(0.6);
+		
+		if (separationMethod.equals("None")) {
+			ComputeBuffer label_image = BV3DBoxUtilities.labelBinaryImage(backend, thresholdedImagePlus, true);
+			IJ.showProgress(0.9);
+			return label_image;
+		}
+		
+		thresholdedImage = backend.push(thresholdedImagePlus);
+		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(backend);
+		
+		ComputeBuffer label_image = labelSplitter.splitLabels(thresholdedImage, separationMethod, spotSigma, maximaRadius);
+		IJ.showProgress(0.8);
+		
+		thresholdedImage.close();
+		IJ.showProgress(0.9);
+		
+		return label_image;
+	}
+	
+	
+	/**
+	 * Sets the pixels of the image to 1 from the automatic threshold on and to 0 below. The threshold is
+	 * determined like {@link ComputeBackend#getAutomaticThreshold(ComputeBuffer, String)} from a histogram with
+	 * 256 bins between the minimum and the maximum.
+	 */
+	private static void thresholdOnHost(ImagePlus image, String thresholdMethod) {
+		
+		ImageStack stack = image.getStack();
+		int sliceSize = stack.getWidth() * stack.getHeight();
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (int z = 1; z <= stack.getSize(); z++) {
+			ImageProcessor processor = stack.getProcessor(z);
+			for (int i = 0; i < sliceSize; i++) {
+				min = Math.min(min, processor.getf(i));
+				max = Math.max(max, processor.getf(i));
+			}
+		}
+		
+		double threshold = min;
+		double binWidth = (max - min) / 255;
+		if (binWidth > 0) {
+			int[] histogram = new int[256];
+			for (int z = 1; z <= stack.getSize(); z++) {
+				ImageProcessor processor = stack.getProcessor(z);
+				for (int i = 0; i < sliceSize; i++) {
+					histogram[(int) ((processor.getf(i) - min) / binWidth + 0.5)]++;
+				}
+			}
+			threshold = min + BV3DBoxUtilities.getThresholdValue(thresholdMethod, histogram) * binWidth;
+		}
+		
+		for (int z = 1; z <= stack.getSize(); z++) {
+			ImageProcessor processor = stack.getProcessor(z);
+			for (int i = 0; i < sliceSize; i++) {
+				processor.setf(i, processor.getf(i) >= threshold ? 1 : 0);
+			}
+		}
+	}
+	
+	
+	private void logUnreleased(BufferTracker.Run run) {
+		log.debug(run);
+		for (BufferTracker.Allocation allocation : run.getUnreleased()) {
+			log.debug("Unreleased buffer: " + allocation);
+		}
 	}
 
 	
-	public void invertImage(ClearCLBuffer input_image, ClearCLBuffer inverted_image) {
-		clij2.invert(input_image, inverted_image);
+	public void invertImage(ComputeBuffer input_image, ComputeBuffer inverted_image) {
+		backend.invert(input_image, inverted_image);
 	}
 	
 
-	public ClearCLBuffer filterImage(ClearCLBuffer input_image, String filterMethod, Float filterRadius) {
+	public ComputeBuffer filterImage(ComputeBuffer input_image, String filterMethod, Float filterRadius) {
+		return filterImage(input_image, filterMethod, filterRadius, calibration);
+	}
+	
+	/**
+	 * 
+	 * @param input_image
+	 * @param filterMethod
+	 * @param filterRadius
+	 * @param calibration	of the input image as read by {@link BV3DBoxUtilities#readCalibration(ImagePlus)}, e.g. of a downsampled copy
+	 * @return the filtered image
+	 */
+	public ComputeBuffer filterImage(ComputeBuffer input_image, String filterMethod, Float filterRadius, double[] calibration) {
 					
-		ClearCLBuffer filtered_image = clij2.create(input_image);
+		ComputeBuffer filtered_image = backend.create(input_image);
 		//ClearCLBuffer filtered_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
 		
 		double y_filter_radius = filterRadius * calibration[1];
@@ -270,73 +438,73 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		
 		switch (filterMethod) {
 		case "Gaussian":
-			clij2.gaussianBlur3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			backend.gaussianBlur3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "DoG":
 			double dogFilterRadius = filterRadius + 2d;
-			clij2.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogFilterRadius, (dogFilterRadius * calibration[1]), (dogFilterRadius / calibration[2]));
+			backend.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogFilterRadius, (dogFilterRadius * calibration[1]), (dogFilterRadius / calibration[2]));
 			break;
 		
 		case "DoG (diff to r*3)":
 			double dogRadiusTimesThree = filterRadius * 3d;
-			clij2.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogRadiusTimesThree, (dogRadiusTimesThree * calibration[1]), (dogRadiusTimesThree / calibration[2]));
+			backend.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius, dogRadiusTimesThree, (dogRadiusTimesThree * calibration[1]), (dogRadiusTimesThree / calibration[2]));
 			break;
 		
 			
 		case "DoG (2D forced, diff to r*3)":
 			double dogRadius2DTimesThree = filterRadius * 3d;
-			clij2.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, 0, dogRadius2DTimesThree, (dogRadius2DTimesThree * calibration[1]), 0);
+			backend.differenceOfGaussian3D(input_image, filtered_image, filterRadius, y_filter_radius, 0, dogRadius2DTimesThree, (dogRadius2DTimesThree * calibration[1]), 0);
 			break;
 		
 		case "Median":
 			if (stackSize == 1) {
-				clij2.median2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
+				backend.median2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
 			} else {
-				clij2.median3DSliceBySliceSphere(input_image, filtered_image, filterRadius, y_filter_radius);
+				backend.median3DSliceBySliceSphere(input_image, filtered_image, filterRadius, y_filter_radius);
 			}
 			break;
 		case "Mean":
 			if (stackSize == 1) {
-				clij2.mean2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
+				backend.mean2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
 			} else {
-				clij2.mean3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
+				backend.mean3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
 			}
 			break;
 		case "Minimum":
 			if (stackSize == 1) {
-				clij2.minimum2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
+				backend.minimum2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
 			} else {
-				clij2.minimum3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
+				backend.minimum3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
 			}
 			break;	
 		case "Maximum":
 			if (stackSize == 1) {
-				clij2.maximum2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
+				backend.maximum2DSphere(input_image, filtered_image, filterRadius, y_filter_radius);	
 			} else {
-				clij2.maximum3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
+				backend.maximum3DSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);				
 			}
 			break;
 		case "Open":
-			clij2.greyscaleOpeningSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			backend.greyscaleOpeningSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "Close":
-			clij2.greyscaleClosingSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			backend.greyscaleClosingSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "Variance":
-			clij2.varianceSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
+			backend.varianceSphere(input_image, filtered_image, filterRadius, y_filter_radius, z_filter_radius);
 			break;
 		case "Tubeness":
-			ij2Tubeness.imageJ2Tubeness(clij2, input_image, filtered_image, filterRadius, 0f, 0f, 0f);
+			backend.tubeness(input_image, filtered_image, filterRadius);
 			break;
 		case "Inverted Tubeness":
-			ClearCLBuffer inverted_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.invert(input_image, inverted_image);
+			ComputeBuffer inverted_image = backend.create(input_image.getDimensions(), BufferType.FLOAT);
+			backend.invert(input_image, inverted_image);
 			//BV3DBoxUtilities.pullAndDisplayImageFromGPU(clij2, inverted_image, false, LutNames.GRAY);
-			ij2Tubeness.imageJ2Tubeness(clij2, inverted_image, filtered_image, filterRadius, 0f, 0f, 0f);
+			backend.tubeness(inverted_image, filtered_image, filterRadius);
 			inverted_image.close();
 			break;
 		default:
-			clij2.copy(input_image, filtered_image);
+			backend.copy(input_image, filtered_image);
 			break;
 		}
 		
@@ -347,9 +515,142 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	
 	
 	
-	public ClearCLBuffer backgroundSubtraction(ClearCLBuffer filtered_image, String backgroundSubtractionMethod, Float backgroundRadius) {
+	/**
+	 * Filter and background subtraction of the input image, see {@link #filterAndSubtractBackgroundTiled()} for
+	 * inputs exceeding the tile memory limit
+	 * 
+	 * @param input_image
+	 * @return the background subtracted image
+	 */
+	public ComputeBuffer filterAndSubtractBackground(ComputeBuffer input_image) {
+		
+		ComputeBuffer filtered_image = filterImage(input_image, filterMethod, filterRadius);
+		IJ.showProgress(0.2);
+		ComputeBuffer background_subtracted_image = backgroundSubtraction(filtered_image, backgroundSubtractionMethod, backgroundRadius);
+		filtered_image.close();
+		return background_subtracted_image;
+	}
+	
+	
+	/**
+	 * Filter and background subtraction applied to overlapping blocks of the input image which are stitched on the host.
+	 * The input image is not pushed as a whole.
+	 * 
+	 * @return the background subtracted image, identical to the one of {@link #filterAndSubtractBackground(ComputeBuffer)}
+	 */
+	public ImagePlus filterAndSubtractBackgroundTiled() {
+		
+		int[] halo = getFilterHalo(filterInputImagePlus.getStackSize() > 1);
+		log.debug("Filtering in blocks with halo = " + Arrays.toString(halo));
+		
+		return new TiledFilterExecutor(backend, halo).setParallelTilesFromMemoryLimit(filterInputImagePlus).process(filterInputImagePlus, tile -> {
+			ComputeBuffer filtered_tile = filterImage(tile, filterMethod, filterRadius);
+			ComputeBuffer background_subtracted_tile = backgroundSubtraction(filtered_tile, backgroundSubtractionMethod, backgroundRadius);
+			filtered_tile.close();
+			return background_subtracted_tile;
+		});
+	}
+	
+	
+	/**
+	 * @return true if the input image exceeds the tile memory limit and the current filter and background subtraction can be applied in blocks
+	 */
+	public boolean isTiled() {
+		return getFilterHalo(filterInputImagePlus.getStackSize() > 1) != null && TiledFilterExecutor.needsTiling(filterInputImagePlus, ComputeBackendFactory.getTileMemoryLimit());
+	}
+	
+	
+	/**
+	 * @param is3D
+	 * @return the reach in pixels of the current filter and background subtraction or null if they cannot be applied in blocks
+	 */
+	public int[] getFilterHalo(boolean is3D) {
+		
+		double y_filter_radius = filterRadius * calibration[1];
+		double z_filter_radius = is3D ? filterRadius / calibration[2] : 0;
+		
+		int[] filterHalo;
+		switch (filterMethod) {
+		case "Gaussian":
+			filterHalo = TiledFilterExecutor.gaussianHalo(filterRadius, y_filter_radius, z_filter_radius);
+			break;
+		case "DoG":
+			double dogFilterRadius = filterRadius + 2d;
+			filterHalo = TiledFilterExecutor.gaussianHalo(dogFilterRadius, dogFilterRadius * calibration[1], is3D ? dogFilterRadius / calibration[2] : 0);
+			break;
+		case "DoG (diff to r*3)":
+			double dogRadiusTimesThree = filterRadius * 3d;
+			filterHalo = TiledFilterExecutor.gaussianHalo(dogRadiusTimesThree, dogRadiusTimesThree * calibration[1], is3D ? dogRadiusTimesThree / calibration[2] : 0);
+			break;
+		case "DoG (2D forced, diff to r*3)":
+			double dogRadius2DTimesThree = filterRadius * 3d;
+			filterHalo = TiledFilterExecutor.gaussianHalo(dogRadius2DTimesThree, dogRadius2DTimesThree * calibration[1], 0);
+			break;
+		case "Median":
+			filterHalo = TiledFilterExecutor.sphereHalo(filterRadius, y_filter_radius, 0);
+			break;
+		case "Mean":
+		case "Minimum":
+		case "Maximum":
+		case "Variance":
+			filterHalo = TiledFilterExecutor.sphereHalo(filterRadius, y_filter_radius, z_filter_radius);
+			break;
+		case "Open":
+		case "Close":
+			int[] sphereHalo = TiledFilterExecutor.sphereHalo(filterRadius, y_filter_radius, z_filter_radius);
+			filterHalo = TiledFilterExecutor.sum(sphereHalo, sphereHalo);
+			break;
+		case "Tubeness":
+		case "Inverted Tubeness":
+			return null;
+		default:
+			filterHalo = new int[3];
+			break;
+		}
+		
+		double y_bckgr_radius = backgroundRadius * calibration[1];
+		double z_bckgr_radius = is3D ? backgroundRadius / calibration[2] : 0;
+		
+		int[] backgroundHalo;
+		switch (backgroundSubtractionMethod) {
+		case "DoG":
+			backgroundHalo = TiledFilterExecutor.gaussianHalo(backgroundRadius, y_bckgr_radius, z_bckgr_radius);
+			break;
+		case "DoM":
+		case "Minimum":
+			backgroundHalo = TiledFilterExecutor.sphereHalo(backgroundRadius, y_bckgr_radius, 0);
+			break;
+		case "TopHat":
+		case "BottomHat":
+			int[] boxHalo = TiledFilterExecutor.sphereHalo(backgroundRadius, y_bckgr_radius, z_bckgr_radius);
+			backgroundHalo = TiledFilterExecutor.sum(boxHalo, boxHalo);
+			break;
+		case "Inverted Tubeness":
+			return null;
+		default:
+			backgroundHalo = new int[3];
+			break;
+		}
+		
+		return TiledFilterExecutor.sum(filterHalo, backgroundHalo);
+	}
+	
+	
+	public ComputeBuffer backgroundSubtraction(ComputeBuffer filtered_image, String backgroundSubtractionMethod, Float backgroundRadius) {
+		return backgroundSubtraction(filtered_image, backgroundSubtractionMethod, backgroundRadius, calibration);
+	}
+	
+	/**
+	 * 
+	 * @param filtered_image
+	 * @param backgroundSubtractionMethod
+	 * @param backgroundRadius
+	 * @param calibration	of the input image as read by {@link BV3DBoxUtilities#readCalibration(ImagePlus)}, e.g. of a downsampled copy
+	 * @return the background subtracted image
+	 */
+	public ComputeBuffer backgroundSubtraction(ComputeBuffer filtered_image, String backgroundSubtractionMethod, Float backgroundRadius, double[] calibration) {
 		
-		ClearCLBuffer background_subtracted_image = clij2.create(filtered_image);
+		ComputeBuffer background_subtracted_image = backend.create(filtered_image);
 		
 		double y_bckgr_radius = backgroundRadius * calibration[1];
 		double z_bckgr_radius = backgroundRadius / calibration[2];
@@ -362,49 +663,49 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		
 		switch (backgroundSubtractionMethod) {
 		case "None":
-			clij2.copy(filtered_image, background_subtracted_image);
+			backend.copy(filtered_image, background_subtracted_image);
 			break;
 		case "DoG":
-			clij2.differenceOfGaussian3D(filtered_image, background_subtracted_image, 0, 0, 0, backgroundRadius, y_bckgr_radius, z_bckgr_radius);	
+			backend.differenceOfGaussian3D(filtered_image, background_subtracted_image, 0, 0, 0, backgroundRadius, y_bckgr_radius, z_bckgr_radius);	
 			break;
 		case "DoM":
-			ClearCLBuffer tempMedian = clij2.create(filtered_image);
+			ComputeBuffer tempMedian = backend.create(filtered_image);
 			if (zSlices == 1) {
-				clij2.median2DSphere(filtered_image, tempMedian, backgroundRadius, y_bckgr_radius);	
+				backend.median2DSphere(filtered_image, tempMedian, backgroundRadius, y_bckgr_radius);	
 			} else {
-				clij2.median3DSliceBySliceSphere(filtered_image, tempMedian, backgroundRadius, y_bckgr_radius);				
+				backend.median3DSliceBySliceSphere(filtered_image, tempMedian, backgroundRadius, y_bckgr_radius);				
 			}
-			clij2.subtractImages(filtered_image, tempMedian, background_subtracted_image);
+			backend.subtractImages(filtered_image, tempMedian, background_subtracted_image);
 			tempMedian.close();
 			break;
 		case "Minimum":
-			ClearCLBuffer tempMinimum = clij2.create(filtered_image);
+			ComputeBuffer tempMinimum = backend.create(filtered_image);
 			if (zSlices == 1) {
-				clij2.minimum2DSphere(filtered_image, tempMinimum, backgroundRadius, y_bckgr_radius);	
+				backend.minimum2DSphere(filtered_image, tempMinimum, backgroundRadius, y_bckgr_radius);	
 			} else {
-				clij2.minimum3DSliceBySliceSphere(filtered_image, tempMinimum, backgroundRadius, y_bckgr_radius);				
+				backend.minimum3DSliceBySliceSphere(filtered_image, tempMinimum, backgroundRadius, y_bckgr_radius);				
 			}
-			clij2.subtractImages(filtered_image, tempMinimum, background_subtracted_image);
+			backend.subtractImages(filtered_image, tempMinimum, background_subtracted_image);
 			tempMinimum.close();
 			break;
 		case "TopHat":
-			clij2.topHatBox(filtered_image, background_subtracted_image, backgroundRadius, y_bckgr_radius, z_bckgr_radius);
+			backend.topHatBox(filtered_image, background_subtracted_image, backgroundRadius, y_bckgr_radius, z_bckgr_radius);
 			break;
 		case "BottomHat":
-			clij2.bottomHatBox(filtered_image, background_subtracted_image, backgroundRadius, y_bckgr_radius, z_bckgr_radius);
+			backend.bottomHatBox(filtered_image, background_subtracted_image, backgroundRadius, y_bckgr_radius, z_bckgr_radius);
 			break;
 		case "Inverted Tubeness":
-			ClearCLBuffer temp_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
-			ClearCLBuffer tubeness_image = clij2.create(input_image.getDimensions(), NativeTypeEnum.Float);
-			clij2.invert(filtered_image, temp_image);
-			ij2Tubeness.imageJ2Tubeness(clij2, temp_image, tubeness_image, backgroundRadius, 0f, 0f, 0f);
-			clij2.multiplyImageAndScalar(tubeness_image, temp_image, 2.0);	//increase tube intensity to elivate the subtraction effect
-			clij2.subtractImages(filtered_image, temp_image, background_subtracted_image);
+			ComputeBuffer temp_image = backend.create(filtered_image.getDimensions(), BufferType.FLOAT);
+			ComputeBuffer tubeness_image = backend.create(filtered_image.getDimensions(), BufferType.FLOAT);
+			backend.invert(filtered_image, temp_image);
+			backend.tubeness(temp_image, tubeness_image, backgroundRadius);
+			backend.multiplyImageAndScalar(tubeness_image, temp_image, 2.0);	//increase tube intensity to elivate the subtraction effect
+			backend.subtractImages(filtered_image, temp_image, background_subtracted_image);
 			temp_image.close();
 			tubeness_image.close();
 			break;
 		default:
-			clij2.copy(input_image, filtered_image);
+			backend.copy(input_image, filtered_image);
 			break;
 		}
 		
@@ -415,34 +716,61 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	
 	
 	@Deprecated
-	public ClearCLBuffer thresholdImage(ClearCLBuffer background_subtracted_image, String thresholdMethod) {
+	public ComputeBuffer thresholdImage(ComputeBuffer background_subtracted_image, String thresholdMethod) {
 		
-		ClearCLBuffer thresholded_image = clij2.create(background_subtracted_image);
+		ComputeBuffer thresholded_image = backend.create(background_subtracted_image);
 						
-		log.debug("threshold = " + clij2.getAutomaticThreshold(background_subtracted_image, thresholdMethod));
+		log.debug("threshold = " + backend.getAutomaticThreshold(background_subtracted_image, thresholdMethod));
 		
-		clij2.automaticThreshold(background_subtracted_image, thresholded_image, thresholdMethod);
+		backend.automaticThreshold(background_subtracted_image, thresholded_image, thresholdMethod);
 		
 		return thresholded_image;
 	}
 
 	
 	
-	public void createOutputImage(ClearCLBuffer output_image, String outputType) {
-		ImagePlus tempOutputImagePlus = null;
+	public void createOutputImage(ComputeBuffer output_image, String outputType) {
+		ImagePlus tempOutputImagePlus = pullOutputImage(null, output_image, outputType);
+						
+		showOutputImage(tempOutputImagePlus);
 		
-		if (outputType.equals("Binary")) {
-			tempOutputImagePlus = clij2.pullBinary(output_image);
-		} else if (outputType.equals("Labels")) {
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, output_image, false, LutNames.GLASBEY_LUT);
+		outputImagePlus.setDisplayRange(0, backend.maximumOfAllPixels(output_image));     
+		
+		BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
+		
+	}
+	
+	
+	/**
+	 * Shows a preview computed on a slab and/or a downsampled copy of the input image. A slab result only replaces the
+	 * previewed slice of the output image, a downsampled result is upsampled to the size of the input image.
+	 * 
+	 * @param preview_input_image	the input the output was computed from
+	 * @param output_image	result of the preview
+	 * @param outputType
+	 * @param slab	the slab the output was computed on or null for the complete image
+	 * @param downsampling	factor the preview input was downsampled by in x and y
+	 */
+	public void createPreviewImage(ComputeBuffer preview_input_image, ComputeBuffer output_image, String outputType, SlabPreview slab, int downsampling) {
+		ImagePlus tempOutputImagePlus = pullOutputImage(preview_input_image, output_image, outputType);
+		
+		if (downsampling > 1) {
+			tempOutputImagePlus = ProgressivePreview.upsample(tempOutputImagePlus, filterInputImagePlus.getWidth(), filterInputImagePlus.getHeight(), false);
+		}
+		
+		if (slab == null) {
+			showOutputImage(tempOutputImagePlus);
 		} else {
-			
-			ClearCLBuffer temp_output_image = clij2.create(input_image);
-			clij2.visualizeOutlinesOnOriginal(input_image, output_image, temp_output_image);
-			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(clij2, temp_output_image, false, LutNames.OUTLINE);
-			temp_output_image.close();
+			outputImagePlus = slab.showSlice(tempOutputImagePlus, outputImageName);
 		}
-						
+		outputImagePlus.setDisplayRange(0, backend.maximumOfAllPixels(output_image));
+		
+		BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
+	}
+	
+	
+	private void showOutputImage(ImagePlus tempOutputImagePlus) {
+		
 		outputImagePlus = WindowManager.getImage(outputImageName);			
 		
 		if (outputImagePlus == null) {
@@ -453,11 +781,30 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		outputImagePlus.setCalibration(inputImagePlus.getCalibration());
 		outputImagePlus.setTitle(outputImageName);
 		outputImagePlus.show();
+	}
+	
+	
+	/**
+	 * @param original_image	the image to draw the outlines on, null for the input image
+	 */
+	private ImagePlus pullOutputImage(ComputeBuffer original_image, ComputeBuffer output_image, String outputType) {
+		ImagePlus tempOutputImagePlus = null;
 		
-		outputImagePlus.setDisplayRange(0, clij2.getMaximumOfAllPixels(output_image));     
-		
-		BV3DBoxUtilities.adaptImageDisplay(inputImagePlus, outputImagePlus);
-		
+		if (outputType.equals("Binary")) {
+			tempOutputImagePlus = backend.pullBinary(output_image);
+		} else if (outputType.equals("Labels")) {
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, output_image, false, LutNames.GLASBEY_LUT);
+		} else {
+			
+			if (original_image == null) {
+				original_image = getInputImageAsComputeBuffer();
+			}
+			ComputeBuffer temp_output_image = backend.create(original_image);
+			backend.visualizeOutlinesOnOriginal(original_image, output_image, temp_output_image);
+			tempOutputImagePlus = BV3DBoxUtilities.pullImageFromGPU(backend, temp_output_image, false, LutNames.OUTLINE);
+			temp_output_image.close();
+		}
+		return tempOutputImagePlus;
 	}
 	
 		
@@ -466,17 +813,44 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 		return outputImageName;
 	}
 	
-	public ClearCLBuffer getInputImageAsClearClBuffer() {
+	public ImagePlus getInputImage() {
+		return inputImagePlus;
+	}
+	
+	/**
+	 * Pushes the input image if it has not been pushed yet, because it exceeds the tile memory limit
+	 */
+	public ComputeBuffer getInputImageAsComputeBuffer() {
+		if (input_image == null) {
+			input_image = backend.push(filterInputImagePlus);
+		}
 		return input_image;	
 	}
 	
+	/**
+	 * Closes the pushed input image, {@link #getInputImageAsComputeBuffer()} pushes it again if needed
+	 */
+	public void releaseInputImage() {
+		if (input_image != null) {
+			input_image.close();
+			input_image = null;
+		}
+	}
+	
+	/**
+	 * @return the 8-bit image the processing starts from, cropped to the ROI if there is one
+	 */
+	public ImagePlus getFilterInputImage() {
+		return filterInputImagePlus;
+	}
+	
 	
 	public ImagePlus getOutputImage() {
 		return outputImagePlus;
 	}
 	
-	public CLIJ2 getCurrentCLIJ2Instance() {
-		return clij2;
+	public ComputeBackend getCurrentBackend() {
+		return backend;
 	}
 	
 		
@@ -485,24 +859,24 @@ public class BV_VoronoiThresholdLabeling implements Cancelable {
 	}
 
 	public boolean isCanceled() {
-		// TODO Auto-generated method stub
-		return false;
+		return cancelReason != null;
 	}
 
 	public void cancel(String reason) {
 		
+		cancelReason = reason != null ? reason : "Canceled";
+		
 		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
 		if (outputImagePlus != null) {
 			outputImagePlus.close();
 		}
-		clij2.close();
+		backend.clear();
 		
 	}
 
 	public String getCancelReason() {
-		// TODO Auto-generated method stub
-		return null;
+		return cancelReason;
 	}
 	
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,538 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.Cancelable;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine;
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine.Group;
+import de.biovoxxel.bv3dbox.backend.LabelOverlapMap;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.backend.cpu.ParallelExecutor;
+import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable.ColumnType;
+import ij.IJ;
+import ij.ImagePlus;
+import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
+import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY;
+
+/**
+ * Runs the Voronoi Threshold Labeler for all combinations of threshold methods, spot sigmas
+ * and maxima radii. The filter and background subtraction run once and each threshold once.
+ * Maxima seeds only depend on the input image and are detected once per spot sigma and
+ * maxima radius, all other seeds and the Voronoi labeling run per combination, in parallel
+ * on the CPU backend. Each combination is summarized in one row of a table with the object count,
+ * the volume distribution and, if a reference label image is given, the mean Jaccard index
+ * of the reference objects with their best matching label. Volumes and overlaps are measured
+ * on the backend with the {@link LabelMeasurementEngine}, the labels are not pulled.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class BV_VoronoiThresholdSweep implements Cancelable {
+
+	private LogService log = new StderrLogService();
+
+	private final BV_VoronoiThresholdLabeling bvvtl;
+	private final ImagePlus inputImagePlus;
+
+	private String histogramUsage = "full";
+	private String separationMethod = "Maxima";
+	private List<String> thresholdMethods = Arrays.asList("Default");
+	private float[] spotSigmas = {1f};
+	private float[] maximaRadii = {1f};
+	private ImagePlus referenceLabels = null;
+	private int workers = Runtime.getRuntime().availableProcessors();
+
+	private volatile String cancelReason = null;
+
+
+	/**
+	 * The filter and background settings are shared by all combinations
+	 */
+	public BV_VoronoiThresholdSweep(ImagePlus inputImagePlus, String filterMethod, Float filterRadius, String backgroundSubtractionMethod, Float backgroundRadius) {
+		this.inputImagePlus = inputImagePlus;
+		this.bvvtl = new BV_VoronoiThresholdLabeling(inputImagePlus, filterMethod, filterRadius, backgroundSubtractionMethod, backgroundRadius, "Default", separationMethod, 1f, 1f, "Labels");
+	}
+
+
+	/**
+	 * For images which are already filtered, see {@link #sweep(ComputeBackend, ComputeBuffer, ComputeBuffer)}
+	 */
+	public BV_VoronoiThresholdSweep(ImagePlus inputImagePlus) {
+		this.inputImagePlus = inputImagePlus;
+		this.bvvtl = null;
+	}
+
+
+	public void setHistogramUsage(String histogramUsage) {
+		this.histogramUsage = histogramUsage;
+	}
+
+	public void setSeparationMethod(String separationMethod) {
+		this.separationMethod = separationMethod;
+	}
+
+	public void setThresholdMethods(List<String> thresholdMethods) {
+		this.thresholdMethods = thresholdMethods;
+	}
+
+	public void setSpotSigmas(float[] spotSigmas) {
+		this.spotSigmas = spotSigmas;
+	}
+
+	public void setMaximaRadii(float[] maximaRadii) {
+		this.maximaRadii = maximaRadii;
+	}
+
+	/**
+	 * @param referenceLabels	ground truth labels with the dimensions of the input image or null
+	 */
+	public void setReferenceLabels(ImagePlus referenceLabels) {
+		if (referenceLabels != null && (referenceLabels.getWidth() != inputImagePlus.getWidth() || referenceLabels.getHeight() != inputImagePlus.getHeight() || referenceLabels.getStackSize() != inputImagePlus.getStackSize())) {
+			throw new IllegalArgumentException("The reference labels " + referenceLabels.getTitle() + " need the dimensions of " + inputImagePlus.getTitle());
+		}
+		this.referenceLabels = referenceLabels;
+	}
+
+	/**
+	 * @param workers	number of combinations processed at the same time, only used with the CPU backend
+	 */
+	public void setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+	}
+
+
+	/**
+	 * @return one row per combination
+	 */
+	public ColumnarResultsTable sweep() {
+		if (bvvtl == null) {
+			throw new IllegalStateException("No filter settings given, use sweep(backend, input_image, background_subtracted_image)");
+		}
+		ComputeBackend backend = bvvtl.getCurrentBackend();
+		try {
+			ComputeBuffer background_subtracted_image = bvvtl.isTiled() ? backend.push(bvvtl.filterAndSubtractBackgroundTiled()) : bvvtl.filterAndSubtractBackground(bvvtl.getInputImageAsComputeBuffer());
+			ColumnarResultsTable table = sweep(backend, bvvtl.getInputImageAsComputeBuffer(), background_subtracted_image);
+			background_subtracted_image.close();
+			return table;
+		} finally {
+			bvvtl.releaseInputImage();
+			backend.close();
+		}
+	}
+
+
+	/**
+	 * Sweep on an image which is already filtered and background subtracted
+	 *
+	 * @param input_image	the gray input image for the maxima based seeds
+	 * @return one row per combination
+	 */
+	public ColumnarResultsTable sweep(ComputeBackend backend, ComputeBuffer input_image, ComputeBuffer background_subtracted_image) {
+
+		List<float[]> seedParameters = new ArrayList<float[]>();
+		if (separationMethod.equals("None")) {
+			seedParameters.add(new float[] {0f, 0f});
+		} else {
+			for (float spotSigma : spotSigmas) {
+				for (float maximaRadius : maximaRadii) {
+					seedParameters.add(new float[] {spotSigma, maximaRadius});
+				}
+			}
+		}
+		int seedCount = seedParameters.size();
+		int combinations = thresholdMethods.size() * seedCount;
+		Summary[] summaries = new Summary[combinations];
+
+		double[] voxelRatios = BV3DBoxUtilities.getVoxelRatios(inputImagePlus);
+		boolean inputSeeds = BV_LabelSplitter.isInputSeedMethod(separationMethod);
+
+		ParallelExecutor executor = new ParallelExecutor(backend instanceof CPUBackend ? workers : 1);
+		AtomicInteger finished = new AtomicInteger();
+
+		ComputeBuffer[] thresholded_images = new ComputeBuffer[thresholdMethods.size()];
+		double[] thresholdValues = new double[thresholdMethods.size()];
+		ComputeBuffer[] seed_images = new ComputeBuffer[seedCount];
+		ComputeBuffer reference_labels = null;
+
+		BufferTracker.Run run = backend.getBufferTracker().startRun("Voronoi Threshold Sweep");
+		try {
+			long[] referenceVolumes = null;
+			if (referenceLabels != null) {
+				reference_labels = LabelBuffers.push(backend, referenceLabels);
+				referenceVolumes = measureVolumes(backend, reference_labels, null, null);
+			}
+			ComputeBuffer reference_image = reference_labels;
+			long[] referenceVolumeArray = referenceVolumes;
+
+			for (int t = 0; t < thresholdMethods.size(); t++) {
+				thresholdValues[t] = BV3DBoxUtilities.getThresholdValue(backend, thresholdMethods.get(t), background_subtracted_image, histogramUsage);
+				thresholded_images[t] = BV3DBoxUtilities.thresholdImage(backend, background_subtracted_image, thresholdValues[t]);
+			}
+
+			if (inputSeeds) {
+				executor.forEach(0, seedCount, s -> {
+					if (!isCanceled()) {
+						seed_images[s] = createLabelSplitter(backend, voxelRatios).detectSeeds(input_image, null, separationMethod, seedParameters.get(s)[0], seedParameters.get(s)[1]);
+					}
+				});
+			}
+
+			executor.forEach(0, combinations, c -> {
+				if (isCanceled()) {
+					return;
+				}
+				int t = c / seedCount;
+				int s = c % seedCount;
+				float[] parameters = seedParameters.get(s);
+
+				BV_LabelSplitter labelSplitter = createLabelSplitter(backend, voxelRatios);
+				ComputeBuffer thresholded_image = thresholded_images[t];
+				ComputeBuffer seed_image;
+				if (separationMethod.equals("None")) {
+					seed_image = thresholded_image;
+				} else if (inputSeeds) {
+					seed_image = seed_images[s];
+				} else {
+					seed_image = labelSplitter.detectSeeds(input_image, thresholded_image, separationMethod, parameters[0], parameters[1]);
+				}
+
+				ComputeBuffer label_image = labelSplitter.createLabels(seed_image, thresholded_image);
+				if (seed_image != thresholded_image && !inputSeeds) {
+					seed_image.close();
+				}
+				LabelOverlapMap overlap = reference_image != null ? new LabelOverlapMap() : null;
+				long[] volumes = measureVolumes(backend, label_image, reference_image, overlap);
+				label_image.close();
+
+				summaries[c] = summarize(thresholdMethods.get(t), thresholdValues[t], parameters[0], parameters[1], volumes, referenceVolumeArray, overlap);
+				IJ.showProgress(finished.incrementAndGet(), combinations);
+			});
+
+		} finally {
+			closeAll(thresholded_images);
+			closeAll(seed_images);
+			if (reference_labels != null) {
+				reference_labels.close();
+			}
+			executor.shutdown();
+			run.close();
+		}
+		log.debug(run);
+
+		return toTable(summaries, referenceLabels != null);
+	}
+
+
+	private static BV_LabelSplitter createLabelSplitter(ComputeBackend backend, double[] voxelRatios) {
+		BV_LabelSplitter labelSplitter = new BV_LabelSplitter(backend);
+		labelSplitter.setVoxelRatios(voxelRatios);
+		return labelSplitter;
+	}
+
+
+	private static void closeAll(ComputeBuffer[] buffers) {
+		for (ComputeBuffer buffer : buffers) {
+			if (buffer != null) {
+				buffer.close();
+			}
+		}
+	}
+
+
+	/**
+	 * @param reference_labels	reference labels to count the overlapping pixels with or null
+	 * @param overlap	receives the overlapping pixels per label and reference label, only used with reference labels
+	 * @return pixels per label, index 0 is the background
+	 */
+	private static long[] measureVolumes(ComputeBackend backend, ComputeBuffer label_image, ComputeBuffer reference_labels, LabelOverlapMap overlap) {
+		LabelMeasurementEngine engine = new LabelMeasurementEngine(backend, reference_labels != null ? EnumSet.of(Group.OVERLAP) : EnumSet.noneOf(Group.class));
+		engine.setPrimary(label_image, null);
+		if (reference_labels != null) {
+			engine.setSecondary(reference_labels, null);
+		}
+		ColumnarResultsTable table = new ColumnarResultsTable();
+		engine.measure(table, null);
+		if (reference_labels != null) {
+			overlap.add(engine.getOverlaps());
+		}
+
+		long[] volumes = new long[table.size() + 1];
+		for (int row = 0; row < table.size(); row++) {
+			volumes[row + 1] = (long) table.getValue(STATISTICS_ENTRY.PIXEL_COUNT.toString(), row);
+		}
+		return volumes;
+	}
+
+
+	private static long[] getVolumes(int[] labels) {
+		int maxLabel = 0;
+		for (int label : labels) {
+			maxLabel = Math.max(maxLabel, label);
+		}
+		long[] volumes = new long[maxLabel + 1];
+		for (int label : labels) {
+			volumes[label]++;
+		}
+		return volumes;
+	}
+
+
+	/**
+	 * Summary of labels and reference labels given as arrays of the same size, see {@link #summarize(String, double, float, float, long[], long[], LabelOverlapMap)}
+	 *
+	 * @param reference	reference labels or null
+	 */
+	static Summary summarize(String thresholdMethod, double thresholdValue, float spotSigma, float maximaRadius, int[] labels, int[] reference) {
+
+		LabelOverlapMap overlap = null;
+		if (reference != null) {
+			overlap = new LabelOverlapMap();
+			for (int i = 0; i < labels.length; i++) {
+				if (reference[i] > 0 && labels[i] > 0) {
+					overlap.increment(labels[i], reference[i]);
+				}
+			}
+		}
+		return summarize(thresholdMethod, thresholdValue, spotSigma, maximaRadius, getVolumes(labels), reference != null ? getVolumes(reference) : null, overlap);
+	}
+
+
+	/**
+	 * @param volumes	pixels per label
+	 * @param referenceVolumes	pixels per reference label or null
+	 * @param overlap	overlapping pixels per label and reference label or null
+	 */
+	static Summary summarize(String thresholdMethod, double thresholdValue, float spotSigma, float maximaRadius, long[] volumes, long[] referenceVolumes, LabelOverlapMap overlap) {
+
+		long[] objectVolumes = new long[volumes.length];
+		int count = 0;
+		for (int label = 1; label < volumes.length; label++) {
+			if (volumes[label] > 0) {
+				objectVolumes[count++] = volumes[label];
+			}
+		}
+		objectVolumes = Arrays.copyOf(objectVolumes, count);
+		Arrays.sort(objectVolumes);
+
+		Summary summary = new Summary(thresholdMethod, thresholdValue, spotSigma, maximaRadius, objectVolumes);
+
+		if (referenceVolumes != null) {
+			double[] bestJaccard = new double[referenceVolumes.length];
+			overlap.forEach((label, referenceLabel, pixelCount) -> {
+				double jaccard = (double) pixelCount / (referenceVolumes[referenceLabel] + volumes[label] - pixelCount);
+				bestJaccard[referenceLabel] = Math.max(bestJaccard[referenceLabel], jaccard);
+			});
+
+			int referenceCount = 0;
+			double jaccardSum = 0;
+			for (int referenceLabel = 1; referenceLabel < referenceVolumes.length; referenceLabel++) {
+				if (referenceVolumes[referenceLabel] > 0) {
+					referenceCount++;
+					jaccardSum += bestJaccard[referenceLabel];
+					if (bestJaccard[referenceLabel] >= 0.5) {
+						summary.matchedObjects++;
+					}
+				}
+			}
+			summary.meanJaccard = referenceCount > 0 ? jaccardSum / referenceCount : Double.NaN;
+		}
+
+		return summary;
+	}
+
+
+	private static ColumnarResultsTable toTable(Summary[] summaries, boolean withReference) {
+		ColumnarResultsTable table = new ColumnarResultsTable(summaries.length);
+		table.addColumn("ThresholdMethod", ColumnType.STRING);
+		table.addColumn("Threshold", ColumnType.DOUBLE);
+		table.addColumn("SpotSigma", ColumnType.FLOAT);
+		table.addColumn("MaximaRadius", ColumnType.FLOAT);
+		table.addColumn("Count", ColumnType.INT);
+		table.addColumn("MinVolume", ColumnType.DOUBLE);
+		table.addColumn("MeanVolume", ColumnType.DOUBLE);
+		table.addColumn("MedianVolume", ColumnType.DOUBLE);
+		table.addColumn("MaxVolume", ColumnType.DOUBLE);
+		table.addColumn("StdDevVolume", ColumnType.DOUBLE);
+		if (withReference) {
+			table.addColumn("MeanJaccard", ColumnType.DOUBLE);
+			table.addColumn("MatchedObjects", ColumnType.INT);
+		}
+
+		for (Summary summary : summaries) {
+			if (summary == null) {
+				continue;	//canceled
+			}
+			int row = table.addRow();
+			table.setValue("ThresholdMethod", row, summary.thresholdMethod);
+			table.setValue("Threshold", row, summary.thresholdValue);
+			table.setValue("SpotSigma", row, summary.spotSigma);
+			table.setValue("MaximaRadius", row, summary.maximaRadius);
+			table.setValue("Count", row, summary.getCount());
+			table.setValue("MinVolume", row, summary.getMinVolume());
+			table.setValue("MeanVolume", row, summary.getMeanVolume());
+			table.setValue("MedianVolume", row, summary.getMedianVolume());
+			table.setValue("MaxVolume", row, summary.getMaxVolume());
+			table.setValue("StdDevVolume", row, summary.getStdDevVolume());
+			if (withReference) {
+				table.setValue("MeanJaccard", row, summary.meanJaccard);
+				table.setValue("MatchedObjects", row, summary.matchedObjects);
+			}
+		}
+		return table;
+	}
+
+
+	/**
+	 * @param values	comma separated values or ranges like "1-3:0.5" (from-to:step)
+	 */
+	public static float[] parseValues(String values) {
+		List<Float> parsedValues = new ArrayList<Float>();
+		try {
+			for (String item : values.split(",")) {
+				item = item.trim();
+				int rangeSeparator = item.indexOf('-', 1);
+				if (rangeSeparator < 0) {
+					parsedValues.add(Float.parseFloat(item));
+					continue;
+				}
+				String[] limitsAndStep = item.substring(rangeSeparator + 1).split(":");
+				float from = Float.parseFloat(item.substring(0, rangeSeparator).trim());
+				float to = Float.parseFloat(limitsAndStep[0].trim());
+				float step = limitsAndStep.length > 1 ? Float.parseFloat(limitsAndStep[1].trim()) : 1f;
+				if (step <= 0 || to < from) {
+					throw new IllegalArgumentException("Invalid range " + item);
+				}
+				int steps = (int) Math.floor((to - from) / step + 1e-4);
+				for (int s = 0; s <= steps; s++) {
+					parsedValues.add(from + s * step);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid values " + values, e);
+		}
+
+		float[] parsed = new float[parsedValues.size()];
+		for (int v = 0; v < parsed.length; v++) {
+			parsed[v] = parsedValues.get(v);
+		}
+		return parsed;
+	}
+
+
+	/**
+	 * @param methods	comma separated threshold methods or "All"
+	 */
+	public static List<String> parseThresholdMethods(String methods) {
+		List<String> availableMethods = Arrays.asList(AutoThresholderImageJ1.getMethods());
+		if (methods.trim().equalsIgnoreCase("All")) {
+			return availableMethods;
+		}
+		List<String> thresholdMethods = new ArrayList<String>();
+		for (String method : methods.split(",")) {
+			method = method.trim();
+			if (!availableMethods.contains(method)) {
+				throw new IllegalArgumentException("Unknown threshold method " + method + ", available are " + availableMethods);
+			}
+			thresholdMethods.add(method);
+		}
+		return thresholdMethods;
+	}
+
+
+	@Override
+	public boolean isCanceled() {
+		return cancelReason != null;
+	}
+
+	@Override
+	public void cancel(String reason) {
+		cancelReason = reason != null ? reason : "Canceled";
+	}
+
+	@Override
+	public String getCancelReason() {
+		return cancelReason;
+	}
+
+
+
+	/**
+	 * Objects of one combination
+	 */
+	static class Summary {
+
+		private final String thresholdMethod;
+		private final double thresholdValue;
+		private final float spotSigma;
+		private final float maximaRadius;
+		private final long[] volumes;
+		private double meanJaccard = Double.NaN;
+		private int matchedObjects = 0;
+
+		private Summary(String thresholdMethod, double thresholdValue, float spotSigma, float maximaRadius, long[] sortedVolumes) {
+			this.thresholdMethod = thresholdMethod;
+			this.thresholdValue = thresholdValue;
+			this.spotSigma = spotSigma;
+			this.maximaRadius = maximaRadius;
+			this.volumes = sortedVolumes;
+		}
+
+		int getCount() {
+			return volumes.length;
+		}
+
+		double getMinVolume() {
+			return volumes.length > 0 ? volumes[0] : Double.NaN;
+		}
+
+		double getMaxVolume() {
+			return volumes.length > 0 ? volumes[volumes.length - 1] : Double.NaN;
+		}
+
+		double getMeanVolume() {
+			double sum = 0;
+			for (long volume : volumes) {
+				sum += volume;
+			}
+			return volumes.length > 0 ? sum / volumes.length : Double.NaN;
+		}
+
+		double getMedianVolume() {
+			if (volumes.length == 0) {
+				return Double.NaN;
+			}
+			int middle = volumes.length / 2;
+			return volumes.length % 2 == 1 ? volumes[middle] : (volumes[middle - 1] + volumes[middle]) / 2.0;
+		}
+
+		double getStdDevVolume() {
+			double mean = getMeanVolume();
+			double sum = 0;
+			for (long volume : volumes) {
+				sum += (volume - mean) * (volume - mean);
+			}
+			return volumes.length > 1 ? Math.sqrt(sum / (volumes.length - 1)) : Double.NaN;
+		}
+
+		double getMeanJaccard() {
+			return meanJaccard;
+		}
+
+		int getMatchedObjects() {
+			return matchedObjects;
+		}
+	}
+}
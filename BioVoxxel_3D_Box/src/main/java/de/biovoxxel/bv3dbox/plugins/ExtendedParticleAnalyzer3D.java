@@ -9,12 +9,13 @@ import org.scijava.module.MutableModuleItem;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
 import de.biovoxxel.bv3dbox.utilities.BV3DBoxUtilities;
 import ij.ImagePlus;
 import ij.measure.ResultsTable;
 import ij.plugin.filter.ParticleAnalyzer;
-import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
-import net.haesleinhuepf.clij2.CLIJ2;
 
 
 //@Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Extended Particle Analyzer (2D/3D)")
@@ -74,7 +75,7 @@ public class ExtendedParticleAnalyzer3D extends DynamicCommand {
 		}
 		
 		
-		CLIJ2 clij2 = CLIJ2.getInstance();
+		ComputeBackend backend = ComputeBackendFactory.openSession();
 		
 				
 		double minSize = (double) BV3DBoxUtilities.getMinFromRange(areaRange);
@@ -88,14 +89,15 @@ public class ExtendedParticleAnalyzer3D extends DynamicCommand {
 //		ClearCLBuffer initialResultsVector = clij2.create(rowCount, headings.length);
 //		clij2.pushResultsTable(initialResultsVector, initialResults);
 				
-		ClearCLBuffer temp = clij2.push(binaryImagePlus);
-		ClearCLBuffer input_image = clij2.create(temp);
+		ComputeBuffer temp = backend.push(binaryImagePlus);
+		ComputeBuffer input_image = backend.create(temp);
 		if (binaryImagePlus.getProcessor().isBinary()) {
-			clij2.connectedComponentsLabelingBox(temp, input_image);
+			backend.connectedComponentsLabelingBox(temp, input_image);
 		} else {
-			clij2.copy(temp, input_image);
+			backend.copy(temp, input_image);
 		}
 		temp.close();
+		backend.close();
 		
 //		ClearCLBuffer exclusionVector = clij2.create(rowCount, 1);
 //		
@@ -0,0 +1,53 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+
+/**
+ * Shows the memory used by the finished plugin runs and all buffers of the current
+ * compute backend and its open sessions which are still open, together with the code
+ * location they were created at.
+ *
+ * @author BioVoxxel
+ *
+ */
+@Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Memory Report")
+public class BV3DBoxMemoryReport implements Command {
+
+	@Parameter
+	LogService log;
+
+	@Override
+	public void run() {
+
+		ComputeBackend backend = ComputeBackendFactory.getBackend();
+		List<BufferTracker> trackers = ComputeBackendFactory.getBufferTrackers();
+
+		List<BufferTracker.Run> runs = new ArrayList<BufferTracker.Run>();
+		List<BufferTracker.Allocation> liveAllocations = new ArrayList<BufferTracker.Allocation>();
+		long liveBytes = 0;
+		long peakBytes = 0;
+		for (BufferTracker tracker : trackers) {
+			runs.addAll(tracker.getFinishedRuns());
+			liveAllocations.addAll(tracker.getLiveAllocations());
+			liveBytes += tracker.getLiveBytes();
+			peakBytes = Math.max(peakBytes, tracker.getPeakBytes());
+		}
+
+		log.info("Compute backend = " + backend.getName() + ", open sessions = " + (trackers.size() - 1));
+		log.info("Live buffers = " + liveAllocations.size() + " (" + liveBytes + " bytes), highest peak of a session = " + peakBytes + " bytes");
+		log.info(backend.getBufferPool());
+
+		BufferTracker.toRunTable(runs).show("BV3D Memory Runs");
+		BufferTracker.toTable(liveAllocations).show("BV3D Live Buffers");
+	}
+}
@@ -7,6 +7,10 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.prefs.PrefService;
 
+import de.biovoxxel.bv3dbox.backend.BufferPool;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.StageCache;
+
 @Plugin(type = Command.class, menuPath = "Plugins>BioVoxxel 3D Box>Settings")
 public class BV3DBoxSettings implements Command {
 
@@ -24,6 +28,18 @@ public class BV3DBoxSettings implements Command {
 																													+ "if set to 'NONE', there will be no console output anymore!")
 	private String scijavaLogLevel = "WARN"; 
 	
+	@Parameter(label = "Compute backend", choices = {ComputeBackendFactory.AUTO, ComputeBackendFactory.CLIJ2_GPU, ComputeBackendFactory.CPU}, description = "Auto uses CLIJ2 if an OpenCL device is available and falls back to multi-threaded CPU processing otherwise")
+	private String computeBackend = ComputeBackendFactory.AUTO;
+	
+	@Parameter(label = "Buffer pool size (MB)", min = "0", description = "Memory kept for reusing intermediate images between previews, 0 = off")
+	private Long bufferPoolSize = BufferPool.DEFAULT_CAPACITY_MB;
+	
+	@Parameter(label = "Tile memory limit (MB)", min = "0", description = "Images needing more memory for filtering are processed in overlapping blocks, 0 = off")
+	private Long tileMemoryLimit = ComputeBackendFactory.DEFAULT_TILE_MEMORY_MB;
+	
+	@Parameter(label = "Preview cache size (MB)", min = "0", description = "Memory kept for intermediate results of previews, so that a parameter change only recomputes the following steps, 0 = off")
+	private Long previewCacheSize = StageCache.DEFAULT_CAPACITY_MB;
+	
 //	@Parameter(label = "Display debug images")
 //	private Boolean displayDebugImages = false; 
 
@@ -95,6 +111,20 @@ public class BV3DBoxSettings implements Command {
 		
 		
 		
+		prefs.put(BV3DBoxSettings.class, ComputeBackendFactory.BACKEND_PREFERENCE_KEY, computeBackend);
+		System.out.println("Compute backend = " + computeBackend);
+		
+		prefs.put(BV3DBoxSettings.class, ComputeBackendFactory.BUFFER_POOL_PREFERENCE_KEY, bufferPoolSize);
+		System.out.println("Buffer pool size = " + bufferPoolSize + " MB");
+		
+		prefs.put(BV3DBoxSettings.class, ComputeBackendFactory.TILE_MEMORY_PREFERENCE_KEY, tileMemoryLimit);
+		System.out.println("Tile memory limit = " + tileMemoryLimit + " MB");
+		
+		prefs.put(BV3DBoxSettings.class, ComputeBackendFactory.PREVIEW_CACHE_PREFERENCE_KEY, previewCacheSize);
+		System.out.println("Preview cache size = " + previewCacheSize + " MB");
+		
+		
+		
 //		if (displayDebugImages) {
 //			prefs.put(BV3DBoxSettings.class, "bv_3d_box_settings_display_debug_images", true);
 //		} else {
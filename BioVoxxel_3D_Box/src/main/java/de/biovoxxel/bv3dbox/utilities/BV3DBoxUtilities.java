@@ -4,10 +4,17 @@ import java.awt.Color;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Window;
+import java.util.Arrays;
 
 import org.scijava.log.LogService;
 import org.scijava.log.StderrLogService;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.LabelBuffers;
+import de.biovoxxel.bv3dbox.backend.TiledConnectedComponentsLabeling;
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
@@ -19,7 +26,6 @@ import ij.measure.Calibration;
 import ij.plugin.LutLoader;
 import ij.process.ImageConverter;
 import ij.process.LUT;
-import ij.process.StackStatistics;
 import net.haesleinhuepf.clij.clearcl.ClearCLBuffer;
 import net.haesleinhuepf.clij2.CLIJ2;
 import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
@@ -211,6 +217,16 @@ public class BV3DBoxUtilities {
 		
 	}
 	
+	public static void pullAndDisplayImageFromGPU(ComputeBackend backend, ComputeBuffer imageToShow, boolean autoContrast, LutNames lutName, Calibration cal) {
+		
+		ImagePlus imagePlusToBePulled = pullImageFromGPU(backend, imageToShow, autoContrast, lutName);
+		
+		if (cal != null) {
+			imagePlusToBePulled.setCalibration(cal);
+		}
+		imagePlusToBePulled.show();
+	}
+	
 	public static ImagePlus pullImageFromGPU(CLIJ2 clij2, ClearCLBuffer imageToShow, boolean autoContrast, LutNames lutName) {
 		
 		ImagePlus imagePlusToBePulled = clij2.pull(imageToShow);
@@ -238,6 +254,33 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	public static ImagePlus pullImageFromGPU(ComputeBackend backend, ComputeBuffer imageToShow, boolean autoContrast, LutNames lutName) {
+		
+		ImagePlus imagePlusToBePulled = backend.pull(imageToShow);
+		imagePlusToBePulled.setTitle(imageToShow.getName());
+				
+		LUT outputLut;
+		if (lutName.equals(LutNames.GRAY)) {
+			outputLut = createGrayLUT();
+		} else if (lutName.equals(LutNames.OUTLINE)) {
+			outputLut = createOutlineLUT();
+		} else {
+			outputLut = LutLoader.openLut(IJ.getDirectory("luts") + lutName.lutName + ".lut");		
+		}
+		
+		if (outputLut != null) { imagePlusToBePulled.setLut(outputLut); }
+
+		if (autoContrast) {
+			double max_int = backend.maximumOfAllPixels(imageToShow);
+			imagePlusToBePulled.setDisplayRange(0.0, max_int);			
+		} else {
+			imagePlusToBePulled.resetDisplayRange();			
+		}
+		
+		return imagePlusToBePulled;
+	}
+	
+	
 	public static void addImagePlusToBatchModeImages(ImagePlus imageToAdd) {
 		
 		System.out.println("isBatchMode=" + Interpreter.isBatchMode());
@@ -272,28 +315,42 @@ public class BV3DBoxUtilities {
 	}
 	
 	
-	public static int[] getHistogram(ImagePlus image) {
-		StackStatistics stackStatistics;
-		if (image.getRoi() != null) {
-			stackStatistics = new StackStatistics(image.duplicate());
-		} else {
-			stackStatistics = new StackStatistics(image);
+	public static ComputeBuffer convertBinaryToLabelBuffer(ComputeBackend backend, ImagePlus binary_image) {
+		return labelBinaryImage(backend, binary_image, false);
+	}
+	
+	
+	/**
+	 * Connected components labeling into a label buffer of the type fitting the label count, see {@link LabelBuffers}.
+	 * If the binary image does not fit into the tile memory limit it is labelled in blocks, see
+	 * {@link TiledConnectedComponentsLabeling}, and only the final labels are pushed.
+	 * 
+	 * @param box	true for 8/26-connectivity, false for 4/6-connectivity (diamond)
+	 */
+	public static ComputeBuffer labelBinaryImage(ComputeBackend backend, ImagePlus binary_image, boolean box) {
+		long memoryLimit = ComputeBackendFactory.getTileMemoryLimit();
+		if (TiledFilterExecutor.needsTiling(binary_image, memoryLimit)) {
+			return new TiledConnectedComponentsLabeling(backend, box).setMemoryLimit(memoryLimit).setParallelTilesFromMemoryLimit(binary_image).labelToBuffer(binary_image);
 		}
-				
-		double[] tempHistogram = stackStatistics.histogram();
-//		Plot hist = new Plot("Histogram for thresholding", "intensity", "count");
-//		hist.add("bar", tempHistogram);
-//		hist.show();
-		
-		int[] finalHistogram = new int[tempHistogram.length];
 		
-		for (int i = 0; i < tempHistogram.length; i++) {
-			finalHistogram[i] = (int) Math.round(tempHistogram[i]);
+		ComputeBuffer temp_input_image = backend.push(binary_image);
+		ComputeBuffer connectedComponentLabels = LabelBuffers.create(backend, temp_input_image.getDimensions());
+		if (box) {
+			backend.connectedComponentsLabelingBox(temp_input_image, connectedComponentLabels);
+		} else {
+			backend.connectedComponentsLabelingDiamond(temp_input_image, connectedComponentLabels);
 		}
+		temp_input_image.close();
 		
-		
-		
-		return finalHistogram;
+		return LabelBuffers.fit(backend, connectedComponentLabels);
+	}
+	
+	
+	/**
+	 * 256 bin histogram of the whole stack inside the area ROI, see {@link StackHistogram}
+	 */
+	public static int[] getHistogram(ImagePlus image) {
+		return StackHistogram.compute(image).getCounts();
 	}
 	
 	
@@ -348,6 +405,32 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	public static double getThresholdValue(ComputeBackend backend, String thresholdMethod, ComputeBuffer image, String limitation) {
+		
+		double min = 0;
+		double max = 255;
+		
+		switch (limitation) {
+		case "full":
+			break;
+		case "ignore black":
+			min = 1;
+			break;
+		case "ignore white":
+			max = 254;
+			break;
+		case "ignore both":
+			min = 1;
+			max = 254;
+			break;
+		default:
+			break;
+		}
+			
+		return backend.getAutomaticThreshold(image, thresholdMethod, min, max, 256);
+	}
+	
+	
 	public static int getThresholdValue(String thresholdMethod, int[] histogram) {
 		
 		int thresholdValue = 255;
@@ -379,6 +462,19 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	public static ComputeBuffer thresholdImage(ComputeBackend backend, ComputeBuffer input_image, double threshold) {
+		
+		log.debug("threshold = " + threshold);
+		
+		ComputeBuffer thresholded_image = backend.create(input_image);
+		
+		backend.threshold(input_image, thresholded_image, threshold);
+		
+		return thresholded_image;
+		
+	}
+	
+	
 	public static void showWindow(String windowName, boolean show) {
 		Window logWindow = WindowManager.getWindow(windowName);
 		if (logWindow != null) {
@@ -542,6 +638,22 @@ public class BV3DBoxUtilities {
 	}
 	
 	
+	/**
+	 * Huang's fuzzy thresholding with the 16-bit reimplementation of Johannes Schindelin.
+	 * 
+	 * The fuzziness of a threshold sums entropy(|i - mean|) over all bins and the entropy does
+	 * not separate into terms of i and mean, therefore it cannot be taken from prefix sums
+	 * directly. Instead, the entropy is approximated per distance interval by a line with its
+	 * maximum positive and negative deviation, which turns each interval into prefix sums of
+	 * the counts and of index * count. This gives a lower and an upper bound of the fuzziness
+	 * of every threshold in O(number of intervals). Thresholds whose lower bound exceeds the
+	 * smallest upper bound are discarded and the remaining ones are bounded again with finer
+	 * intervals. Only the few thresholds left are evaluated exactly as before, which returns
+	 * the same threshold as the former evaluation of all thresholds in O(bins^2).
+	 * 
+	 * @param data	histogram
+	 * @return threshold
+	 */
 	public static int calculateHuang2(int [] data ) {
 		// Implements Huang's fuzzy thresholding method 
 		// Uses Shannon's entropy function (one can also use Yager's entropy function) 
@@ -574,10 +686,58 @@ public class BV3DBoxUtilities {
 			Smu[i] = -mu * Math.log(mu) - (1 - mu) * Math.log(1 - mu);
 		}
 
+		// exact prefix sums of counts and index * count for the bounds
+		long[] countSum = new long[last + 2];
+		long[] indexSum = new long[last + 2];
+		for (int i = first; i <= last; i++) {
+			countSum[i + 1] = countSum[i] + data[i];
+			indexSum[i + 1] = indexSum[i] + (long) i * data[i];
+		}
+
+		int[] candidates = new int[last - first + 1];
+		int candidateCount = 0;
+		for (int threshold = first; threshold <= last; threshold++) {
+			candidates[candidateCount++] = threshold;
+		}
+
+		// narrow down the thresholds with growing precision, intervals grow by the given factor
+		double[] lowerBounds = new double[candidates.length];
+		double[] bounds = new double[2];
+		for (double intervalGrowth : new double[] { 1.5, 1.125, 1.03125, 1.0078125, 1.001953125 }) {
+			if (candidateCount <= HUANG2_EXACT_CANDIDATES) {
+				break;
+			}
+			FuzzinessIntervals intervals = new FuzzinessIntervals(Smu, intervalGrowth);
+			double smallestUpperBound = Double.MAX_VALUE;
+			for (int c = 0; c < candidateCount; c++) {
+				int threshold = candidates[c];
+				bounds[0] = 0;
+				bounds[1] = 0;
+				int mu = (int)Math.round(W[threshold] / S[threshold]);
+				intervals.addBounds(first, threshold, mu, countSum, indexSum, bounds);
+				if (threshold < last) {
+					mu = (int)Math.round((W[last] - W[threshold]) / (S[last] - S[threshold]));
+					intervals.addBounds(threshold + 1, last, mu, countSum, indexSum, bounds);
+				}
+				lowerBounds[c] = bounds[0];
+				smallestUpperBound = Math.min(smallestUpperBound, bounds[1]);
+			}
+			// tolerance for rounding errors of the bounds and of the exact sums
+			double limit = smallestUpperBound * (1 + 1e-9);
+			int kept = 0;
+			for (int c = 0; c < candidateCount; c++) {
+				if (lowerBounds[c] <= limit) {
+					candidates[kept++] = candidates[c];
+				}
+			}
+			candidateCount = kept;
+		}
+
 		// calculate the threshold
 		int bestThreshold = 0;
 		double bestEntropy = Double.MAX_VALUE;
-		for (int threshold = first; threshold <= last; threshold++) {
+		for (int c = 0; c < candidateCount; c++) {
+			int threshold = candidates[c];
 			double entropy = 0;
 			int mu = (int)Math.round(W[threshold] / S[threshold]);
 			for (int i = first; i <= threshold; i++)
@@ -594,6 +754,81 @@ public class BV3DBoxUtilities {
 
 		return bestThreshold;
 	}
-
 	
+	private static final int HUANG2_EXACT_CANDIDATES = 8;
+	
+	
+	/**
+	 * Entropy summands of Huang2 split into distance intervals [start[k], start[k+1]), each
+	 * approximated by offset + slope * distance with the smallest and largest deviation
+	 */
+	private static class FuzzinessIntervals {
+		
+		final int[] start;
+		final double[] offset, slope, minDeviation, maxDeviation;
+		final int count;
+		
+		FuzzinessIntervals(double[] entropy, double growth) {
+			int maxDistance = entropy.length - 1;
+			int[] starts = new int[entropy.length + 1];
+			int n = 0;
+			for (int d = 0; d <= maxDistance; d = Math.min(Math.max(d + 1, (int) (d * growth)), maxDistance + 1)) {
+				starts[n++] = d;
+			}
+			starts[n] = maxDistance + 1;
+			start = Arrays.copyOf(starts, n + 1);
+			count = n;
+			offset = new double[n];
+			slope = new double[n];
+			minDeviation = new double[n];
+			maxDeviation = new double[n];
+			for (int k = 0; k < n; k++) {
+				int d0 = start[k];
+				int d1 = start[k + 1] - 1;
+				slope[k] = d1 == d0 ? 0 : (entropy[d1] - entropy[d0]) / (d1 - d0);
+				offset[k] = entropy[d0] - slope[k] * d0;
+				for (int d = d0; d <= d1; d++) {
+					double deviation = entropy[d] - (offset[k] + slope[k] * d);
+					minDeviation[k] = Math.min(minDeviation[k], deviation);
+					maxDeviation[k] = Math.max(maxDeviation[k], deviation);
+				}
+			}
+		}
+		
+		/**
+		 * Adds lower and upper bound of sum(entropy[|i - mu|] * data[i]) for i in [from, to]
+		 */
+		void addBounds(int from, int to, int mu, long[] countSum, long[] indexSum, double[] bounds) {
+			for (int k = 0; k < count; k++) {
+				int d0 = start[k];
+				int d1 = start[k + 1] - 1;
+				if (mu - d0 < from && mu + d0 > to) {
+					break;
+				}
+				// bins below mu with distance mu - i
+				int i0 = Math.max(from, mu - d1);
+				int i1 = Math.min(to, mu - d0);
+				if (i0 <= i1) {
+					double pixels = countSum[i1 + 1] - countSum[i0];
+					double distances = mu * pixels - (indexSum[i1 + 1] - indexSum[i0]);
+					addInterval(k, pixels, distances, bounds);
+				}
+				// bins above mu with distance i - mu
+				i0 = Math.max(from, mu + Math.max(1, d0));
+				i1 = Math.min(to, mu + d1);
+				if (i0 <= i1) {
+					double pixels = countSum[i1 + 1] - countSum[i0];
+					double distances = (indexSum[i1 + 1] - indexSum[i0]) - mu * pixels;
+					addInterval(k, pixels, distances, bounds);
+				}
+			}
+		}
+		
+		private void addInterval(int k, double pixels, double distances, double[] bounds) {
+			double linear = offset[k] * pixels + slope[k] * distances;
+			bounds[0] += linear + minDeviation[k] * pixels;
+			bounds[1] += linear + maxDeviation[k] * pixels;
+		}
+	}
+
 }
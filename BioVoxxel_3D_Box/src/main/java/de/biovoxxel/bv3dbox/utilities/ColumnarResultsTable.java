@@ -0,0 +1,603 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Results table storing each column as one primitive array (double, float, int or long)
+ * or as dictionary encoded strings. Measurements write their columns directly without
+ * boxing every cell into an ij.macro.Variable. The ImageJ {@link ResultsTable} is only
+ * created for display, results can also be streamed to CSV or to a compact binary file.
+ *
+ * Binary format (big endian): magic "BV3DCOL1", row count, column count, then per column
+ * the name (modified UTF-8), the type ordinal and the values. String columns store the
+ * dictionary size and entries followed by one int code per row.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ColumnarResultsTable {
+
+	public enum ColumnType { DOUBLE, FLOAT, INT, LONG, STRING }
+
+	private static final String BINARY_MAGIC = "BV3DCOL1";
+
+	private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+	private int rows = 0;
+	private int capacity;
+
+
+	public ColumnarResultsTable() {
+		this(16);
+	}
+
+	public ColumnarResultsTable(int initialCapacity) {
+		this.capacity = Math.max(1, initialCapacity);
+	}
+
+
+	public int size() {
+		return rows;
+	}
+
+	public int getColumnCount() {
+		return columns.size();
+	}
+
+	public String[] getColumnNames() {
+		return columns.keySet().toArray(new String[0]);
+	}
+
+	public boolean columnExists(String name) {
+		return columns.containsKey(name);
+	}
+
+	public ColumnType getColumnType(String name) {
+		return column(name).type;
+	}
+
+
+	/**
+	 * Adds an empty column, existing columns of the same type are kept
+	 */
+	public void addColumn(String name, ColumnType type) {
+		Column existing = columns.get(name);
+		if (existing != null) {
+			if (existing.type != type) {
+				throw new IllegalArgumentException("Column " + name + " already exists as " + existing.type);
+			}
+			return;
+		}
+		Column column = Column.create(name, type, capacity);
+		columns.put(name, column);
+	}
+
+	/**
+	 * Appends a row with all values 0 or empty
+	 *
+	 * @return index of the new row
+	 */
+	public int addRow() {
+		if (rows == capacity) {
+			capacity = capacity * 2;
+			for (Column column : columns.values()) {
+				column.resize(capacity);
+			}
+		}
+		return rows++;
+	}
+
+	public void setValue(String name, int row, double value) {
+		checkRow(row);
+		column(name).set(row, value);
+	}
+
+	public void setValue(String name, int row, String value) {
+		checkRow(row);
+		Column column = column(name);
+		if (column.type != ColumnType.STRING) {
+			throw new IllegalArgumentException("Column " + name + " is not a string column");
+		}
+		((StringColumn) column).set(row, value);
+	}
+
+	public double getValue(String name, int row) {
+		checkRow(row);
+		return column(name).get(row);
+	}
+
+	public String getStringValue(String name, int row) {
+		checkRow(row);
+		return column(name).getString(row);
+	}
+
+	/**
+	 * @return copy of the column values, string columns return their dictionary codes
+	 */
+	public double[] getColumnAsDoubles(String name) {
+		Column column = column(name);
+		double[] values = new double[rows];
+		for (int row = 0; row < rows; row++) {
+			values[row] = column.get(row);
+		}
+		return values;
+	}
+
+
+	public void setColumn(String name, double[] values) {
+		putColumn(new DoubleColumn(name, Arrays.copyOf(values, Math.max(values.length, capacity))), values.length);
+	}
+
+	public void setColumn(String name, float[] values) {
+		putColumn(new FloatColumn(name, Arrays.copyOf(values, Math.max(values.length, capacity))), values.length);
+	}
+
+	public void setColumn(String name, int[] values) {
+		putColumn(new IntColumn(name, Arrays.copyOf(values, Math.max(values.length, capacity))), values.length);
+	}
+
+	public void setColumn(String name, long[] values) {
+		putColumn(new LongColumn(name, Arrays.copyOf(values, Math.max(values.length, capacity))), values.length);
+	}
+
+	/**
+	 * Copies a column of another table with the same number of rows
+	 */
+	public void setColumn(String name, ColumnarResultsTable source, String sourceName) {
+		putColumn(source.column(sourceName).copy(name, Math.max(source.rows, capacity)), source.rows);
+	}
+
+	private void putColumn(Column column, int length) {
+		if (columns.isEmpty() || (columns.size() == 1 && columns.containsKey(column.name))) {
+			rows = length;
+			capacity = Math.max(capacity, length);
+			for (Column other : columns.values()) {
+				other.resize(capacity);
+			}
+		} else if (length != rows) {
+			throw new IllegalArgumentException("Column " + column.name + " has " + length + " rows instead of " + rows);
+		}
+		column.resize(capacity);
+		columns.put(column.name, column);
+	}
+
+
+	/**
+	 * Stable ascending sort of all rows by the given column
+	 */
+	public void sort(String name) {
+		Column key = column(name);
+		Integer[] order = new Integer[rows];
+		for (int row = 0; row < rows; row++) {
+			order[row] = row;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(key.get(a), key.get(b)));
+		int[] permutation = new int[rows];
+		for (int row = 0; row < rows; row++) {
+			permutation[row] = order[row];
+		}
+		for (Column column : columns.values()) {
+			column.permute(permutation, rows);
+		}
+	}
+
+
+	/**
+	 * @return a new ImageJ ResultsTable with the same columns and rows for display
+	 */
+	public ResultsTable toResultsTable() {
+		ResultsTable resultsTable = new ResultsTable(rows);
+		for (Column column : columns.values()) {
+			if (column.type == ColumnType.STRING) {
+				for (int row = 0; row < rows; row++) {
+					resultsTable.setValue(column.name, row, column.getString(row));
+				}
+			} else {
+				resultsTable.setValues(column.name, getColumnAsDoubles(column.name));
+			}
+		}
+		return resultsTable;
+	}
+
+	/**
+	 * Appends all rows to an existing ImageJ ResultsTable, e.g. to collect results of several images
+	 */
+	public void appendTo(ResultsTable resultsTable) {
+		int offset = resultsTable.size();
+		for (int row = 0; row < rows; row++) {
+			resultsTable.incrementCounter();
+		}
+		for (Column column : columns.values()) {
+			for (int row = 0; row < rows; row++) {
+				if (column.type == ColumnType.STRING) {
+					resultsTable.setValue(column.name, offset + row, column.getString(row));
+				} else {
+					resultsTable.setValue(column.name, offset + row, column.get(row));
+				}
+			}
+		}
+	}
+
+	public void show(String title) {
+		toResultsTable().show(title);
+	}
+
+
+	/**
+	 * Streams the table as comma separated values with a header line
+	 */
+	public void saveAsCSV(String path) throws IOException {
+		Column[] columnArray = columns.values().toArray(new Column[0]);
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 16)) {
+			for (int c = 0; c < columnArray.length; c++) {
+				if (c > 0) {
+					writer.write(',');
+				}
+				writer.write(quote(columnArray[c].name));
+			}
+			writer.write('\n');
+			StringBuilder line = new StringBuilder();
+			for (int row = 0; row < rows; row++) {
+				line.setLength(0);
+				for (int c = 0; c < columnArray.length; c++) {
+					if (c > 0) {
+						line.append(',');
+					}
+					columnArray[c].appendCSV(row, line);
+				}
+				line.append('\n');
+				writer.append(line);
+			}
+		}
+	}
+
+	public void saveAsBinary(String path) throws IOException {
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+			output.writeBytes(BINARY_MAGIC);
+			output.writeInt(rows);
+			output.writeInt(columns.size());
+			for (Column column : columns.values()) {
+				output.writeUTF(column.name);
+				output.writeByte(column.type.ordinal());
+				column.write(output, rows);
+			}
+		}
+	}
+
+	public static ColumnarResultsTable openBinary(String path) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16))) {
+			byte[] magic = new byte[BINARY_MAGIC.length()];
+			input.readFully(magic);
+			if (!BINARY_MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+				throw new IOException(path + " is not a BioVoxxel 3D Box columnar results file");
+			}
+			int rows = input.readInt();
+			int columnCount = input.readInt();
+			ColumnarResultsTable table = new ColumnarResultsTable(rows);
+			table.rows = rows;
+			for (int c = 0; c < columnCount; c++) {
+				String name = input.readUTF();
+				Column column = Column.create(name, ColumnType.values()[input.readByte()], table.capacity);
+				column.read(input, rows);
+				table.columns.put(name, column);
+			}
+			return table;
+		}
+	}
+
+
+	private Column column(String name) {
+		Column column = columns.get(name);
+		if (column == null) {
+			throw new IllegalArgumentException("Column " + name + " not found");
+		}
+		return column;
+	}
+
+	private void checkRow(int row) {
+		if (row < 0 || row >= rows) {
+			throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+		}
+	}
+
+	private static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static void appendNumber(double value, StringBuilder line) {
+		if (value == (long) value) {
+			line.append((long) value);
+		} else {
+			line.append(value);
+		}
+	}
+
+
+	private static abstract class Column {
+
+		final String name;
+		final ColumnType type;
+
+		Column(String name, ColumnType type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		static Column create(String name, ColumnType type, int capacity) {
+			switch (type) {
+			case FLOAT: return new FloatColumn(name, new float[capacity]);
+			case INT: return new IntColumn(name, new int[capacity]);
+			case LONG: return new LongColumn(name, new long[capacity]);
+			case STRING: return new StringColumn(name, new int[capacity], new ArrayList<String>());
+			default: return new DoubleColumn(name, new double[capacity]);
+			}
+		}
+
+		abstract double get(int row);
+
+		abstract void set(int row, double value);
+
+		String getString(int row) {
+			StringBuilder value = new StringBuilder();
+			appendCSV(row, value);
+			return value.toString();
+		}
+
+		void appendCSV(int row, StringBuilder line) {
+			appendNumber(get(row), line);
+		}
+
+		abstract void resize(int capacity);
+
+		abstract Column copy(String name, int capacity);
+
+		abstract void permute(int[] permutation, int rows);
+
+		abstract void write(DataOutputStream output, int rows) throws IOException;
+
+		abstract void read(DataInputStream input, int rows) throws IOException;
+	}
+
+
+	private static final class DoubleColumn extends Column {
+
+		double[] values;
+
+		DoubleColumn(String name, double[] values) {
+			super(name, ColumnType.DOUBLE);
+			this.values = values;
+		}
+
+		double get(int row) { return values[row]; }
+
+		void set(int row, double value) { values[row] = value; }
+
+		void resize(int capacity) {
+			if (values.length < capacity) { values = Arrays.copyOf(values, capacity); }
+		}
+
+		Column copy(String name, int capacity) { return new DoubleColumn(name, Arrays.copyOf(values, capacity)); }
+
+		void permute(int[] permutation, int rows) {
+			double[] sorted = values.clone();
+			for (int row = 0; row < rows; row++) { sorted[row] = values[permutation[row]]; }
+			values = sorted;
+		}
+
+		void write(DataOutputStream output, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { output.writeDouble(values[row]); }
+		}
+
+		void read(DataInputStream input, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { values[row] = input.readDouble(); }
+		}
+	}
+
+
+	private static final class FloatColumn extends Column {
+
+		float[] values;
+
+		FloatColumn(String name, float[] values) {
+			super(name, ColumnType.FLOAT);
+			this.values = values;
+		}
+
+		double get(int row) { return values[row]; }
+
+		void set(int row, double value) { values[row] = (float) value; }
+
+		void appendCSV(int row, StringBuilder line) {
+			float value = values[row];
+			if (value == (long) value) { line.append((long) value); } else { line.append(value); }
+		}
+
+		void resize(int capacity) {
+			if (values.length < capacity) { values = Arrays.copyOf(values, capacity); }
+		}
+
+		Column copy(String name, int capacity) { return new FloatColumn(name, Arrays.copyOf(values, capacity)); }
+
+		void permute(int[] permutation, int rows) {
+			float[] sorted = values.clone();
+			for (int row = 0; row < rows; row++) { sorted[row] = values[permutation[row]]; }
+			values = sorted;
+		}
+
+		void write(DataOutputStream output, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { output.writeFloat(values[row]); }
+		}
+
+		void read(DataInputStream input, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { values[row] = input.readFloat(); }
+		}
+	}
+
+
+	private static final class IntColumn extends Column {
+
+		int[] values;
+
+		IntColumn(String name, int[] values) {
+			super(name, ColumnType.INT);
+			this.values = values;
+		}
+
+		double get(int row) { return values[row]; }
+
+		void set(int row, double value) { values[row] = (int) value; }
+
+		void appendCSV(int row, StringBuilder line) { line.append(values[row]); }
+
+		void resize(int capacity) {
+			if (values.length < capacity) { values = Arrays.copyOf(values, capacity); }
+		}
+
+		Column copy(String name, int capacity) { return new IntColumn(name, Arrays.copyOf(values, capacity)); }
+
+		void permute(int[] permutation, int rows) {
+			int[] sorted = values.clone();
+			for (int row = 0; row < rows; row++) { sorted[row] = values[permutation[row]]; }
+			values = sorted;
+		}
+
+		void write(DataOutputStream output, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { output.writeInt(values[row]); }
+		}
+
+		void read(DataInputStream input, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { values[row] = input.readInt(); }
+		}
+	}
+
+
+	private static final class LongColumn extends Column {
+
+		long[] values;
+
+		LongColumn(String name, long[] values) {
+			super(name, ColumnType.LONG);
+			this.values = values;
+		}
+
+		double get(int row) { return values[row]; }
+
+		void set(int row, double value) { values[row] = (long) value; }
+
+		void appendCSV(int row, StringBuilder line) { line.append(values[row]); }
+
+		void resize(int capacity) {
+			if (values.length < capacity) { values = Arrays.copyOf(values, capacity); }
+		}
+
+		Column copy(String name, int capacity) { return new LongColumn(name, Arrays.copyOf(values, capacity)); }
+
+		void permute(int[] permutation, int rows) {
+			long[] sorted = values.clone();
+			for (int row = 0; row < rows; row++) { sorted[row] = values[permutation[row]]; }
+			values = sorted;
+		}
+
+		void write(DataOutputStream output, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { output.writeLong(values[row]); }
+		}
+
+		void read(DataInputStream input, int rows) throws IOException {
+			for (int row = 0; row < rows; row++) { values[row] = input.readLong(); }
+		}
+	}
+
+
+	/**
+	 * Strings are stored once in a dictionary, the rows hold their codes. Code 0 is the empty string.
+	 */
+	private static final class StringColumn extends Column {
+
+		int[] codes;
+		final List<String> dictionary;
+		final Map<String, Integer> index = new HashMap<String, Integer>();
+
+		StringColumn(String name, int[] codes, List<String> dictionary) {
+			super(name, ColumnType.STRING);
+			this.codes = codes;
+			this.dictionary = dictionary;
+			if (dictionary.isEmpty()) {
+				dictionary.add("");
+			}
+			for (int code = 0; code < dictionary.size(); code++) {
+				index.put(dictionary.get(code), code);
+			}
+		}
+
+		double get(int row) { return codes[row]; }
+
+		void set(int row, double value) {
+			throw new IllegalArgumentException("Column " + name + " is a string column");
+		}
+
+		void set(int row, String value) {
+			String key = value == null ? "" : value;
+			Integer code = index.get(key);
+			if (code == null) {
+				code = dictionary.size();
+				dictionary.add(key);
+				index.put(key, code);
+			}
+			codes[row] = code;
+		}
+
+		String getString(int row) { return dictionary.get(codes[row]); }
+
+		void appendCSV(int row, StringBuilder line) { line.append(quote(getString(row))); }
+
+		void resize(int capacity) {
+			if (codes.length < capacity) { codes = Arrays.copyOf(codes, capacity); }
+		}
+
+		Column copy(String name, int capacity) { return new StringColumn(name, Arrays.copyOf(codes, capacity), new ArrayList<String>(dictionary)); }
+
+		void permute(int[] permutation, int rows) {
+			int[] sorted = codes.clone();
+			for (int row = 0; row < rows; row++) { sorted[row] = codes[permutation[row]]; }
+			codes = sorted;
+		}
+
+		void write(DataOutputStream output, int rows) throws IOException {
+			output.writeInt(dictionary.size());
+			for (String entry : dictionary) { output.writeUTF(entry); }
+			for (int row = 0; row < rows; row++) { output.writeInt(codes[row]); }
+		}
+
+		void read(DataInputStream input, int rows) throws IOException {
+			dictionary.clear();
+			index.clear();
+			int size = input.readInt();
+			for (int code = 0; code < size; code++) {
+				String entry = input.readUTF();
+				dictionary.add(entry);
+				index.put(entry, code);
+			}
+			for (int row = 0; row < rows; row++) { codes[row] = input.readInt(); }
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.scijava.Cancelable;
+import org.scijava.log.LogService;
+import org.scijava.log.StderrLogService;
+
+/**
+ * Computes the previews of a GUI on a single background thread instead of the
+ * SciJava callback thread, so that dragging a slider does not freeze Fiji.
+ *
+ * Every request supersedes all earlier ones. Requests which are still queued when a
+ * newer one arrives are skipped, the running one sees its {@link Ticket} canceled and
+ * stops at the next {@link Ticket#checkCanceled()} between its pipeline stages. Results
+ * are shown via {@link Ticket#publish(Runnable)} only if no newer request arrived in
+ * the meantime, so a burst of parameter changes costs at most one more pipeline run
+ * than the last change alone.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class PreviewScheduler {
+
+	private static final String SUPERSEDED = "Superseded by a newer preview";
+
+	LogService log = new StderrLogService();
+
+	private final ExecutorService executor;
+	private final AtomicLong latest = new AtomicLong();
+	private volatile boolean shutdown = false;
+
+
+	/**
+	 * @param name	name of the preview thread
+	 */
+	public PreviewScheduler(String name) {
+		executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+
+	/**
+	 * Runs the preview on the preview thread and cancels all earlier ones. Has no effect after {@link #shutdown()}.
+	 */
+	public synchronized void submit(Preview preview) {
+		if (shutdown) {
+			return;
+		}
+		Ticket ticket = new Ticket(latest.incrementAndGet());
+		try {
+			executor.execute(() -> run(preview, ticket));
+		} catch (RejectedExecutionException e) {
+			log.debug("Preview rejected: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Cancels all earlier previews, waits until the preview thread is idle and runs the preview on the calling thread.
+	 * Exceptions are passed on to the caller.
+	 */
+	public void runNow(Preview preview) {
+		Ticket ticket;
+		synchronized (this) {
+			ticket = new Ticket(latest.incrementAndGet());
+		}
+		awaitIdle();
+		preview.run(ticket);
+	}
+
+
+	/**
+	 * Cancels all previews and waits for the running one to stop, {@link #runNow(Preview)} is still possible afterwards
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			shutdown = true;
+			latest.incrementAndGet();
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+
+	private void awaitIdle() {
+		if (executor.isShutdown()) {
+			return;
+		}
+		try {
+			executor.submit(() -> {}).get();
+		} catch (RejectedExecutionException e) {
+			//shut down in the meantime, nothing running anymore
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			log.debug(e);
+		}
+	}
+
+
+	private void run(Preview preview, Ticket ticket) {
+		if (ticket.isCanceled()) {
+			return;	//a newer request is already queued
+		}
+		try {
+			preview.run(ticket);
+		} catch (CancellationException e) {
+			log.debug("Preview " + ticket.generation + " canceled: " + e.getMessage());
+		} catch (RuntimeException e) {
+			log.error("Preview failed", e);
+		}
+	}
+
+
+
+	/**
+	 * Pipeline computing and showing a preview
+	 */
+	@FunctionalInterface
+	public interface Preview {
+		public void run(Ticket ticket);
+	}
+
+
+	/**
+	 * Cancellation state of a single preview request
+	 */
+	public class Ticket implements Cancelable {
+
+		private final long generation;
+		private volatile String cancelReason;
+
+		private Ticket(long generation) {
+			this.generation = generation;
+		}
+
+		/**
+		 * @return true if a newer preview was requested, the scheduler was shut down or the ticket was canceled
+		 */
+		@Override
+		public boolean isCanceled() {
+			return cancelReason != null || generation != latest.get();
+		}
+
+		@Override
+		public void cancel(String reason) {
+			cancelReason = reason != null ? reason : "Canceled";
+		}
+
+		@Override
+		public String getCancelReason() {
+			if (cancelReason != null) {
+				return cancelReason;
+			}
+			return generation != latest.get() ? SUPERSEDED : null;
+		}
+
+		/**
+		 * To be called between pipeline stages
+		 *
+		 * @throws CancellationException if the preview is canceled
+		 */
+		public void checkCanceled() {
+			if (isCanceled()) {
+				throw new CancellationException(getCancelReason());
+			}
+		}
+
+		/**
+		 * Shows the result only if the preview is not canceled. No newer preview can be requested while the result is shown.
+		 *
+		 * @return true if the result was shown
+		 */
+		public boolean publish(Runnable display) {
+			synchronized (PreviewScheduler.this) {
+				if (isCanceled()) {
+					return false;
+				}
+				display.run();
+				return true;
+			}
+		}
+	}
+}
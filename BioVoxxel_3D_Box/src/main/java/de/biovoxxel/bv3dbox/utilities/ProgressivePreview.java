@@ -0,0 +1,97 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+/**
+ * Progressive previews of large images. The preview is first computed on a copy of the
+ * image downsampled in x and y and shown upsampled to the original size, before the
+ * full resolution preview is computed. The z dimension is kept, so the slab of a
+ * {@link SlabPreview} covers the same slices on both levels.
+ *
+ * Radii given in pixels need to be divided by the downsampling factor, the calibration
+ * of the downsampled copy is the one of {@link #downsampleCalibration(double[], int)}.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ProgressivePreview {
+
+	/**
+	 * Inputs up to this size are previewed at full resolution only
+	 */
+	public static final long FULL_RESOLUTION_PREVIEW_BYTES = 16L * 1024 * 1024;
+
+	/**
+	 * Largest downsampling factor in x and y
+	 */
+	public static final int MAX_DOWNSAMPLING = 4;
+
+
+	/**
+	 * @return 1 if the image is small enough for a full resolution preview, otherwise 2 or 4
+	 */
+	public static int getDownsampling(ImagePlus image) {
+		long bytes = (long) image.getWidth() * image.getHeight() * image.getStackSize() * image.getBytesPerPixel();
+		int factor = 1;
+		while (factor < MAX_DOWNSAMPLING && bytes / ((long) factor * factor) > FULL_RESOLUTION_PREVIEW_BYTES && image.getWidth() / (factor * 2) > 0 && image.getHeight() / (factor * 2) > 0) {
+			factor *= 2;
+		}
+		return factor;
+	}
+
+
+	/**
+	 * @return an averaged copy of the image downsampled by the factor in x and y with the calibration adapted accordingly
+	 */
+	public static ImagePlus downsample(ImagePlus image, int factor) {
+		int width = Math.max(1, image.getWidth() / factor);
+		int height = Math.max(1, image.getHeight() / factor);
+
+		ImageStack stack = image.getStack();
+		ImageStack downsampledStack = new ImageStack(width, height);
+		for (int z = 1; z <= stack.getSize(); z++) {
+			ImageProcessor processor = stack.getProcessor(z);
+			processor.setInterpolationMethod(ImageProcessor.BILINEAR);
+			downsampledStack.addSlice(stack.getSliceLabel(z), processor.resize(width, height, true));
+		}
+
+		ImagePlus downsampledImagePlus = new ImagePlus(image.getTitle() + "_downsampled_" + factor, downsampledStack);
+		Calibration calibration = image.getCalibration().copy();
+		calibration.pixelWidth *= factor;
+		calibration.pixelHeight *= factor;
+		downsampledImagePlus.setCalibration(calibration);
+		return downsampledImagePlus;
+	}
+
+
+	/**
+	 * @param calibration	as read by {@link BV3DBoxUtilities#readCalibration(ImagePlus)}
+	 * @return the calibration of the image downsampled by the factor
+	 */
+	public static double[] downsampleCalibration(double[] calibration, int factor) {
+		return new double[] {calibration[0] * factor, calibration[1], calibration[2] / factor};
+	}
+
+
+	/**
+	 * @param interpolate	false for labels and binary images
+	 * @return the downsampled image upsampled to the given size
+	 */
+	public static ImagePlus upsample(ImagePlus image, int width, int height, boolean interpolate) {
+		ImageStack stack = image.getStack();
+		ImageStack upsampledStack = new ImageStack(width, height);
+		for (int z = 1; z <= stack.getSize(); z++) {
+			ImageProcessor processor = stack.getProcessor(z);
+			processor.setInterpolationMethod(interpolate ? ImageProcessor.BILINEAR : ImageProcessor.NONE);
+			upsampledStack.addSlice(stack.getSliceLabel(z), processor.resize(width, height));
+		}
+
+		ImagePlus upsampledImagePlus = new ImagePlus(image.getTitle(), upsampledStack);
+		upsampledImagePlus.setLut(image.getProcessor().getLut());
+		upsampledImagePlus.setDisplayRange(image.getDisplayRangeMin(), image.getDisplayRangeMax());
+		return upsampledImagePlus;
+	}
+}
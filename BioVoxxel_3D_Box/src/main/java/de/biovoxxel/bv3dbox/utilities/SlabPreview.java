@@ -0,0 +1,126 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.WindowManager;
+import ij.process.ImageProcessor;
+
+/**
+ * Preview of a 3D pipeline on the current slice only. The pipeline runs on a slab of the
+ * stack reaching the halo above and below the slice and only this slice of the result is
+ * written into the output image, so the preview cost scales with the slice area instead
+ * of the volume.
+ *
+ * The halo should cover the z reach of all filters. Steps which depend on the whole
+ * stack, like automatic thresholds, labels or hole filling, can still differ from the
+ * complete image close to objects crossing the slab borders. All other slices of the
+ * output image keep what they showed before.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class SlabPreview {
+
+	private final ImagePlus image;
+	private final int slice;
+	private final int firstSlice;
+	private final int lastSlice;
+
+
+	/**
+	 * @param slice	1-based slice to preview
+	 * @param halo	number of slices used above and below the slice
+	 */
+	public SlabPreview(ImagePlus image, int slice, int halo) {
+		this.image = image;
+		int depth = image.getStackSize();
+		this.slice = Math.max(1, Math.min(depth, slice));
+		this.firstSlice = Math.max(1, this.slice - Math.max(0, halo));
+		this.lastSlice = Math.min(depth, this.slice + Math.max(0, halo));
+	}
+
+
+	/**
+	 * @return true for z-stacks, hyperstacks with channels or frames are always previewed completely
+	 */
+	public static boolean isApplicable(ImagePlus image) {
+		return image.getNSlices() > 1 && image.getNChannels() == 1 && image.getNFrames() == 1;
+	}
+
+
+	public int getSlice() {
+		return slice;
+	}
+
+	public int getFirstSlice() {
+		return firstSlice;
+	}
+
+	public int getLastSlice() {
+		return lastSlice;
+	}
+
+	/**
+	 * @return the 1-based position of the previewed slice in the slab
+	 */
+	public int getSliceInSlab() {
+		return slice - firstSlice + 1;
+	}
+
+	/**
+	 * @return true if the slab covers the same slices
+	 */
+	public boolean isSameSlab(SlabPreview other) {
+		return other != null && other.image == image && other.firstSlice == firstSlice && other.lastSlice == lastSlice;
+	}
+
+
+	/**
+	 * @return the slab sharing the pixel arrays of the image
+	 */
+	public ImagePlus getSlab() {
+		ImageStack stack = image.getStack();
+		ImageStack slab = new ImageStack(stack.getWidth(), stack.getHeight());
+		for (int z = firstSlice; z <= lastSlice; z++) {
+			slab.addSlice(stack.getSliceLabel(z), stack.getPixels(z));
+		}
+		ImagePlus slabImagePlus = new ImagePlus(image.getTitle() + "_slab_" + firstSlice + "-" + lastSlice, slab);
+		slabImagePlus.setCalibration(image.getCalibration());
+		return slabImagePlus;
+	}
+
+
+	/**
+	 * Writes the previewed slice of the slab result into the output image, which is created with the
+	 * size of the complete image if it does not exist or does not fit
+	 *
+	 * @return the output image
+	 */
+	public ImagePlus showSlice(ImagePlus slabResult, String outputImageName) {
+		ImageProcessor sliceResult = slabResult.getStack().getProcessor(getSliceInSlab());
+
+		ImagePlus outputImagePlus = WindowManager.getImage(outputImageName);
+		if (outputImagePlus == null) {
+			outputImagePlus = new ImagePlus();
+		}
+		if (outputImagePlus.getWidth() != image.getWidth() || outputImagePlus.getHeight() != image.getHeight() || outputImagePlus.getStackSize() != image.getStackSize() || outputImagePlus.getBitDepth() != slabResult.getBitDepth()) {
+			outputImagePlus.setStack(outputImageName, ImageStack.create(image.getWidth(), image.getHeight(), image.getStackSize(), slabResult.getBitDepth()));
+		}
+
+		outputImagePlus.getStack().setPixels(sliceResult.getPixels(), slice);
+		outputImagePlus.setTitle(outputImageName);
+		outputImagePlus.setCalibration(image.getCalibration());
+		outputImagePlus.setLut(slabResult.getProcessor().getLut());
+		outputImagePlus.setSlice(slice);
+		outputImagePlus.setDisplayRange(slabResult.getDisplayRangeMin(), slabResult.getDisplayRangeMax());
+		outputImagePlus.show();
+		outputImagePlus.updateAndDraw();
+		return outputImagePlus;
+	}
+
+
+	@Override
+	public String toString() {
+		return "SlabPreview [slice=" + slice + ", slab=" + firstSlice + "-" + lastSlice + "]";
+	}
+}
@@ -0,0 +1,268 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import de.biovoxxel.bv3dbox.backend.cpu.ParallelExecutor;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Histogram of all slices of an image computed directly from the pixel arrays of the stack.
+ * The rows of all slices are split between threads which count into their own histograms.
+ * An area ROI is applied as mask on the fly without duplicating the image.
+ *
+ * 8-bit and RGB images (weighted brightness) always cover the gray values 0-255, 16-bit and
+ * 32-bit images the range between the stack minimum and maximum inside the ROI as
+ * StackStatistics does.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class StackHistogram {
+
+	private final long[] counts;
+	private final double minimum;
+	private final double maximum;
+	private final double binWidth;
+	private final long pixelCount;
+
+
+	private StackHistogram(long[] counts, double minimum, double maximum, double binWidth) {
+		this.counts = counts;
+		this.minimum = minimum;
+		this.maximum = maximum;
+		this.binWidth = binWidth;
+		long sum = 0;
+		for (long count : counts) {
+			sum += count;
+		}
+		this.pixelCount = sum;
+	}
+
+
+	/**
+	 * 256 bins as used by the auto thresholding methods
+	 */
+	public static StackHistogram compute(ImagePlus image) {
+		return compute(image, 256);
+	}
+
+	/**
+	 * @param bins	number of bins, if <= 0 8-bit and RGB images use 256 bins, 16-bit images one bin per
+	 * 				gray value between minimum and maximum and 32-bit images 256 bins
+	 */
+	public static StackHistogram compute(ImagePlus image, int bins) {
+		ImageStack stack = image.getStack();
+		Region region = new Region(image);
+		int bitDepth = image.getBitDepth();
+		int threads = stack.isVirtual() ? 1 : Runtime.getRuntime().availableProcessors();
+		ParallelExecutor executor = new ParallelExecutor(threads);
+		try {
+			double histogramMin;
+			double histogramMax;
+			if (bitDepth == 8 || bitDepth == 24) {
+				bins = bins <= 0 ? 256 : bins;
+				histogramMin = 0;
+				histogramMax = 256;
+			} else {
+				double[] range = minMax(executor, stack, region, bitDepth == 16);
+				histogramMin = range[0];
+				histogramMax = range[1];
+				if (bins <= 0 && bitDepth == 16) {
+					bins = (int) (histogramMax - histogramMin) + 1;
+					histogramMax = histogramMin + bins;
+				} else if (bins <= 0) {
+					bins = 256;
+				}
+			}
+			double scale = histogramMax > histogramMin ? bins / (histogramMax - histogramMin) : 1;
+			long[] counts = count(executor, stack, region, bitDepth, bins, histogramMin, scale);
+			return new StackHistogram(counts, histogramMin, histogramMax, 1 / scale);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	/**
+	 * @return the counts as int[] for the thresholding methods, counts above Integer.MAX_VALUE are clipped
+	 */
+	public int[] getCounts() {
+		int[] histogram = new int[counts.length];
+		for (int b = 0; b < counts.length; b++) {
+			histogram[b] = (int) Math.min(Integer.MAX_VALUE, counts[b]);
+		}
+		return histogram;
+	}
+
+	public long[] getLongCounts() {
+		return counts.clone();
+	}
+
+	public int getBinCount() {
+		return counts.length;
+	}
+
+	/**
+	 * @return lower gray value of the first bin
+	 */
+	public double getMinimum() {
+		return minimum;
+	}
+
+	public double getMaximum() {
+		return maximum;
+	}
+
+	public double getBinWidth() {
+		return binWidth;
+	}
+
+	/**
+	 * @return lower gray value of the bin
+	 */
+	public double getValue(int bin) {
+		return minimum + bin * binWidth;
+	}
+
+	public long getPixelCount() {
+		return pixelCount;
+	}
+
+
+	private static double[] minMax(ParallelExecutor executor, ImageStack stack, Region region, boolean integer) {
+		int rows = region.bounds.height;
+		List<double[]> partial = Collections.synchronizedList(new ArrayList<double[]>());
+		executor.forEachChunk(0, stack.getSize() * rows, (start, end) -> {
+			double min = Double.MAX_VALUE;
+			double max = -Double.MAX_VALUE;
+			Object pixels = null;
+			int slice = -1;
+			for (int row = start; row < end; row++) {
+				if (row / rows != slice) {
+					slice = row / rows;
+					pixels = stack.getPixels(slice + 1);
+				}
+				int y = region.bounds.y + row % rows;
+				for (int x = region.bounds.x; x < region.bounds.x + region.bounds.width; x++) {
+					if (!region.contains(x, y)) {
+						continue;
+					}
+					int index = y * region.width + x;
+					double value = integer ? ((short[]) pixels)[index] & 0xffff : ((float[]) pixels)[index];
+					if (Double.isNaN(value)) {
+						continue;
+					}
+					if (value < min) { min = value; }
+					if (value > max) { max = value; }
+				}
+			}
+			partial.add(new double[] { min, max });
+		});
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+		for (double[] range : partial) {
+			min = Math.min(min, range[0]);
+			max = Math.max(max, range[1]);
+		}
+		return min > max ? new double[] { 0, 0 } : new double[] { min, max };
+	}
+
+
+	private static long[] count(ParallelExecutor executor, ImageStack stack, Region region, int bitDepth, int bins, double histogramMin, double scale) {
+		int rows = region.bounds.height;
+		int total = stack.getSize() * rows;
+		List<long[]> partial = Collections.synchronizedList(new ArrayList<long[]>());
+		double[] weights = bitDepth == 24 ? ColorProcessor.getWeightingFactors() : null;
+		executor.forEachChunk(0, total, (start, end) -> {
+			long[] histogram = new long[bins];
+			Object pixels = null;
+			int slice = -1;
+			for (int row = start; row < end; row++) {
+				if (row / rows != slice) {
+					slice = row / rows;
+					pixels = stack.getPixels(slice + 1);
+				}
+				int y = region.bounds.y + row % rows;
+				for (int x = region.bounds.x; x < region.bounds.x + region.bounds.width; x++) {
+					if (!region.contains(x, y)) {
+						continue;
+					}
+					int index = y * region.width + x;
+					double value;
+					switch (bitDepth) {
+					case 8:
+						value = ((byte[]) pixels)[index] & 0xff;
+						break;
+					case 16:
+						value = ((short[]) pixels)[index] & 0xffff;
+						break;
+					case 24:
+						int rgb = ((int[]) pixels)[index];
+						value = (int) (((rgb >> 16) & 0xff) * weights[0] + ((rgb >> 8) & 0xff) * weights[1] + (rgb & 0xff) * weights[2] + 0.5);
+						break;
+					default:
+						value = ((float[]) pixels)[index];
+						if (Double.isNaN(value)) {
+							continue;
+						}
+					}
+					int bin = (int) ((value - histogramMin) * scale);
+					if (bin < 0) {
+						continue;
+					}
+					histogram[bin >= bins ? bins - 1 : bin]++;
+				}
+			}
+			partial.add(histogram);
+		});
+		long[] counts = new long[bins];
+		for (long[] histogram : partial) {
+			for (int b = 0; b < bins; b++) {
+				counts[b] += histogram[b];
+			}
+		}
+		return counts;
+	}
+
+
+	/**
+	 * Bounding rectangle of the area ROI clipped to the image and its mask
+	 */
+	private static class Region {
+
+		final int width;
+		final Rectangle bounds;
+		final byte[] mask;
+		final Rectangle maskBounds;
+
+		Region(ImagePlus image) {
+			width = image.getWidth();
+			Rectangle imageBounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+			Roi roi = image.getRoi();
+			if (roi != null && roi.isArea()) {
+				maskBounds = roi.getBounds();
+				bounds = maskBounds.intersection(imageBounds);
+				ImageProcessor maskProcessor = roi.getMask();
+				mask = maskProcessor == null ? null : (byte[]) maskProcessor.getPixels();
+			} else {
+				maskBounds = imageBounds;
+				bounds = imageBounds;
+				mask = null;
+			}
+			if (bounds.isEmpty()) {
+				bounds.setSize(0, 0);
+			}
+		}
+
+		boolean contains(int x, int y) {
+			return mask == null || mask[(y - maskBounds.y) * maskBounds.width + (x - maskBounds.x)] != 0;
+		}
+	}
+}
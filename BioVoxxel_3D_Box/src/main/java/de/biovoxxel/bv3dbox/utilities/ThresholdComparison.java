@@ -0,0 +1,242 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.biovoxxel.bv3dbox.backend.cpu.ParallelExecutor;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable.ColumnType;
+import ij.process.AutoThresholder;
+import net.haesleinhuepf.clij2.plugins.AutoThresholderImageJ1;
+
+/**
+ * Scores auto thresholds against the reference foreground of the Threshold Check, which
+ * are the brightest pixels within the contrast saturation. Both the reference and the
+ * thresholded foreground are intensity ranges, so all counts are read from the cumulative
+ * histogram built once in the constructor and scoring one threshold does not touch the
+ * pixels again.
+ *
+ * @author BioVoxxel
+ *
+ */
+public class ThresholdComparison {
+
+	public static final String IJ_LIBRARY = "IJ";
+	public static final String CLIJ2_LIBRARY = "CLIJ2";
+
+	private final long[] countsAbove;
+	private final long total;
+	private final int referenceIntensity;
+
+
+	/**
+	 * @param histogram		histogram of all pixels of the image
+	 * @param saturation	percentage of the brightest pixels used as reference foreground
+	 */
+	public ThresholdComparison(int[] histogram, double saturation) {
+		countsAbove = new long[histogram.length + 1];
+		for (int bin = histogram.length - 1; bin >= 0; bin--) {
+			countsAbove[bin] = countsAbove[bin + 1] + histogram[bin];
+		}
+		total = countsAbove[0];
+
+		double acceptedSaturatedPixelCount = total / 100.0 * Math.min(saturation, 100);
+		int intensity = histogram.length - 1;
+		while (intensity > 0 && countsAbove[intensity] <= acceptedSaturatedPixelCount) {
+			intensity--;
+		}
+		referenceIntensity = intensity;
+	}
+
+
+	/**
+	 * @return the lowest intensity of the reference foreground
+	 */
+	public int getReferenceIntensity() {
+		return referenceIntensity;
+	}
+
+
+	/**
+	 * @param thresholdValue	pixels with this or a higher intensity are foreground
+	 */
+	public Score score(String method, double thresholdValue) {
+		int thresholdBin = (int) Math.max(0, Math.min(countsAbove.length - 1, Math.ceil(thresholdValue)));
+		long foreground = countsAbove[thresholdBin];
+		long reference = countsAbove[referenceIntensity];
+
+		long truePositive = countsAbove[Math.max(thresholdBin, referenceIntensity)];
+		long falsePositive = foreground - truePositive;
+		long falseNegative = reference - truePositive;
+		long trueNegative = total - truePositive - falsePositive - falseNegative;
+
+		return new Score(method, thresholdValue, truePositive, falsePositive, trueNegative, falseNegative);
+	}
+
+
+	/**
+	 * Evaluates all methods of the library in parallel on the same histogram
+	 *
+	 * @param thresholdHistogram	histogram the thresholds are calculated from, e.g. without black or white
+	 * @return the scores ranked by Jaccard index, highest first
+	 */
+	public List<Score> compareAll(String library, int[] thresholdHistogram) {
+		List<String> methods = getMethods(library);
+		Score[] scores = new Score[methods.size()];
+
+		ParallelExecutor executor = new ParallelExecutor(Runtime.getRuntime().availableProcessors());
+		try {
+			executor.forEach(0, scores.length, m -> {
+				String method = methods.get(m);
+				scores[m] = score(method, getThreshold(library, method, thresholdHistogram.clone()));
+			});
+		} finally {
+			executor.shutdown();
+		}
+
+		List<Score> ranking = new ArrayList<Score>(Arrays.asList(scores));
+		Collections.sort(ranking, Comparator.comparingDouble((Score score) -> Double.isNaN(score.getJaccardIndex()) ? -1 : score.getJaccardIndex()).reversed());
+		return ranking;
+	}
+
+
+	/**
+	 * @return the auto threshold methods of the library, IJ including Huang2
+	 */
+	public static List<String> getMethods(String library) {
+		if (library.equals(CLIJ2_LIBRARY)) {
+			return Arrays.asList(AutoThresholderImageJ1.getMethods());
+		}
+
+		String[] thresholdMethodArray = AutoThresholder.getMethods();
+		String[] extendedThresholdMethodArray = new String[thresholdMethodArray.length + 1];
+
+		System.arraycopy(thresholdMethodArray, 0, extendedThresholdMethodArray, 0, 2);
+		extendedThresholdMethodArray[2] = "Huang2";
+		System.arraycopy(thresholdMethodArray, 2, extendedThresholdMethodArray, 3, thresholdMethodArray.length - 2);
+
+		return Arrays.asList(extendedThresholdMethodArray);
+	}
+
+
+	/**
+	 * @return the lowest foreground intensity, which is one above the value of the auto thresholder to achieve the same result as IJ
+	 */
+	public static double getThreshold(String library, String method, int[] histogram) {
+		double thresholdValue;
+		if (library.equals(CLIJ2_LIBRARY)) {
+			thresholdValue = BV3DBoxUtilities.getThresholdValue(method, histogram);
+		} else if (method.equals("Huang2")) {
+			thresholdValue = BV3DBoxUtilities.calculateHuang2(histogram);
+		} else {
+			thresholdValue = new AutoThresholder().getThreshold(method, histogram);
+		}
+		return thresholdValue + 1;
+	}
+
+
+	/**
+	 * @return one row per score in the given order
+	 */
+	public static ColumnarResultsTable toTable(List<Score> scores) {
+		ColumnarResultsTable table = new ColumnarResultsTable(scores.size());
+		table.addColumn("Rank", ColumnType.INT);
+		table.addColumn("Method", ColumnType.STRING);
+		table.addColumn("Threshold", ColumnType.DOUBLE);
+		table.addColumn("TruePositive", ColumnType.LONG);
+		table.addColumn("FalsePositive", ColumnType.LONG);
+		table.addColumn("TrueNegative", ColumnType.LONG);
+		table.addColumn("FalseNegative", ColumnType.LONG);
+		table.addColumn("Sensitivity", ColumnType.DOUBLE);
+		table.addColumn("Specificity", ColumnType.DOUBLE);
+		table.addColumn("JaccardIndex", ColumnType.DOUBLE);
+		table.addColumn("DiceCoefficient", ColumnType.DOUBLE);
+
+		for (Score score : scores) {
+			int row = table.addRow();
+			table.setValue("Rank", row, row + 1);
+			table.setValue("Method", row, score.getMethod());
+			table.setValue("Threshold", row, score.getThreshold());
+			table.setValue("TruePositive", row, score.getTruePositive());
+			table.setValue("FalsePositive", row, score.getFalsePositive());
+			table.setValue("TrueNegative", row, score.getTrueNegative());
+			table.setValue("FalseNegative", row, score.getFalseNegative());
+			table.setValue("Sensitivity", row, score.getSensitivity());
+			table.setValue("Specificity", row, score.getSpecificity());
+			table.setValue("JaccardIndex", row, score.getJaccardIndex());
+			table.setValue("DiceCoefficient", row, score.getDiceCoefficient());
+		}
+		return table;
+	}
+
+
+
+	/**
+	 * Pixel counts of one threshold against the reference foreground
+	 */
+	public static class Score {
+
+		private final String method;
+		private final double threshold;
+		private final long truePositive;
+		private final long falsePositive;
+		private final long trueNegative;
+		private final long falseNegative;
+
+		private Score(String method, double threshold, long truePositive, long falsePositive, long trueNegative, long falseNegative) {
+			this.method = method;
+			this.threshold = threshold;
+			this.truePositive = truePositive;
+			this.falsePositive = falsePositive;
+			this.trueNegative = trueNegative;
+			this.falseNegative = falseNegative;
+		}
+
+		public String getMethod() {
+			return method;
+		}
+
+		public double getThreshold() {
+			return threshold;
+		}
+
+		public long getTruePositive() {
+			return truePositive;
+		}
+
+		public long getFalsePositive() {
+			return falsePositive;
+		}
+
+		public long getTrueNegative() {
+			return trueNegative;
+		}
+
+		public long getFalseNegative() {
+			return falseNegative;
+		}
+
+		public double getSensitivity() {
+			return (double) truePositive / (truePositive + falseNegative);
+		}
+
+		public double getSpecificity() {
+			return (double) trueNegative / (trueNegative + falsePositive);
+		}
+
+		public double getJaccardIndex() {
+			return (double) truePositive / (truePositive + falsePositive + falseNegative);
+		}
+
+		public double getDiceCoefficient() {
+			return (2.0 * truePositive) / (2.0 * truePositive + falsePositive + falseNegative);
+		}
+
+		@Override
+		public String toString() {
+			return method + " [threshold=" + threshold + ", jaccard=" + getJaccardIndex() + ", dice=" + getDiceCoefficient() + "]";
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+class BitMaskTest {
+
+	private static final int WIDTH = 37;
+	private static final int HEIGHT = 11;
+	private static final int DEPTH = 3;
+
+
+	@Test
+	void stackConversionAndLogicalOperationsMatchPixelWiseResults() {
+		Random random = new Random(7);
+		ImageStack first = randomBinary(random);
+		ImageStack second = randomBinary(random);
+		BitMask firstMask = BitMask.fromStack(first);
+		BitMask secondMask = BitMask.fromStack(second);
+
+		assertArrayEquals((byte[]) first.getPixels(2), (byte[]) firstMask.toStack().getPixels(2));
+
+		BitMask and = firstMask.copy().and(secondMask);
+		BitMask or = firstMask.copy().or(secondMask);
+		BitMask andNot = firstMask.copy().andNot(secondMask);
+		BitMask not = firstMask.copy().not();
+		long expectedAnd = 0;
+		long expectedNot = 0;
+		for (int z = 0; z < DEPTH; z++) {
+			byte[] a = (byte[]) first.getPixels(z + 1);
+			byte[] b = (byte[]) second.getPixels(z + 1);
+			for (int i = 0; i < WIDTH * HEIGHT; i++) {
+				assertEquals(a[i] != 0 && b[i] != 0, and.get(z, i));
+				assertEquals(a[i] != 0 || b[i] != 0, or.get(z, i));
+				assertEquals(a[i] != 0 && b[i] == 0, andNot.get(z, i));
+				assertEquals(a[i] == 0, not.get(z, i));
+				expectedAnd += a[i] != 0 && b[i] != 0 ? 1 : 0;
+				expectedNot += a[i] == 0 ? 1 : 0;
+			}
+		}
+		assertEquals(expectedAnd, and.cardinality());
+		assertEquals(expectedNot, not.cardinality(), "bits behind the last voxel of a plane stay cleared");
+		assertThrows(IllegalArgumentException.class, () -> firstMask.and(new BitMask(WIDTH, HEIGHT, 1)));
+	}
+
+
+	@Test
+	void fillHolesOnlyKeepsTheBackgroundConnectedToTheBorder() {
+		ByteProcessor ring = new ByteProcessor(WIDTH, HEIGHT);
+		ring.setColor(255);
+		ring.fillRect(3, 2, 12, 7);
+		ring.setColor(0);
+		ring.fillRect(6, 4, 4, 3);
+		ring.set(25, 0, 255);
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ComputeBuffer binary = backend.push(new ImagePlus("ring", ring));
+			ComputeBuffer filled = backend.create(binary);
+			backend.binaryFillHoles(binary, filled);
+			BitMask mask = BitMask.fromStack(backend.pullBinary(filled).getStack());
+			assertEquals(12 * 7 + 1, mask.cardinality());
+			assertTrue(mask.get(7, 5, 0));
+			assertEquals(1, backend.maximumOfAllPixels(filled));
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	private static ImageStack randomBinary(Random random) {
+		ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+		for (int z = 0; z < DEPTH; z++) {
+			ByteProcessor plane = new ByteProcessor(WIDTH, HEIGHT);
+			for (int i = 0; i < WIDTH * HEIGHT; i++) {
+				plane.set(i, random.nextInt(3) == 0 ? 255 : 0);
+			}
+			stack.addSlice(plane);
+		}
+		return stack;
+	}
+}
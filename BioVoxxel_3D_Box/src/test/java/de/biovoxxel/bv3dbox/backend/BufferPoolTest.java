@@ -0,0 +1,62 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBuffer;
+
+class BufferPoolTest {
+
+	@Test
+	void closedCPUBuffersAreReusedResetToZero() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer first = (CPUBuffer) backend.create(new long[] {20, 10, 3}, BufferType.UNSIGNED_SHORT);
+			Object plane = first.getPlane(1);
+			backend.set(first, 7);
+			first.close();
+			first.close();
+			assertEquals(1, backend.getBufferPool().getIdleCount());
+
+			CPUBuffer other = (CPUBuffer) backend.create(new long[] {20, 10}, BufferType.UNSIGNED_SHORT);
+			CPUBuffer second = (CPUBuffer) backend.create(new long[] {20, 10, 3}, BufferType.UNSIGNED_SHORT);
+			assertNotSame(plane, other.getPlane(0));
+			assertSame(plane, second.getPlane(1));
+			assertEquals(0, backend.maximumOfAllPixels(second));
+			assertEquals(1, backend.getBufferPool().getHits());
+
+			backend.clear();
+			assertEquals(0, backend.getBufferPool().getIdleCount());
+			assertEquals(0, backend.getBufferCount());
+		} finally {
+			backend.close();
+		}
+	}
+
+	@Test
+	void leastRecentlyReleasedStorageIsEvictedAboveCapacity() {
+		List<String> released = new ArrayList<String>();
+		BufferPool<String> pool = new BufferPool<String>(250, released::add);
+		long generation = pool.getGeneration();
+		assertTrue(pool.recycle(new long[] {10, 10}, BufferType.UNSIGNED_BYTE, "a", 100, generation));
+		assertTrue(pool.recycle(new long[] {10, 10}, BufferType.UNSIGNED_BYTE, "b", 100, generation));
+		assertTrue(pool.recycle(new long[] {5, 5}, BufferType.FLOAT, "c", 100, generation));
+		assertFalse(pool.recycle(new long[] {20, 20}, BufferType.UNSIGNED_BYTE, "d", 400, generation));
+
+		assertEquals(1, released.size());
+		assertEquals("a", released.get(0));
+		assertEquals("b", pool.acquire(new long[] {10, 10}, BufferType.UNSIGNED_BYTE));
+		assertNull(pool.acquire(new long[] {10, 10}, BufferType.UNSIGNED_BYTE));
+		assertNull(pool.acquire(new long[] {5, 5}, BufferType.UNSIGNED_INT));
+
+		pool.drain();
+		assertEquals(2, released.size());
+		assertEquals(0, pool.getIdleBytes());
+		assertFalse(pool.recycle(new long[] {10, 10}, BufferType.UNSIGNED_BYTE, "b", 100, generation));
+	}
+}
@@ -0,0 +1,72 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+
+class BufferTrackerTest {
+
+	@Test
+	void runsReportPeakAndUnreleasedBuffersWithTheirOrigin() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			BufferTracker tracker = backend.getBufferTracker();
+			tracker.setRecordingStacks(true);
+			BufferTracker.Run outer = tracker.startRun("outer");
+			ComputeBuffer first = backend.create(new long[] {100, 10}, BufferType.FLOAT);
+
+			BufferTracker.Run inner = tracker.startRun("inner");
+			ComputeBuffer second = backend.create(new long[] {100, 10}, BufferType.UNSIGNED_BYTE);
+			ComputeBuffer leaked = backend.create(new long[] {10, 10}, BufferType.UNSIGNED_SHORT);
+			leaked.setName("leaked");
+			second.close();
+			inner.close();
+			first.close();
+			outer.close();
+
+			assertEquals(2, inner.getAllocatedCount());
+			assertEquals(1200, inner.getPeakBytes());
+			assertEquals(3, outer.getAllocatedCount());
+			assertEquals(5200, outer.getPeakBytes());
+			assertEquals(5200, tracker.getPeakBytes());
+
+			List<BufferTracker.Allocation> unreleased = outer.getUnreleased();
+			assertEquals(1, unreleased.size());
+			assertEquals("inner", unreleased.get(0).getOwner());
+			assertEquals("leaked", unreleased.get(0).getName());
+			assertEquals(200, tracker.getLiveBytes());
+			assertEquals(getClass().getName(), unreleased.get(0).getCaller().getClassName());
+
+			assertEquals(2, tracker.getRunTable().size());
+			assertEquals("inner", tracker.getRunTable().getStringValue("Run", 0));
+
+			backend.clear();
+			assertEquals(0, tracker.getLiveCount());
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void stacksAreOnlyRecordedOnRequest() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			BufferTracker tracker = backend.getBufferTracker();
+			tracker.setRecordingStacks(false);
+			ComputeBuffer buffer = backend.create(new long[] {10, 10}, BufferType.FLOAT);
+			BufferTracker.Allocation allocation = tracker.getLiveAllocations().get(0);
+			assertNull(allocation.getCaller());
+			assertEquals(0, allocation.getCreationStack().length);
+			assertEquals(400, allocation.getSizeInBytes());
+			assertEquals("", BufferTracker.toTable(tracker.getLiveAllocations()).getStringValue("Created at", 0));
+			buffer.close();
+		} finally {
+			backend.close();
+		}
+	}
+}
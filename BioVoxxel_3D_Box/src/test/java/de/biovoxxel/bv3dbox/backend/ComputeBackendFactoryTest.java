@@ -0,0 +1,121 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+
+class ComputeBackendFactoryTest {
+
+	private static String backendProperty;
+
+	@BeforeAll
+	static void useCPUBackend() {
+		backendProperty = System.getProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, "cpu");
+	}
+
+	@AfterAll
+	static void resetBackend() {
+		if (backendProperty == null) {
+			System.clearProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		} else {
+			System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, backendProperty);
+		}
+	}
+
+
+	@Test
+	void sessionsOnlyReleaseTheirOwnBuffers() {
+		ComputeBackend shared = ComputeBackendFactory.getBackend();
+		ComputeBuffer sharedBuffer = shared.create(new long[] {20, 10}, BufferType.FLOAT);
+
+		ComputeBackend first = ComputeBackendFactory.openSession();
+		ComputeBackend second = ComputeBackendFactory.openSession();
+		try {
+			assertNotSame(shared, first);
+			assertNotSame(first, second);
+
+			ComputeBuffer firstBuffer = first.create(new long[] {20, 10}, BufferType.FLOAT);
+			ComputeBuffer secondBuffer = second.create(new long[] {20, 10}, BufferType.FLOAT);
+			second.set(secondBuffer, 3f);
+
+			first.clear();
+			assertEquals(0, first.getBufferTracker().getLiveCount());
+			assertEquals(1, second.getBufferTracker().getLiveCount());
+			assertEquals(3, second.meanOfAllPixels(secondBuffer), 1e-6, "the buffer of the other session is untouched");
+			assertThrows(IllegalArgumentException.class, () -> second.copy(firstBuffer, secondBuffer), "buffers cannot be used across sessions");
+
+			first.close();
+			second.set(secondBuffer, 1f);
+			assertEquals(1, second.meanOfAllPixels(secondBuffer), 1e-6, "closing a session keeps the shared threads running");
+		} finally {
+			first.close();
+			second.close();
+		}
+		assertEquals(0, second.getBufferTracker().getLiveCount());
+		assertEquals(1, shared.getBufferTracker().getLiveCount(), "sessions never release buffers of the shared backend");
+		sharedBuffer.close();
+	}
+
+
+	@Test
+	void trackersOfSessionsAreReportedAndTheirRunsKept() {
+		ComputeBackend session = ComputeBackendFactory.openSession();
+		try {
+			BufferTracker.Run run = session.getBufferTracker().startRun("leaking session run");
+			try {
+				session.create(new long[] {20, 10}, BufferType.FLOAT);
+			} finally {
+				run.close();
+			}
+			assertTrue(ComputeBackendFactory.getBufferTrackers().contains(session.getBufferTracker()));
+			assertSame(ComputeBackendFactory.getBackend().getBufferTracker(), ComputeBackendFactory.getBufferTrackers().get(0));
+		} finally {
+			session.close();
+		}
+		assertFalse(ComputeBackendFactory.getBufferTrackers().contains(session.getBufferTracker()));
+
+		List<BufferTracker.Run> runs = ComputeBackendFactory.getBackend().getBufferTracker().getFinishedRuns();
+		BufferTracker.Run run = runs.get(runs.size() - 1);
+		assertEquals("leaking session run", run.getOwner());
+		assertEquals(1, run.getUnreleasedCount(), "the run of the closed session still shows its leak");
+	}
+
+
+	@Test
+	void replacedBackendStaysOpenUntilItsLastSessionIsClosed() {
+		//sessions opened by other tests may still be open on the current shared backend
+		ComputeBackendFactory.replaceBackend(new CPUBackend(2), ComputeBackendFactory.CPU);
+		ComputeBackend previous = ComputeBackendFactory.getBackend();
+		previous.create(new long[] {20, 10}, BufferType.FLOAT);
+		ComputeBackend first = ComputeBackendFactory.openSession();
+		ComputeBackend second = ComputeBackendFactory.openSession();
+		try {
+			ComputeBuffer sessionBuffer = first.create(new long[] {20, 10}, BufferType.FLOAT);
+
+			ComputeBackendFactory.replaceBackend(new CPUBackend(2), ComputeBackendFactory.CPU);
+			assertNotSame(previous, ComputeBackendFactory.getBackend());
+
+			first.set(sessionBuffer, 2f);
+			assertEquals(2, first.meanOfAllPixels(sessionBuffer), 1e-6, "sessions keep working after the backend has been replaced");
+			assertEquals(1, previous.getBufferTracker().getLiveCount());
+
+			first.close();
+			first.close();
+			assertEquals(1, previous.getBufferTracker().getLiveCount(), "the replaced backend stays open while a session is open");
+
+			second.close();
+			assertEquals(0, previous.getBufferTracker().getLiveCount(), "the replaced backend is closed with its last session");
+		} finally {
+			first.close();
+			second.close();
+			ComputeBackendFactory.replaceBackend(ComputeBackendFactory.createBackend(ComputeBackendFactory.CPU), ComputeBackendFactory.CPU);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBuffer;
+
+class LabelBuffersTest {
+
+	@Test
+	void labelTypeFollowsTheHighestLabel() {
+		assertEquals(BufferType.UNSIGNED_SHORT, LabelBuffers.typeFor(1));
+		assertEquals(BufferType.UNSIGNED_SHORT, LabelBuffers.typeFor(65535));
+		assertEquals(BufferType.UNSIGNED_INT, LabelBuffers.typeFor(65536));
+
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			assertEquals(BufferType.UNSIGNED_SHORT, LabelBuffers.create(backend, new long[] {200, 300}).getType());
+			assertEquals(BufferType.UNSIGNED_INT, LabelBuffers.create(backend, new long[] {200, 300, 2}).getType(), "one label per pixel does not fit 16 bit");
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void fitReducesLabelsToTheSmallestType() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer labels = (CPUBuffer) backend.create(new long[] {20, 10}, BufferType.UNSIGNED_INT);
+			labels.setName("labels");
+			labels.set(0, 5, 1);
+			labels.set(0, 60, 300);
+
+			ComputeBuffer fitted = LabelBuffers.fit(backend, labels);
+			assertEquals(BufferType.UNSIGNED_SHORT, fitted.getType());
+			assertEquals("labels", fitted.getName());
+			assertEquals(300, backend.maximumOfAllPixels(fitted));
+			assertEquals(1, backend.getBufferTracker().getLiveCount(), "the original labels are closed");
+			assertSame(fitted, LabelBuffers.fit(backend, fitted));
+			fitted.close();
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void labelOperationsKeepLabelsAbove2To24Exact() {
+		int first = (1 << 24) + 1;
+		int second = (1 << 24) + 3;
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer labels = (CPUBuffer) backend.create(new long[] {20, 10}, BufferType.UNSIGNED_INT);
+			for (int y = 2; y < 8; y++) {
+				labels.set(0, y * 20 + 4, first);
+				labels.set(0, y * 20 + 14, second);
+			}
+			CPUBuffer dilated = (CPUBuffer) backend.create(labels);
+			backend.dilateLabels(labels, dilated, 3);
+			CPUBuffer eroded = (CPUBuffer) backend.create(labels);
+			backend.erodeLabels(dilated, eroded, 1, false);
+			CPUBuffer edges = (CPUBuffer) backend.create(labels);
+			backend.reduceLabelsToLabelEdges(dilated, edges);
+
+			assertEquals(first, dilated.get(0, 5 * 20 + 1));
+			assertEquals(second, dilated.get(0, 5 * 20 + 17));
+			assertEquals(first, eroded.get(0, 5 * 20 + 4));
+			assertEquals(second, eroded.get(0, 5 * 20 + 14));
+			assertEquals(first, edges.get(0, 5 * 20 + 7));
+			assertEquals(second, edges.get(0, 5 * 20 + 11));
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void pushedLabelsKeepTheirValues() {
+		int[][] planes = new int[2][20 * 10];
+		planes[0][3] = 7;
+		planes[1][150] = (1 << 24) + 1;
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer labels = (CPUBuffer) backend.pushLabels(planes, 20, 10, (1 << 24) + 1);
+			assertEquals(BufferType.UNSIGNED_INT, labels.getType());
+			assertArrayEquals(new long[] {20, 10, 2}, labels.getDimensions());
+			assertEquals(7, labels.get(0, 3));
+			assertEquals((1 << 24) + 1, labels.get(1, 150));
+
+			CPUBuffer small = (CPUBuffer) backend.pushLabels(new int[][] {planes[0]}, 20, 10, 7);
+			assertEquals(BufferType.UNSIGNED_SHORT, small.getType());
+			assertEquals(7, small.get(0, 3));
+		} finally {
+			backend.close();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.LabelMeasurementEngine.Group;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBuffer;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.measure.ResultsTable;
+import net.haesleinhuepf.clij2.plugins.StatisticsOfLabelledPixels.STATISTICS_ENTRY;
+
+class LabelMeasurementEngineTest {
+
+	private static final int WIDTH = 17;
+	private static final int HEIGHT = 13;
+	private static final int DEPTH = 4;
+	private static final int LABELS = 6;
+
+
+	@Test
+	void columnsMatchTheStatisticsOfLabelledPixels() {
+		CPUBackend backend = new CPUBackend(3);
+		try {
+			Random random = new Random(5);
+			CPUBuffer labels = (CPUBuffer) backend.create(new long[] {WIDTH, HEIGHT, DEPTH}, BufferType.UNSIGNED_SHORT);
+			CPUBuffer intensity = (CPUBuffer) backend.create(new long[] {WIDTH, HEIGHT, DEPTH}, BufferType.FLOAT);
+			for (int z = 0; z < DEPTH; z++) {
+				for (int i = 0; i < WIDTH * HEIGHT; i++) {
+					int x = i % WIDTH;
+					int label = random.nextInt(5) == 0 ? 0 : 1 + (x / 3 + z) % LABELS;	//objects spanning several rows and slices
+					labels.set(z, i, label);
+					intensity.set(z, i, random.nextFloat() * 200f);
+				}
+			}
+
+			ResultsTable expected = new ResultsTable();
+			backend.statisticsOfLabelledPixels(intensity, labels, expected);
+
+			LabelMeasurementEngine engine = new LabelMeasurementEngine(backend, EnumSet.of(Group.INTENSITY, Group.SHAPE));
+			engine.setPrimary(labels, intensity);
+			ColumnarResultsTable measured = new ColumnarResultsTable();
+			engine.measure(measured, null);
+
+			assertEquals(LABELS, expected.size());
+			assertEquals(LABELS, measured.size());
+			for (STATISTICS_ENTRY entry : STATISTICS_ENTRY.values()) {
+				String column = entry.toString();
+				assertTrue(measured.columnExists(column), column);
+				for (int row = 0; row < LABELS; row++) {
+					double value = expected.getValue(column, row);
+					assertEquals(value, measured.getValue(column, row), 1e-6 * Math.max(1, Math.abs(value)), column + " of label " + (row + 1));
+				}
+			}
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void maskOverlapsEqualTheOverlapsOfOneSecondaryLabel() {
+		CPUBackend backend = new CPUBackend(3);
+		try {
+			Random random = new Random(8);
+			CPUBuffer labels = (CPUBuffer) backend.create(new long[] {WIDTH, HEIGHT, DEPTH}, BufferType.UNSIGNED_SHORT);
+			CPUBuffer secondary = (CPUBuffer) backend.create(new long[] {WIDTH, HEIGHT, DEPTH}, BufferType.UNSIGNED_BYTE);
+			BitMask mask = new BitMask(WIDTH, HEIGHT, DEPTH);
+			for (int z = 0; z < DEPTH; z++) {
+				for (int i = 0; i < WIDTH * HEIGHT; i++) {
+					labels.set(z, i, 1 + (i % WIDTH / 3 + z) % LABELS);
+					boolean selected = random.nextInt(3) == 0;
+					secondary.set(z, i, selected ? 1 : 0);
+					mask.set(z, i, selected);
+				}
+			}
+
+			LabelMeasurementEngine engine = new LabelMeasurementEngine(backend, EnumSet.of(Group.OVERLAP));
+			engine.setPrimary(labels, null);
+			engine.setSecondary(secondary, null);
+			ColumnarResultsTable expected = new ColumnarResultsTable();
+			engine.measure(expected, null);
+
+			engine.setSecondary(mask);
+			ColumnarResultsTable measured = new ColumnarResultsTable();
+			engine.measure(measured, null);
+
+			assertArrayEquals(expected.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT), measured.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT));
+			assertArrayEquals(expected.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_COUNT), measured.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_COUNT));
+			long overlapping = 0;
+			for (double pixels : measured.getColumnAsDoubles(LabelMeasurementEngine.OVERLAP_PIXEL_COUNT)) {
+				overlapping += (long) pixels;
+			}
+			assertEquals(mask.cardinality(), overlapping);
+		} finally {
+			backend.close();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LabelOverlapMapTest {
+
+	@Test
+	void countsMatchReferenceAfterGrowingAndMerging() {
+		Random random = new Random(7);
+		Map<Long, Long> reference = new HashMap<Long, Long>();
+		LabelOverlapMap first = new LabelOverlapMap(4);
+		LabelOverlapMap second = new LabelOverlapMap(4);
+		for (int i = 0; i < 50000; i++) {
+			int primary = 1 + random.nextInt(300);
+			int secondary = 1 + random.nextInt(2000);
+			(i % 2 == 0 ? first : second).increment(primary, secondary);
+			reference.merge(((long) primary << 32) | secondary, 1L, Long::sum);
+		}
+		first.add(second);
+
+		assertEquals(reference.size(), first.size());
+		for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+			long key = entry.getKey();
+			assertEquals(entry.getValue().longValue(), first.get((int) (key >>> 32), (int) key));
+		}
+		assertEquals(0, first.get(301, 1));
+	}
+
+	@Test
+	void pairsAreSortedByPrimaryAndSecondaryLabel() {
+		LabelOverlapMap overlaps = new LabelOverlapMap();
+		overlaps.increment(2, 1);
+		overlaps.increment(1, 7);
+		overlaps.increment(1, 3);
+		overlaps.increment(1, 3);
+
+		List<long[]> pairs = new ArrayList<long[]>();
+		overlaps.forEach((primary, secondary, count) -> pairs.add(new long[] {primary, secondary, count}));
+
+		assertArrayEquals(new long[] {1, 3, 2}, pairs.get(0));
+		assertArrayEquals(new long[] {1, 7, 1}, pairs.get(1));
+		assertArrayEquals(new long[] {2, 1, 1}, pairs.get(2));
+	}
+}
@@ -0,0 +1,51 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+
+class StageCacheTest {
+
+	@Test
+	void onlyStagesDownstreamOfAChangedParameterAreRecomputed() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			StageCache cache = new StageCache(1 << 20);
+			AtomicInteger filterRuns = new AtomicInteger();
+			AtomicInteger thresholdRuns = new AtomicInteger();
+
+			for (String thresholdMethod : new String[] {"Default", "Otsu", "Default"}) {
+				String filterKey = StageCache.key("filter", "Gaussian", 2f);
+				ComputeBuffer filtered = cache.get(filterKey, () -> {
+					filterRuns.incrementAndGet();
+					return backend.create(new long[] {64, 64}, BufferType.FLOAT);
+				});
+				String thresholdKey = StageCache.key("threshold", thresholdMethod, filterKey);
+				cache.get(thresholdKey, () -> {
+					thresholdRuns.incrementAndGet();
+					return backend.create(filtered);
+				});
+				cache.trim();
+			}
+			assertEquals(1, filterRuns.get());
+			assertEquals(2, thresholdRuns.get());
+			assertEquals(3, cache.getSize());
+			assertEquals(3, backend.getBufferTracker().getLiveCount());
+
+			cache.setCapacity(2 * 64 * 64 * 4);
+			assertEquals(2, cache.getSize());
+			assertFalse(cache.contains(StageCache.key("threshold", "Otsu", StageCache.key("filter", "Gaussian", 2f))), "least recently used result is evicted first");
+			assertEquals(2, backend.getBufferTracker().getLiveCount());
+
+			cache.clear();
+			assertEquals(0, cache.getBytes());
+			assertEquals(0, backend.getBufferTracker().getLiveCount());
+		} finally {
+			backend.close();
+		}
+	}
+}
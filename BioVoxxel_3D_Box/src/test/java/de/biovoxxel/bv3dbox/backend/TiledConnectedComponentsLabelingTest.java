@@ -0,0 +1,124 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+class TiledConnectedComponentsLabelingTest {
+
+	private static ImagePlus createBinary(int width, int height, int depth, double density) {
+		Random random = new Random(7);
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			ByteProcessor processor = new ByteProcessor(width, height);
+			for (int i = 0; i < width * height; i++) {
+				processor.set(i, random.nextDouble() < density ? 255 : 0);
+			}
+			stack.addSlice(processor);
+		}
+		return new ImagePlus("binary", stack);
+	}
+
+	/**
+	 * Same objects as the untiled labeling and labels 1..n without gaps
+	 */
+	private static void assertSameObjects(CPUBackend backend, ImagePlus binary, boolean box, String message) {
+		ComputeBuffer binary_image = backend.push(binary);
+		ComputeBuffer label_image = backend.create(binary_image.getDimensions(), BufferType.FLOAT);
+		if (box) {
+			backend.connectedComponentsLabelingBox(binary_image, label_image);
+		} else {
+			backend.connectedComponentsLabelingDiamond(binary_image, label_image);
+		}
+		ImagePlus expected = backend.pull(label_image);
+		label_image.close();
+		binary_image.close();
+
+		ImagePlus tiled = new TiledConnectedComponentsLabeling(backend, box).setTileSize(13, 9, 3).setParallelTiles(3).label(binary);
+		assertEquals(expected.getStackSize(), tiled.getStackSize(), message);
+
+		Map<Integer, Integer> expectedToTiled = new HashMap<Integer, Integer>();
+		Map<Integer, Integer> tiledToExpected = new HashMap<Integer, Integer>();
+		int maxLabel = 0;
+		for (int z = 1; z <= expected.getStackSize(); z++) {
+			float[] expectedPixels = (float[]) expected.getStack().getPixels(z);
+			float[] tiledPixels = (float[]) tiled.getStack().getPixels(z);
+			for (int i = 0; i < expectedPixels.length; i++) {
+				int expectedLabel = (int) expectedPixels[i];
+				int tiledLabel = (int) tiledPixels[i];
+				assertEquals(expectedLabel == 0, tiledLabel == 0, message);
+				if (expectedLabel != 0) {
+					assertEquals(tiledLabel, (int) expectedToTiled.computeIfAbsent(expectedLabel, label -> tiledLabel), message);
+					assertEquals(expectedLabel, (int) tiledToExpected.computeIfAbsent(tiledLabel, label -> expectedLabel), message);
+					maxLabel = Math.max(maxLabel, tiledLabel);
+				}
+			}
+		}
+		assertEquals(expectedToTiled.size(), maxLabel, message);
+	}
+
+	@Test
+	void objectsAcrossBlockBordersAreMerged() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			for (boolean box : new boolean[] {true, false}) {
+				assertSameObjects(backend, createBinary(50, 40, 11, 0.3), box, "3D box = " + box);
+				assertSameObjects(backend, createBinary(70, 45, 1, 0.45), box, "2D box = " + box);
+			}
+			assertEquals(0, backend.getBufferTracker().getLiveCount());
+		} finally {
+			backend.close();
+		}
+	}
+
+	@Test
+	void objectSpanningAllBlocksGetsOneLabel() {
+		ByteProcessor processor = new ByteProcessor(40, 30);
+		processor.setColor(255);
+		processor.drawLine(0, 0, 39, 29);	//diagonal steps only connect with 8-connectivity
+		processor.fillRect(30, 2, 5, 5);
+
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ImagePlus binary = new ImagePlus("line", processor);
+			ImageStack box = new ImageStack(40, 30);
+			int labelCount = new TiledConnectedComponentsLabeling(backend, true).setTileSize(7, 6, 1).label(binary, (slice, labels) -> box.addSlice(labels));
+			assertEquals(2, labelCount);
+			assertEquals(box.getProcessor(1).getf(0, 0), box.getProcessor(1).getf(39, 29));
+
+			assertSameObjects(backend, binary, false, "diamond line");
+		} finally {
+			backend.close();
+		}
+	}
+
+	@Test
+	void stitchedLabelsEqualTheSlicedLabels() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ImagePlus binary = createBinary(50, 40, 11, 0.3);
+			ImagePlus sliced = new TiledConnectedComponentsLabeling(backend, true).setTileSize(13, 9, 3).label(binary);
+			ComputeBuffer labels = new TiledConnectedComponentsLabeling(backend, true).setTileSize(13, 9, 3).setParallelTiles(3).labelToBuffer(binary);
+			assertEquals(BufferType.UNSIGNED_SHORT, labels.getType());
+			ImagePlus stitched = backend.pull(labels);
+			labels.close();
+			for (int z = 1; z <= binary.getStackSize(); z++) {
+				for (int i = 0; i < 50 * 40; i++) {
+					assertEquals(sliced.getStack().getProcessor(z).getf(i), stitched.getStack().getProcessor(z).getf(i), "slice " + z);
+				}
+			}
+			assertEquals(0, backend.getBufferTracker().getLiveCount());
+		} finally {
+			backend.close();
+		}
+	}
+}
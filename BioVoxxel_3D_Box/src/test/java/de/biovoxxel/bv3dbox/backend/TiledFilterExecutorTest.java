@@ -0,0 +1,137 @@
+package de.biovoxxel.bv3dbox.backend;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.TiledFilterExecutor.TileFilter;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+class TiledFilterExecutorTest {
+
+	private static ImagePlus createStack(int width, int height, int depth) {
+		Random random = new Random(11);
+		ImageStack stack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++) {
+			ByteProcessor processor = new ByteProcessor(width, height);
+			for (int i = 0; i < width * height; i++) {
+				processor.set(i, random.nextInt(40) + (i % width > width / 2 ? 120 : 0));
+			}
+			stack.addSlice(processor);
+		}
+		return new ImagePlus("stack", stack);
+	}
+
+	private static void assertSameAsUntiled(ComputeBackend backend, ImagePlus image, int[] halo, TileFilter filter, String message) {
+		ComputeBuffer input_image = backend.push(image);
+		ComputeBuffer expected_image = filter.apply(input_image);
+		ImagePlus expected = backend.pull(expected_image);
+		expected_image.close();
+		input_image.close();
+
+		ImagePlus tiled = new TiledFilterExecutor(backend, halo).setTileSize(17, 13, 3).setParallelTiles(3).process(image, filter);
+		assertEquals(expected.getStackSize(), tiled.getStackSize(), message);
+		assertEquals(expected.getBitDepth(), tiled.getBitDepth(), message);
+		for (int z = 1; z <= expected.getStackSize(); z++) {
+			assertArrayEquals((float[]) expected.getStack().getProcessor(z).convertToFloat().getPixels(), (float[]) tiled.getStack().getProcessor(z).convertToFloat().getPixels(), message + ", slice " + z);
+		}
+	}
+
+	@Test
+	void stitchedBlocksAreIdenticalToTheUntiledFilter() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ImagePlus image = createStack(70, 50, 10);
+
+			assertSameAsUntiled(backend, image, TiledFilterExecutor.gaussianHalo(2, 2, 1), tile -> {
+				ComputeBuffer output = backend.create(tile.getDimensions(), BufferType.FLOAT);
+				backend.gaussianBlur3D(tile, output, 2, 2, 1);
+				return output;
+			}, "Gaussian");
+
+			assertSameAsUntiled(backend, image, TiledFilterExecutor.gaussianHalo(3, 3, 1.5), tile -> {
+				ComputeBuffer output = backend.create(tile);
+				backend.differenceOfGaussian3D(tile, output, 1, 1, 0.5, 3, 3, 1.5);
+				return output;
+			}, "DoG");
+
+			int[] boxHalo = TiledFilterExecutor.sphereHalo(2.5, 2.5, 1);
+			int[] medianHalo = TiledFilterExecutor.sphereHalo(2, 2, 0);
+			assertSameAsUntiled(backend, image, TiledFilterExecutor.sum(medianHalo, boxHalo, boxHalo), tile -> {
+				ComputeBuffer median = backend.create(tile);
+				backend.median3DSliceBySliceSphere(tile, median, 2, 2);
+				ComputeBuffer output = backend.create(tile);
+				backend.topHatBox(median, output, 2.5, 2.5, 1);
+				median.close();
+				return output;
+			}, "Median + TopHat");
+		} finally {
+			backend.close();
+		}
+	}
+
+	@Test
+	void slicesAreWrittenInOrderAndBlocksFitTheLimit() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ImagePlus image = createStack(40, 30, 7);
+			TiledFilterExecutor executor = new TiledFilterExecutor(backend, new int[] {2, 2, 1}).setMemoryLimit(40 * 30 * 4 * 4 * 3).setParallelTiles(4);
+
+			int[] size = executor.fittingTileSize(40, 30, 7);
+			assertTrue(size[2] < 7);
+
+			List<Integer> slices = new ArrayList<Integer>();
+			executor.process(image, tile -> {
+				ComputeBuffer output = backend.create(tile);
+				backend.copy(tile, output);
+				return output;
+			}, (slice, processor) -> {
+				slices.add(slice);
+				assertArrayEquals((byte[]) image.getStack().getPixels(slice), (byte[]) processor.getPixels());
+			});
+			assertEquals(7, slices.size());
+			for (int z = 0; z < slices.size(); z++) {
+				assertEquals(z + 1, (int) slices.get(z));
+			}
+			assertEquals(0, backend.getBufferTracker().getLiveCount());
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void parallelBlocksShareTheMemoryLimit() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ImagePlus image = createStack(80, 60, 8);
+			long memoryLimit = 80 * 60 * 8 * 4 * 4 / 2;
+			TiledFilterExecutor executor = new TiledFilterExecutor(backend, new int[] {2, 2, 1}).setMemoryLimit(memoryLimit).setParallelTilesFromMemoryLimit(image);
+
+			int parallelTiles = executor.getParallelTiles();
+			assertTrue(parallelTiles >= 1 && parallelTiles <= Runtime.getRuntime().availableProcessors());
+			int[] size = executor.fittingTileSize(80, 60, 8);
+			long blockBytes = (long) Math.min(80, size[0] + 4) * Math.min(60, size[1] + 4) * Math.min(8, size[2] + 2) * 4 * 4;
+			assertTrue(blockBytes * parallelTiles <= memoryLimit, "all blocks processed at the same time fit into the memory limit");
+
+			ImagePlus tiled = executor.process(image, tile -> {
+				ComputeBuffer output = backend.create(tile);
+				backend.copy(tile, output);
+				return output;
+			});
+			for (int z = 1; z <= 8; z++) {
+				assertArrayEquals((byte[]) image.getStack().getPixels(z), (byte[]) tiled.getStack().getPixels(z));
+			}
+			assertEquals(1, new TiledFilterExecutor(backend, new int[] {2, 2, 1}).setMemoryLimit(0).setParallelTilesFromMemoryLimit(image).getParallelTiles());
+		} finally {
+			backend.close();
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.BufferType;
+
+class CPUBackendTest {
+
+	@Test
+	void boxMinimumAndMaximumMatchTheNeighborhood() {
+		CPUBackend backend = new CPUBackend(3);
+		try {
+			Random random = new Random(9);
+			CPUBuffer input = create(backend, 15, 11, 5, BufferType.FLOAT);
+			for (int z = 0; z < 5; z++) {
+				for (int i = 0; i < 15 * 11; i++) {
+					input.set(z, i, random.nextInt(1000));
+				}
+			}
+			CPUBuffer minimum = create(backend, 15, 11, 5, BufferType.FLOAT);
+			CPUBuffer maximum = create(backend, 15, 11, 5, BufferType.FLOAT);
+			backend.minimum3DBox(input, minimum, 2, 1, 1);
+			backend.maximum3DBox(input, maximum, 2, 1, 1);
+
+			for (int z = 0; z < 5; z++) {
+				for (int y = 0; y < 11; y++) {
+					for (int x = 0; x < 15; x++) {
+						double expectedMinimum = Double.MAX_VALUE;
+						double expectedMaximum = -Double.MAX_VALUE;
+						for (int nz = Math.max(0, z - 1); nz <= Math.min(4, z + 1); nz++) {
+							for (int ny = Math.max(0, y - 1); ny <= Math.min(10, y + 1); ny++) {
+								for (int nx = Math.max(0, x - 2); nx <= Math.min(14, x + 2); nx++) {
+									expectedMinimum = Math.min(expectedMinimum, input.get(nx, ny, nz));
+									expectedMaximum = Math.max(expectedMaximum, input.get(nx, ny, nz));
+								}
+							}
+						}
+						assertEquals(expectedMinimum, minimum.get(x, y, z), "minimum at " + x + "," + y + "," + z);
+						assertEquals(expectedMaximum, maximum.get(x, y, z), "maximum at " + x + "," + y + "," + z);
+					}
+				}
+			}
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void sphereFiltersUseTheDiamondForRadiusOne() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer point = create(backend, 7, 7, 1, BufferType.FLOAT);
+			point.set(3, 3, 0, 5);
+			CPUBuffer maximum = create(backend, 7, 7, 1, BufferType.FLOAT);
+			backend.maximum2DSphere(point, maximum, 1, 1);
+			assertEquals(5, maximum.get(3, 2, 0));
+			assertEquals(5, maximum.get(2, 3, 0));
+			assertEquals(0, maximum.get(2, 2, 0), "corners are not part of the diamond");
+			assertEquals(5 * 5, sum(maximum), 0.0);
+
+			CPUBuffer mean = create(backend, 7, 7, 1, BufferType.FLOAT);
+			backend.mean2DSphere(point, mean, 1, 1);
+			assertEquals(1, mean.get(3, 3, 0), 1e-6);
+			assertEquals(1, mean.get(4, 3, 0), 1e-6);
+			assertEquals(0, mean.get(4, 4, 0), 1e-6);
+
+			point.fill(4);
+			backend.mean2DSphere(point, mean, 2, 2);
+			assertEquals(4, mean.get(0, 0, 0), 1e-6, "neighbors outside of the image are ignored");
+
+			CPUBuffer volume = create(backend, 5, 5, 5, BufferType.UNSIGNED_BYTE);
+			volume.set(2, 2, 2, 1);
+			CPUBuffer dilated = create(backend, 5, 5, 5, BufferType.UNSIGNED_BYTE);
+			backend.maximum3DSphere(volume, dilated, 1, 1, 1);
+			assertEquals(7, sum(dilated), 0.0);
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void boxMedianRemovesIsolatedPixels() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer input = create(backend, 12, 9, 1, BufferType.UNSIGNED_BYTE);
+			input.set(2, 2, 0, 255);
+			for (int y = 4; y < 7; y++) {
+				for (int x = 6; x < 9; x++) {
+					input.set(x, y, 0, 255);
+				}
+			}
+			CPUBuffer median = create(backend, 12, 9, 1, BufferType.UNSIGNED_BYTE);
+			backend.median2DBox(input, median, 1, 1);
+			assertEquals(0, median.get(2, 2, 0));
+			assertEquals(255, median.get(7, 5, 0));
+			assertEquals(0, median.get(6, 4, 0), "4 of 9 neighbors are set at the corner of the block");
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void gaussianKeepsConstantsAndSpreadsAnImpulseWithTheTruncatedKernel() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			double sigma = 1.5;
+			CPUBuffer constant = create(backend, 20, 20, 1, BufferType.FLOAT);
+			constant.fill(7);
+			CPUBuffer blurred = create(backend, 20, 20, 1, BufferType.FLOAT);
+			backend.gaussianBlur2D(constant, blurred, sigma, sigma);
+			assertEquals(7, blurred.get(0, 0, 0), 1e-5, "edge pixels are repeated");
+			assertEquals(7, blurred.get(10, 10, 0), 1e-5);
+
+			CPUBuffer impulse = create(backend, 20, 20, 1, BufferType.FLOAT);
+			impulse.set(10, 10, 0, 1);
+			backend.gaussianBlur2D(impulse, blurred, sigma, sigma);
+			int radius = 6;	//kernel of (int) 8 sigma = 12 rounded up to 13 pixels
+			double weightSum = 0;
+			for (int i = -radius; i <= radius; i++) {
+				weightSum += Math.exp(-i * i / (2 * sigma * sigma));
+			}
+			double center = 1 / (weightSum * weightSum);
+			assertEquals(center, blurred.get(10, 10, 0), 1e-6);
+			assertEquals(center * Math.exp(-1 / (2 * sigma * sigma)), blurred.get(11, 10, 0), 1e-6);
+			assertEquals(blurred.get(9, 12, 0), blurred.get(12, 9, 0), 1e-7);
+			assertEquals(1, sum(blurred), 1e-5);
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void thresholdAndMaximaDetection() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer input = create(backend, 10, 6, 1, BufferType.FLOAT);
+			for (int i = 0; i < 60; i++) {
+				input.set(0, i, i % 10);	//increasing along x
+			}
+			input.set(3, 2, 0, 50);
+			CPUBuffer binary = create(backend, 10, 6, 1, BufferType.UNSIGNED_BYTE);
+			backend.threshold(input, binary, 7);
+			assertEquals(1, binary.get(7, 0, 0));
+			assertEquals(0, binary.get(6, 0, 0));
+			assertEquals(1, binary.get(3, 2, 0));
+			assertEquals(3 * 6 + 1, sum(binary), 0.0);
+
+			CPUBuffer maxima = create(backend, 10, 6, 1, BufferType.UNSIGNED_BYTE);
+			backend.detectMaxima3DBox(input, maxima, 1, 1, 0);
+			assertEquals(1, maxima.get(3, 2, 0));
+			assertEquals(1, maxima.get(9, 0, 0), "the first pixel of a plateau is the maximum");
+			assertEquals(0, maxima.get(9, 1, 0));
+			assertEquals(2, sum(maxima), 0.0);
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void labelsAreRemovedAndRenumberedInAscendingOrder() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer labels = create(backend, 8, 6, 1, BufferType.UNSIGNED_SHORT);
+			fillRect(labels, 0, 0, 2, 2, 9);	//4 pixels on the edge
+			fillRect(labels, 3, 1, 2, 3, 5);	//6 pixels
+			fillRect(labels, 6, 2, 1, 2, 2);	//2 pixels
+			CPUBuffer result = create(backend, 8, 6, 1, BufferType.UNSIGNED_SHORT);
+
+			backend.closeIndexGapsInLabelMap(labels, result);
+			assertEquals(3, result.get(0, 0, 0));
+			assertEquals(2, result.get(3, 1, 0));
+			assertEquals(1, result.get(6, 2, 0));
+
+			backend.excludeLabelsOnEdges(labels, result);
+			assertEquals(0, result.get(0, 0, 0));
+			assertEquals(2, result.get(3, 1, 0));
+			assertEquals(1, result.get(6, 2, 0));
+
+			backend.excludeLabelsOutsideSizeRange(labels, result, 3, 5);
+			assertEquals(1, result.get(0, 0, 0));
+			assertEquals(0, result.get(3, 1, 0));
+			assertEquals(0, result.get(6, 2, 0));
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void labelErosionAndEdgesFollowTheNeighborhoods() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer labels = create(backend, 11, 9, 1, BufferType.UNSIGNED_SHORT);
+			fillRect(labels, 1, 2, 5, 5, 1);
+			fillRect(labels, 6, 2, 4, 5, 2);	//touching label 1
+
+			CPUBuffer eroded = create(backend, 11, 9, 1, BufferType.UNSIGNED_SHORT);
+			backend.erodeLabels(labels, eroded, 1, false);
+			assertEquals(9, count(eroded, 1), "3 x 3 of the 5 x 5 square");
+			assertEquals(6, count(eroded, 2), "2 x 3 of the 4 x 5 rectangle");
+
+			CPUBuffer edges = create(backend, 11, 9, 1, BufferType.UNSIGNED_SHORT);
+			backend.reduceLabelsToLabelEdges(labels, edges);
+			assertEquals(16, count(edges, 1));
+			assertEquals(14, count(edges, 2));
+			assertEquals(0, edges.get(3, 4, 0));
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void tubenessRespondsToBrightLinesOnly() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer line = create(backend, 21, 21, 1, BufferType.FLOAT);
+			fillRect(line, 0, 10, 21, 1, 100);
+			CPUBuffer tubeness = create(backend, 21, 21, 1, BufferType.FLOAT);
+			backend.tubeness(line, tubeness, 1.5);
+			assertTrue(tubeness.get(10, 10, 0) > 0);
+			assertTrue(tubeness.get(10, 10, 0) > tubeness.get(10, 12, 0), "the response peaks on the axis of the line");
+			assertEquals(0, tubeness.get(10, 0, 0), 1e-6);
+
+			line.fill(100);
+			fillRect(line, 0, 10, 21, 1, 0);
+			backend.tubeness(line, tubeness, 1.5);
+			assertEquals(0, tubeness.get(10, 10, 0), 1e-6, "dark lines are no tubes");
+
+			line.fill(7);
+			backend.tubeness(line, tubeness, 1.5);
+			assertEquals(0, sum(tubeness), 1e-6);
+
+			CPUBuffer tube = create(backend, 15, 15, 15, BufferType.FLOAT);
+			for (int z = 0; z < 15; z++) {
+				tube.set(7, 7, z, 100);
+			}
+			CPUBuffer volume = create(backend, 15, 15, 15, BufferType.FLOAT);
+			backend.tubeness(tube, volume, 1);
+			assertTrue(volume.get(7, 7, 7) > 0);
+			assertEquals(volume.get(7, 7, 7), volume.get(7, 7, 3), 1e-4, "the tube is uniform along its axis");
+			assertEquals(0, volume.get(0, 0, 7), 1e-6);
+
+			CPUBuffer sheet = create(backend, 15, 15, 15, BufferType.FLOAT);
+			for (int z = 0; z < 15; z++) {
+				fillPlaneRow(sheet, 7, z, 100);
+			}
+			backend.tubeness(sheet, volume, 1);
+			assertEquals(0, volume.get(7, 7, 7), 1e-3, "a sheet has only one strongly negative eigenvalue");
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	@Test
+	void symmetricEigenvaluesAreSortedByAbsoluteValue() {
+		double[] eigenvalues = new double[3];
+		Tubeness.symmetricEigenvalues(2, 1, 0, 2, 0, -5, eigenvalues);
+		assertArrayEquals(new double[] {1, 3, -5}, eigenvalues, 1e-9);
+		Tubeness.symmetricEigenvalues(-4, 0, 0, 1, 0, 2, eigenvalues);
+		assertArrayEquals(new double[] {1, 2, -4}, eigenvalues, 1e-9);
+	}
+
+
+	private static CPUBuffer create(CPUBackend backend, int width, int height, int depth, BufferType type) {
+		CPUBuffer buffer = (CPUBuffer) backend.create(depth > 1 ? new long[] {width, height, depth} : new long[] {width, height}, type);
+		buffer.fill(0);
+		return buffer;
+	}
+
+	private static void fillRect(CPUBuffer buffer, int x, int y, int width, int height, int value) {
+		for (int dy = 0; dy < height; dy++) {
+			for (int dx = 0; dx < width; dx++) {
+				buffer.set(x + dx, y + dy, 0, value);
+			}
+		}
+	}
+
+	private static void fillPlaneRow(CPUBuffer buffer, int y, int z, int value) {
+		for (int x = 0; x < buffer.width(); x++) {
+			buffer.set(x, y, z, value);
+		}
+	}
+
+	private static double sum(CPUBuffer buffer) {
+		double sum = 0;
+		for (int z = 0; z < buffer.depth(); z++) {
+			for (int i = 0; i < buffer.planeSize(); i++) {
+				sum += buffer.get(z, i);
+			}
+		}
+		return sum;
+	}
+
+	private static int count(CPUBuffer buffer, int label) {
+		int count = 0;
+		for (int z = 0; z < buffer.depth(); z++) {
+			for (int i = 0; i < buffer.planeSize(); i++) {
+				count += buffer.get(z, i) == label ? 1 : 0;
+			}
+		}
+		return count;
+	}
+}
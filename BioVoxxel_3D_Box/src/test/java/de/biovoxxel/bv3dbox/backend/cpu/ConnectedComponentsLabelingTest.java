@@ -0,0 +1,72 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.BufferType;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+
+class ConnectedComponentsLabelingTest {
+
+	@Test
+	void labelsDoNotDependOnThreadCount() {
+		for (boolean box : new boolean[] {true, false}) {
+			float[] singleThreaded = labelRandomVolume(1, 40, 30, 17, box);
+			float[] multiThreaded = labelRandomVolume(7, 40, 30, 17, box);
+			assertArrayEquals(singleThreaded, multiThreaded);
+
+			float[] singleThreaded2D = labelRandomVolume(1, 64, 50, 1, box);
+			float[] multiThreaded2D = labelRandomVolume(5, 64, 50, 1, box);
+			assertArrayEquals(singleThreaded2D, multiThreaded2D);
+		}
+	}
+
+	@Test
+	void labelsAreNumberedInRasterOrder() {
+		CPUBackend backend = new CPUBackend(4);
+		ComputeBuffer binary = backend.create(new long[] {5, 1, 8}, BufferType.UNSIGNED_BYTE);
+		CPUBuffer buffer = (CPUBuffer) binary;
+		//one object spanning all slabs starting late in the scan, one early object
+		buffer.set(4, 0, 0, 1);
+		for (int z = 1; z < 8; z++) {
+			buffer.set(1, 0, z, 1);
+		}
+		buffer.set(0, 0, 7, 1);
+		ComputeBuffer labels = backend.create(new long[] {5, 1, 8}, BufferType.FLOAT);
+		backend.connectedComponentsLabelingDiamond(binary, labels);
+
+		CPUBuffer result = (CPUBuffer) labels;
+		assertEquals(1, result.get(4, 0, 0));
+		assertEquals(2, result.get(1, 0, 1));
+		assertEquals(2, result.get(1, 0, 7));
+		assertEquals(2, result.get(0, 0, 7));
+		backend.close();
+	}
+
+
+	private float[] labelRandomVolume(int threads, int width, int height, int depth, boolean box) {
+		CPUBackend backend = new CPUBackend(threads);
+		ComputeBuffer binary = backend.create(new long[] {width, height, depth}, BufferType.UNSIGNED_BYTE);
+		Random random = new Random(42);
+		for (int z = 0; z < depth; z++) {
+			for (int i = 0; i < width * height; i++) {
+				((CPUBuffer) binary).set(z, i, random.nextFloat() < 0.35 ? 1 : 0);
+			}
+		}
+		ComputeBuffer labels = backend.create(binary.getDimensions(), BufferType.FLOAT);
+		if (box) {
+			backend.connectedComponentsLabelingBox(binary, labels);
+		} else {
+			backend.connectedComponentsLabelingDiamond(binary, labels);
+		}
+		float[] result = new float[width * height * depth];
+		for (int z = 0; z < depth; z++) {
+			System.arraycopy(((CPUBuffer) labels).readPlane(z, null), 0, result, z * width * height, width * height);
+		}
+		backend.close();
+		return result;
+	}
+}
@@ -0,0 +1,90 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DistanceTransformTest {
+
+	@Test
+	void distancesMatchTheClosestBackgroundPixel() {
+		ParallelExecutor executor = new ParallelExecutor(3);
+		try {
+			assertMatchesBruteForce(executor, 23, 19, 1, 1.0, 0.6, 1.0, 0.2, 1);
+			assertMatchesBruteForce(executor, 21, 17, 1, 1.5, 0.5, 4.0, 0.05, 2);
+			assertMatchesBruteForce(executor, 17, 13, 6, 1.0, 0.7, 2.3, 0.15, 3);
+			assertMatchesBruteForce(executor, 11, 14, 9, 0.4, 1.0, 0.8, 0.02, 4);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+
+	@Test
+	void imagesWithoutBackgroundAreSetToMaximum() {
+		float[][] planes = {{1, 1, 1, 1}, {1, 1, 1, 1}};
+		ParallelExecutor executor = new ParallelExecutor(2);
+		try {
+			DistanceTransform.distanceMap(executor, planes, 2, 2, 1, 1, 1);
+		} finally {
+			executor.shutdown();
+		}
+		for (float[] plane : planes) {
+			for (float distance : plane) {
+				assertEquals(Float.MAX_VALUE, distance);
+			}
+		}
+	}
+
+
+	/**
+	 * @param backgroundDensity	fraction of background pixels, at least one is set
+	 * @param spacingZ	ignored for 2D images
+	 */
+	private static void assertMatchesBruteForce(ParallelExecutor executor, int width, int height, int depth, double spacingX, double spacingY, double spacingZ, double backgroundDensity, long seed) {
+		Random random = new Random(seed);
+		float[][] planes = new float[depth][width * height];
+		for (int z = 0; z < depth; z++) {
+			for (int i = 0; i < width * height; i++) {
+				planes[z][i] = random.nextDouble() < backgroundDensity ? 0 : 1 + random.nextInt(255);
+			}
+		}
+		planes[random.nextInt(depth)][random.nextInt(width * height)] = 0;
+		float[][] binary = new float[depth][];
+		for (int z = 0; z < depth; z++) {
+			binary[z] = planes[z].clone();
+		}
+
+		DistanceTransform.distanceMap(executor, planes, width, height, spacingX, spacingY, spacingZ);
+
+		double sz = depth > 1 ? spacingZ : 0;
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					double expected = Double.MAX_VALUE;
+					if (binary[z][y * width + x] == 0) {
+						expected = 0;
+					} else {
+						for (int bz = 0; bz < depth; bz++) {
+							for (int by = 0; by < height; by++) {
+								for (int bx = 0; bx < width; bx++) {
+									if (binary[bz][by * width + bx] == 0) {
+										double dx = (bx - x) * spacingX;
+										double dy = (by - y) * spacingY;
+										double dz = (bz - z) * sz;
+										expected = Math.min(expected, dx * dx + dy * dy + dz * dz);
+									}
+								}
+							}
+						}
+						expected = Math.sqrt(expected);
+					}
+					String pixel = width + "x" + height + "x" + depth + " at " + x + "," + y + "," + z;
+					assertEquals(expected, planes[z][y * width + x], 1e-5 * Math.max(1, expected), pixel);
+				}
+			}
+		}
+	}
+}
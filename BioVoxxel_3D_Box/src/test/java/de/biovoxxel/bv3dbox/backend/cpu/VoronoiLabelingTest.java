@@ -0,0 +1,151 @@
+package de.biovoxxel.bv3dbox.backend.cpu;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.BufferType;
+
+class VoronoiLabelingTest {
+
+	@Test
+	void wavefrontEqualsSequentialDilation() {
+		for (int threads : new int[] {1, 4}) {
+			CPUBackend backend = new CPUBackend(threads);
+			try {
+				for (long seed = 1; seed <= 3; seed++) {
+					assertSameAsSequential(backend, 31, 23, 1, seed, -1);
+					assertSameAsSequential(backend, 19, 15, 7, seed, -1);
+					assertSameAsSequential(backend, 19, 15, 7, seed, 3);
+				}
+			} finally {
+				backend.close();
+			}
+		}
+	}
+
+
+	@Test
+	void tiesTakeTheHigherLabelAndMasksStopTheLabels() {
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			CPUBuffer labels = (CPUBuffer) backend.create(new long[] {9, 3}, BufferType.UNSIGNED_SHORT);
+			CPUBuffer mask = (CPUBuffer) backend.create(new long[] {9, 3}, BufferType.UNSIGNED_BYTE);
+			labels.set(0, 1 * 9 + 0, 3);
+			labels.set(0, 1 * 9 + 4, 2);
+			labels.set(0, 1 * 9 + 8, 7);
+			for (int i = 0; i < 27; i++) {
+				mask.set(0, i, i % 9 == 6 ? 0 : 1);	//wall at x = 6
+			}
+			labels.set(0, 0 * 9 + 6, 5);	//seed outside of the mask
+			CPUBuffer voronoi = (CPUBuffer) backend.create(labels);
+			VoronoiLabeling.dilate(backend.getExecutor(), labels, mask, voronoi, -1);
+
+			assertEquals(3, voronoi.get(0, 1 * 9 + 1));
+			assertEquals(3, voronoi.get(0, 1 * 9 + 2), "equal distance to 3 and 2");
+			assertEquals(2, voronoi.get(0, 1 * 9 + 5));
+			assertEquals(0, voronoi.get(0, 0 * 9 + 6), "labels outside of the mask are removed");
+			assertEquals(0, voronoi.get(0, 2 * 9 + 6));
+			assertEquals(7, voronoi.get(0, 2 * 9 + 7), "the wall is not crossed");
+			assertEquals(2, voronoi.get(0, 0 * 9 + 5));
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	/**
+	 * Random seeds in a random mask with walls, so that some background is unreachable
+	 */
+	private static void assertSameAsSequential(CPUBackend backend, int width, int height, int depth, long seed, int iterations) {
+		Random random = new Random(seed);
+		int planeSize = width * height;
+		int[][] labels = new int[depth][planeSize];
+		int[][] mask = new int[depth][planeSize];
+		CPUBuffer labelBuffer = (CPUBuffer) backend.create(new long[] {width, height, depth}, BufferType.UNSIGNED_SHORT);
+		CPUBuffer maskBuffer = (CPUBuffer) backend.create(new long[] {width, height, depth}, BufferType.UNSIGNED_BYTE);
+		for (int z = 0; z < depth; z++) {
+			for (int i = 0; i < planeSize; i++) {
+				boolean wall = i % width == width / 2 && (i / width) % 5 != 0;
+				mask[z][i] = wall || random.nextDouble() < 0.1 ? 0 : 1;
+				labels[z][i] = random.nextDouble() < 0.02 ? 1 + random.nextInt(6) : 0;
+				labelBuffer.set(z, i, labels[z][i]);
+				maskBuffer.set(z, i, mask[z][i]);
+			}
+		}
+
+		CPUBuffer destination = (CPUBuffer) backend.create(labelBuffer);
+		VoronoiLabeling.dilate(backend.getExecutor(), labelBuffer, maskBuffer, destination, iterations);
+		int[][] expected = sequentialDilation(labels, mask, width, height, iterations);
+
+		for (int z = 0; z < depth; z++) {
+			for (int i = 0; i < planeSize; i++) {
+				assertEquals(expected[z][i], (int) destination.get(z, i), "seed " + seed + ", " + depth + " slices, pixel " + (i % width) + "," + (i / width) + "," + z);
+			}
+		}
+		labelBuffer.close();
+		maskBuffer.close();
+		destination.close();
+	}
+
+
+	/**
+	 * Breadth first dilation scanning the whole image per layer, even layers with a box and
+	 * odd layers with a diamond neighborhood. Background pixels in the mask take the highest
+	 * label labelled in a previous layer.
+	 */
+	private static int[][] sequentialDilation(int[][] labels, int[][] mask, int width, int height, int iterations) {
+		int depth = labels.length;
+		int[][] current = new int[depth][];
+		for (int z = 0; z < depth; z++) {
+			current[z] = labels[z].clone();
+			for (int i = 0; i < current[z].length; i++) {
+				if (mask[z][i] == 0) {
+					current[z][i] = 0;
+				}
+			}
+		}
+		int rz = depth > 1 ? 1 : 0;
+		for (int iteration = 0; iterations < 0 || iteration < iterations; iteration++) {
+			boolean box = iteration % 2 == 0;
+			int[][] next = new int[depth][];
+			boolean changed = false;
+			for (int z = 0; z < depth; z++) {
+				next[z] = current[z].clone();
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						int index = y * width + x;
+						if (current[z][index] != 0 || mask[z][index] == 0) {
+							continue;
+						}
+						int maximum = 0;
+						for (int dz = -rz; dz <= rz; dz++) {
+							for (int dy = -1; dy <= 1; dy++) {
+								for (int dx = -1; dx <= 1; dx++) {
+									int nx = x + dx;
+									int ny = y + dy;
+									int nz = z + dz;
+									if ((!box && Math.abs(dx) + Math.abs(dy) + Math.abs(dz) > 1) || nx < 0 || ny < 0 || nz < 0 || nx >= width || ny >= height || nz >= depth) {
+										continue;
+									}
+									maximum = Math.max(maximum, current[nz][ny * width + nx]);
+								}
+							}
+						}
+						if (maximum != 0) {
+							next[z][index] = maximum;
+							changed = true;
+						}
+					}
+				}
+			}
+			current = next;
+			if (!changed) {
+				break;
+			}
+		}
+		return current;
+	}
+}
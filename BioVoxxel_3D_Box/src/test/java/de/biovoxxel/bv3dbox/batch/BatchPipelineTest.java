@@ -0,0 +1,148 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class BatchPipelineTest {
+
+	private static List<File> files(int count) {
+		List<File> files = new ArrayList<File>();
+		for (int f = 0; f < count; f++) {
+			files.add(new File("image_" + f + ".tif"));
+		}
+		return files;
+	}
+
+
+	@Test
+	void filesAreProcessedInOrderWithBoundedPrefetchAndAllResultsWritten() {
+		List<File> files = files(12);
+		AtomicInteger read = new AtomicInteger();
+		AtomicInteger processed = new AtomicInteger();
+		AtomicInteger maxAhead = new AtomicInteger();
+		List<String> processedNames = new CopyOnWriteArrayList<String>();
+		List<String> written = new CopyOnWriteArrayList<String>();
+
+		BatchPipeline.Summary summary = new BatchPipeline<String>().setPrefetch(2).setReaderThreads(3).run(files,
+				file -> {
+					int ahead = read.incrementAndGet() - processed.get();
+					maxAhead.accumulateAndGet(ahead, Math::max);
+					return file.getName();
+				},
+				(file, name) -> {
+					processedNames.add(name);
+					processed.incrementAndGet();
+					return new BatchResult();
+				},
+				(file, result) -> {
+					try {
+						Thread.sleep(5);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					written.add(file.getName());
+				});
+
+		for (int f = 0; f < files.size(); f++) {
+			assertEquals(files.get(f).getName(), processedNames.get(f));
+		}
+		assertTrue(maxAhead.get() <= 3, "at most the processed file and the prefetched ones are open: " + maxAhead.get());
+		assertEquals(files.size(), written.size(), "all writes finish before run returns");
+		assertEquals(files.size(), summary.getSucceeded());
+		assertTrue(summary.getFailures().isEmpty());
+		assertFalse(summary.isCanceled());
+	}
+
+
+	@Test
+	void processingThreadsWorkOnSeveralFilesAtTheSameTime() {
+		List<File> files = files(8);
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		List<String> written = new CopyOnWriteArrayList<String>();
+
+		BatchPipeline.Summary summary = new BatchPipeline<String>().setProcessingThreads(3).run(files,
+				file -> file.getName(),
+				(file, name) -> {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.sleep(20);
+					running.decrementAndGet();
+					if (name.equals("image_4.tif")) {
+						throw new IllegalStateException("no objects");
+					}
+					return new BatchResult();
+				},
+				(file, result) -> written.add(file.getName()));
+
+		assertTrue(maxRunning.get() > 1, "files are processed in parallel");
+		assertTrue(maxRunning.get() <= 3, "at most one file per processing thread: " + maxRunning.get());
+		assertEquals(7, written.size(), "all writes finish before run returns");
+		assertEquals(7, summary.getSucceeded());
+		assertTrue(summary.getFailures().get(files.get(4)).startsWith("processing"));
+	}
+
+
+	@Test
+	void failuresAreRecordedAndTheBatchContinues() {
+		List<File> files = files(6);
+		List<String> written = new CopyOnWriteArrayList<String>();
+
+		BatchPipeline.Summary summary = new BatchPipeline<String>().run(files,
+				file -> {
+					if (file.getName().equals("image_1.tif")) {
+						throw new IOException("unreadable");
+					}
+					return file.getName();
+				},
+				(file, name) -> {
+					if (name.equals("image_3.tif")) {
+						throw new IllegalStateException("no objects");
+					}
+					return new BatchResult();
+				},
+				(file, result) -> {
+					if (file.getName().equals("image_5.tif")) {
+						throw new IOException("disk full");
+					}
+					written.add(file.getName());
+				});
+
+		assertEquals(6, summary.getTotal());
+		assertEquals(3, summary.getSucceeded());
+		assertEquals(3, summary.getFailures().size());
+		assertTrue(summary.getFailures().get(files.get(1)).startsWith("reading"));
+		assertTrue(summary.getFailures().get(files.get(3)).startsWith("processing"));
+		assertTrue(summary.getFailures().get(files.get(5)).startsWith("writing"));
+		assertEquals(3, written.size());
+	}
+
+
+	@Test
+	void cancelStopsProcessingButFinishesPendingWrites() {
+		List<File> files = files(10);
+		List<String> written = new CopyOnWriteArrayList<String>();
+		BatchPipeline<String> pipeline = new BatchPipeline<String>();
+
+		BatchPipeline.Summary summary = pipeline.run(files,
+				File::getName,
+				(file, name) -> {
+					if (name.equals("image_3.tif")) {
+						pipeline.cancel("test");
+					}
+					return new BatchResult();
+				},
+				(file, result) -> written.add(file.getName()));
+
+		assertTrue(summary.isCanceled());
+		assertEquals(4, written.size());
+		assertEquals(4, summary.getSucceeded());
+	}
+}
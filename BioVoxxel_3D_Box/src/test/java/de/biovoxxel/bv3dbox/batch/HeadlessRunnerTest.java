@@ -0,0 +1,165 @@
+package de.biovoxxel.bv3dbox.batch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.batch.PipelineDefinition.StepDefinition;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+class HeadlessRunnerTest {
+
+	@TempDir
+	Path folder;
+
+	private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+
+	private int run(String json, String... options) throws IOException {
+		File pipeline = folder.resolve("pipeline.json").toFile();
+		Files.write(pipeline.toPath(), json.getBytes(StandardCharsets.UTF_8));
+		String[] args = new String[options.length + 1];
+		args[0] = pipeline.getPath();
+		System.arraycopy(options, 0, args, 1, options.length);
+		return HeadlessRunner.run(args, new PrintStream(new ByteArrayOutputStream()), new PrintStream(err));
+	}
+
+
+	@Test
+	void invalidCommandLinesAndPipelinesAreRejectedBeforeProcessing() throws IOException {
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, HeadlessRunner.run(new String[0], System.out, new PrintStream(err)));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"steps\": [ { \"plugin\": \"PostProcessor\" } ] }", "--input"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"steps\": [ { \"plugin\": \"PostProcessor\" } ] }", "--threads", "4"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"steps\": [ "));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"input\": \"in\", \"output\": \"out\", \"steps\": [] }"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"input\": \"in\", \"output\": \"out\", \"steps\": [ { \"plugin\": \"Segmenter\" } ] }"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"input\": \"in\", \"output\": \"out\", \"steps\": [ { \"plugin\": \"PostProcessor\", \"parameters\": { \"iteration\": 2 } } ] }"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"input\": \"in\", \"output\": \"out\", \"steps\": [ { \"plugin\": \"PostProcessor\", \"parameters\": { \"iterations\": \"two\" } } ] }"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"input\": \"in\", \"output\": \"out\", \"steps\": [ { \"plugin\": \"PostProcessor\", \"parameters\": { \"method\": \"Shrink\" } } ] }"));
+		assertEquals(HeadlessRunner.INVALID_ARGUMENTS, run("{ \"steps\": [ { \"plugin\": \"PostProcessor\", \"parameters\": { \"method\": \"Dilate Label\", \"iterations\": 2 } } ] }"));
+		assertTrue(err.toString().contains("Step 1"), err.toString());
+	}
+
+
+	@Test
+	void emptyInputFoldersAreReported() throws IOException {
+		File input = folder.resolve("input").toFile();
+		assertTrue(input.mkdir());
+		String json = "{ \"steps\": [ { \"plugin\": \"PostProcessor\", \"parameters\": { \"method\": \"Dilate Label\", \"iterations\": 2 } } ] }";
+		assertEquals(HeadlessRunner.NO_INPUT, run(json, "--input", input.getPath(), "--output", folder.resolve("output").toString()));
+	}
+
+
+	@Test
+	void invalidObjectInspectorInputsAreReportedAsFailedFiles() throws IOException {
+		String backendProperty = System.getProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, "cpu");
+		try {
+			File input = folder.resolve("input").toFile();
+			File secondary = folder.resolve("secondary").toFile();
+			assertTrue(input.mkdir());
+			assertTrue(secondary.mkdir());
+			IJ.save(createObjects(60, 40), new File(input, "cells.tif").getPath());
+			IJ.save(createObjects(50, 40), new File(secondary, "cells.tif").getPath());
+
+			String json = "{ \"steps\": [ { \"plugin\": \"ObjectInspector\", \"parameters\": { \"secondaryFolder\": \"" + secondary.getPath().replace("\\", "/") + "\" } } ] }";
+			assertEquals(HeadlessRunner.FAILED_FILES, run(json, "--input", input.getPath(), "--output", folder.resolve("output").toString()));
+		} finally {
+			if (backendProperty == null) {
+				System.clearProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+			} else {
+				System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, backendProperty);
+			}
+		}
+	}
+
+
+	@Test
+	void stepImagesAreSavedByTheirSuffixAndTheLastImageAsOutput() throws Exception {
+		ImagePlus original = new ImagePlus("cells", new ByteProcessor(4, 4));
+		ImagePlus first = new ImagePlus("first", new ByteProcessor(4, 4));
+		ImagePlus second = new ImagePlus("second", new ByteProcessor(4, 4));
+
+		BatchResult result = PipelineSteps.process(Arrays.asList(step(first, "labels"), step(second, null)), new File("cells.tif"), original);
+		assertSame(first, result.getImages().get("labels"));
+		assertSame(second, result.getImages().get("output"));
+
+		result = PipelineSteps.process(Arrays.asList(step(first, null), step(second, "final")), new File("cells.tif"), original);
+		assertEquals(1, result.getImages().size());
+		assertSame(second, result.getImages().get("final"));
+	}
+
+
+	@Test
+	void labelStepsOnlyPullSavedAndFinalImages() throws Exception {
+		String backendProperty = System.getProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, "cpu");
+		try {
+			ImagePlus original = createObjects(60, 40);
+			PipelineStep labeling = PipelineSteps.create(new StepDefinition(PipelineSteps.VORONOI_THRESHOLD_LABELING, "labels", Collections.singletonMap("separationMethod", "None")));
+			PipelineStep dilation = PipelineSteps.create(new StepDefinition(PipelineSteps.POST_PROCESSOR, null, Collections.singletonMap("method", "Dilate Label")));
+
+			BatchResult result = PipelineSteps.process(Arrays.asList(labeling, dilation), new File("cells.tif"), original);
+			ImagePlus labels = result.getImages().get("labels");
+			ImagePlus dilated = result.getImages().get("output");
+			assertEquals(1, labels.getStatistics().max, 0.0);
+			assertEquals(1, dilated.getStatistics().max, 0.0);
+			assertTrue(countForeground(dilated) > countForeground(labels));
+
+			result = PipelineSteps.process(Arrays.asList(labeling), new File("cells.tif"), original);
+			assertEquals(1, result.getImages().size(), "the saved labels are not written again as output");
+		} finally {
+			if (backendProperty == null) {
+				System.clearProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+			} else {
+				System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, backendProperty);
+			}
+		}
+	}
+
+
+	private static int countForeground(ImagePlus image) {
+		int count = 0;
+		for (int i = 0; i < image.getWidth() * image.getHeight(); i++) {
+			count += image.getProcessor().getf(i) > 0 ? 1 : 0;
+		}
+		return count;
+	}
+
+
+	private static ImagePlus createObjects(int width, int height) {
+		ByteProcessor objects = new ByteProcessor(width, height);
+		objects.setColor(255);
+		objects.fillOval(5, 5, 20, 20);
+		return new ImagePlus("objects", objects);
+	}
+
+
+	private static PipelineStep step(ImagePlus output, String save) {
+		return new PipelineStep() {
+			@Override
+			public void apply(File file, ImagePlus original, PipelineImage image, BatchResult result) {
+				image.setImage(output);
+			}
+
+			@Override
+			public String getSave() {
+				return save;
+			}
+		};
+	}
+}
@@ -0,0 +1,42 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.BufferTracker;
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+class BVLabelSplitterTest {
+
+	@Test
+	void splitLabelsOnlyKeepsTheLabelImage() {
+		ByteProcessor processor = new ByteProcessor(64, 48);
+		processor.setColor(255);
+		processor.fillOval(5, 5, 20, 16);
+		processor.fillOval(20, 10, 20, 16);
+		processor.fillOval(40, 25, 18, 18);
+
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ComputeBuffer input_image = backend.push(new ImagePlus("binary", processor));
+			BV_LabelSplitter labelSplitter = new BV_LabelSplitter(backend);
+
+			for (String method : new String[] {"None", "Maxima", "EDM Maxima", "DoG Seeds", "Eroded box"}) {
+				try (BufferTracker.Run run = backend.getBufferTracker().startRun(method)) {
+					ComputeBuffer label_image = labelSplitter.splitLabels(input_image, method, 2f, 2f);
+					assertEquals(1, run.getUnreleasedCount(), method + ": " + run.getUnreleased());
+					label_image.close();
+					assertEquals(0, run.getUnreleasedCount(), method);
+					assertTrue(run.getPeakBytes() > 0);
+				}
+			}
+			assertEquals(1, backend.getBufferTracker().getLiveCount());
+		} finally {
+			backend.close();
+		}
+	}
+}
@@ -2,33 +2,62 @@ package de.biovoxxel.bv3dbox.plugins;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
-import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
 import ij.ImagePlus;
+import ij.process.ByteProcessor;
 
 class BVObjectInspectorTest {
 
-	ImagePlus image1;
-	ImagePlus image2;
-	
+	private static String backendProperty;
+
 	@BeforeAll
-	void readImages() {
-		image1 = new ImagePlus("C:\\Users\\broch\\Desktop\\Binary Nuclei.tif");
-		image2 = new ImagePlus("C:\\Users\\broch\\Desktop\\Binary Speckles.tif");
+	static void useCPUBackend() {
+		backendProperty = System.getProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, "cpu");
+	}
+
+	@AfterAll
+	static void resetBackend() {
+		if (backendProperty == null) {
+			System.clearProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		} else {
+			System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, backendProperty);
+		}
 	}
-	
-	@BeforeEach
-	void setup() {
-		BV_ObjectInspector bvoi = new BV_ObjectInspector(image1, image2);
+
+
+	@Test
+	void mismatchingInputsCancelWithoutResults() {
+		BV_ObjectInspector bvoi = new BV_ObjectInspector(createObjects(60, 40), createObjects(50, 40));
+		bvoi.setOutputImageFlags(false, false, false);
 		bvoi.inspect();
+
+		assertTrue(bvoi.isCanceled());
+		assertEquals("Image dimensions between primary and secondary image do not match", bvoi.getCancelReason());
+		assertEquals(0, bvoi.getPrimaryResults().size());
 	}
-	
-	
+
+
 	@Test
-	void test() {
-		fail("Not yet implemented");
+	void matchingInputsAreInspected() {
+		BV_ObjectInspector bvoi = new BV_ObjectInspector(createObjects(60, 40), createObjects(60, 40));
+		bvoi.setOutputImageFlags(false, false, false);
+		bvoi.inspect();
+
+		assertFalse(bvoi.isCanceled());
+		assertEquals(2, bvoi.getPrimaryResults().size());
 	}
 
+
+	private static ImagePlus createObjects(int width, int height) {
+		ByteProcessor objects = new ByteProcessor(width, height);
+		objects.setColor(255);
+		objects.fillOval(5, 5, 20, 20);
+		objects.fillOval(30, 10, 15, 15);
+		return new ImagePlus("objects", objects);
+	}
 }
@@ -0,0 +1,122 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.ComputeBackend;
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+class BVPluginChainTest {
+
+	private static String backendProperty;
+
+	@BeforeAll
+	static void useCPUBackend() {
+		backendProperty = System.getProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, "cpu");
+	}
+
+	@AfterAll
+	static void resetBackend() {
+		if (backendProperty == null) {
+			System.clearProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		} else {
+			System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, backendProperty);
+		}
+	}
+
+
+	@Test
+	void postProcessingOnTheBackendEqualsTheImagePath() {
+		ImagePlus cells = createCells();
+
+		BV_PostProcessor bvpp = new BV_PostProcessor(cells);
+		ImagePlus expected = bvpp.getImagePlus(bvpp.postProcessor("Dilate Label", 2));
+
+		ComputeBackend backend = ComputeBackendFactory.getBackend();
+		backend.clear();
+		try (BV_PluginChain chain = BV_PluginChain.labels(backend, cells)) {
+			ImagePlus actual = chain.postProcess("Dilate Label", 2).pullLabels();
+			assertArrayEquals((float[]) expected.getProcessor().convertToFloat().getPixels(), (float[]) actual.getProcessor().convertToFloat().getPixels());
+		}
+		assertEquals(0, backend.getBufferTracker().getLiveCount());
+	}
+
+
+	@Test
+	void inspectionOfLabelBuffersEqualsTheImagePath() {
+		ImagePlus cells = createCells();
+		ImagePlus spots = createSpots();
+		ImagePlus intensity = createIntensity();
+
+		BV_ObjectInspector expected = new BV_ObjectInspector(cells, spots);
+		expected.setOriginalImages(intensity, intensity);
+		expected.setOutputImageFlags(false, false, false);
+		expected.inspect();
+		assertFalse(expected.isCanceled());
+
+		ComputeBackend backend = ComputeBackendFactory.getBackend();
+		try (BV_PluginChain chain = BV_PluginChain.labels(backend, cells)) {
+			BV_ObjectInspector actual = chain.objectInspector(spots);
+			actual.setOriginalImages(intensity, intensity);
+			actual.setOutputImageFlags(false, false, false);
+			actual.inspect();
+			assertFalse(actual.isCanceled());
+
+			assertTablesEqual(expected.getPrimaryResults(), actual.getPrimaryResults());
+			assertTablesEqual(expected.getSecondaryResults(), actual.getSecondaryResults());
+			assertTablesEqual(expected.getOverlapResults(), actual.getOverlapResults());
+			assertEquals(2, backend.getBufferTracker().getLiveCount(), "only the primary and secondary labels of the chain are left");
+		}
+		assertEquals(0, backend.getBufferTracker().getLiveCount());
+	}
+
+
+	private static void assertTablesEqual(ColumnarResultsTable expected, ColumnarResultsTable actual) {
+		assertArrayEquals(expected.getColumnNames(), actual.getColumnNames());
+		assertEquals(expected.size(), actual.size());
+		for (String column : expected.getColumnNames()) {
+			for (int row = 0; row < expected.size(); row++) {
+				assertEquals(expected.getValue(column, row), actual.getValue(column, row), 1e-9, column + " in row " + row);
+			}
+		}
+	}
+
+
+	private static ImagePlus createCells() {
+		ByteProcessor cells = new ByteProcessor(90, 70);
+		cells.setColor(255);
+		cells.fillOval(8, 8, 24, 20);
+		cells.fillOval(45, 10, 30, 26);
+		cells.fillOval(20, 40, 22, 22);
+		cells.fillOval(70, 50, 30, 30);
+		return new ImagePlus("cells", cells);
+	}
+
+	private static ImagePlus createSpots() {
+		ByteProcessor spots = new ByteProcessor(90, 70);
+		spots.setColor(255);
+		int[][] centers = {{15, 15}, {22, 20}, {55, 18}, {64, 26}, {30, 50}, {5, 60}};
+		for (int[] center : centers) {
+			spots.fillOval(center[0] - 2, center[1] - 2, 5, 5);
+		}
+		return new ImagePlus("spots", spots);
+	}
+
+	private static ImagePlus createIntensity() {
+		ImageProcessor intensity = new ByteProcessor(90, 70);
+		for (int y = 0; y < 70; y++) {
+			for (int x = 0; x < 90; x++) {
+				intensity.set(x, y, (x * 3 + y * 5) % 256);
+			}
+		}
+		return new ImagePlus("intensity", intensity);
+	}
+}
@@ -0,0 +1,99 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.ComputeBackendFactory;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+class BVVoronoiThresholdLabelingTest {
+
+	private static String backendProperty;
+	private static String tileMemoryProperty;
+
+	@BeforeAll
+	static void useCPUBackend() {
+		backendProperty = System.getProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY);
+		tileMemoryProperty = System.getProperty(ComputeBackendFactory.TILE_MEMORY_SYSTEM_PROPERTY);
+		System.setProperty(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, "cpu");
+	}
+
+	@AfterAll
+	static void resetBackend() {
+		reset(ComputeBackendFactory.BACKEND_SYSTEM_PROPERTY, backendProperty);
+		reset(ComputeBackendFactory.TILE_MEMORY_SYSTEM_PROPERTY, tileMemoryProperty);
+	}
+
+	private static void reset(String property, String value) {
+		if (value == null) {
+			System.clearProperty(property);
+		} else {
+			System.setProperty(property, value);
+		}
+	}
+
+
+	@Test
+	void tiledLabelingFindsTheSameObjects() {
+		ImagePlus spheres = createSpheres();
+
+		for (String separationMethod : new String[] {"None", "EDM Maxima"}) {
+			System.setProperty(ComputeBackendFactory.TILE_MEMORY_SYSTEM_PROPERTY, "0");
+			BV_VoronoiThresholdLabeling untiled = new BV_VoronoiThresholdLabeling(spheres, "Gaussian", 1f, "None", 0f, "Otsu", separationMethod, 2f, 2f, "Labels");
+			assertFalse(untiled.isTiled());
+			ImagePlus expected = untiled.computeOutputImage();
+			untiled.getCurrentBackend().close();
+
+			System.setProperty(ComputeBackendFactory.TILE_MEMORY_SYSTEM_PROPERTY, "1");
+			BV_VoronoiThresholdLabeling tiled = new BV_VoronoiThresholdLabeling(spheres, "Gaussian", 1f, "None", 0f, "Otsu", separationMethod, 2f, 2f, "Labels");
+			assertTrue(tiled.isTiled());
+			ImagePlus actual = tiled.computeOutputImage();
+			tiled.getCurrentBackend().close();
+
+			assertTrue(separationMethod.equals("None") ? maximum(expected) == 5 : maximum(expected) >= 1, separationMethod);
+			assertEquals(maximum(expected), maximum(actual), separationMethod);
+			for (int z = 1; z <= expected.getStackSize(); z++) {
+				for (int i = 0; i < expected.getWidth() * expected.getHeight(); i++) {
+					assertEquals(expected.getStack().getProcessor(z).getf(i) != 0, actual.getStack().getProcessor(z).getf(i) != 0, separationMethod + ", slice " + z);
+				}
+			}
+		}
+	}
+
+
+	private static double maximum(ImagePlus image) {
+		double maximum = 0;
+		for (int z = 1; z <= image.getStackSize(); z++) {
+			maximum = Math.max(maximum, image.getStack().getProcessor(z).getStatistics().max);
+		}
+		return maximum;
+	}
+
+	/**
+	 * 96 x 96 x 10 voxels, larger than the 1 MB tile memory limit
+	 */
+	private static ImagePlus createSpheres() {
+		int[][] centers = {{20, 20, 4}, {60, 25, 5}, {30, 70, 3}, {75, 75, 6}, {48, 48, 4}};
+		ImageStack stack = new ImageStack(96, 96);
+		for (int z = 0; z < 10; z++) {
+			ByteProcessor processor = new ByteProcessor(96, 96);
+			for (int y = 0; y < 96; y++) {
+				for (int x = 0; x < 96; x++) {
+					for (int[] center : centers) {
+						double distance = Math.sqrt(Math.pow(x - center[0], 2) + Math.pow(y - center[1], 2) + Math.pow(3 * (z - center[2]), 2));
+						if (distance < 10) {
+							processor.set(x, y, 200 - (int) (10 * distance));
+						}
+					}
+				}
+			}
+			stack.addSlice(processor);
+		}
+		return new ImagePlus("spheres", stack);
+	}
+}
@@ -0,0 +1,98 @@
+package de.biovoxxel.bv3dbox.plugins;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import de.biovoxxel.bv3dbox.backend.ComputeBuffer;
+import de.biovoxxel.bv3dbox.backend.cpu.CPUBackend;
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+
+class BVVoronoiThresholdSweepTest {
+
+	@Test
+	void rangesAreExpanded() {
+		assertArrayEquals(new float[] {1f, 1.5f, 2f, 2.5f, 3f}, BV_VoronoiThresholdSweep.parseValues("1-3:0.5"));
+		assertArrayEquals(new float[] {0.5f, 2f, 3f, 4f}, BV_VoronoiThresholdSweep.parseValues("0.5, 2-4"));
+		assertThrows(IllegalArgumentException.class, () -> BV_VoronoiThresholdSweep.parseValues("3-1"));
+		assertThrows(IllegalArgumentException.class, () -> BV_VoronoiThresholdSweep.parseValues("one"));
+	}
+
+
+	@Test
+	void allCombinationsAreSummarizedIndependentOfTheWorkers() {
+		ByteProcessor image = new ByteProcessor(80, 60);
+		FloatProcessor reference = new FloatProcessor(80, 60);
+		int[][] blobs = {{5, 5, 18}, {30, 8, 14}, {50, 30, 20}, {10, 35, 16}};
+		for (int b = 0; b < blobs.length; b++) {
+			image.setColor(120 + 30 * b);
+			image.fillOval(blobs[b][0], blobs[b][1], blobs[b][2], blobs[b][2]);
+			reference.setValue(b + 1);
+			reference.fillOval(blobs[b][0], blobs[b][1], blobs[b][2], blobs[b][2]);
+		}
+		ImagePlus imagePlus = new ImagePlus("blobs", image);
+
+		CPUBackend backend = new CPUBackend(2);
+		try {
+			ComputeBuffer input_image = backend.push(imagePlus);
+			for (String separationMethod : new String[] {"Maxima", "EDM Maxima"}) {
+				assertSweepIsIndependentOfTheWorkers(backend, imagePlus, input_image, reference, separationMethod);
+			}
+			assertEquals(1, backend.getBufferTracker().getLiveCount(), "only the input is left");
+		} finally {
+			backend.close();
+		}
+	}
+
+
+	private static void assertSweepIsIndependentOfTheWorkers(CPUBackend backend, ImagePlus imagePlus, ComputeBuffer input_image, FloatProcessor reference, String separationMethod) {
+		ColumnarResultsTable[] tables = new ColumnarResultsTable[2];
+		int[] workers = {1, 3};
+		for (int w = 0; w < workers.length; w++) {
+			BV_VoronoiThresholdSweep sweep = new BV_VoronoiThresholdSweep(imagePlus);
+			sweep.setSeparationMethod(separationMethod);
+			sweep.setThresholdMethods(Arrays.asList("Default", "Otsu"));
+			sweep.setSpotSigmas(new float[] {1f, 2f});
+			sweep.setMaximaRadii(new float[] {1f, 2f});
+			sweep.setReferenceLabels(new ImagePlus("reference", reference));
+			sweep.setWorkers(workers[w]);
+			tables[w] = sweep.sweep(backend, input_image, input_image);
+		}
+
+		assertEquals(8, tables[0].size());
+		for (String column : tables[0].getColumnNames()) {
+			for (int row = 0; row < tables[0].size(); row++) {
+				if (column.equals("ThresholdMethod")) {
+					assertEquals(tables[0].getStringValue(column, row), tables[1].getStringValue(column, row));
+				} else {
+					assertEquals(tables[0].getValue(column, row), tables[1].getValue(column, row), 0.0, column + " in row " + row);
+				}
+			}
+		}
+		for (int row = 0; row < tables[0].size(); row++) {
+			assertTrue(tables[0].getValue("Count", row) > 0, separationMethod);
+			double jaccard = tables[0].getValue("MeanJaccard", row);
+			assertTrue(jaccard > 0 && jaccard <= 1, separationMethod + ": jaccard = " + jaccard);
+		}
+	}
+
+
+	@Test
+	void identicalLabelsMatchTheReferenceCompletely() {
+		int[] labels = {0, 1, 1, 0, 2, 2, 2, 0, 3};
+		int[] reference = {0, 5, 5, 0, 7, 7, 7, 0, 0};
+
+		BV_VoronoiThresholdSweep.Summary summary = BV_VoronoiThresholdSweep.summarize("Default", 10, 1f, 1f, labels, reference);
+		assertEquals(3, summary.getCount());
+		assertEquals(1.0, summary.getMinVolume());
+		assertEquals(2.0, summary.getMedianVolume());
+		assertEquals(3.0, summary.getMaxVolume());
+		assertEquals(1.0, summary.getMeanJaccard(), 1e-12);
+		assertEquals(2, summary.getMatchedObjects());
+	}
+}
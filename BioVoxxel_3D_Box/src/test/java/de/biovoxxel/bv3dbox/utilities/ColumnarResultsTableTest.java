@@ -0,0 +1,90 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.biovoxxel.bv3dbox.utilities.ColumnarResultsTable.ColumnType;
+import ij.measure.ResultsTable;
+
+class ColumnarResultsTableTest {
+
+	@TempDir
+	File folder;
+
+	private ColumnarResultsTable createTable() {
+		ColumnarResultsTable table = new ColumnarResultsTable(2);
+		table.addColumn("LABEL", ColumnType.INT);
+		table.addColumn("PIXELS", ColumnType.LONG);
+		table.addColumn("MEAN", ColumnType.DOUBLE);
+		table.addColumn("RATIO", ColumnType.FLOAT);
+		table.addColumn("IMAGE", ColumnType.STRING);
+		for (int l = 0; l < 5; l++) {
+			int row = table.addRow();
+			table.setValue("LABEL", row, 5 - l);
+			table.setValue("PIXELS", row, 10_000_000_000L + l);
+			table.setValue("MEAN", row, l + 0.25);
+			table.setValue("RATIO", row, l / 2f);
+			table.setValue("IMAGE", row, l % 2 == 0 ? "blobs, 3D" : "cells");
+		}
+		return table;
+	}
+
+	@Test
+	void binaryFileRestoresAllColumns() throws IOException {
+		ColumnarResultsTable table = createTable();
+		String path = new File(folder, "results.bv3dcol").getPath();
+		table.saveAsBinary(path);
+
+		ColumnarResultsTable restored = ColumnarResultsTable.openBinary(path);
+		assertEquals(5, restored.size());
+		assertArrayEquals(table.getColumnNames(), restored.getColumnNames());
+		for (String column : table.getColumnNames()) {
+			assertEquals(table.getColumnType(column), restored.getColumnType(column));
+			for (int row = 0; row < table.size(); row++) {
+				assertEquals(table.getStringValue(column, row), restored.getStringValue(column, row));
+			}
+		}
+		assertEquals(10_000_000_004L, (long) restored.getValue("PIXELS", 4));
+	}
+
+	@Test
+	void sortingKeepsRowsTogetherAndExportsCSV() throws IOException {
+		ColumnarResultsTable table = createTable();
+		table.sort("LABEL");
+		assertArrayEquals(new double[] {1, 2, 3, 4, 5}, table.getColumnAsDoubles("LABEL"));
+		assertArrayEquals(new double[] {4.25, 3.25, 2.25, 1.25, 0.25}, table.getColumnAsDoubles("MEAN"));
+
+		String path = new File(folder, "results.csv").getPath();
+		table.saveAsCSV(path);
+		List<String> lines = Files.readAllLines(new File(path).toPath(), StandardCharsets.UTF_8);
+		assertEquals(6, lines.size());
+		assertEquals("LABEL,PIXELS,MEAN,RATIO,IMAGE", lines.get(0));
+		assertEquals("1,10000000004,4.25,2,\"blobs, 3D\"", lines.get(1));
+		assertEquals("2,10000000003,3.25,1.5,cells", lines.get(2));
+	}
+
+	@Test
+	void resultsTableAdapterAppendsRows() {
+		ColumnarResultsTable table = new ColumnarResultsTable();
+		table.setColumn("IDENTIFIER", new int[] {1, 2, 3});
+		table.setColumn("VOLUME", new double[] {1.5, 2.5, 3.5});
+
+		ResultsTable resultsTable = table.toResultsTable();
+		assertEquals(3, resultsTable.size());
+		assertArrayEquals(new double[] {1.5, 2.5, 3.5}, resultsTable.getColumn("VOLUME"));
+
+		table.appendTo(resultsTable);
+		assertEquals(6, resultsTable.size());
+		assertEquals(3.0, resultsTable.getValue("IDENTIFIER", 5));
+
+		assertThrows(IllegalArgumentException.class, () -> table.setColumn("SHORT", new double[] {1}));
+	}
+}
@@ -0,0 +1,56 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the former O(bins^2) Huang2 with the bounded evaluation of
+ * {@link BV3DBoxUtilities#calculateHuang2(int[])}. Not part of the unit tests, run main()
+ * from the test classpath.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class Huang2Benchmark {
+
+	@Param({ "256", "4096", "65536" })
+	int bins;
+
+	int[] histogram;
+
+	@Setup
+	public void createHistogram() {
+		histogram = Huang2Reference.createHistogram(bins, 42);
+	}
+
+	@Benchmark
+	public int former() {
+		return Huang2Reference.calculateHuang2(histogram);
+	}
+
+	@Benchmark
+	public int bounded() {
+		return BV3DBoxUtilities.getThresholdValue("Huang2", histogram);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(Huang2Benchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,71 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import java.util.Random;
+
+/**
+ * Former Huang2 implementation evaluating the fuzziness of every threshold over all bins,
+ * kept as reference for tests and benchmarks.
+ */
+final class Huang2Reference {
+
+	private Huang2Reference() {}
+
+	static int calculateHuang2(int[] data) {
+		int first, last;
+		for (first = 0; first < data.length && data[first] == 0; first++)
+			; // do nothing
+		for (last = data.length - 1; last > first && data[last] == 0; last--)
+			; // do nothing
+		if (first == last)
+			return 0;
+
+		double[] S = new double[last + 1], W = new double[last + 1];
+		S[0] = data[0];
+		for (int i = Math.max(1, first); i <= last; i++) {
+			S[i] = S[i - 1] + data[i];
+			W[i] = W[i - 1] + i * data[i];
+		}
+
+		double C = last - first;
+		double[] Smu = new double[last + 1 - first];
+		for (int i = 1; i < Smu.length; i++) {
+			double mu = 1 / (1 + Math.abs(i) / C);
+			Smu[i] = -mu * Math.log(mu) - (1 - mu) * Math.log(1 - mu);
+		}
+
+		int bestThreshold = 0;
+		double bestEntropy = Double.MAX_VALUE;
+		for (int threshold = first; threshold <= last; threshold++) {
+			double entropy = 0;
+			int mu = (int)Math.round(W[threshold] / S[threshold]);
+			for (int i = first; i <= threshold; i++)
+				entropy += Smu[Math.abs(i - mu)] * data[i];
+			mu = (int)Math.round((W[last] - W[threshold]) / (S[last] - S[threshold]));
+			for (int i = threshold + 1; i <= last; i++)
+				entropy += Smu[Math.abs(i - mu)] * data[i];
+
+			if (bestEntropy > entropy) {
+				bestEntropy = entropy;
+				bestThreshold = threshold;
+			}
+		}
+
+		return bestThreshold;
+	}
+	
+	/**
+	 * Bimodal histogram with noise and empty bins as found in fluorescence images
+	 */
+	static int[] createHistogram(int bins, long seed) {
+		Random random = new Random(seed);
+		int[] histogram = new int[bins];
+		double background = 0.1 + 0.3 * random.nextDouble();
+		double foreground = background + 0.2 + 0.4 * random.nextDouble();
+		for (int i = 0; i < bins; i++) {
+			double x = i / (double) bins;
+			double value = 1000 * Math.exp(-Math.pow((x - background) / 0.05, 2)) + 300 * Math.exp(-Math.pow((x - foreground) / 0.1, 2));
+			histogram[i] = random.nextInt(8) == 0 ? 0 : (int) value + random.nextInt(5);
+		}
+		return histogram;
+	}
+}
@@ -0,0 +1,54 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class Huang2Test {
+
+	@Test
+	void thresholdMatchesFormerImplementation() {
+		Random random = new Random(3);
+		for (int trial = 0; trial < 200; trial++) {
+			int bins = trial % 2 == 0 ? 256 : 2048;
+			int[] histogram;
+			switch (trial % 4) {
+			case 0:
+				histogram = Huang2Reference.createHistogram(bins, trial);
+				break;
+			case 1:
+				histogram = new int[bins];
+				for (int i = 0; i < bins; i++) {
+					histogram[i] = random.nextInt(100);
+				}
+				break;
+			case 2:
+				histogram = new int[bins];
+				for (int i = 0; i < bins; i++) {
+					histogram[i] = random.nextInt(10) == 0 ? random.nextInt(1000) : 0;
+				}
+				break;
+			default:
+				histogram = new int[bins];
+				for (int i = 0; i < bins; i++) {
+					histogram[i] = (int) (5000 * Math.exp(-8.0 * i / bins)) + random.nextInt(3);
+				}
+			}
+			assertEquals(Huang2Reference.calculateHuang2(histogram), BV3DBoxUtilities.calculateHuang2(histogram), "trial " + trial);
+		}
+	}
+
+	@Test
+	void degenerateHistograms() {
+		assertEquals(0, BV3DBoxUtilities.calculateHuang2(new int[256]));
+		int[] single = new int[256];
+		single[17] = 100;
+		assertEquals(0, BV3DBoxUtilities.calculateHuang2(single));
+		int[] flat = new int[4096];
+		Arrays.fill(flat, 1000, 3000, 20);
+		assertEquals(Huang2Reference.calculateHuang2(flat), BV3DBoxUtilities.getThresholdValue("Huang2", flat));
+	}
+}
@@ -0,0 +1,67 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class PreviewSchedulerTest {
+
+	@Test
+	void burstsAreCoalescedAndOnlyTheNewestResultIsPublished() throws InterruptedException {
+		PreviewScheduler scheduler = new PreviewScheduler("test preview");
+		List<Integer> started = new CopyOnWriteArrayList<Integer>();
+		List<Integer> published = new CopyOnWriteArrayList<Integer>();
+		List<String> canceled = new CopyOnWriteArrayList<String>();
+		CountDownLatch firstRunning = new CountDownLatch(1);
+		CountDownLatch burstDone = new CountDownLatch(1);
+
+		scheduler.submit(ticket -> {
+			started.add(0);
+			firstRunning.countDown();
+			try {
+				burstDone.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			canceled.add(ticket.getCancelReason());
+			if (ticket.publish(() -> published.add(0))) {
+				return;
+			}
+			ticket.checkCanceled();
+			fail("superseded preview was not stopped");
+		});
+		assertTrue(firstRunning.await(5, TimeUnit.SECONDS));
+
+		for (int value = 1; value <= 10; value++) {
+			int preview = value;
+			scheduler.submit(ticket -> {
+				started.add(preview);
+				ticket.checkCanceled();
+				ticket.publish(() -> published.add(preview));
+			});
+		}
+		burstDone.countDown();
+
+		scheduler.runNow(ticket -> assertFalse(ticket.isCanceled()));
+		assertEquals(1, canceled.size());
+		assertNotNull(canceled.get(0));
+		assertEquals(0, (int) started.get(0));
+		assertTrue(started.size() <= 2, "queued previews are skipped: " + started);
+		assertTrue(published.isEmpty() || published.equals(Arrays.asList(10)), "only the newest preview can be published: " + published);
+		published.clear();
+
+		scheduler.submit(ticket -> ticket.publish(() -> published.add(42)));
+		scheduler.shutdown();
+		assertTrue(published.isEmpty() || published.equals(Arrays.asList(42)));
+
+		scheduler.submit(ticket -> fail("no previews after shutdown"));
+		scheduler.runNow(ticket -> published.add(99));
+		assertEquals(99, (int) published.get(published.size() - 1));
+	}
+}
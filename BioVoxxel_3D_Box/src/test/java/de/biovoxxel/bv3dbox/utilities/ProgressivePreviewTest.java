@@ -0,0 +1,40 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+class ProgressivePreviewTest {
+
+	@Test
+	void largeImagesAreDownsampledWithMatchingCalibration() {
+		assertEquals(1, ProgressivePreview.getDownsampling(new ImagePlus("small", ImageStack.create(256, 256, 16, 8))));
+		assertEquals(2, ProgressivePreview.getDownsampling(new ImagePlus("medium", ImageStack.create(1024, 1024, 32, 8))));
+		assertEquals(4, ProgressivePreview.getDownsampling(new ImagePlus("large", ImageStack.create(1024, 1024, 64, 16))));
+
+		ImagePlus image = new ImagePlus("stack", ImageStack.create(64, 48, 5, 16));
+		Calibration calibration = image.getCalibration();
+		calibration.pixelWidth = 0.2;
+		calibration.pixelHeight = 0.25;
+		calibration.pixelDepth = 1.0;
+		image.getStack().getProcessor(3).set(10, 10, 1000);
+
+		ImagePlus downsampled = ProgressivePreview.downsample(image, 4);
+		assertEquals(16, downsampled.getWidth());
+		assertEquals(12, downsampled.getHeight());
+		assertEquals(5, downsampled.getStackSize());
+		assertArrayEquals(ProgressivePreview.downsampleCalibration(BV3DBoxUtilities.readCalibration(image), 4), BV3DBoxUtilities.readCalibration(downsampled), 1e-9);
+
+		ImagePlus upsampled = ProgressivePreview.upsample(downsampled, 64, 48, false);
+		assertEquals(64, upsampled.getWidth());
+		assertEquals(48, upsampled.getHeight());
+		assertEquals(5, upsampled.getStackSize());
+		float value = upsampled.getStack().getProcessor(3).getf(10, 10);
+		assertTrue(value > 0, "averaged value survives downsampling");
+		assertEquals(value, upsampled.getStack().getProcessor(3).getf(9, 9), "nearest neighbor upsampling keeps blocks");
+	}
+}
@@ -0,0 +1,40 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+
+class SlabPreviewTest {
+
+	@Test
+	void slabCoversTheHaloAndIsClampedToTheStack() {
+		ImagePlus image = new ImagePlus("stack", ImageStack.create(8, 6, 10, 8));
+
+		SlabPreview slab = new SlabPreview(image, 5, 2);
+		assertEquals(3, slab.getFirstSlice());
+		assertEquals(7, slab.getLastSlice());
+		assertEquals(3, slab.getSliceInSlab());
+
+		ImagePlus slabImagePlus = slab.getSlab();
+		assertEquals(5, slabImagePlus.getStackSize());
+		assertSame(image.getStack().getPixels(5), slabImagePlus.getStack().getPixels(slab.getSliceInSlab()), "slab shares the pixels of the image");
+
+		SlabPreview top = new SlabPreview(image, 1, 3);
+		assertEquals(1, top.getFirstSlice());
+		assertEquals(4, top.getLastSlice());
+		assertEquals(1, top.getSliceInSlab());
+
+		SlabPreview bottom = new SlabPreview(image, 12, 3);
+		assertEquals(10, bottom.getSlice());
+		assertEquals(7, bottom.getFirstSlice());
+		assertEquals(10, bottom.getLastSlice());
+
+		assertTrue(slab.isSameSlab(new SlabPreview(image, 5, 2)));
+		assertFalse(slab.isSameSlab(new SlabPreview(image, 6, 2)));
+		assertTrue(SlabPreview.isApplicable(image));
+		assertFalse(SlabPreview.isApplicable(new ImagePlus("slice", ImageStack.create(8, 6, 1, 8))));
+	}
+}
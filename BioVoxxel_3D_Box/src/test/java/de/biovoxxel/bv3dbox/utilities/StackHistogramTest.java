@@ -0,0 +1,63 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import ij.process.StackStatistics;
+
+class StackHistogramTest {
+
+	private static ImagePlus createStack(int bitDepth) {
+		Random random = new Random(bitDepth);
+		ImageStack stack = new ImageStack(61, 47);
+		for (int z = 0; z < 9; z++) {
+			ImageProcessor processor = bitDepth == 8 ? new ByteProcessor(61, 47) : bitDepth == 16 ? new ShortProcessor(61, 47) : new FloatProcessor(61, 47);
+			for (int i = 0; i < 61 * 47; i++) {
+				processor.setf(i, bitDepth == 8 ? random.nextInt(256) : bitDepth == 16 ? 300 + random.nextInt(4000) : (float) random.nextGaussian() * 50);
+			}
+			stack.addSlice(processor);
+		}
+		return new ImagePlus("stack", stack);
+	}
+
+	@Test
+	void matchesStackStatisticsWithAndWithoutRoi() {
+		for (int bitDepth : new int[] {8, 16, 32}) {
+			ImagePlus image = createStack(bitDepth);
+			for (int withRoi = 0; withRoi < 2; withRoi++) {
+				image.setRoi(withRoi == 0 ? null : new OvalRoi(-5, 10, 40, 50));
+				long[] expected = new StackStatistics(image).getHistogram();
+				long[] counts = StackHistogram.compute(image).getLongCounts();
+				assertArrayEquals(expected, counts, bitDepth + "-bit, roi " + withRoi);
+			}
+		}
+	}
+
+	@Test
+	void nativeSixteenBitHistogramHasOneBinPerGrayValue() {
+		ImagePlus image = createStack(16);
+		StackHistogram histogram = StackHistogram.compute(image, 0);
+		ImageStack stack = image.getStack();
+
+		long[] expected = new long[histogram.getBinCount()];
+		for (int z = 1; z <= stack.getSize(); z++) {
+			short[] pixels = (short[]) stack.getPixels(z);
+			for (short pixel : pixels) {
+				expected[(int) ((pixel & 0xffff) - histogram.getMinimum())]++;
+			}
+		}
+		assertEquals(1.0, histogram.getBinWidth());
+		assertArrayEquals(expected, histogram.getLongCounts());
+		assertEquals(61L * 47 * 9, histogram.getPixelCount());
+	}
+}
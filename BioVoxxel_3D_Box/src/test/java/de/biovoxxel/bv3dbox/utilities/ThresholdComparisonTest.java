@@ -0,0 +1,92 @@
+package de.biovoxxel.bv3dbox.utilities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ThresholdComparisonTest {
+
+	private static int[] pixels() {
+		Random random = new Random(7);
+		int[] pixels = new int[20000];
+		for (int p = 0; p < pixels.length; p++) {
+			pixels[p] = p % 4 == 0 ? Math.min(255, 150 + (int) (random.nextGaussian() * 25 + 25)) : Math.max(0, Math.min(255, 40 + (int) (random.nextGaussian() * 15)));
+		}
+		return pixels;
+	}
+
+	private static int[] histogram(int[] pixels) {
+		int[] histogram = new int[256];
+		for (int pixel : pixels) {
+			histogram[pixel]++;
+		}
+		return histogram;
+	}
+
+
+	@Test
+	void countsFromTheCumulativeHistogramMatchThePixels() {
+		int[] pixels = pixels();
+		int[] histogram = histogram(pixels);
+		double saturation = 20.0;
+
+		int referenceIntensity = 255;
+		double saturatedPixelCount = 0;
+		for (int intensity = 255; intensity >= 0; intensity--) {
+			if (saturatedPixelCount <= pixels.length / 100.0 * saturation) {
+				saturatedPixelCount += histogram[intensity];
+				referenceIntensity = intensity;
+			}
+		}
+
+		ThresholdComparison comparison = new ThresholdComparison(histogram, saturation);
+		assertEquals(referenceIntensity, comparison.getReferenceIntensity());
+
+		for (int threshold : new int[] {0, 60, 101, referenceIntensity, 200, 256}) {
+			long tp = 0, fp = 0, tn = 0, fn = 0;
+			for (int pixel : pixels) {
+				boolean foreground = pixel >= threshold;
+				boolean reference = pixel >= referenceIntensity;
+				if (foreground && reference) tp++;
+				else if (foreground) fp++;
+				else if (reference) fn++;
+				else tn++;
+			}
+			ThresholdComparison.Score score = comparison.score("test", threshold);
+			assertEquals(tp, score.getTruePositive(), "threshold " + threshold);
+			assertEquals(fp, score.getFalsePositive(), "threshold " + threshold);
+			assertEquals(tn, score.getTrueNegative(), "threshold " + threshold);
+			assertEquals(fn, score.getFalseNegative(), "threshold " + threshold);
+		}
+
+		assertEquals(1.0, comparison.score("test", referenceIntensity).getJaccardIndex(), 1e-12);
+		assertEquals(1.0, comparison.score("test", referenceIntensity).getDiceCoefficient(), 1e-12);
+	}
+
+
+	@Test
+	void allMethodsAreRankedByJaccardIndex() {
+		int[] histogram = histogram(pixels());
+		ThresholdComparison comparison = new ThresholdComparison(histogram, 25.0);
+
+		List<ThresholdComparison.Score> ranking = comparison.compareAll(ThresholdComparison.IJ_LIBRARY, histogram);
+
+		List<String> methods = ThresholdComparison.getMethods(ThresholdComparison.IJ_LIBRARY);
+		assertTrue(methods.contains("Huang2"));
+		assertEquals(methods.size(), ranking.size());
+		for (int r = 1; r < ranking.size(); r++) {
+			assertTrue(ranking.get(r - 1).getJaccardIndex() >= ranking.get(r).getJaccardIndex() || Double.isNaN(ranking.get(r).getJaccardIndex()));
+		}
+		for (ThresholdComparison.Score score : ranking) {
+			assertEquals(ThresholdComparison.getThreshold(ThresholdComparison.IJ_LIBRARY, score.getMethod(), histogram.clone()), score.getThreshold());
+		}
+
+		ColumnarResultsTable table = ThresholdComparison.toTable(ranking);
+		assertEquals(ranking.size(), table.size());
+		assertEquals(ranking.get(0).getMethod(), table.getStringValue("Method", 0));
+		assertEquals(1, table.getValue("Rank", 0));
+	}
+}